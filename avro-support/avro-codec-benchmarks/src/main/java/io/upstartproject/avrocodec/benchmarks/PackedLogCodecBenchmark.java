@@ -0,0 +1,207 @@
+package io.upstartproject.avrocodec.benchmarks;
+
+import io.upstartproject.avro.DeploymentStage;
+import io.upstartproject.avro.EventTimestampResolution;
+import io.upstartproject.avro.MessageEnvelope;
+import io.upstartproject.avro.PackedRecord;
+import io.upstartproject.avrocodec.AvroCompression;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the encoding throughput, compression ratio, and decoding throughput of {@link MessageEnvelope}
+ * container-files (as written by {@link io.upstartproject.avrocodec.AvroPackedLogFileAccumulator}) across codecs and
+ * block sizes.
+ * <p/>
+ * Each operation writes or reads a whole file of {@link #envelopeCount} envelopes. The {@code encode} benchmark
+ * reports {@code compressedBytes} and {@code uncompressedBytes} counters, whose quotient is the compression ratio.
+ * <p/>
+ * Build with {@code mvn package}, then run with {@code java -jar target/benchmarks.jar PackedLogCodecBenchmark}
+ * (optionally overriding parameters, eg {@code -p codec=snappy,zstandard-3 -p blockSizeBytes=262144}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PackedLogCodecBenchmark {
+  private static final int DICTIONARY_SIZE_BYTES = 64 * 1024;
+  private static final int DICTIONARY_SAMPLE_COUNT = 2000;
+
+  @Param({"null", "snappy", "deflate-6", "zstandard-1", "zstandard-3", "zstandard-9", "zstandard-dict-3"})
+  public String codec;
+
+  @Param({"65536", "262144", "1048576"})
+  public int blockSizeBytes;
+
+  @Param("10000")
+  public int envelopeCount;
+
+  private List<MessageEnvelope> envelopes;
+  private CodecFactory codecFactory;
+  private byte[] encodedFile;
+  private long uncompressedSize;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    envelopes = generateEnvelopes(envelopeCount, new Random(42));
+    uncompressedSize = envelopes.stream().mapToLong(envelope -> serialize(envelope).length).sum();
+    codecFactory = codecFactory(codec, envelopes);
+    encodedFile = writeFile();
+  }
+
+  @Benchmark
+  public byte[] encode(FileSizes sizes) throws IOException {
+    byte[] file = writeFile();
+    sizes.compressedBytes += file.length;
+    sizes.uncompressedBytes += uncompressedSize;
+    return file;
+  }
+
+  @Benchmark
+  public long decode() throws IOException {
+    long timestamps = 0;
+    try (DataFileStream<MessageEnvelope> reader = new DataFileStream<>(
+            new ByteArrayInputStream(encodedFile),
+            new SpecificDatumReader<>(MessageEnvelope.class)
+    )) {
+      MessageEnvelope envelope = null;
+      while (reader.hasNext()) {
+        envelope = reader.next(envelope);
+        timestamps += envelope.getEventTimestamp();
+      }
+    }
+    return timestamps;
+  }
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class FileSizes {
+    public long compressedBytes;
+    public long uncompressedBytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      compressedBytes = 0;
+      uncompressedBytes = 0;
+    }
+  }
+
+  private byte[] writeFile() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (DataFileWriter<MessageEnvelope> writer = new DataFileWriter<>(new SpecificDatumWriter<>(MessageEnvelope.class))) {
+      writer.setCodec(codecFactory)
+              .setSyncInterval(blockSizeBytes)
+              .create(MessageEnvelope.getClassSchema(), out);
+      for (MessageEnvelope envelope : envelopes) {
+        writer.append(envelope);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  private static CodecFactory codecFactory(String codec, List<MessageEnvelope> envelopes) {
+    if (codec.startsWith("zstandard-dict-")) {
+      List<byte[]> samples = envelopes.stream()
+              .limit(DICTIONARY_SAMPLE_COUNT)
+              .map(PackedLogCodecBenchmark::serialize)
+              .toList();
+      byte[] dictionary = AvroCompression.trainZstandardDictionary(samples, DICTIONARY_SIZE_BYTES);
+      return AvroCompression.zstandardWithDictionary(levelSuffix(codec), dictionary);
+    } else if (codec.startsWith("zstandard-")) {
+      return AvroCompression.zstandard(levelSuffix(codec));
+    } else if (codec.startsWith("deflate-")) {
+      // CodecFactory.fromString only recognizes the bare codec-name, with its default level
+      return CodecFactory.deflateCodec(levelSuffix(codec));
+    } else {
+      return CodecFactory.fromString(codec);
+    }
+  }
+
+  private static int levelSuffix(String codec) {
+    return Integer.parseInt(codec.substring(codec.lastIndexOf('-') + 1));
+  }
+
+  private static byte[] serialize(MessageEnvelope envelope) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(out, null);
+    try {
+      new SpecificDatumWriter<>(MessageEnvelope.class).write(envelope, encoder);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Generates envelopes resembling production traffic: a handful of message-types and applications, sequential
+   * timestamps, random unique-ids, and semi-structured message payloads.
+   */
+  private static List<MessageEnvelope> generateEnvelopes(int count, Random random) {
+    long[] messageFingerprints = random.longs(8).toArray();
+    long annotationFingerprint = random.nextLong();
+    String[] applications = {"ingest-service", "billing-worker", "search-indexer"};
+    long timestamp = 1_700_000_000_000L;
+    List<MessageEnvelope> envelopes = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      timestamp += random.nextInt(50);
+      int messageType = random.nextInt(messageFingerprints.length);
+      String payload = "{\"accountId\":" + random.nextInt(100_000)
+              + ",\"eventType\":\"type-" + messageType
+              + "\",\"amount\":" + random.nextInt(1_000_000) / 100.0
+              + ",\"sessionId\":\"" + UUID.randomUUID()
+              + "\",\"detail\":\"" + "x".repeat(random.nextInt(200)) + "\"}";
+      List<PackedRecord> annotations = random.nextInt(4) == 0
+              ? List.of(new PackedRecord(annotationFingerprint, utf8("trace-" + random.nextLong())))
+              : List.of();
+      envelopes.add(new MessageEnvelope(
+              new PackedRecord(messageFingerprints[messageType], utf8(payload)),
+              annotations,
+              UUID.randomUUID().toString(),
+              timestamp,
+              EventTimestampResolution.Milliseconds,
+              applications[messageType % applications.length],
+              "platform-team",
+              "us-east-1",
+              DeploymentStage.prod,
+              Map.of("version", "1.4." + (messageType % 3))
+      ));
+    }
+    return envelopes;
+  }
+
+  private static ByteBuffer utf8(String value) {
+    return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+  }
+}
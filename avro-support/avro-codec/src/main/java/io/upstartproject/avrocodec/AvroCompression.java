@@ -0,0 +1,159 @@
+package io.upstartproject.avrocodec;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.avro.file.Codec;
+import org.apache.avro.file.CodecFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * {@link CodecFactory CodecFactories} for compressing avro container-files, such as those written by
+ * {@link AvroPackedLogFileAccumulator} (see {@link AvroPackedLogFileAccumulator.AccumulatorConfig#avroCompression}).
+ * <p/>
+ * As a rule of thumb, {@link CodecFactory#snappyCodec snappy} is the fastest to write and read, while
+ * {@link #zstandard zstandard} at low levels (1-3) yields considerably smaller files at a similar decoding speed,
+ * and higher levels trade encoding throughput for further size reductions. The avro-codec-benchmarks module measures
+ * these tradeoffs for {@link io.upstartproject.avro.MessageEnvelope} files.
+ * <p/>
+ * Small blocks of similar records may compress much better with a {@link #trainZstandardDictionary trained}
+ * {@link #zstandardWithDictionary dictionary}. Note that files written with a dictionary can only be read by processes
+ * which have {@link #registerZstandardDictionary registered} the same dictionary.
+ */
+public final class AvroCompression {
+  public static final String ZSTANDARD_DICTIONARY_CODEC_PREFIX = "zstandard-dict-";
+
+  private AvroCompression() {
+  }
+
+  /**
+   * @param level the zstandard compression-level (1-22; levels above 19 require substantial memory)
+   */
+  public static CodecFactory zstandard(int level) {
+    checkLevel(level);
+    return CodecFactory.zstandardCodec(level, false);
+  }
+
+  /**
+   * Prepares a {@link CodecFactory} which compresses each block with the given zstandard dictionary, and registers
+   * it for reading (see {@link #registerZstandardDictionary}).
+   */
+  public static CodecFactory zstandardWithDictionary(int level, byte[] dictionary) {
+    checkLevel(level);
+    ZstdDictionaryCodecFactory factory = new ZstdDictionaryCodecFactory(level, dictionary);
+    CodecFactory.addCodec(factory.name, factory);
+    return factory;
+  }
+
+  /**
+   * Registers the given zstandard dictionary with avro, so that files written with it can be read.
+   * @return the name of the codec, as it appears in the metadata of files which use this dictionary
+   */
+  public static String registerZstandardDictionary(byte[] dictionary) {
+    ZstdDictionaryCodecFactory factory = new ZstdDictionaryCodecFactory(Zstd.defaultCompressionLevel(), dictionary);
+    CodecFactory.addCodec(factory.name, factory);
+    return factory.name;
+  }
+
+  /**
+   * Trains a zstandard dictionary of up to {@code dictionarySizeBytes} from the given samples, which should be
+   * representative serialized records (eg, serialized {@link io.upstartproject.avro.MessageEnvelope MessageEnvelopes}).
+   */
+  public static byte[] trainZstandardDictionary(Iterable<byte[]> samples, int dictionarySizeBytes) {
+    int totalSize = 0;
+    for (byte[] sample : samples) {
+      totalSize += sample.length;
+    }
+    ZstdDictTrainer trainer = new ZstdDictTrainer(totalSize, dictionarySizeBytes);
+    for (byte[] sample : samples) {
+      trainer.addSample(sample);
+    }
+    return trainer.trainSamples();
+  }
+
+  private static void checkLevel(int level) {
+    checkArgument(level >= Zstd.minCompressionLevel() && level <= Zstd.maxCompressionLevel(), "Invalid zstandard level: %s", level);
+  }
+
+  @VisibleForTesting
+  static class ZstdDictionaryCodecFactory extends CodecFactory {
+    private final String name;
+    private final int level;
+    private final byte[] dictionary;
+
+    ZstdDictionaryCodecFactory(int level, byte[] dictionary) {
+      long dictionaryId = Zstd.getDictIdFromDict(dictionary);
+      checkArgument(dictionaryId != 0, "Not a valid zstandard dictionary");
+      this.name = ZSTANDARD_DICTIONARY_CODEC_PREFIX + Long.toHexString(dictionaryId);
+      this.level = level;
+      this.dictionary = dictionary.clone();
+    }
+
+    @Override
+    protected Codec createInstance() {
+      return new ZstdDictionaryCodec(name, new ZstdDictCompress(dictionary, level), new ZstdDictDecompress(dictionary));
+    }
+
+    @Override
+    public String toString() {
+      return name + "-" + level;
+    }
+  }
+
+  private static class ZstdDictionaryCodec extends Codec {
+    private final String name;
+    private final ZstdDictCompress compressDictionary;
+    private final ZstdDictDecompress decompressDictionary;
+
+    ZstdDictionaryCodec(String name, ZstdDictCompress compressDictionary, ZstdDictDecompress decompressDictionary) {
+      this.name = name;
+      this.compressDictionary = compressDictionary;
+      this.decompressDictionary = decompressDictionary;
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public ByteBuffer compress(ByteBuffer uncompressedData) throws IOException {
+      return ByteBuffer.wrap(Zstd.compress(toArray(uncompressedData), compressDictionary));
+    }
+
+    @Override
+    public ByteBuffer decompress(ByteBuffer compressedData) throws IOException {
+      byte[] compressed = toArray(compressedData);
+      long size = Zstd.decompressedSize(compressed);
+      if (size <= 0 || size > Integer.MAX_VALUE) throw new IOException("Invalid zstandard frame size: " + size);
+      return ByteBuffer.wrap(Zstd.decompress(compressed, decompressDictionary, (int) size));
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+      if (buffer.hasArray()) {
+        int start = buffer.arrayOffset() + buffer.position();
+        return Arrays.copyOfRange(buffer.array(), start, start + buffer.remaining());
+      }
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.duplicate().get(bytes);
+      return bytes;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return this == other || (other instanceof ZstdDictionaryCodec codec && codec.name.equals(name));
+    }
+
+    @Override
+    public int hashCode() {
+      return name.hashCode();
+    }
+  }
+}
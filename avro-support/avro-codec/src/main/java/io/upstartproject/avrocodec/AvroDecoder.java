@@ -1,5 +1,6 @@
 package io.upstartproject.avrocodec;
 
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Streams;
 import io.upstartproject.avro.PackedRecord;
 import org.apache.avro.Schema;
@@ -18,12 +19,16 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Stream;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 import static upstart.util.exceptions.Fallible.fallible;
 
 /**
@@ -54,6 +59,16 @@ public class AvroDecoder {
     return UncheckedIO.getUnchecked(() -> PACKED_RECORD_READER.read(null, AvroPublisher.binaryDecoder(in)));
   }
 
+  /**
+   * Decodes an avro-serialized {@link PackedRecord} from the given buffer, advancing its position past the record.
+   * <p/>
+   * The {@link PackedRecord#getData data} of the returned record is a slice of the given buffer, rather than a copy:
+   * the buffer's content must not be modified while the record remains in use.
+   */
+  public static PackedRecord slicePackedRecord(ByteBuffer buf) {
+    return BufferDecoder.readPackedRecord(buf);
+  }
+
   public static InputStream byteBufferInputStream(ByteBuffer buf) {
     return new ByteBufferInputStream(List.of(buf.duplicate()));
   }
@@ -110,15 +125,92 @@ public class AvroDecoder {
    * resolved (which may require RPC to the {@link AvroPublisher} for an unrecognized fingerprint).
    */
   public CompletableFuture<UnpackableRecord> toUnpackable(PackedRecord record) {
+    RecordTypeFamily.RegistrationResult resolved = taxonomy.findResolvedRegistration(record.getFingerprint());
+    if (resolved != null) {
+      return CompletableFuture.completedFuture(new UnpackableRecord(record, resolved.registeredSchema()));
+    }
     return taxonomy.findSchemaDescriptor(SchemaFingerprint.of(record.getFingerprint()))
             .thenApply(writerPacker -> new UnpackableRecord(record, writerPacker.registeredSchema()));
   }
 
 
+  /**
+   * Resolves the {@link SchemaDescriptor} registered with the given fingerprint.
+   */
+  CompletableFuture<SchemaDescriptor> findSchemaDescriptor(long fingerprint) {
+    RecordTypeFamily.RegistrationResult resolved = taxonomy.findResolvedRegistration(fingerprint);
+    if (resolved != null) {
+      // never throw here: a conflicting registration is reported through the returned future
+      return resolved.succeeded()
+              ? CompletableFuture.completedFuture(resolved.registeredSchema())
+              : CompletableFuture.failedFuture(resolved.getConflictException());
+    }
+    return taxonomy.findSchemaDescriptor(SchemaFingerprint.of(fingerprint))
+            .thenApply(RecordTypeFamily.RegistrationResult::registeredSchema);
+  }
+
+  /**
+   * Prepares a batch of {@link PackedRecord}s for unpacking, resolving all of their distinct unrecognized
+   * fingerprints together (with a single {@link SchemaRegistry#refresh}) before decoding the whole batch synchronously.
+   * <p/>
+   * This is considerably cheaper than calling {@link #toUnpackable(PackedRecord)} for each record when processing large
+   * numbers of records, which usually share a small number of fingerprints.
+   * @return a {@link CompletableFuture} holding the {@link UnpackableRecord}s, in the same order as the given records.
+   * If all fingerprints were already known, the future will already be complete.
+   */
+  public CompletableFuture<List<UnpackableRecord>> toUnpackableBatch(List<PackedRecord> records) {
+    Set<SchemaFingerprint> unresolved = null;
+    long previousFingerprint = 0;
+    boolean previousResolved = false;
+    for (PackedRecord record : records) {
+      long fingerprint = record.getFingerprint();
+      if (previousResolved && fingerprint == previousFingerprint) continue;
+      previousFingerprint = fingerprint;
+      previousResolved = taxonomy.findResolvedRegistration(fingerprint) != null;
+      if (!previousResolved) {
+        if (unresolved == null) unresolved = new HashSet<>();
+        unresolved.add(SchemaFingerprint.of(fingerprint));
+      }
+    }
+
+    return unresolved == null
+            ? CompletableFuture.completedFuture(decodeResolved(records))
+            : taxonomy.resolveAll(unresolved).thenApply(__ -> decodeResolved(records));
+  }
+
+  private List<UnpackableRecord> decodeResolved(List<PackedRecord> records) {
+    List<UnpackableRecord> result = new ArrayList<>(records.size());
+    long previousFingerprint = 0;
+    SchemaDescriptor previousSchema = null;
+    for (PackedRecord record : records) {
+      long fingerprint = record.getFingerprint();
+      if (previousSchema == null || fingerprint != previousFingerprint) {
+        previousFingerprint = fingerprint;
+        RecordTypeFamily.RegistrationResult registration = taxonomy.findResolvedRegistration(fingerprint);
+        if (registration == null) {
+          // a conflicting registration is complete, but not indexed; registeredSchema() below throws its conflict
+          registration = taxonomy.findSchemaDescriptor(SchemaFingerprint.of(fingerprint)).getNow(null);
+        }
+        checkState(registration != null, "Unrecognized schema: %s", SchemaFingerprint.of(fingerprint).hexValue());
+        previousSchema = registration.registeredSchema();
+      }
+      result.add(new UnpackableRecord(record, previousSchema));
+    }
+    return result;
+  }
+
   public CompletableFuture<UnpackableRecord> readUnpackableRecord(ByteBuffer in) {
     return readUnpackableRecord(byteBufferInputStream(in));
   }
 
+  /**
+   * Like {@link #readUnpackableRecord(ByteBuffer)}, but avoids copying the record's data (see {@link #slicePackedRecord}),
+   * and advances the buffer's position past the record.
+   */
+  public CompletableFuture<UnpackableRecord> sliceUnpackableRecord(ByteBuffer buf) {
+    return toUnpackable(slicePackedRecord(buf));
+  }
+
   public CompletableFuture<UnpackableRecord> readUnpackableRecord(InputStream in) {
     return toUnpackable(readPackedRecord(in));
   }
@@ -135,6 +227,29 @@ public class AvroDecoder {
     return readPackedRecords(new DataFileReader<>(file, PACKED_RECORD_READER));
   }
 
+  /**
+   * Reads the given {@link PackedRecord} container-file with the given {@link ParallelAvroFileReader}, which decompresses
+   * and decodes its blocks concurrently.
+   */
+  public Stream<UnpackableRecord> readPackedRecordFile(File file, ParallelAvroFileReader parallelReader) {
+    return parallelReader.read(
+            file,
+            () -> new SpecificDatumReader<>(PackedRecord.getClassSchema()),
+            this::toUnpackableBatch
+    );
+  }
+
+  /**
+   * Reads the given {@link PackedRecord} container-file in batches of up to {@code batchSize} records, resolving the
+   * fingerprints for each batch together (see {@link #toUnpackableBatch}).
+   */
+  public Stream<UnpackableRecord> readPackedRecordFile(InputStream in, int batchSize) throws IOException {
+    DataFileStream<PackedRecord> reader = new DataFileStream<>(in, PACKED_RECORD_READER);
+    return Streams.stream(Iterators.partition(reader, batchSize))
+            .flatMap(batch -> toUnpackableBatch(batch).join().stream())
+            .onClose(fallible(reader::close));
+  }
+
   private <R extends Iterator<PackedRecord> & Closeable> Stream<CompletableFuture<UnpackableRecord>> readPackedRecords(R reader) {
     return Streams.stream(reader)
             .map(this::toUnpackable)
@@ -0,0 +1,194 @@
+package io.upstartproject.avrocodec;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.upstartproject.avro.MessageEnvelope;
+import io.upstartproject.avro.PackedRecord;
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.LogicalType;
+import org.apache.avro.LogicalTypes;
+import org.apache.avro.Schema;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+/**
+ * Renders avro-serialized records as JSON by walking the writer's schema over the binary data, emitting tokens
+ * directly to a Jackson {@link JsonGenerator} without materializing any intermediate records or JSON trees.
+ * <p/>
+ * Fields of type {@link PackedRecord} (such as the {@link MessageEnvelope#getMessage message} and
+ * {@link MessageEnvelope#getAnnotations annotations} of a {@link MessageEnvelope}) are rendered recursively, in the
+ * same shape as {@link PackableRecord.JsonView}: an object holding {@code $type} and {@code $schemaFingerprint},
+ * followed by the fields of the packed record. The writer-schemas of packed records are looked up in the
+ * {@link AvroTaxonomy}, and must already have been resolved (eg, by {@link AvroDecoder#toUnpackable}); unresolved
+ * records are rendered with their {@code $schemaFingerprint} and base64-encoded {@code $data}.
+ * <p/>
+ * Other values are rendered as follows:
+ * <ul>
+ *   <li>unions are rendered as their branch's value, without any indication of its type</li>
+ *   <li>{@code bytes} and {@code fixed} values are base64-encoded strings</li>
+ *   <li>enums are rendered as their symbol</li>
+ *   <li>dates, times and timestamps are ISO-8601 strings, and decimals are numbers</li>
+ * </ul>
+ */
+public class AvroJsonTranscoder {
+  private static final String PACKED_RECORD_NAME = PackedRecord.getClassSchema().getFullName();
+
+  private final AvroTaxonomy taxonomy;
+
+  @Inject
+  public AvroJsonTranscoder(AvroTaxonomy taxonomy) {
+    this.taxonomy = taxonomy;
+  }
+
+  /**
+   * Renders the given {@link PackedRecord} as a JSON object, in the shape described {@link AvroJsonTranscoder above}.
+   */
+  public void writePackedRecord(PackedRecord record, JsonGenerator gen) throws IOException {
+    writePackedRecord(record.getFingerprint(), record.getData().duplicate(), gen);
+  }
+
+  /**
+   * Renders avro-binary data written with the given schema (without any {@code $type} or {@code $schemaFingerprint}).
+   */
+  public void writeValue(Schema writerSchema, ByteBuffer data, JsonGenerator gen) throws IOException {
+    write(writerSchema, data.duplicate(), gen);
+  }
+
+  private void writePackedRecord(long fingerprint, ByteBuffer data, JsonGenerator gen) throws IOException {
+    RecordTypeFamily.RegistrationResult registration = taxonomy.findResolvedRegistration(fingerprint);
+    gen.writeStartObject();
+    if (registration != null && registration.succeeded()) {
+      gen.writeStringField("$type", registration.typeFamily().getFullName());
+      gen.writeStringField("$schemaFingerprint", SchemaFingerprint.of(fingerprint).hexValue());
+      writeFields(registration.registeredSchema().schema(), data, gen);
+    } else {
+      gen.writeStringField("$schemaFingerprint", SchemaFingerprint.of(fingerprint).hexValue());
+      gen.writeFieldName("$data");
+      writeBinary(data, gen);
+    }
+    gen.writeEndObject();
+  }
+
+  private void writeFields(Schema recordSchema, ByteBuffer in, JsonGenerator gen) throws IOException {
+    for (Schema.Field field : recordSchema.getFields()) {
+      gen.writeFieldName(field.name());
+      write(field.schema(), in, gen);
+    }
+  }
+
+  private void write(Schema schema, ByteBuffer in, JsonGenerator gen) throws IOException {
+    LogicalType logicalType = schema.getLogicalType();
+    if (logicalType != null) {
+      writeLogical(logicalType, schema, in, gen);
+    } else {
+      writeUnderlying(schema, in, gen);
+    }
+  }
+
+  private void writeUnderlying(Schema schema, ByteBuffer in, JsonGenerator gen) throws IOException {
+    switch (schema.getType()) {
+      case RECORD -> {
+        if (schema.getFullName().equals(PACKED_RECORD_NAME)) {
+          long fingerprint = BufferDecoder.readLong(in);
+          writePackedRecord(fingerprint, BufferDecoder.readBytes(in), gen);
+        } else {
+          gen.writeStartObject();
+          writeFields(schema, in, gen);
+          gen.writeEndObject();
+        }
+      }
+      case ARRAY -> {
+        gen.writeStartArray();
+        for (long count = BufferDecoder.readBlockCount(in); count != 0; count = BufferDecoder.readBlockCount(in)) {
+          for (long i = 0; i < count; i++) {
+            write(schema.getElementType(), in, gen);
+          }
+        }
+        gen.writeEndArray();
+      }
+      case MAP -> {
+        gen.writeStartObject();
+        for (long count = BufferDecoder.readBlockCount(in); count != 0; count = BufferDecoder.readBlockCount(in)) {
+          for (long i = 0; i < count; i++) {
+            gen.writeFieldName(BufferDecoder.readString(in));
+            write(schema.getValueType(), in, gen);
+          }
+        }
+        gen.writeEndObject();
+      }
+      case UNION -> {
+        List<Schema> branches = schema.getTypes();
+        int branch = BufferDecoder.readInt(in);
+        if (branch < 0 || branch >= branches.size()) throw new AvroRuntimeException("Invalid union branch: " + branch);
+        write(branches.get(branch), in, gen);
+      }
+      case ENUM -> gen.writeString(schema.getEnumSymbols().get(BufferDecoder.readInt(in)));
+      case FIXED -> writeBinary(BufferDecoder.readFixed(in, schema.getFixedSize()), gen);
+      case STRING -> {
+        ByteBuffer utf8 = BufferDecoder.readBytes(in);
+        if (utf8.hasArray()) {
+          gen.writeUTF8String(utf8.array(), utf8.arrayOffset() + utf8.position(), utf8.remaining());
+        } else {
+          byte[] bytes = new byte[utf8.remaining()];
+          utf8.get(bytes);
+          gen.writeUTF8String(bytes, 0, bytes.length);
+        }
+      }
+      case BYTES -> writeBinary(BufferDecoder.readBytes(in), gen);
+      case INT -> gen.writeNumber(BufferDecoder.readInt(in));
+      case LONG -> gen.writeNumber(BufferDecoder.readLong(in));
+      case FLOAT -> gen.writeNumber(BufferDecoder.readFloat(in));
+      case DOUBLE -> gen.writeNumber(BufferDecoder.readDouble(in));
+      case BOOLEAN -> gen.writeBoolean(BufferDecoder.readBoolean(in));
+      case NULL -> gen.writeNull();
+    }
+  }
+
+  private void writeLogical(LogicalType logicalType, Schema schema, ByteBuffer in, JsonGenerator gen) throws IOException {
+    if (logicalType instanceof LogicalTypes.TimestampMillis) {
+      gen.writeString(Instant.ofEpochMilli(BufferDecoder.readLong(in)).toString());
+    } else if (logicalType instanceof LogicalTypes.TimestampMicros) {
+      gen.writeString(Instant.EPOCH.plus(BufferDecoder.readLong(in), ChronoUnit.MICROS).toString());
+    } else if (logicalType instanceof LogicalTypes.LocalTimestampMillis) {
+      gen.writeString(LocalDateTime.ofEpochSecond(0, 0, ZoneOffset.UTC).plus(BufferDecoder.readLong(in), ChronoUnit.MILLIS).toString());
+    } else if (logicalType instanceof LogicalTypes.LocalTimestampMicros) {
+      gen.writeString(LocalDateTime.ofEpochSecond(0, 0, ZoneOffset.UTC).plus(BufferDecoder.readLong(in), ChronoUnit.MICROS).toString());
+    } else if (logicalType instanceof LogicalTypes.Date) {
+      gen.writeString(LocalDate.ofEpochDay(BufferDecoder.readInt(in)).toString());
+    } else if (logicalType instanceof LogicalTypes.TimeMillis) {
+      gen.writeString(LocalTime.ofNanoOfDay(BufferDecoder.readInt(in) * 1_000_000L).toString());
+    } else if (logicalType instanceof LogicalTypes.TimeMicros) {
+      gen.writeString(LocalTime.ofNanoOfDay(BufferDecoder.readLong(in) * 1_000L).toString());
+    } else if (logicalType instanceof LogicalTypes.Decimal decimal) {
+      ByteBuffer unscaled = schema.getType() == Schema.Type.FIXED
+              ? BufferDecoder.readFixed(in, schema.getFixedSize())
+              : BufferDecoder.readBytes(in);
+      byte[] bytes = new byte[unscaled.remaining()];
+      unscaled.get(bytes);
+      gen.writeNumber(new BigDecimal(new BigInteger(bytes), decimal.getScale()));
+    } else {
+      // uuid, or logical types unknown to us: render the underlying type
+      writeUnderlying(schema, in, gen);
+    }
+  }
+
+  private void writeBinary(ByteBuffer bytes, JsonGenerator gen) throws IOException {
+    if (bytes.hasArray()) {
+      gen.writeBinary(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+    } else {
+      byte[] copy = new byte[bytes.remaining()];
+      bytes.get(copy);
+      gen.writeBinary(copy);
+    }
+  }
+}
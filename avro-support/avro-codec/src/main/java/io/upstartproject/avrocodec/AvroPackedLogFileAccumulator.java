@@ -2,6 +2,7 @@ package io.upstartproject.avrocodec;
 
 import com.google.common.io.CountingOutputStream;
 import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.MoreExecutors;
 import io.upstartproject.hojack.Size;
 import upstart.util.concurrent.CompletableFutures;
 import upstart.util.concurrent.Promise;
@@ -13,19 +14,41 @@ import org.apache.avro.file.DataFileWriter;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.specific.SpecificDatumWriter;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import static upstart.util.exceptions.Fallible.fallible;
 
 
+/**
+ * Accumulates records into avro container-files, which are sealed when they reach the configured
+ * {@link AccumulatorConfig#targetFileSize targetFileSize}, or when they have been open for
+ * {@link AccumulatorConfig#maxEmissionDelay maxEmissionDelay}.
+ * <p/>
+ * By default, all files are written sequentially via {@link #callSequentially}. If a {@code shardExecutor} is provided,
+ * then up to {@link AccumulatorConfig#concurrentFileCount concurrentFileCount} files are kept open concurrently, each
+ * written by its own sequential lane on that executor; records are routed among them by {@link #selectShard}.
+ * <p/>
+ * Independently, the compression and writing of avro blocks may be pipelined with the encoding of records, by
+ * overriding {@link #compressionExecutor}.
+ * <p/>
+ * Subclasses may also ship each file's completed blocks elsewhere (eg, to remote storage) while the file is still
+ * being written, by overriding {@link #openFileStreamer}.
+ */
 public abstract class AvroPackedLogFileAccumulator<R, S extends GenericRecord> {
   private final TempFileFactory tempFileFactory;
   private final Scheduler scheduler;
@@ -34,70 +57,169 @@ public abstract class AvroPackedLogFileAccumulator<R, S extends GenericRecord> {
   private final long targetFileSizeBytes;
   private final Class<S> serializedRecordClass;
   private final Schema serializedSchema;
-  private LogFile currentFile;
-  private boolean closed = false;
+  private final List<Shard> shards;
+  private final AtomicInteger roundRobinCounter = new AtomicInteger();
 
   public AvroPackedLogFileAccumulator(Class<S> serializedRecordClass, Schema serializedSchema, TempFileFactory tempFileFactory, Scheduler scheduler, AccumulatorConfig config) {
+    this(serializedRecordClass, serializedSchema, tempFileFactory, scheduler, config, null);
+  }
+
+  /**
+   * @param shardExecutor if non-null, the executor used to write {@link AccumulatorConfig#concurrentFileCount} files
+   *                      concurrently. Otherwise, all files are written via {@link #callSequentially}.
+   */
+  public AvroPackedLogFileAccumulator(Class<S> serializedRecordClass, Schema serializedSchema, TempFileFactory tempFileFactory, Scheduler scheduler, AccumulatorConfig config, @Nullable Executor shardExecutor) {
     this.serializedRecordClass = serializedRecordClass;
     this.serializedSchema = serializedSchema;
     this.tempFileFactory = tempFileFactory;
     this.scheduler = scheduler;
     this.config = config;
-    blockSizeBytes = Ints.checkedCast(config.targetFileSize().toBytes());
-    targetFileSizeBytes = config.uncompressedAvroBlockSize().toBytes();
+    blockSizeBytes = Ints.checkedCast(config.uncompressedAvroBlockSize().toBytes());
+    targetFileSizeBytes = config.targetFileSize().toBytes();
+    if (shardExecutor == null) {
+      shards = List.of(new Shard(null));
+    } else {
+      int shardCount = config.concurrentFileCount();
+      checkArgument(shardCount > 0, "concurrentFileCount must be positive: %s", shardCount);
+      shards = Stream.generate(() -> new Shard(MoreExecutors.newSequentialExecutor(shardExecutor)))
+              .limit(shardCount)
+              .toList();
+    }
   }
 
   protected abstract S pack(R record);
+
+  /**
+   * Chooses the location for a newly-opened file. When a {@code shardExecutor} was provided, this is invoked
+   * concurrently from each lane, and must return a path which is unique across all lanes (eg, by including a counter),
+   * since several files may be opened at the same {@code openTimestamp}.
+   */
   protected abstract Path getOutputFileName(Instant openTimestamp);
 
+  /**
+   * Invoked when a single record could not be encoded (the file remains usable). Invoked concurrently from each lane
+   * when a {@code shardExecutor} was provided.
+   */
   protected abstract void onRecordFailed(R badRecord, Path intendedFile, Throwable e);
 
   protected abstract void onFileFailed(Path path, long recordCount, Throwable e);
 
+  /**
+   * Invoked as blocks are written. Invoked concurrently from each lane when a {@code shardExecutor} was provided (or
+   * from the {@link #compressionExecutor}, if any), so implementations which accumulate totals must be thread-safe.
+   */
   protected abstract void onBytesWritten(long byteCount);
 
+  /**
+   * Invoked after each file has been committed. Invoked concurrently from each lane when a {@code shardExecutor} was
+   * provided.
+   */
   protected abstract void onFileSealed(Path path, long recordCount);
 
+  /**
+   * Executes the given task after all previously-submitted tasks have completed. Only used when no
+   * {@code shardExecutor} was provided to the constructor.
+   */
   protected abstract <T> CompletableFuture<T> callSequentially(Callable<T> task);
 
   /**
-   * @return a {@link CompletableFuture} which returns when the file holding this record has been <strong>closed</strong>.
+   * Chooses which of the concurrently-open files should receive the given record. The default implementation
+   * distributes records round-robin; subclasses may override this to route records by key (eg,
+   * {@code Math.floorMod(key.hashCode(), shardCount)}), so that related records are written to the same file.
+   * <p/>
+   * Note that {@link #getOutputFileName} must produce distinct paths for files which are opened concurrently.
+   *
+   * @return an index in the range {@code [0, shardCount)}
+   */
+  protected int selectShard(R record, int shardCount) {
+    return Math.floorMod(roundRobinCounter.getAndIncrement(), shardCount);
+  }
+
+  /**
+   * Provides an {@link Executor} for compressing and writing avro blocks, pipelined with the encoding of records
+   * (see {@link PipelinedDataFileWriter}). If null (the default), blocks are compressed and written inline by
+   * {@link #append}.
+   * <p/>
+   * When pipelined, {@link #onBytesWritten} is invoked from this executor, and {@link AccumulatorConfig#targetFileSize}
+   * is applied to the bytes written so far, which may lag behind appended records by up to
+   * {@link AccumulatorConfig#maxQueuedCompressionBlocks} blocks.
+   */
+  @Nullable
+  protected Executor compressionExecutor() {
+    return null;
+  }
+
+  /**
+   * Provides a {@link FileStreamer} to receive the blocks of the file destined for the given location as they are
+   * written. If null (the default), the file's contents are only exposed when it is {@link #onFileSealed sealed}.
+   */
+  @Nullable
+  protected FileStreamer openFileStreamer(Path finalFileLocation) {
+    return null;
+  }
+
+  /**
+   * @return a {@link CompletableFuture} which returns when the file holding this record has been <strong>closed</strong>
+   * (and, if a {@link FileStreamer} was provided, when the streamer has finished with it).
    */
   public CompletableFuture<Path> append(R record) {
     S packedRecord = pack(record);
-    return CompletableFutures.sequence(callSequentially(() -> {
-      checkState(!closed, "%s was closed", this);
-      LogFile openFile = currentFile;
-      if (openFile == null || openFile.closeIfExpired()) currentFile = openFile = new LogFile();
-      if (openFile.writeAndCloseIfFull(record, packedRecord)) currentFile = null;
-      return openFile.pathPromise;
-    }));
+    Shard shard = shards.size() == 1 ? shards.get(0) : shards.get(selectShard(record, shards.size()));
+    return CompletableFutures.sequence(shard.call(() -> shard.append(record, packedRecord)));
   }
 
   public CompletableFuture<Void> flush() {
-    return callSequentially(fallible(this::closeCurrentFile));
+    return CompletableFutures.allOf(shards.stream().map(shard -> shard.call(fallible(shard::closeCurrentFile))));
   }
 
   public CompletableFuture<Void> close() {
-    return callSequentially(fallible(() -> {
-      closed = true;
-      closeCurrentFile();
-    }));
+    return CompletableFutures.allOf(shards.stream().map(shard -> shard.call(fallible(() -> {
+      shard.closed = true;
+      shard.closeCurrentFile();
+    }))));
   }
 
-  private void closeCurrentFile() {
-    LogFile file = currentFile;
-    if (file != null) {
-      currentFile = null;
-      file.close();
+  /**
+   * A sequential lane which writes one file at a time.
+   */
+  private class Shard {
+    @Nullable private final Executor lane;
+    private LogFile currentFile;
+    private boolean closed = false;
+
+    Shard(@Nullable Executor lane) {
+      this.lane = lane;
+    }
+
+    <T> CompletableFuture<T> call(Callable<T> task) {
+      return lane == null ? callSequentially(task) : Promise.callAsync(task, lane);
+    }
+
+    Promise<Path> append(R record, S packedRecord) throws IOException {
+      checkState(!closed, "%s was closed", AvroPackedLogFileAccumulator.this);
+      LogFile openFile = currentFile;
+      if (openFile == null || openFile.closeIfExpired()) currentFile = openFile = new LogFile(this);
+      if (openFile.writeAndCloseIfFull(record, packedRecord)) currentFile = null;
+      return openFile.pathPromise;
+    }
+
+    void closeCurrentFile() {
+      LogFile file = currentFile;
+      if (file != null) {
+        currentFile = null;
+        file.close();
+      }
     }
   }
 
   class LogFile {
+    private final Shard shard;
     private final Instant fileExpiry;
     private final TempFileFactory.AtomicFileWriter fileWriter;
     private final CountingOutputStream byteCounter;
     private final DataFileWriter<S> output;
+    @Nullable private final PipelinedDataFileWriter<S> pipeline;
+    @Nullable private final FileStreamer streamer;
     private final ScheduledFuture<?> timeoutFuture;
     private final Path finalFileLocation;
     private final Promise<Path> pathPromise = new Promise<Path>();
@@ -105,18 +227,41 @@ public abstract class AvroPackedLogFileAccumulator<R, S extends GenericRecord> {
     private long bytesWritten = 0;
     private long appendedRecordCount = 0;
 
-    public LogFile() throws IOException {
+    LogFile(Shard shard) throws IOException {
+      this.shard = shard;
       Instant now = scheduler.now();
       finalFileLocation = getOutputFileName(now);
       fileWriter = tempFileFactory.atomicWriter(finalFileLocation);
       fileExpiry = now.plus(config.maxEmissionDelay());
+      streamer = openFileStreamer(finalFileLocation);
       byteCounter = new CountingOutputStream(Files.newOutputStream(fileWriter.tempFile()));
-      output = new DataFileWriter<>(new SpecificDatumWriter<>(serializedRecordClass))
+      Executor compressionExecutor = compressionExecutor();
+      SpecificDatumWriter<S> datumWriter = new SpecificDatumWriter<>(serializedRecordClass);
+      output = new DataFileWriter<>(datumWriter)
               .setCodec(config.avroCompression())
+              // the DataFileWriter buffers up to 1.25x the sync-interval, so this must stay near the block size even
+              // when pipelined (where each pipelined block ends as it reaches this size anyway)
               .setSyncInterval(blockSizeBytes)
               .create(serializedSchema, byteCounter);
       output.setFlushOnEveryBlock(true);
-      timeoutFuture = scheduler.schedule(config.maxEmissionDelay(), () -> callSequentially(fallible(this::onExpiry)));
+      if (compressionExecutor == null) {
+        pipeline = null;
+      } else {
+        pipeline = new PipelinedDataFileWriter<>(
+                output,
+                byteCounter,
+                datumWriter,
+                blockSizeBytes,
+                config.maxQueuedCompressionBlocks(),
+                compressionExecutor,
+                byteCount -> {
+                  onBytesWritten(byteCount);
+                  streamWrittenBlocks();
+                }
+        );
+        pipeline.failure().uponFailure(pathPromise::completeExceptionally);
+      }
+      timeoutFuture = scheduler.schedule(config.maxEmissionDelay(), () -> shard.call(fallible(this::onExpiry)));
       pathPromise.whenComplete((path, e) -> {
         try {
           fileWriter.close();
@@ -127,7 +272,10 @@ public abstract class AvroPackedLogFileAccumulator<R, S extends GenericRecord> {
             e = closeException;
           }
         }
-        if (e != null) onFileFailed(finalFileLocation, appendedRecordCount, e);
+        if (e != null) {
+          onFileFailed(finalFileLocation, appendedRecordCount, e);
+          if (streamer != null) streamer.onFailed(e);
+        }
       });
     }
 
@@ -135,11 +283,18 @@ public abstract class AvroPackedLogFileAccumulator<R, S extends GenericRecord> {
       appendedRecordCount++;
       boolean closed;
       try {
+        if (pipeline != null) {
+          pipeline.append(packedRecord);
+          closed = pipeline.bytesWritten() >= targetFileSizeBytes;
+          if (closed) close();
+          return closed;
+        }
         output.append(packedRecord);
         long newByteCount = byteCounter.getCount();
         if (newByteCount > bytesWritten) {
           onBytesWritten(newByteCount - bytesWritten);
           bytesWritten = newByteCount;
+          streamWrittenBlocks();
           closed = newByteCount >= targetFileSizeBytes;
           if (closed) close();
         } else {
@@ -147,7 +302,9 @@ public abstract class AvroPackedLogFileAccumulator<R, S extends GenericRecord> {
         }
       } catch (Exception e) {
         closed = !(e instanceof DataFileWriter.AppendWriteException); // AppendWriteException means we can continue with other records
-        if (closed) {
+        if (closed && pipeline != null) {
+          pipeline.close().uponCompletion(() -> pathPromise.completeExceptionally(e));
+        } else if (closed) {
           try {
             output.close();
           } catch (IOException closeException) {
@@ -172,27 +329,94 @@ public abstract class AvroPackedLogFileAccumulator<R, S extends GenericRecord> {
       checkState(!closed, "TextEntityFile.close called more than once");
       closed = true;
       timeoutFuture.cancel(false);
-      pathPromise.tryComplete(() -> {
-        output.close();
-        fileWriter.commit();
-        onFileSealed(finalFileLocation, appendedRecordCount);
-        return finalFileLocation;
-      });
+      if (pipeline != null) {
+        pipeline.close().whenComplete((__, e) -> {
+          if (e != null) {
+            pathPromise.completeExceptionally(e);
+          } else {
+            pathPromise.tryCompleteWith(this::seal);
+          }
+        });
+      } else {
+        pathPromise.tryCompleteWith(() -> {
+          output.close();
+          return seal();
+        });
+      }
+    }
+
+    private CompletableFuture<Path> seal() throws IOException {
+      fileWriter.commit();
+      onFileSealed(finalFileLocation, appendedRecordCount);
+      if (streamer == null) return CompletableFuture.completedFuture(finalFileLocation);
+      return streamer.onSealed(finalFileLocation, byteCounter.getCount()).thenApply(__ -> finalFileLocation);
+    }
+
+    private void streamWrittenBlocks() {
+      if (streamer != null) {
+        try {
+          streamer.onBlocksWritten(fileWriter.tempFile(), byteCounter.getCount());
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
     }
 
     private void onExpiry() {
-      if (currentFile == this) {
-        currentFile = null;
+      if (shard.currentFile == this) {
+        shard.currentFile = null;
         close();
       }
     }
   }
 
+  /**
+   * Receives the contents of a single file incrementally, as complete avro blocks are written to it, so that they
+   * may be shipped elsewhere before the file is sealed. The methods of a given streamer are invoked sequentially.
+   */
+  public interface FileStreamer {
+    /**
+     * Invoked after one or more complete blocks have been written to the file, from the thread that wrote them.
+     * The first {@code fileLength} bytes of {@code tempFile} will not change.
+     */
+    void onBlocksWritten(Path tempFile, long fileLength) throws IOException;
+
+    /**
+     * Invoked after the file has been sealed at {@code sealedFile}, with its final length.
+     * @return a {@link CompletableFuture} which must complete before the {@link #append} futures for the file
+     */
+    CompletableFuture<?> onSealed(Path sealedFile, long fileLength);
+
+    /**
+     * Invoked if the file fails before it could be sealed, or if {@link #onSealed} fails.
+     */
+    void onFailed(Throwable e);
+  }
+
   public interface AccumulatorConfig {
     Duration maxEmissionDelay();
     Size uncompressedAvroBlockSize();
     Size targetFileSize();
 
+    /**
+     * The number of files to write concurrently, when a {@code shardExecutor} is provided.
+     */
+    default int concurrentFileCount() {
+      return 1;
+    }
+
+    /**
+     * The number of full blocks which may await compression before appenders are blocked, when a
+     * {@link #compressionExecutor} is provided.
+     */
+    default int maxQueuedCompressionBlocks() {
+      return 2;
+    }
+
+    /**
+     * The compression applied to each avro block; defaults to snappy. See {@link AvroCompression} for alternatives
+     * (such as zstandard, optionally with a trained dictionary), and guidance on choosing among them.
+     */
     default CodecFactory avroCompression() {
       return CodecFactory.snappyCodec();
     }
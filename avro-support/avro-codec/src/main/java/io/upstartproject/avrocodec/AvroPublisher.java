@@ -17,15 +17,12 @@ import upstart.util.exceptions.UncheckedIO;
 import org.apache.avro.Schema;
 import org.apache.avro.SchemaCompatibility;
 import org.apache.avro.generic.GenericDatumReader;
-import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryData;
 import org.apache.avro.io.BinaryDecoder;
-import org.apache.avro.io.BinaryEncoder;
 import org.apache.avro.io.DatumWriter;
 import org.apache.avro.io.DecoderFactory;
-import org.apache.avro.io.Encoder;
-import org.apache.avro.io.EncoderFactory;
-import org.apache.avro.specific.SpecificDatumWriter;
 import org.apache.avro.specific.SpecificRecordBase;
 import org.immutables.value.Value;
 import org.reflections.Reflections;
@@ -36,7 +33,9 @@ import javax.inject.Singleton;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -97,7 +96,8 @@ import static com.google.common.base.Preconditions.checkState;
 public class AvroPublisher {
   public static final DecoderFactory DECODER_FACTORY = DecoderFactory.get();
   private final Logger LOG = LoggerFactory.getLogger(getClass());
-  private static final DatumWriter<PackedRecord> PACKED_RECORD_WRITER = new SpecificDatumWriter<>(PackedRecord.getClassSchema());
+  // PackedRecord is written directly (see writePackedRecord): a varint-encoded fingerprint, then the length-prefixed data
+  private static final int MAX_PACKED_RECORD_HEADER_SIZE = 15;
   private static final String SCHEMA_PUBLISHED_PROPERTY = "published";
 
   private final Queue<SchemaDescriptor> pendingRegistrations = new ConcurrentLinkedQueue<>();
@@ -108,6 +108,9 @@ public class AvroPublisher {
   private final LoadingCache<SchemaFingerprint, Promise<RecordPacker>> knownPackersByFingerprint = CacheBuilder.newBuilder()
           .build(CacheLoader.from((Supplier<Promise<RecordPacker>>) Promise::new));
 
+  // mirrors the successfully-completed entries in knownPackersByFingerprint, for lock-free lookups
+  private final FingerprintIndex<RecordPacker> resolvedPackers = new FingerprintIndex<>();
+
   private final AvroTaxonomy taxonomy;
 
   /**
@@ -153,7 +156,9 @@ public class AvroPublisher {
    * @see PackableRecord#serialize
    */
   public static byte[] serializePackedRecord(PackedRecord record) {
-    return UncheckedIO.captureBytes(RecordPacker.INITIAL_BUFSIZE, out -> writePackedRecord(record, out));
+    byte[] bytes = new byte[serializedSize(record)];
+    writePackedRecord(record, ByteBuffer.wrap(bytes));
+    return bytes;
   }
 
   /**
@@ -164,15 +169,53 @@ public class AvroPublisher {
    * @see PackableRecord#writeSerialized
    */
   public static void writePackedRecord(PackedRecord record, OutputStream out) throws IOException {
-    Encoder encoder = encoder(out);
-    PACKED_RECORD_WRITER.write(record, encoder);
-    encoder.flush();
+    byte[] header = new byte[MAX_PACKED_RECORD_HEADER_SIZE];
+    ByteBuffer data = record.getData();
+    int headerLength = BinaryData.encodeLong(record.getFingerprint(), header, 0);
+    headerLength += BinaryData.encodeInt(data.remaining(), header, headerLength);
+    out.write(header, 0, headerLength);
+    if (data.hasArray()) {
+      out.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+    } else {
+      Channels.newChannel(out).write(data.duplicate());
+    }
   }
 
-  private static BinaryEncoder encoder(OutputStream out) {
-    return EncoderFactory.get().binaryEncoder(out, null);
+  /**
+   * Writes the PackedRecord in its avro binary encoding into the given buffer, advancing its position.
+   * @throws java.nio.BufferOverflowException if the buffer has fewer than {@link #serializedSize} bytes remaining
+   */
+  public static void writePackedRecord(PackedRecord record, ByteBuffer out) {
+    ByteBuffer data = record.getData();
+    int dataLength = data.remaining();
+    if (out.remaining() < serializedSize(record)) throw new BufferOverflowException();
+    putVarLong(out, record.getFingerprint());
+    putVarLong(out, dataLength);
+    out.put(out.position(), data, data.position(), dataLength);
+    out.position(out.position() + dataLength);
   }
 
+  /**
+   * @return the number of bytes occupied by the avro binary encoding of the given PackedRecord
+   */
+  public static int serializedSize(PackedRecord record) {
+    int dataLength = record.getData().remaining();
+    return varLongSize(record.getFingerprint()) + varLongSize(dataLength) + dataLength;
+  }
+
+  private static void putVarLong(ByteBuffer out, long value) {
+    long n = (value << 1) ^ (value >> 63); // zig-zag, as with BinaryEncoder.writeLong
+    while ((n & ~0x7FL) != 0) {
+      out.put((byte) ((n & 0x7F) | 0x80));
+      n >>>= 7;
+    }
+    out.put((byte) n);
+  }
+
+  private static int varLongSize(long value) {
+    long n = (value << 1) ^ (value >> 63);
+    return Math.max(1, (64 - Long.numberOfLeadingZeros(n) + 6) / 7);
+  }
 
   @Beta
   public CompletableFuture<GenericRecord> convertFromJson(String typeName, InputStream json) {
@@ -329,6 +372,8 @@ public class AvroPublisher {
    * resolved with the refreshed contents of the {@link SchemaRegistry}.
    */
   public CompletableFuture<RecordPacker> findPreRegisteredPacker(SchemaFingerprint fingerprint) {
+    RecordPacker resolved = resolvedPackers.get(fingerprint.value());
+    if (resolved != null) return CompletableFuture.completedFuture(resolved);
     return Optional.<CompletableFuture<RecordPacker>>ofNullable(knownPackersByFingerprint.getIfPresent(fingerprint))
             .orElseGet(() -> taxonomy.refresh()
                     .thenCompose(__ -> {
@@ -354,7 +399,9 @@ public class AvroPublisher {
 
     if (registrationResult.succeeded()) {
       LOG.info("Loaded schema from repository: {}", descriptor);
-      promise.complete(new RecordPacker(registrationResult.registeredSchema(), registrationResult.typeFamily()));
+      RecordPacker packer = new RecordPacker(registrationResult.registeredSchema(), registrationResult.typeFamily());
+      resolvedPackers.put(descriptor.fingerprint().value(), packer);
+      promise.complete(packer);
     } else {
       AvroSchemaConflictException ex = registrationResult.getConflictException();
       LOG.warn("Rejected schema that was speculatively added to the repo: {}", ex.getMessage());
@@ -363,6 +410,7 @@ public class AvroPublisher {
   }
 
   private void onSchemaRemoved(SchemaFingerprint fingerprint) {
+    resolvedPackers.remove(fingerprint.value());
     Promise<RecordPacker> promise = knownPackersByFingerprint.getIfPresent(fingerprint);
     if (promise != null && !promise.isCompletedExceptionally()) {
       LOG.warn("Schema was removed from repo, but promise hadn't completed exceptionally. Probably shouldn't happen..? {}", fingerprint);
@@ -399,6 +447,15 @@ public class AvroPublisher {
     return DECODER_FACTORY.binaryDecoder(in, null);
   }
 
+  /**
+   * Prepares a {@link BinaryDecoder} for the remaining content of the given buffer, reading heap-buffers in place.
+   */
+  static BinaryDecoder binaryDecoder(ByteBuffer buf) {
+    return buf.hasArray()
+            ? DECODER_FACTORY.binaryDecoder(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining(), null)
+            : binaryDecoder(AvroDecoder.byteBufferInputStream(buf));
+  }
+
   public CompletableFuture<Void> ensureReplicatedFrom(AvroPublisher other) {
     checkArgument(this != other, "Tried to replicate identical repo");
     return other.getAllRegisteredSchemas(true).thenApply(Collection::stream).thenCompose(this::ensureRegistration);
@@ -437,7 +494,6 @@ public class AvroPublisher {
    */
   public static class RecordPacker implements RecordPackerApi<GenericRecord> {
 
-    static final int INITIAL_BUFSIZE = 512;
     private final SchemaFingerprint fingerprint;
     private final Schema schema;
     private final DatumWriter<GenericRecord> genericWriter;
@@ -446,7 +502,7 @@ public class AvroPublisher {
     private RecordPacker(SchemaDescriptor schemaDescriptor, RecordTypeFamily typeFamily) {
       this.fingerprint = schemaDescriptor.fingerprint();
       this.schema = schemaDescriptor.schema();
-      this.genericWriter = new GenericDatumWriter<>(schema);
+      this.genericWriter = DatumCodecCache.writer(schema, GenericData.get());
       this.typeFamily = typeFamily;
     }
 
@@ -472,8 +528,8 @@ public class AvroPublisher {
     @Override
     public PackedRecord pack(GenericRecord record) {
       DatumWriter<GenericRecord> writer;
-      if (record instanceof SpecificRecordBase) {
-        writer = new SpecificDatumWriter<>(record.getSchema());
+      if (record instanceof SpecificRecordBase specificRecord) {
+        writer = DatumCodecCache.writer(specificRecord.getSchema(), specificRecord.getSpecificData());
       } else {
         writer = genericWriter;
       }
@@ -494,8 +550,7 @@ public class AvroPublisher {
 
     <T extends GenericRecord> PackedRecord packWithWriter(T record, DatumWriter<T> writer) {
       checkArgument(SchemaFingerprint.of(record.getSchema()).equals(fingerprint), "Mismatched record-schema");
-      ByteBuffer data = ByteBuffer.wrap(UncheckedIO.captureBytes(INITIAL_BUFSIZE,
-              byteStream -> writer.write(record, EncoderFactory.get().directBinaryEncoder(byteStream, null))));
+      ByteBuffer data = ByteBuffer.wrap(EncodingBuffer.captureBytes(encoder -> writer.write(record, encoder)));
 
       return new PackedRecord(fingerprint().value(), data);
     }
@@ -1,8 +1,11 @@
 package io.upstartproject.avrocodec;
 
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalNotification;
 import org.apache.avro.specific.SpecificRecordBase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,9 +15,14 @@ import upstart.util.concurrent.services.NotifyingService;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Stream;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -33,14 +41,45 @@ public class AvroTaxonomy extends NotifyingService {
   private final LoadingCache<String, RecordTypeFamily> typesByFullName = CacheBuilder.newBuilder()
           .build(CacheLoader.from(RecordTypeFamily::new));
 
-  private final LoadingCache<SchemaFingerprint, RegistrationRequest> knownFingerprints = CacheBuilder.newBuilder()
-          .build(CacheLoader.from(RegistrationRequest::new));
+  private final Cache<SchemaFingerprint, RegistrationRequest> knownFingerprints = CacheBuilder.newBuilder().build();
+
+  // fingerprints which have been looked up, but not (yet) registered; these may come from corrupt or foreign data, so
+  // they are bounded by the UnresolvedFingerprintPolicy
+  private final LoadingCache<SchemaFingerprint, RegistrationRequest> unresolvedFingerprints;
+
+  // mirrors the entries in knownFingerprints, for lookups on the decoding hot-path
+  private final FingerprintIndex<RecordTypeFamily.RegistrationResult> resolvedRegistrations = new FingerprintIndex<>();
+
+  private final UnresolvedFingerprintPolicy unresolvedFingerprintPolicy;
+  private final Ticker ticker;
+  private final CoalescingRefresher lookupRefresher;
+  private final LongAdder unresolvedLookups = new LongAdder();
+  private final LongAdder negativeCacheHits = new LongAdder();
+  private final UnresolvedFingerprintLog unresolvedLog;
 
   private TaxonomyListener listener = NULL_LISTENER;
 
   @Inject
   public AvroTaxonomy(SchemaRegistry registry) {
+    this(registry, UnresolvedFingerprintPolicy.DEFAULT);
+  }
+
+  public AvroTaxonomy(SchemaRegistry registry, UnresolvedFingerprintPolicy unresolvedFingerprintPolicy) {
+    this(registry, unresolvedFingerprintPolicy, Ticker.systemTicker());
+  }
+
+  AvroTaxonomy(SchemaRegistry registry, UnresolvedFingerprintPolicy unresolvedFingerprintPolicy, Ticker ticker) {
     this.registry = registry;
+    this.unresolvedFingerprintPolicy = unresolvedFingerprintPolicy;
+    this.ticker = ticker;
+    lookupRefresher = new CoalescingRefresher(registry::refresh, unresolvedFingerprintPolicy.minRefreshInterval(), ticker);
+    unresolvedLog = new UnresolvedFingerprintLog(unresolvedFingerprintPolicy.logInterval().toNanos());
+    unresolvedFingerprints = CacheBuilder.newBuilder()
+            .ticker(ticker)
+            .maximumSize(unresolvedFingerprintPolicy.maxUnresolvedFingerprints())
+            .expireAfterAccess(unresolvedFingerprintPolicy.unresolvedExpiry())
+            .removalListener(this::onUnresolvedRemoval)
+            .build(CacheLoader.from(RegistrationRequest::new));
   }
 
   synchronized void setListener(TaxonomyListener listener) {
@@ -59,7 +98,59 @@ public class AvroTaxonomy extends NotifyingService {
   }
 
   public Promise<RecordTypeFamily.RegistrationResult> findSchemaDescriptor(SchemaFingerprint fingerprint) {
-    return knownFingerprints.getUnchecked(fingerprint).ensureRequested();
+    return registrationRequest(fingerprint).ensureRequested();
+  }
+
+  /**
+   * Ensures that all of the given fingerprints are resolved, issuing at most a single {@link SchemaRegistry#refresh}
+   * for all of those which are not yet known.
+   * @return a {@link Promise} which completes when every fingerprint has been resolved
+   */
+  public Promise<Void> resolveAll(Collection<SchemaFingerprint> fingerprints) {
+    List<Promise<RecordTypeFamily.RegistrationResult>> registrations = new ArrayList<>(fingerprints.size());
+    for (SchemaFingerprint fingerprint : fingerprints) {
+      registrations.add(registrationRequest(fingerprint).ensureRequested());
+    }
+    return Promise.allOf(registrations.stream());
+  }
+
+  private RegistrationRequest registrationRequest(SchemaFingerprint fingerprint) {
+    RegistrationRequest known = knownFingerprints.getIfPresent(fingerprint);
+    if (known != null) return known;
+    RegistrationRequest unresolved = unresolvedFingerprints.getUnchecked(fingerprint);
+    // the fingerprint may have been registered after our first check, but before our request was created
+    known = knownFingerprints.getIfPresent(fingerprint);
+    return known != null ? known : unresolved;
+  }
+
+  private void onUnresolvedRemoval(RemovalNotification<SchemaFingerprint, RegistrationRequest> notification) {
+    if (notification.wasEvicted()) {
+      notification.getValue().registrationPromise.completeExceptionally(new TimeoutException(
+              "Gave up awaiting unrecognized schema-fingerprint: " + notification.getKey().hexValue()));
+    }
+  }
+
+  /**
+   * Counts the lookups of fingerprints which were not yet resolved, and the refreshes they caused; see
+   * {@link UnresolvedFingerprintPolicy}.
+   */
+  public UnresolvedLookupStats unresolvedLookupStats() {
+    return new UnresolvedLookupStats(
+            unresolvedLookups.sum(),
+            negativeCacheHits.sum(),
+            lookupRefresher.requestCount(),
+            lookupRefresher.issuedCount()
+    );
+  }
+
+  /**
+   * Synchronously finds the {@link RecordTypeFamily.RegistrationResult} for the given fingerprint, if it has
+   * already been resolved successfully.
+   * @return the resolved registration, or {@code null} if the fingerprint is not yet known, or its registration
+   * conflicted with another version of its type
+   */
+  RecordTypeFamily.RegistrationResult findResolvedRegistration(long fingerprint) {
+    return resolvedRegistrations.get(fingerprint);
   }
 
   public RecordTypeFamily findTypeFamily(String fullName) {
@@ -85,13 +176,23 @@ public class AvroTaxonomy extends NotifyingService {
               public void onSchemaAdded(SchemaDescriptor schema) {
                 RecordTypeFamily.RegistrationResult registrationResult = findOrCreateTypeFamily(schema.fullName())
                         .addVersion(schema);
-                knownFingerprints.getUnchecked(schema.fingerprint()).registrationPromise.complete(registrationResult);
+                // index before completing, so that callbacks awaiting the registration will find it. Conflicting
+                // registrations are left to the (failing) lookup path, which reports their conflict asynchronously
+                if (registrationResult.succeeded()) {
+                  resolvedRegistrations.put(schema.fingerprint().value(), registrationResult);
+                }
+                knownFingerprints.asMap().computeIfAbsent(schema.fingerprint(), RegistrationRequest::new)
+                        .registrationPromise.complete(registrationResult);
+                RegistrationRequest awaiting = unresolvedFingerprints.asMap().remove(schema.fingerprint());
+                if (awaiting != null) awaiting.registrationPromise.complete(registrationResult);
                 listener.onSchemaAdded(schema, registrationResult);
               }
 
               @Override
               public void onSchemaRemoved(SchemaFingerprint fingerprint) {
                 knownFingerprints.invalidate(fingerprint);
+                unresolvedFingerprints.invalidate(fingerprint);
+                resolvedRegistrations.remove(fingerprint.value());
                 listener.onSchemaRemoved(fingerprint);
               }
             }).thenCompose(ignored -> refresh())
@@ -107,7 +208,7 @@ public class AvroTaxonomy extends NotifyingService {
   @Override
   protected void doStop() {
     registry.shutDown().whenComplete((__, e) -> {
-      knownFingerprints.asMap().forEach((fingerprint, request) -> {
+      unresolvedFingerprints.asMap().forEach((fingerprint, request) -> {
         if (!request.registrationPromise.isDone()) {
           request.registrationPromise.completeExceptionally(new ShutdownException("AvroTaxonomy was shut down while awaiting schema: " + fingerprint.hexValue()));
         }
@@ -137,6 +238,8 @@ public class AvroTaxonomy extends NotifyingService {
   public CompletableFuture<?> delete(SchemaDescriptor schema) {
     checkRunning();
     knownFingerprints.invalidate(schema.fingerprint());
+    unresolvedFingerprints.invalidate(schema.fingerprint());
+    resolvedRegistrations.remove(schema.fingerprint().value());
     return registry.delete(schema);
   }
 
@@ -145,31 +248,119 @@ public class AvroTaxonomy extends NotifyingService {
   }
 
   private class RegistrationRequest {
-    private final AtomicBoolean issued = new AtomicBoolean(false);
+    private static final long REFRESHING = Long.MAX_VALUE;
+
     private final SchemaFingerprint fingerprint;
     private final Promise<RecordTypeFamily.RegistrationResult> registrationPromise = new Promise<>();
+    // the ticker-time before which lookups should not request another refresh: initially 0, REFRESHING while a
+    // refresh is pending, and then negatively-cached until the policy's TTL has elapsed, if the refresh didn't resolve it
+    private final AtomicLong retryAfterNanos = new AtomicLong(0);
 
     public RegistrationRequest(SchemaFingerprint fingerprint) {
       this.fingerprint = fingerprint;
     }
 
     Promise<RecordTypeFamily.RegistrationResult> ensureRequested() {
-      if (!issued.getAndSet(true) && !registrationPromise.isDone()) {
-        Promise<Void> refresh = Promise.of(registry.refresh());
-        if (!registrationPromise.isDone()) {
-          LOG.warn(
-                  "Awaiting arrival of unrecognized schema-fingerprint: {} from registry {}",
-                  fingerprint.hexValue(),
-                  registry
-          );
-          registrationPromise.thenAccept(result -> LOG.warn("Awaited schema arrived, {}: {}", fingerprint.hexValue(), result.typeFamily()));
-          refresh.uponCompletion(() -> {
-            if (!registrationPromise.isCompletedNormally()) LOG.error("Awaited schema failed to arrive: {}", fingerprint.hexValue());
-          });
-        }
+      if (registrationPromise.isDone()) return registrationPromise;
+      unresolvedLookups.increment();
+      long retryAfter = retryAfterNanos.get();
+      if (retryAfter != REFRESHING && ticker.read() < retryAfter) {
+        negativeCacheHits.increment();
+      } else if (retryAfter != REFRESHING && retryAfterNanos.compareAndSet(retryAfter, REFRESHING)) {
+        awaitRefresh(lookupRefresher.requestRefresh());
       }
       return registrationPromise;
     }
+
+    private void awaitRefresh(Promise<Void> refresh) {
+      if (!registrationPromise.isDone()) {
+        unresolvedLog.awaiting(fingerprint);
+        refresh.uponCompletion(() -> {
+          if (registrationPromise.isCompletedNormally()) {
+            LOG.warn("Awaited schema arrived, {}: {}", fingerprint.hexValue(), registrationPromise.join().typeFamily());
+          } else if (!registrationPromise.isDone()) {
+            unresolvedLog.failedToArrive(fingerprint);
+            retryAfterNanos.set(ticker.read() + unresolvedFingerprintPolicy.negativeCacheTtl().toNanos());
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * Logs about unresolved fingerprints at most once per interval (per kind of message), summarizing any others that
+   * were suppressed in the meantime, so that a stream of distinct unrecognized fingerprints can't flood the log.
+   */
+  private class UnresolvedFingerprintLog {
+    private final long intervalNanos;
+    private final AtomicLong nextAwaitingLogNanos;
+    private final AtomicLong nextFailedLogNanos;
+    private final LongAdder suppressedAwaiting = new LongAdder();
+    private final LongAdder suppressedFailed = new LongAdder();
+
+    UnresolvedFingerprintLog(long intervalNanos) {
+      this.intervalNanos = intervalNanos;
+      nextAwaitingLogNanos = new AtomicLong(ticker.read());
+      nextFailedLogNanos = new AtomicLong(ticker.read());
+    }
+
+    void awaiting(SchemaFingerprint fingerprint) {
+      if (shouldLog(nextAwaitingLogNanos, suppressedAwaiting)) {
+        LOG.warn("Awaiting arrival of unrecognized schema-fingerprint: {} from registry {} ({} others since last report)",
+                fingerprint.hexValue(), registry, suppressedAwaiting.sumThenReset());
+      }
+    }
+
+    void failedToArrive(SchemaFingerprint fingerprint) {
+      if (shouldLog(nextFailedLogNanos, suppressedFailed)) {
+        LOG.error("Awaited schema failed to arrive: {} ({} others since last report)",
+                fingerprint.hexValue(), suppressedFailed.sumThenReset());
+      }
+    }
+
+    private boolean shouldLog(AtomicLong nextLogNanos, LongAdder suppressed) {
+      long now = ticker.read();
+      long next = nextLogNanos.get();
+      if (now - next >= 0 && nextLogNanos.compareAndSet(next, now + intervalNanos)) return true;
+      suppressed.increment();
+      return false;
+    }
+  }
+
+  /**
+   * Bounds the cost of looking up unrecognized fingerprints (eg, from corrupt or foreign data):
+   * <ul>
+   *   <li>the {@link SchemaRegistry#refresh refreshes} requested by lookups are coalesced, so that at most one is in
+   *   flight (with one more pending), and each starts at least {@code minRefreshInterval} after the previous</li>
+   *   <li>a fingerprint which is still unresolved after a refresh is negatively-cached: further lookups await its
+   *   arrival without requesting refreshes until {@code negativeCacheTtl} has elapsed</li>
+   *   <li>at most {@code maxUnresolvedFingerprints} unresolved fingerprints are retained, each until it has gone
+   *   {@code unresolvedExpiry} without being looked up; lookups still awaiting an evicted fingerprint fail with a
+   *   {@link TimeoutException}</li>
+   *   <li>warnings about unresolved fingerprints are logged at most once per {@code logInterval}</li>
+   * </ul>
+   */
+  public record UnresolvedFingerprintPolicy(
+          Duration minRefreshInterval,
+          Duration negativeCacheTtl,
+          long maxUnresolvedFingerprints,
+          Duration unresolvedExpiry,
+          Duration logInterval
+  ) {
+    public static final UnresolvedFingerprintPolicy DEFAULT = new UnresolvedFingerprintPolicy(Duration.ofSeconds(1), Duration.ofSeconds(30));
+
+    public UnresolvedFingerprintPolicy(Duration minRefreshInterval, Duration negativeCacheTtl) {
+      this(minRefreshInterval, negativeCacheTtl, 10_000, Duration.ofMinutes(10), Duration.ofSeconds(10));
+    }
+  }
+
+  /**
+   * @param lookups lookups of fingerprints which were not yet resolved
+   * @param negativeCacheHits lookups which did not request a refresh, because the fingerprint was negatively-cached
+   * @param refreshesRequested refreshes requested by lookups
+   * @param refreshesIssued refreshes actually issued to the {@link SchemaRegistry}, after coalescing
+   */
+  public record UnresolvedLookupStats(long lookups, long negativeCacheHits, long refreshesRequested, long refreshesIssued) {
   }
 
   interface TaxonomyListener {
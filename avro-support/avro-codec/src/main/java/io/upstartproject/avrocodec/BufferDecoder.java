@@ -0,0 +1,257 @@
+package io.upstartproject.avrocodec;
+
+import io.upstartproject.avro.CompactMessageEnvelope;
+import io.upstartproject.avro.DeploymentStage;
+import io.upstartproject.avro.EventTimestampResolution;
+import io.upstartproject.avro.MessageEnvelope;
+import io.upstartproject.avro.PackedRecord;
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.Schema;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes {@link PackedRecord}s and {@link MessageEnvelope}s directly from a {@link ByteBuffer} (heap, direct, or
+ * memory-mapped), advancing the buffer's position past each decoded record.
+ * <p/>
+ * Unlike avro's {@link org.apache.avro.io.BinaryDecoder}, the {@link PackedRecord#getData data} of each decoded
+ * {@link PackedRecord} is a {@link ByteBuffer#slice slice} of the source buffer rather than a copy, so the source
+ * buffer must not be modified while decoded records remain in use.
+ * <p/>
+ * {@link MessageEnvelope}s can only be decoded this way when they were written with the
+ * {@link #ENVELOPE_FINGERPRINT current envelope schema}; see {@link EnvelopeDecoder#sliceEnvelope}.
+ */
+final class BufferDecoder {
+  static final SchemaFingerprint ENVELOPE_FINGERPRINT = EnvelopePublisher.MESSAGE_ENVELOPE_TYPE.publishedSchemaDescriptor().fingerprint();
+  static final SchemaFingerprint COMPACT_ENVELOPE_FINGERPRINT = EnvelopePublisher.COMPACT_MESSAGE_ENVELOPE_TYPE.publishedSchemaDescriptor().fingerprint();
+  private static final EventTimestampResolution[] RESOLUTIONS = EventTimestampResolution.values();
+  private static final DeploymentStage[] DEPLOYMENT_STAGES = DeploymentStage.values();
+
+  private BufferDecoder() {
+  }
+
+  static PackedRecord readPackedRecord(ByteBuffer in) {
+    long fingerprint = readLong(in);
+    return new PackedRecord(fingerprint, readBytes(in));
+  }
+
+  /**
+   * Decodes the body of a {@link MessageEnvelope} (ie, the {@link PackedRecord#getData data} of a {@link PackedRecord}
+   * whose fingerprint is {@link #ENVELOPE_FINGERPRINT}).
+   */
+  static MessageEnvelope readMessageEnvelope(ByteBuffer in) {
+    PackedRecord message = readPackedRecord(in);
+    List<PackedRecord> annotations = new ArrayList<>();
+    for (long count = readBlockCount(in); count != 0; count = readBlockCount(in)) {
+      for (long i = 0; i < count; i++) {
+        annotations.add(readPackedRecord(in));
+      }
+    }
+    String uniqueId = readString(in);
+    long eventTimestamp = readLong(in);
+    EventTimestampResolution resolution = readTimestampResolution(in);
+    String application = readString(in);
+    String owner = readString(in);
+    String environment = readString(in);
+    DeploymentStage deploymentStage = DEPLOYMENT_STAGES[readInt(in)];
+    Map<String, String> tags = new HashMap<>();
+    for (long count = readBlockCount(in); count != 0; count = readBlockCount(in)) {
+      for (long i = 0; i < count; i++) {
+        tags.put(readString(in), readString(in));
+      }
+    }
+    return new MessageEnvelope(
+            message,
+            annotations,
+            uniqueId,
+            eventTimestamp,
+            resolution,
+            application,
+            owner,
+            environment,
+            deploymentStage,
+            tags
+    );
+  }
+
+  /**
+   * Decodes the body of a {@link CompactMessageEnvelope} written with the {@link #COMPACT_ENVELOPE_FINGERPRINT current
+   * compact-envelope schema}.
+   */
+  static CompactMessageEnvelope readCompactMessageEnvelope(ByteBuffer in) {
+    PackedRecord message = readPackedRecord(in);
+    List<PackedRecord> annotations = new ArrayList<>();
+    for (long count = readBlockCount(in); count != 0; count = readBlockCount(in)) {
+      for (long i = 0; i < count; i++) {
+        annotations.add(readPackedRecord(in));
+      }
+    }
+    String uniqueId = readString(in);
+    long eventTimestamp = readLong(in);
+    EventTimestampResolution resolution = readTimestampResolution(in);
+    long metadataFingerprint = readLong(in);
+    return new CompactMessageEnvelope(message, annotations, uniqueId, eventTimestamp, resolution, metadataFingerprint);
+  }
+
+  /**
+   * Skips over a {@link PackedRecord}, returning only its fingerprint.
+   */
+  static long skipPackedRecord(ByteBuffer in) {
+    long fingerprint = readLong(in);
+    skipBytes(in);
+    return fingerprint;
+  }
+
+  /**
+   * Skips over a length-prefixed value (ie, avro {@code bytes} or {@code string}).
+   */
+  static void skipBytes(ByteBuffer in) {
+    int length = readLength(in);
+    in.position(in.position() + length);
+  }
+
+  /**
+   * Skips over a value written with the given schema.
+   */
+  static void skipValue(Schema schema, ByteBuffer in) {
+    switch (schema.getType()) {
+      case RECORD -> {
+        for (Schema.Field field : schema.getFields()) {
+          skipValue(field.schema(), in);
+        }
+      }
+      case ARRAY -> {
+        for (long count = readBlockCount(in); count != 0; count = readBlockCount(in)) {
+          for (long i = 0; i < count; i++) {
+            skipValue(schema.getElementType(), in);
+          }
+        }
+      }
+      case MAP -> {
+        for (long count = readBlockCount(in); count != 0; count = readBlockCount(in)) {
+          for (long i = 0; i < count; i++) {
+            skipBytes(in);
+            skipValue(schema.getValueType(), in);
+          }
+        }
+      }
+      case UNION -> skipValue(schema.getTypes().get(readInt(in)), in);
+      case FIXED -> in.position(in.position() + schema.getFixedSize());
+      case STRING, BYTES -> skipBytes(in);
+      case INT, LONG, ENUM -> readLong(in);
+      case FLOAT -> in.position(in.position() + Float.BYTES);
+      case DOUBLE -> in.position(in.position() + Double.BYTES);
+      case BOOLEAN -> in.position(in.position() + 1);
+      case NULL -> { }
+    }
+  }
+
+  /**
+   * Reads the {@link MessageMetadata} fields which follow the {@link MessageEnvelope#getTimestampResolution timestampResolution}
+   * in a {@link MessageEnvelope}.
+   */
+  static MessageMetadata readMessageMetadata(ByteBuffer in) {
+    ImmutableMessageMetadata.Builder builder = MessageMetadata.builder()
+            .application(readString(in))
+            .owner(readString(in))
+            .environment(readString(in))
+            .deploymentStage(DEPLOYMENT_STAGES[readInt(in)]);
+    for (long count = readBlockCount(in); count != 0; count = readBlockCount(in)) {
+      for (long i = 0; i < count; i++) {
+        builder.putTag(readString(in), readString(in));
+      }
+    }
+    return builder.build();
+  }
+
+  static EventTimestampResolution readTimestampResolution(ByteBuffer in) {
+    return RESOLUTIONS[readInt(in)];
+  }
+
+  static ByteBuffer readBytes(ByteBuffer in) {
+    int length = readLength(in);
+    int start = in.position();
+    in.position(start + length);
+    return in.slice(start, length);
+  }
+
+  static String readString(ByteBuffer in) {
+    int length = readLength(in);
+    String value;
+    if (in.hasArray()) {
+      value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+      in.position(in.position() + length);
+    } else {
+      byte[] bytes = new byte[length];
+      in.get(bytes);
+      value = new String(bytes, StandardCharsets.UTF_8);
+    }
+    return value;
+  }
+
+  static boolean readBoolean(ByteBuffer in) {
+    return in.get() != 0;
+  }
+
+  static float readFloat(ByteBuffer in) {
+    int bits = in.getInt();
+    return Float.intBitsToFloat(in.order() == ByteOrder.LITTLE_ENDIAN ? bits : Integer.reverseBytes(bits));
+  }
+
+  static double readDouble(ByteBuffer in) {
+    long bits = in.getLong();
+    return Double.longBitsToDouble(in.order() == ByteOrder.LITTLE_ENDIAN ? bits : Long.reverseBytes(bits));
+  }
+
+  static ByteBuffer readFixed(ByteBuffer in, int size) {
+    int start = in.position();
+    in.position(start + size);
+    return in.slice(start, size);
+  }
+
+  static int readInt(ByteBuffer in) {
+    long value = readLong(in);
+    if (value != (int) value) throw new AvroRuntimeException("Invalid int encoding: " + value);
+    return (int) value;
+  }
+
+  static long readLong(ByteBuffer in) {
+    long n = 0;
+    int shift = 0;
+    byte b;
+    do {
+      if (shift > 63) throw new AvroRuntimeException("Invalid long encoding");
+      b = in.get();
+      n |= (b & 0x7FL) << shift;
+      shift += 7;
+    } while (b < 0);
+    return (n >>> 1) ^ -(n & 1); // zig-zag
+  }
+
+  private static int readLength(ByteBuffer in) {
+    int length = readInt(in);
+    if (length < 0 || length > in.remaining()) {
+      throw new AvroRuntimeException("Malformed length " + length + " with " + in.remaining() + " bytes remaining");
+    }
+    return length;
+  }
+
+  /**
+   * Reads the item-count for the next block of an array or map, skipping the byte-size which accompanies
+   * negative counts.
+   */
+  static long readBlockCount(ByteBuffer in) {
+    long count = readLong(in);
+    if (count < 0) {
+      readLong(in); // block size in bytes
+      count = -count;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,90 @@
+package io.upstartproject.avrocodec;
+
+import com.google.common.base.Ticker;
+import upstart.util.concurrent.CompletableFutures;
+import upstart.util.concurrent.Promise;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Issues refreshes on behalf of any number of concurrent requesters, with at most one refresh in flight at a time,
+ * and successive refreshes starting at least {@code minInterval} apart.
+ * <p/>
+ * A request which arrives while a refresh is in flight cannot be satisfied by that refresh (which may have missed
+ * changes made before the request), so it joins the single pending follow-up refresh, which is shared by every
+ * request that arrives before it starts.
+ */
+class CoalescingRefresher {
+  private final Supplier<? extends CompletableFuture<Void>> refresher;
+  private final long minIntervalNanos;
+  private final Ticker ticker;
+  private Promise<Void> inFlight = null;
+  private Promise<Void> pending = null;
+  private long lastStartNanos;
+  private long requestCount = 0;
+  private long issuedCount = 0;
+
+  CoalescingRefresher(Supplier<? extends CompletableFuture<Void>> refresher, Duration minInterval, Ticker ticker) {
+    this.refresher = refresher;
+    this.minIntervalNanos = minInterval.toNanos();
+    this.ticker = ticker;
+    lastStartNanos = ticker.read() - minIntervalNanos;
+  }
+
+  /**
+   * @return a {@link Promise} which completes when a refresh that started after this call has completed
+   */
+  synchronized Promise<Void> requestRefresh() {
+    requestCount++;
+    if (pending != null) return pending;
+    if (inFlight == null && remainingIntervalNanos() <= 0) return start();
+
+    Promise<Void> scheduled = pending = new Promise<>();
+    CompletableFuture<?> prior = inFlight != null ? inFlight : CompletableFutures.nullFuture();
+    prior.whenComplete((__, e) -> schedulePending());
+    return scheduled;
+  }
+
+  synchronized long requestCount() {
+    return requestCount;
+  }
+
+  synchronized long issuedCount() {
+    return issuedCount;
+  }
+
+  private synchronized void schedulePending() {
+    CompletableFuture.delayedExecutor(Math.max(0, remainingIntervalNanos()), TimeUnit.NANOSECONDS).execute(() -> {
+      Promise<Void> scheduled;
+      Promise<Void> started;
+      synchronized (this) {
+        scheduled = pending;
+        pending = null;
+        started = start();
+      }
+      scheduled.completeWith(started);
+    });
+  }
+
+  // guarded by this
+  private long remainingIntervalNanos() {
+    return lastStartNanos + minIntervalNanos - ticker.read();
+  }
+
+  // guarded by this
+  private Promise<Void> start() {
+    lastStartNanos = ticker.read();
+    issuedCount++;
+    Promise<Void> refresh = Promise.callSafely(refresher::get);
+    inFlight = refresh;
+    refresh.whenComplete((__, e) -> {
+      synchronized (this) {
+        if (inFlight == refresh) inFlight = null;
+      }
+    });
+    return refresh;
+  }
+}
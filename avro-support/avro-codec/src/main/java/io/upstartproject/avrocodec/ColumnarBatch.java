@@ -0,0 +1,146 @@
+package io.upstartproject.avrocodec;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A batch of records decoded into columns by a {@link ColumnarRecordExporter}: one primitive array per field, with
+ * {@code string} and {@code enum} fields dictionary-encoded as {@link Column#codes codes} into a per-batch
+ * {@link Column#dictionary dictionary}.
+ * <p/>
+ * Each array holds exactly {@link #rowCount} values. For performance, the arrays are exposed directly, and must not
+ * be modified.
+ */
+public final class ColumnarBatch {
+  private final int rowCount;
+  private final Map<String, Column> columns;
+
+  ColumnarBatch(int rowCount, List<Column> columns) {
+    this.rowCount = rowCount;
+    this.columns = new LinkedHashMap<>();
+    for (Column column : columns) {
+      this.columns.put(column.name(), column);
+    }
+  }
+
+  public int rowCount() {
+    return rowCount;
+  }
+
+  /**
+   * @return the columns in this batch, in the order of their fields in the exporter's reader-schema
+   */
+  public List<Column> columns() {
+    return List.copyOf(columns.values());
+  }
+
+  public Column column(String name) {
+    Column column = columns.get(name);
+    checkArgument(column != null, "No such column: %s", name);
+    return column;
+  }
+
+  public enum ColumnType {
+    BOOLEAN,
+    INT,
+    LONG,
+    FLOAT,
+    DOUBLE,
+    /** dictionary-encoded {@code string} or {@code enum} values */
+    DICTIONARY
+  }
+
+  public static final class Column {
+    private final String name;
+    private final ColumnType type;
+    private final Object values;
+    private final List<String> dictionary;
+    private final BitSet nulls;
+
+    Column(String name, ColumnType type, Object values, List<String> dictionary, BitSet nulls) {
+      this.name = name;
+      this.type = type;
+      this.values = values;
+      this.dictionary = dictionary;
+      this.nulls = nulls;
+    }
+
+    public String name() {
+      return name;
+    }
+
+    public ColumnType type() {
+      return type;
+    }
+
+    /**
+     * @return true if the value at the given row is null. The primitive arrays hold zero (or {@code false}) at
+     * null rows.
+     */
+    public boolean isNull(int row) {
+      return nulls != null && nulls.get(row);
+    }
+
+    public boolean hasNulls() {
+      return nulls != null && !nulls.isEmpty();
+    }
+
+    public boolean[] booleans() {
+      return values(ColumnType.BOOLEAN, boolean[].class);
+    }
+
+    public int[] ints() {
+      return values(ColumnType.INT, int[].class);
+    }
+
+    public long[] longs() {
+      return values(ColumnType.LONG, long[].class);
+    }
+
+    public float[] floats() {
+      return values(ColumnType.FLOAT, float[].class);
+    }
+
+    public double[] doubles() {
+      return values(ColumnType.DOUBLE, double[].class);
+    }
+
+    /**
+     * @return the index of each row's value in the {@link #dictionary}
+     */
+    public int[] codes() {
+      return values(ColumnType.DICTIONARY, int[].class);
+    }
+
+    /**
+     * @return the distinct values in a {@link ColumnType#DICTIONARY DICTIONARY} column, in order of first appearance
+     * within this batch
+     */
+    public List<String> dictionary() {
+      checkState(type == ColumnType.DICTIONARY, "Column %s is not dictionary-encoded (%s)", name, type);
+      return dictionary;
+    }
+
+    /**
+     * @return the decoded value at the given row of a {@link ColumnType#DICTIONARY DICTIONARY} column, or null
+     */
+    public String stringValue(int row) {
+      return isNull(row) ? null : dictionary().get(codes()[row]);
+    }
+
+    private <A> A values(ColumnType expectedType, Class<A> arrayClass) {
+      checkState(type == expectedType, "Column %s is %s, not %s", name, type, expectedType);
+      return arrayClass.cast(values);
+    }
+
+    @Override
+    public String toString() {
+      return "Column{" + name + ": " + type + "}";
+    }
+  }
+}
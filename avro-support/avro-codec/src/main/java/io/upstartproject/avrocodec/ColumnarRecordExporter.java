@@ -0,0 +1,339 @@
+package io.upstartproject.avrocodec;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Streams;
+import org.apache.avro.AvroTypeException;
+import org.apache.avro.JsonProperties;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaCompatibility;
+import org.apache.avro.specific.SpecificRecordBase;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Decodes the records of a {@link RecordTypeFamily} into {@link ColumnarBatch}es, so that aggregations over a few
+ * fields can run over tight primitive arrays rather than materializing an object for every record.
+ * <p/>
+ * Records are decoded directly from their avro binary data, guided by a plan which is resolved once for each
+ * writer-schema in the family against the reader-schema (usually the {@link SpecificRecordConverter#schema schema} of
+ * a {@link SpecificRecordConverter}). As with {@link UnpackableRecord#unpackGeneric(Schema)}, a reduced reader-schema
+ * is an effective way to limit the work to just the fields of interest: writer-fields absent from the reader-schema
+ * are skipped, and reader-fields absent from an older writer-schema are filled with their default values.
+ * <p/>
+ * Only top-level reader-fields of type {@code boolean}, {@code int}, {@code long}, {@code float}, {@code double},
+ * {@code string} or {@code enum} (or a nullable union of one of these) are exported as columns; other fields are
+ * skipped.
+ * <p/>
+ * Instances of this class are thread-safe, and should be cached/reused for the lifetime of the process.
+ *
+ * @see EnvelopeDecoder#readEnvelopeFile(java.io.File, ParallelAvroFileReader)
+ */
+public class ColumnarRecordExporter {
+  public static final int DEFAULT_BATCH_SIZE = 4096;
+
+  private final RecordTypeFamily writerTypeFamily;
+  private final Schema readerSchema;
+  private final int batchSize;
+  private final List<ColumnSpec> columnSpecs = new ArrayList<>();
+  private final Map<Long, DecodePlan> plansByFingerprint = new ConcurrentHashMap<>();
+
+  public ColumnarRecordExporter(SpecificRecordConverter<? extends SpecificRecordBase> converter) {
+    this(converter.writerTypeFamily(), converter.schema(), DEFAULT_BATCH_SIZE);
+  }
+
+  public ColumnarRecordExporter(RecordTypeFamily writerTypeFamily, Schema readerSchema, int batchSize) {
+    checkArgument(batchSize > 0, "batchSize must be positive", batchSize);
+    checkArgument(readerSchema.getType() == Schema.Type.RECORD, "readerSchema must be a record", readerSchema);
+    this.writerTypeFamily = writerTypeFamily;
+    this.readerSchema = readerSchema;
+    this.batchSize = batchSize;
+    for (Schema.Field field : readerSchema.getFields()) {
+      ColumnSpec.forField(field).ifPresent(columnSpecs::add);
+    }
+  }
+
+  /**
+   * @return the names of the exported columns, in the order they appear in each {@link ColumnarBatch}
+   */
+  public List<String> columnNames() {
+    return columnSpecs.stream().map(ColumnSpec::name).toList();
+  }
+
+  /**
+   * Decodes the given records into a stream of {@link ColumnarBatch}es of up to {@code batchSize} rows. Records which
+   * are not members of the {@link RecordTypeFamily} are ignored.
+   * <p/>
+   * Records are consumed lazily, as batches are pulled from the returned stream.
+   */
+  public Stream<ColumnarBatch> export(Stream<UnpackableRecord> records) {
+    Iterator<UnpackableRecord> recordIterator = records.filter(writerTypeFamily::isInstance).iterator();
+    Iterator<ColumnarBatch> batches = new AbstractIterator<>() {
+      @Override
+      protected ColumnarBatch computeNext() {
+        if (!recordIterator.hasNext()) return endOfData();
+        BatchBuilder batch = new BatchBuilder();
+        while (batch.rowCount < batchSize && recordIterator.hasNext()) {
+          batch.append(recordIterator.next());
+        }
+        return batch.build();
+      }
+    };
+    return Streams.stream(batches).onClose(records::close);
+  }
+
+  /**
+   * Decodes the {@link UnpackableMessageEnvelope#messageRecord messages} of the given envelopes (eg, from
+   * {@link EnvelopeDecoder#readEnvelopeFile(java.io.File, ParallelAvroFileReader)}) which are members of the
+   * {@link RecordTypeFamily}.
+   */
+  public Stream<ColumnarBatch> exportMessages(Stream<UnpackableMessageEnvelope> envelopes) {
+    return export(envelopes.map(UnpackableMessageEnvelope::messageRecord));
+  }
+
+  private DecodePlan plan(UnpackableRecord record) {
+    return plansByFingerprint.computeIfAbsent(record.fingerprint().value(), __ -> new DecodePlan(record.schema()));
+  }
+
+  private Schema.Field findReaderField(Schema.Field writerField) {
+    Schema.Field field = readerSchema.getField(writerField.name());
+    if (field != null) return field;
+    return readerSchema.getFields().stream()
+            .filter(f -> f.aliases().contains(writerField.name()))
+            .findFirst()
+            .orElse(null);
+  }
+
+  /**
+   * Describes how to decode records written with a particular writer-schema: which writer-fields to read into which
+   * columns (or skip), and which columns to fill with their defaults.
+   */
+  private class DecodePlan {
+    private final Schema[] writerFieldSchemas;
+    private final int[] fieldColumns; // -1 for skipped fields
+    private final int[] defaultedColumns;
+
+    DecodePlan(Schema writerSchema) {
+      SchemaCompatibility.SchemaPairCompatibility compatibility =
+              SchemaCompatibility.checkReaderWriterCompatibility(readerSchema, writerSchema);
+      if (compatibility.getType() != SchemaCompatibility.SchemaCompatibilityType.COMPATIBLE) {
+        throw new AvroTypeException("Writer schema is incompatible with reader schema " + readerSchema.getFullName()
+                + ": " + compatibility.getDescription());
+      }
+      List<Schema.Field> writerFields = writerSchema.getFields();
+      writerFieldSchemas = new Schema[writerFields.size()];
+      fieldColumns = new int[writerFields.size()];
+      BitSet covered = new BitSet();
+      for (int i = 0; i < writerFields.size(); i++) {
+        Schema.Field writerField = writerFields.get(i);
+        writerFieldSchemas[i] = writerField.schema();
+        Schema.Field readerField = findReaderField(writerField);
+        int column = readerField == null ? -1 : columnIndex(readerField);
+        fieldColumns[i] = column;
+        if (column >= 0) covered.set(column);
+      }
+      defaultedColumns = IntStream.range(0, columnSpecs.size())
+              .filter(column -> !covered.get(column))
+              .toArray();
+    }
+
+    private int columnIndex(Schema.Field readerField) {
+      for (int i = 0; i < columnSpecs.size(); i++) {
+        if (columnSpecs.get(i).field == readerField) return i;
+      }
+      return -1;
+    }
+  }
+
+  private class BatchBuilder {
+    private final ColumnBuilder[] columns = columnSpecs.stream().map(ColumnBuilder::new).toArray(ColumnBuilder[]::new);
+    private int rowCount = 0;
+
+    void append(UnpackableRecord record) {
+      DecodePlan plan = plan(record);
+      ByteBuffer in = record.getPackedRecord().getData().duplicate();
+      for (int i = 0; i < plan.fieldColumns.length; i++) {
+        int column = plan.fieldColumns[i];
+        if (column < 0) {
+          BufferDecoder.skipValue(plan.writerFieldSchemas[i], in);
+        } else {
+          columns[column].read(plan.writerFieldSchemas[i], in, rowCount);
+        }
+      }
+      for (int column : plan.defaultedColumns) {
+        columns[column].putDefault(rowCount);
+      }
+      rowCount++;
+    }
+
+    ColumnarBatch build() {
+      return new ColumnarBatch(rowCount, Arrays.stream(columns).map(column -> column.build(rowCount)).toList());
+    }
+  }
+
+  private class ColumnBuilder {
+    private final ColumnSpec spec;
+    private final boolean[] booleans;
+    private final int[] ints;
+    private final long[] longs;
+    private final float[] floats;
+    private final double[] doubles;
+    private final BitSet nulls;
+    private final List<String> dictionary;
+    private final Map<ByteBuffer, Integer> utf8Codes;
+    private final Map<String, Integer> symbolCodes;
+
+    ColumnBuilder(ColumnSpec spec) {
+      this.spec = spec;
+      ColumnarBatch.ColumnType type = spec.type;
+      booleans = type == ColumnarBatch.ColumnType.BOOLEAN ? new boolean[batchSize] : null;
+      ints = type == ColumnarBatch.ColumnType.INT || type == ColumnarBatch.ColumnType.DICTIONARY ? new int[batchSize] : null;
+      longs = type == ColumnarBatch.ColumnType.LONG ? new long[batchSize] : null;
+      floats = type == ColumnarBatch.ColumnType.FLOAT ? new float[batchSize] : null;
+      doubles = type == ColumnarBatch.ColumnType.DOUBLE ? new double[batchSize] : null;
+      nulls = spec.nullable ? new BitSet(batchSize) : null;
+      dictionary = type == ColumnarBatch.ColumnType.DICTIONARY ? new ArrayList<>() : null;
+      utf8Codes = spec.enumSchema == null && dictionary != null ? new HashMap<>() : null;
+      symbolCodes = spec.enumSchema != null ? new HashMap<>() : null;
+    }
+
+    void read(Schema writerSchema, ByteBuffer in, int row) {
+      if (writerSchema.getType() == Schema.Type.UNION) {
+        writerSchema = writerSchema.getTypes().get(BufferDecoder.readInt(in));
+      }
+      switch (writerSchema.getType()) {
+        case NULL -> putNull(row);
+        case BOOLEAN -> booleans[row] = BufferDecoder.readBoolean(in);
+        case INT, LONG -> putLong(row, BufferDecoder.readLong(in));
+        case FLOAT -> putDouble(row, BufferDecoder.readFloat(in));
+        case DOUBLE -> putDouble(row, BufferDecoder.readDouble(in));
+        case STRING, BYTES -> ints[row] = encodeUtf8(BufferDecoder.readBytes(in));
+        case ENUM -> ints[row] = encodeSymbol(writerSchema.getEnumSymbols().get(BufferDecoder.readInt(in)));
+        default -> throw new AvroTypeException("Unexpected " + writerSchema.getType() + " for column " + spec.name);
+      }
+    }
+
+    void putDefault(int row) {
+      Object value = spec.defaultValue;
+      if (value == null) {
+        putNull(row);
+      } else if (value instanceof Boolean b) {
+        booleans[row] = b;
+      } else if (value instanceof Float || value instanceof Double) {
+        putDouble(row, ((Number) value).doubleValue());
+      } else if (value instanceof Number n) {
+        putLong(row, n.longValue());
+      } else if (spec.enumSchema != null) {
+        ints[row] = encodeSymbol((String) value);
+      } else {
+        ints[row] = encodeUtf8(ByteBuffer.wrap(((String) value).getBytes(StandardCharsets.UTF_8)));
+      }
+    }
+
+    private void putNull(int row) {
+      if (nulls == null) throw new AvroTypeException("Found null, expecting " + spec.type + " for column " + spec.name);
+      nulls.set(row);
+    }
+
+    private void putLong(int row, long value) {
+      switch (spec.type) {
+        case INT -> ints[row] = (int) value;
+        case LONG -> longs[row] = value;
+        case FLOAT -> floats[row] = value;
+        case DOUBLE -> doubles[row] = value;
+        default -> throw new AvroTypeException("Found integer, expecting " + spec.type + " for column " + spec.name);
+      }
+    }
+
+    private void putDouble(int row, double value) {
+      switch (spec.type) {
+        case FLOAT -> floats[row] = (float) value;
+        case DOUBLE -> doubles[row] = value;
+        default -> throw new AvroTypeException("Found floating-point, expecting " + spec.type + " for column " + spec.name);
+      }
+    }
+
+    private int encodeUtf8(ByteBuffer utf8) {
+      Integer code = utf8Codes.get(utf8);
+      if (code == null) {
+        byte[] bytes = new byte[utf8.remaining()];
+        utf8.duplicate().get(bytes);
+        code = dictionary.size();
+        dictionary.add(new String(bytes, StandardCharsets.UTF_8));
+        utf8Codes.put(ByteBuffer.wrap(bytes), code);
+      }
+      return code;
+    }
+
+    private int encodeSymbol(String symbol) {
+      // writer-symbols unknown to the reader resolve to the reader's enum-default (as verified by the DecodePlan)
+      String resolved = spec.enumSchema.hasEnumSymbol(symbol) ? symbol : spec.enumSchema.getEnumDefault();
+      return symbolCodes.computeIfAbsent(resolved, s -> {
+        dictionary.add(s);
+        return dictionary.size() - 1;
+      });
+    }
+
+    ColumnarBatch.Column build(int rowCount) {
+      Object values = switch (spec.type) {
+        case BOOLEAN -> Arrays.copyOf(booleans, rowCount);
+        case INT, DICTIONARY -> Arrays.copyOf(ints, rowCount);
+        case LONG -> Arrays.copyOf(longs, rowCount);
+        case FLOAT -> Arrays.copyOf(floats, rowCount);
+        case DOUBLE -> Arrays.copyOf(doubles, rowCount);
+      };
+      return new ColumnarBatch.Column(spec.name, spec.type, values, dictionary == null ? null : List.copyOf(dictionary), nulls);
+    }
+  }
+
+  /**
+   * A reader-field which is exported as a column.
+   */
+  private record ColumnSpec(Schema.Field field, String name, ColumnarBatch.ColumnType type, boolean nullable, Schema enumSchema, Object defaultValue) {
+    static Optional<ColumnSpec> forField(Schema.Field field) {
+      Schema schema = field.schema();
+      boolean nullable = false;
+      if (schema.getType() == Schema.Type.UNION) {
+        List<Schema> branches = schema.getTypes();
+        if (branches.size() != 2 || branches.stream().noneMatch(b -> b.getType() == Schema.Type.NULL)) {
+          return Optional.empty();
+        }
+        nullable = true;
+        schema = branches.get(0).getType() == Schema.Type.NULL ? branches.get(1) : branches.get(0);
+      }
+      ColumnarBatch.ColumnType type = switch (schema.getType()) {
+        case BOOLEAN -> ColumnarBatch.ColumnType.BOOLEAN;
+        case INT -> ColumnarBatch.ColumnType.INT;
+        case LONG -> ColumnarBatch.ColumnType.LONG;
+        case FLOAT -> ColumnarBatch.ColumnType.FLOAT;
+        case DOUBLE -> ColumnarBatch.ColumnType.DOUBLE;
+        case STRING, ENUM -> ColumnarBatch.ColumnType.DICTIONARY;
+        default -> null;
+      };
+      if (type == null) return Optional.empty();
+      Object defaultValue = field.hasDefaultValue() ? field.defaultVal() : null;
+      if (defaultValue == JsonProperties.NULL_VALUE) defaultValue = null;
+      return Optional.of(new ColumnSpec(
+              field,
+              field.name(),
+              type,
+              nullable,
+              schema.getType() == Schema.Type.ENUM ? schema : null,
+              defaultValue
+      ));
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package io.upstartproject.avrocodec;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.DatumWriter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the avro {@link DatumReader}s and {@link DatumWriter}s used for packing and unpacking records, so that
+ * writer/reader schema-resolution is performed once per combination of schemas, rather than once per record.
+ * <p/>
+ * {@link DatumWriter}s are stateless after construction, so a single writer is shared by all threads for each
+ * (schema, data-model) pair.
+ * <p/>
+ * {@link DatumReader}s are mutable (see {@link DatumReader#setSchema}), so each thread retains its own pre-resolved
+ * reader for each (writer {@link SchemaFingerprint}, reader {@link Schema}, data-model) combination.
+ */
+final class DatumCodecCache {
+  private static final Map<WriterKey, DatumWriter<?>> WRITERS = new ConcurrentHashMap<>();
+  private static final ThreadLocal<Map<ReaderKey, DatumReader<?>>> READERS = ThreadLocal.withInitial(HashMap::new);
+
+  private DatumCodecCache() {
+  }
+
+  /**
+   * @return a shared {@link DatumWriter} for writing records of the given {@code schema} with the given {@code model}
+   * (eg, {@link GenericData#get()} or {@link org.apache.avro.specific.SpecificData#getForSchema})
+   */
+  @SuppressWarnings("unchecked")
+  static <T> DatumWriter<T> writer(Schema schema, GenericData model) {
+    return (DatumWriter<T>) WRITERS.computeIfAbsent(new WriterKey(schema, model), key -> key.model.createDatumWriter(key.schema));
+  }
+
+  /**
+   * @return a {@link DatumReader} owned by the calling thread, already resolved for reading data written with the
+   * {@code writerSchema} into the structure described by the {@code readerSchema}.
+   * <p/>
+   * The returned reader must not be retained or shared with other threads.
+   */
+  @SuppressWarnings("unchecked")
+  static <T> DatumReader<T> reader(SchemaDescriptor writerSchema, Schema readerSchema, GenericData model) {
+    ReaderKey key = new ReaderKey(writerSchema.fingerprint().value(), readerSchema, model);
+    Map<ReaderKey, DatumReader<?>> readers = READERS.get();
+    DatumReader<?> reader = readers.get(key);
+    if (reader == null) {
+      reader = model.createDatumReader(writerSchema.schema(), readerSchema);
+      readers.put(key, reader);
+    }
+    return (DatumReader<T>) reader;
+  }
+
+  private record WriterKey(Schema schema, GenericData model) {
+  }
+
+  private record ReaderKey(long writerFingerprint, Schema readerSchema, GenericData model) {
+  }
+}
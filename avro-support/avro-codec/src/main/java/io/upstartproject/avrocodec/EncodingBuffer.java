@@ -0,0 +1,63 @@
+package io.upstartproject.avrocodec;
+
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import upstart.util.exceptions.FallibleConsumer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * A growable byte-buffer paired with a reusable {@link BinaryEncoder}, retained per-thread to avoid allocating a
+ * fresh buffer and encoder for every record that is encoded.
+ * <p/>
+ * Buffers which grow beyond {@link #MAX_RETAINED_CAPACITY} while encoding an unusually large record are discarded
+ * afterward, to avoid pinning excessive memory to each thread.
+ */
+final class EncodingBuffer extends ByteArrayOutputStream {
+  static final int INITIAL_CAPACITY = 512;
+  static final int MAX_RETAINED_CAPACITY = 1 << 20;
+  private static final ThreadLocal<EncodingBuffer> THREAD_BUFFER = ThreadLocal.withInitial(EncodingBuffer::new);
+
+  private BinaryEncoder encoder = null;
+  private boolean inUse = false;
+
+  private EncodingBuffer() {
+    super(INITIAL_CAPACITY);
+  }
+
+  /**
+   * Invokes the given {@code writer} with a {@link BinaryEncoder} backed by the calling thread's buffer, and returns
+   * a copy of the encoded bytes.
+   */
+  static byte[] captureBytes(FallibleConsumer<? super BinaryEncoder, IOException> writer) {
+    EncodingBuffer buffer = acquire();
+    try {
+      writer.acceptOrThrow(buffer.encoder());
+      return buffer.toByteArray();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      buffer.release();
+    }
+  }
+
+  private static EncodingBuffer acquire() {
+    EncodingBuffer buffer = THREAD_BUFFER.get();
+    // tolerate reentrant encoding (eg, from a custom conversion) by falling back to a transient buffer
+    if (buffer.inUse) buffer = new EncodingBuffer();
+    buffer.inUse = true;
+    return buffer;
+  }
+
+  private BinaryEncoder encoder() {
+    return encoder = EncoderFactory.get().directBinaryEncoder(this, encoder);
+  }
+
+  private void release() {
+    inUse = false;
+    if (buf.length > MAX_RETAINED_CAPACITY) buf = new byte[INITIAL_CAPACITY];
+    reset();
+  }
+}
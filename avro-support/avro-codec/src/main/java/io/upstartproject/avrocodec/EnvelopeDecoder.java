@@ -1,10 +1,13 @@
 package io.upstartproject.avrocodec;
 
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Streams;
+import io.upstartproject.avro.CompactMessageEnvelope;
 import io.upstartproject.avro.EventTimestampResolution;
 import io.upstartproject.avro.MessageEnvelope;
 import io.upstartproject.avro.MessageEnvelopePayload;
+import io.upstartproject.avro.PackedRecord;
 import upstart.util.concurrent.ListPromise;
 import upstart.util.exceptions.UncheckedIO;
 import org.apache.avro.file.DataFileReader;
@@ -15,29 +18,39 @@ import org.apache.avro.specific.SpecificDatumReader;
 import javax.inject.Inject;
 import java.io.ByteArrayInputStream;
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 /**
  * Provides utility-methods for working with {@link MessageEnvelope}s:
+ * <p/>
+ * {@link CompactMessageEnvelope}s (see {@link EnvelopePublisher#registerCompactMetadata}) are expanded transparently
+ * into {@link MessageEnvelope}s, after resolving their metadata-fingerprint via the {@link SchemaRegistry}.
  */
 public class EnvelopeDecoder {
+  private static final String COMPACT_ENVELOPE_NAME = CompactMessageEnvelope.getClassSchema().getFullName();
 
   private final SpecificRecordUnpacker<MessageEnvelopePayload> payloadUnpacker;
   private final SpecificRecordUnpacker<MessageEnvelope> envelopeUnpacker;
+  private final SpecificRecordUnpacker<CompactMessageEnvelope> compactEnvelopeUnpacker;
+  private final Map<Long, MessageMetadata> metadataByFingerprint = new ConcurrentHashMap<>();
   private final AvroDecoder decoder;
 
   @Inject
   public EnvelopeDecoder(AvroDecoder decoder) {
     payloadUnpacker = decoder.recordUnpacker(MessageEnvelopePayload.class);
     envelopeUnpacker = decoder.recordUnpacker(MessageEnvelope.class);
+    compactEnvelopeUnpacker = decoder.recordUnpacker(CompactMessageEnvelope.class);
     this.decoder = decoder;
   }
 
@@ -62,7 +75,39 @@ public class EnvelopeDecoder {
    */
   public CompletableFuture<UnpackableMessageEnvelope> loadEnvelope(InputStream in) {
     return decoder.readUnpackableRecord(in)
-            .thenCompose(unpackableEnvelope -> makeUnpackable(unpackableEnvelope.unpackWith(envelopeUnpacker)));
+            .thenCompose(this::expandEnvelope)
+            .thenCompose(this::makeUnpackable);
+  }
+
+  /**
+   * Decodes a serialized {@link MessageEnvelope} directly from the given buffer (which may be a heap, direct, or
+   * memory-mapped buffer), advancing its position past the envelope.
+   * <p/>
+   * Unlike {@link #loadEnvelope(ByteBuffer)}, the {@link PackedRecord PackedRecords} held by
+   * the resulting envelope are slices of the given buffer rather than copies, so its content must not be modified
+   * while the envelope remains in use.
+   * <p/>
+   * Envelopes written with an older envelope-schema are decoded conventionally (although their outer record is still
+   * sliced).
+   */
+  public CompletableFuture<UnpackableMessageEnvelope> sliceEnvelope(ByteBuffer buf) {
+    PackedRecord packedEnvelope = AvroDecoder.slicePackedRecord(buf);
+    return sliceMessageEnvelope(packedEnvelope).thenCompose(this::makeUnpackable);
+  }
+
+  /**
+   * Decodes a sequence of back-to-back serialized {@link MessageEnvelope}s (eg, a batch of messages, or a
+   * memory-mapped file of concatenated envelopes) from the remaining content of the given buffer.
+   * @see #sliceEnvelope
+   */
+  public Stream<CompletableFuture<UnpackableMessageEnvelope>> sliceEnvelopes(ByteBuffer buf) {
+    ByteBuffer remaining = buf.duplicate();
+    return Streams.stream(new AbstractIterator<CompletableFuture<UnpackableMessageEnvelope>>() {
+      @Override
+      protected CompletableFuture<UnpackableMessageEnvelope> computeNext() {
+        return remaining.hasRemaining() ? sliceEnvelope(remaining) : endOfData();
+      }
+    });
   }
 
   public Stream<CompletableFuture<UnpackableMessageEnvelope>> readEnvelopeFile(InputStream in) throws IOException {
@@ -73,19 +118,110 @@ public class EnvelopeDecoder {
     return asUnpackableStream(new DataFileReader<>(in, new SpecificDatumReader<>(MessageEnvelope.class)));
   }
 
+  /**
+   * Reads the given {@link MessageEnvelope} container-file with the given {@link ParallelAvroFileReader}, which
+   * decompresses and decodes its blocks concurrently.
+   */
+  public Stream<UnpackableMessageEnvelope> readEnvelopeFile(File file, ParallelAvroFileReader parallelReader) {
+    return parallelReader.read(
+            file,
+            () -> new SpecificDatumReader<>(MessageEnvelope.class),
+            split -> split.stream().map(this::makeUnpackable).collect(ListPromise.toListPromise())
+    );
+  }
+
   private <I extends Iterator<MessageEnvelope> & Closeable> Stream<CompletableFuture<UnpackableMessageEnvelope>> asUnpackableStream(I iterator) {
     return Streams.stream(Iterators.transform(iterator, this::makeUnpackable))
             .onClose(UncheckedIO.runnable(iterator::close));
   }
 
+  /**
+   * Decodes an {@link EnvelopeProjection} from the given buffer, advancing its position past the envelope.
+   * <p/>
+   * Only the fingerprints and timestamp of the envelope are decoded immediately; its metadata and records are decoded
+   * lazily when requested from the returned projection, so that consumers which discard most envelopes don't pay
+   * to decode them.
+   * <p/>
+   * Envelopes written with an older envelope-schema must be fully decoded (after resolving their schema) before
+   * they can be projected, as must {@link CompactMessageEnvelope}s (after resolving their metadata).
+   */
+  public CompletableFuture<EnvelopeProjection> projectEnvelope(ByteBuffer buf) {
+    PackedRecord packedEnvelope = AvroDecoder.slicePackedRecord(buf);
+    if (packedEnvelope.getFingerprint() == BufferDecoder.ENVELOPE_FINGERPRINT.value()) {
+      return CompletableFuture.completedFuture(new EnvelopeProjection(this, packedEnvelope.getData()));
+    }
+    return sliceMessageEnvelope(packedEnvelope).thenApply(envelope -> new EnvelopeProjection(this, envelope));
+  }
+
+  /**
+   * Projects a sequence of back-to-back serialized {@link MessageEnvelope}s from the remaining content of the given
+   * buffer.
+   * @see #projectEnvelope
+   */
+  public Stream<CompletableFuture<EnvelopeProjection>> projectEnvelopes(ByteBuffer buf) {
+    ByteBuffer remaining = buf.duplicate();
+    return Streams.stream(new AbstractIterator<CompletableFuture<EnvelopeProjection>>() {
+      @Override
+      protected CompletableFuture<EnvelopeProjection> computeNext() {
+        return remaining.hasRemaining() ? projectEnvelope(remaining) : endOfData();
+      }
+    });
+  }
+
+  /**
+   * Decodes a {@link MessageEnvelope} from the given sliced record, directly from its buffer when it was written with a
+   * current envelope-schema.
+   */
+  private CompletableFuture<MessageEnvelope> sliceMessageEnvelope(PackedRecord packedEnvelope) {
+    long fingerprint = packedEnvelope.getFingerprint();
+    if (fingerprint == BufferDecoder.ENVELOPE_FINGERPRINT.value()) {
+      return CompletableFuture.completedFuture(BufferDecoder.readMessageEnvelope(packedEnvelope.getData()));
+    } else if (fingerprint == BufferDecoder.COMPACT_ENVELOPE_FINGERPRINT.value()) {
+      return expandCompactEnvelope(BufferDecoder.readCompactMessageEnvelope(packedEnvelope.getData()));
+    }
+    return decoder.toUnpackable(packedEnvelope).thenCompose(this::expandEnvelope);
+  }
+
+  /**
+   * Unpacks the given record as a {@link MessageEnvelope}, expanding it if it is a {@link CompactMessageEnvelope}.
+   */
+  private CompletableFuture<MessageEnvelope> expandEnvelope(UnpackableRecord envelopeRecord) {
+    if (isCompactEnvelope(envelopeRecord)) {
+      return expandCompactEnvelope(envelopeRecord.unpackWith(compactEnvelopeUnpacker));
+    }
+    return CompletableFuture.completedFuture(envelopeRecord.unpackWith(envelopeUnpacker));
+  }
+
+  private CompletableFuture<MessageEnvelope> expandCompactEnvelope(CompactMessageEnvelope compact) {
+    return resolveMetadata(compact.getMetadataFingerprint()).thenApply(metadata -> new MessageEnvelope(
+            compact.getMessage(),
+            compact.getAnnotations(),
+            compact.getUniqueId(),
+            compact.getEventTimestamp(),
+            compact.getTimestampResolution(),
+            metadata.application(),
+            metadata.owner(),
+            metadata.environment(),
+            metadata.deploymentStage(),
+            metadata.tags()
+    ));
+  }
+
+  private CompletableFuture<MessageMetadata> resolveMetadata(long metadataFingerprint) {
+    MessageMetadata metadata = metadataByFingerprint.get(metadataFingerprint);
+    if (metadata != null) return CompletableFuture.completedFuture(metadata);
+    return decoder.findSchemaDescriptor(metadataFingerprint).thenApply(descriptor -> metadataByFingerprint.computeIfAbsent(
+            metadataFingerprint,
+            __ -> EnvelopeMetadataSchema.fromSchema(descriptor.schema())
+    ));
+  }
+
+  private static boolean isCompactEnvelope(UnpackableRecord envelopeRecord) {
+    return envelopeRecord.schema().getFullName().equals(COMPACT_ENVELOPE_NAME);
+  }
+
   public CompletableFuture<UnpackableMessageEnvelope> makeUnpackable(MessageEnvelope envelope) {
-    MessageMetadata metadata = MessageMetadata.builder()
-            .application(envelope.getApplication())
-            .owner(envelope.getOwner())
-            .environment(envelope.getEnvironment())
-            .tags(envelope.getTags())
-            .deploymentStage(envelope.getDeploymentStage())
-            .build();
+    MessageMetadata metadata = extractMetadata(envelope);
 
     ListPromise<UnpackableRecord> annotationRecords = envelope.getAnnotations().stream()
             .map(decoder::toUnpackable)
@@ -109,6 +245,16 @@ public class EnvelopeDecoder {
     );
   }
 
+  public static MessageMetadata extractMetadata(MessageEnvelope envelope) {
+    return MessageMetadata.builder()
+            .application(envelope.getApplication())
+            .owner(envelope.getOwner())
+            .environment(envelope.getEnvironment())
+            .tags(envelope.getTags())
+            .deploymentStage(envelope.getDeploymentStage())
+            .build();
+  }
+
   public static Instant toInstant(long timestampValue, EventTimestampResolution resolution) {
     TimeUnit unit = switch (resolution) {
       case Milliseconds -> TimeUnit.MILLISECONDS;
@@ -124,7 +270,9 @@ public class EnvelopeDecoder {
 
   public CompletableFuture<UnpackableRecord> extractEnvelopeMessage(InputStream in) {
     return decoder.toUnpackable(AvroDecoder.readPackedRecord(in))
-            .thenCompose(unpackable -> decoder.toUnpackable(payloadUnpacker.unpack(unpackable).getMessage()));
+            .thenCompose(unpackable -> decoder.toUnpackable(isCompactEnvelope(unpackable)
+                    ? compactEnvelopeUnpacker.unpack(unpackable).getMessage()
+                    : payloadUnpacker.unpack(unpackable).getMessage()));
   }
 
 }
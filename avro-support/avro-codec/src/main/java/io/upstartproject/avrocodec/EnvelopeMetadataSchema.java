@@ -0,0 +1,56 @@
+package io.upstartproject.avrocodec;
+
+import io.upstartproject.avro.CompactMessageEnvelope;
+import io.upstartproject.avro.DeploymentStage;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Represents a {@link MessageMetadata} as a {@link Schema}, so that it can be registered with the {@link SchemaRegistry}
+ * and referenced by the {@link CompactMessageEnvelope#getMetadataFingerprint metadataFingerprint} of a
+ * {@link CompactMessageEnvelope}.
+ * <p/>
+ * The metadata values are held in the default-values of the schema's fields, which are included in its
+ * {@link SchemaFingerprint} (see {@link SchemaNormalization2}): each distinct {@link MessageMetadata} thus becomes a
+ * distinct (mutually-compatible) version of the {@link #FULL_NAME EnvelopeMetadata} {@link RecordTypeFamily}.
+ */
+final class EnvelopeMetadataSchema {
+  static final String NAMESPACE = "io.upstartproject.avro";
+  static final String NAME = "EnvelopeMetadata";
+  static final String FULL_NAME = NAMESPACE + "." + NAME;
+
+  private EnvelopeMetadataSchema() {
+  }
+
+  static Schema toSchema(MessageMetadata metadata) {
+    return SchemaBuilder.record(NAME).namespace(NAMESPACE).fields()
+            .name("application").type().stringType().stringDefault(metadata.application())
+            .name("owner").type().stringType().stringDefault(metadata.owner())
+            .name("environment").type().stringType().stringDefault(metadata.environment())
+            .name("deploymentStage").type(DeploymentStage.getClassSchema()).withDefault(metadata.deploymentStage().name())
+            // sorted, so that equal metadata always produces the same fingerprint
+            .name("tags").type().map().values().stringType().mapDefault(new TreeMap<>(metadata.tags()))
+            .endRecord();
+  }
+
+  static MessageMetadata fromSchema(Schema schema) {
+    checkArgument(schema.getFullName().equals(FULL_NAME), "Not an %s schema: %s", FULL_NAME, schema.getFullName());
+    ImmutableMessageMetadata.Builder builder = MessageMetadata.builder()
+            .application(stringDefault(schema, "application"))
+            .owner(stringDefault(schema, "owner"))
+            .environment(stringDefault(schema, "environment"))
+            .deploymentStage(DeploymentStage.valueOf(stringDefault(schema, "deploymentStage")));
+    Map<?, ?> tags = (Map<?, ?>) schema.getField("tags").defaultVal();
+    tags.forEach((key, value) -> builder.putTag(key.toString(), value.toString()));
+    return builder.build();
+  }
+
+  private static String stringDefault(Schema schema, String fieldName) {
+    return schema.getField(fieldName).defaultVal().toString();
+  }
+}
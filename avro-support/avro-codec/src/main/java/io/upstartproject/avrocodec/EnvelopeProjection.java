@@ -0,0 +1,166 @@
+package io.upstartproject.avrocodec;
+
+import io.upstartproject.avro.EventTimestampResolution;
+import io.upstartproject.avro.MessageEnvelope;
+import io.upstartproject.avro.PackedRecord;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A partially-decoded view of a serialized {@link MessageEnvelope}, obtained via {@link EnvelopeDecoder#projectEnvelope}.
+ * <p/>
+ * Only the {@link #messageFingerprint message-fingerprint}, {@link #annotationFingerprint annotation-fingerprints}
+ * and {@link #timestamp} are decoded up front; everything else (the {@link #uniqueId}, {@link #metadata}, and the
+ * records themselves) is decoded lazily on first access. This makes it cheap to filter streams of envelopes, and
+ * {@link #toUnpackable fully unpack} only those which are of interest.
+ * <p/>
+ * Projections retain a reference to the buffer they were decoded from, which must not be modified while they remain
+ * in use. Instances are not thread-safe.
+ */
+public class EnvelopeProjection {
+  private static final long[] NO_ANNOTATIONS = new long[0];
+
+  private final EnvelopeDecoder decoder;
+  private final ByteBuffer body;
+  private final long messageFingerprint;
+  private final long[] annotationFingerprints;
+  private final long eventTimestamp;
+  private final EventTimestampResolution timestampResolution;
+  private final int uniqueIdOffset;
+  private final int metadataOffset;
+
+  private String uniqueId = null;
+  private MessageMetadata metadata = null;
+  private MessageEnvelope envelope = null;
+
+  /**
+   * Decodes the projected fields from an envelope-body written with the current {@link MessageEnvelope} schema.
+   */
+  EnvelopeProjection(EnvelopeDecoder decoder, ByteBuffer body) {
+    this.decoder = decoder;
+    this.body = body;
+    ByteBuffer in = body.duplicate();
+    messageFingerprint = BufferDecoder.skipPackedRecord(in);
+    long[] annotations = NO_ANNOTATIONS;
+    int annotationCount = 0;
+    for (long count = BufferDecoder.readBlockCount(in); count != 0; count = BufferDecoder.readBlockCount(in)) {
+      annotations = Arrays.copyOf(annotations, Math.toIntExact(annotationCount + count));
+      for (long i = 0; i < count; i++) {
+        annotations[annotationCount++] = BufferDecoder.skipPackedRecord(in);
+      }
+    }
+    annotationFingerprints = annotations;
+    uniqueIdOffset = in.position();
+    BufferDecoder.skipBytes(in);
+    eventTimestamp = BufferDecoder.readLong(in);
+    timestampResolution = BufferDecoder.readTimestampResolution(in);
+    metadataOffset = in.position();
+  }
+
+  /**
+   * Wraps an envelope that has already been fully decoded (eg, because it was written with an older schema).
+   */
+  EnvelopeProjection(EnvelopeDecoder decoder, MessageEnvelope envelope) {
+    this.decoder = decoder;
+    this.envelope = envelope;
+    body = null;
+    messageFingerprint = envelope.getMessage().getFingerprint();
+    annotationFingerprints = envelope.getAnnotations().stream().mapToLong(PackedRecord::getFingerprint).toArray();
+    eventTimestamp = envelope.getEventTimestamp();
+    timestampResolution = envelope.getTimestampResolution();
+    uniqueIdOffset = -1;
+    metadataOffset = -1;
+  }
+
+  public long messageFingerprint() {
+    return messageFingerprint;
+  }
+
+  /**
+   * Determines whether the enclosed message is a member of the given {@link RecordTypeFamily}, without decoding it.
+   */
+  public boolean messageIsInstanceOf(RecordTypeFamily typeFamily) {
+    return typeFamily.hasVersion(messageFingerprint);
+  }
+
+  public int annotationCount() {
+    return annotationFingerprints.length;
+  }
+
+  public long annotationFingerprint(int index) {
+    return annotationFingerprints[index];
+  }
+
+  /**
+   * Determines whether any annotation on this envelope is a member of the given {@link RecordTypeFamily}, without
+   * decoding the annotations.
+   */
+  public boolean hasAnnotation(RecordTypeFamily typeFamily) {
+    for (long fingerprint : annotationFingerprints) {
+      if (typeFamily.hasVersion(fingerprint)) return true;
+    }
+    return false;
+  }
+
+  public long eventTimestamp() {
+    return eventTimestamp;
+  }
+
+  public EventTimestampResolution timestampResolution() {
+    return timestampResolution;
+  }
+
+  public Instant timestamp() {
+    return EnvelopeDecoder.toInstant(eventTimestamp, timestampResolution);
+  }
+
+  public String uniqueId() {
+    if (uniqueId == null) {
+      uniqueId = body != null
+              ? BufferDecoder.readString(body.duplicate().position(uniqueIdOffset))
+              : envelope.getUniqueId();
+    }
+    return uniqueId;
+  }
+
+  public MessageMetadata metadata() {
+    if (metadata == null) {
+      metadata = body != null
+              ? BufferDecoder.readMessageMetadata(body.duplicate().position(metadataOffset))
+              : EnvelopeDecoder.extractMetadata(envelope);
+    }
+    return metadata;
+  }
+
+  /**
+   * @return the enclosed message, still in its packed form (its data is a slice of the underlying buffer)
+   */
+  public PackedRecord messageRecord() {
+    return envelope != null ? envelope.getMessage() : BufferDecoder.readPackedRecord(body.duplicate());
+  }
+
+  /**
+   * Decodes the full {@link MessageEnvelope}.
+   */
+  public MessageEnvelope rawEnvelope() {
+    if (envelope == null) envelope = BufferDecoder.readMessageEnvelope(body.duplicate());
+    return envelope;
+  }
+
+  /**
+   * Decodes the full envelope, and prepares it for unpacking.
+   * @see EnvelopeDecoder#makeUnpackable
+   */
+  public CompletableFuture<UnpackableMessageEnvelope> toUnpackable() {
+    return decoder.makeUnpackable(rawEnvelope());
+  }
+
+  @Override
+  public String toString() {
+    return "EnvelopeProjection{messageFingerprint=" + SchemaFingerprint.of(messageFingerprint).hexValue()
+            + ", timestamp=" + timestamp() + '}';
+  }
+}
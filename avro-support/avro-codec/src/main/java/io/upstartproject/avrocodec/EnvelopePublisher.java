@@ -1,23 +1,43 @@
 package io.upstartproject.avrocodec;
 
 import com.google.common.collect.Lists;
+import io.upstartproject.avro.CompactMessageEnvelope;
+import io.upstartproject.avro.DeploymentStage;
 import io.upstartproject.avro.EventTimestampResolution;
 import io.upstartproject.avro.MessageEnvelope;
 import io.upstartproject.avro.PackedRecord;
+import org.apache.avro.Schema;
 import upstart.util.strings.RandomId;
 
 import javax.inject.Inject;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 
+/**
+ * Builds and serializes {@link MessageEnvelope}s.
+ * <p/>
+ * For high-volume streams, the {@link MessageMetadata} repeated in every envelope may be
+ * {@link #registerCompactMetadata registered} with the {@link SchemaRegistry}: envelopes carrying registered metadata are
+ * then serialized as {@link CompactMessageEnvelope}s, which refer to the metadata by fingerprint, and are expanded
+ * transparently by the {@link EnvelopeDecoder}. Note that consumers must be running a version of the
+ * {@link EnvelopeDecoder} which supports {@link CompactMessageEnvelope}s before compact metadata is registered.
+ */
 public class EnvelopePublisher {
   public static final SpecificRecordType<MessageEnvelope> MESSAGE_ENVELOPE_TYPE = SpecificRecordType.of(MessageEnvelope.class);
+  public static final SpecificRecordType<CompactMessageEnvelope> COMPACT_MESSAGE_ENVELOPE_TYPE = SpecificRecordType.of(CompactMessageEnvelope.class);
   protected final AvroPublisher avroPublisher;
+  private final Map<MetadataKey, Long> compactMetadataFingerprints = new ConcurrentHashMap<>();
   private volatile SpecificRecordPacker<MessageEnvelope> envelopeEncoder = null;
+  private volatile SpecificRecordPacker<CompactMessageEnvelope> compactEnvelopeEncoder = null;
 
   @Inject
   public EnvelopePublisher(AvroPublisher avroPublisher) {
@@ -28,6 +48,22 @@ public class EnvelopePublisher {
     return avroPublisher.ensureRegistered(Stream.of(MESSAGE_ENVELOPE_TYPE)).thenApply(ignored -> this);
   }
 
+  /**
+   * Registers the given metadata with the {@link SchemaRegistry} (as the field-defaults of an {@code EnvelopeMetadata}
+   * schema), so that
+   * envelopes subsequently serialized with identical metadata are written as {@link CompactMessageEnvelope}s.
+   */
+  public CompletableFuture<EnvelopePublisher> registerCompactMetadata(MessageMetadata metadata) {
+    Schema metadataSchema = EnvelopeMetadataSchema.toSchema(metadata);
+    return CompletableFuture.allOf(
+            avroPublisher.ensureRegistered(Stream.of(COMPACT_MESSAGE_ENVELOPE_TYPE)),
+            avroPublisher.ensureRegistered(metadataSchema)
+    ).thenApply(__ -> {
+      compactMetadataFingerprints.put(MetadataKey.of(metadata), SchemaFingerprint.of(metadataSchema).value());
+      return this;
+    });
+  }
+
   public AvroPublisher avroPublisher() {
     return avroPublisher;
   }
@@ -92,6 +128,31 @@ public class EnvelopePublisher {
     return envelopeEncoder;
   }
 
+  /**
+   * Prepares the given envelope for serialization as a {@link CompactMessageEnvelope} if its metadata was
+   * {@link #registerCompactMetadata registered}, or as a {@link MessageEnvelope} otherwise.
+   */
+  public PackableRecord<?> makeSerializable(MessageEnvelope envelope) {
+    if (compactMetadataFingerprints.isEmpty()) return makePackable(envelope);
+    Long metadataFingerprint = compactMetadataFingerprints.get(MetadataKey.of(envelope));
+    if (metadataFingerprint == null) return makePackable(envelope);
+    return compactEnvelopePacker().makePackable(new CompactMessageEnvelope(
+            envelope.getMessage(),
+            envelope.getAnnotations(),
+            envelope.getUniqueId(),
+            envelope.getEventTimestamp(),
+            envelope.getTimestampResolution(),
+            metadataFingerprint
+    ));
+  }
+
+  private SpecificRecordPacker<CompactMessageEnvelope> compactEnvelopePacker() {
+    if (compactEnvelopeEncoder == null) {
+      compactEnvelopeEncoder = avroPublisher.getPreRegisteredPacker(CompactMessageEnvelope.class);
+    }
+    return compactEnvelopeEncoder;
+  }
+
   public MessageEnvelope buildMessageEnvelope(
           Instant timestamp,
           Optional<String> uniqueId,
@@ -154,6 +215,27 @@ public class EnvelopePublisher {
 
 
   public byte[] getSerializedBytes(MessageEnvelope envelope) {
-    return makePackable(envelope).serialize();
+    return makeSerializable(envelope).serialize();
+  }
+
+  public void writeSerializedBytes(MessageEnvelope envelope, OutputStream out) throws IOException {
+    makeSerializable(envelope).writeSerialized(out);
+  }
+
+  public void writeSerializedBytes(MessageEnvelope envelope, ByteBuffer out) {
+    makeSerializable(envelope).writeSerialized(out);
+  }
+
+  /**
+   * Identifies the metadata of an envelope without copying its tags (as {@link EnvelopeDecoder#extractMetadata} would).
+   */
+  private record MetadataKey(String application, String owner, String environment, DeploymentStage deploymentStage, Map<String, String> tags) {
+    static MetadataKey of(MessageMetadata metadata) {
+      return new MetadataKey(metadata.application(), metadata.owner(), metadata.environment(), metadata.deploymentStage(), metadata.tags());
+    }
+
+    static MetadataKey of(MessageEnvelope envelope) {
+      return new MetadataKey(envelope.getApplication(), envelope.getOwner(), envelope.getEnvironment(), envelope.getDeploymentStage(), envelope.getTags());
+    }
   }
 }
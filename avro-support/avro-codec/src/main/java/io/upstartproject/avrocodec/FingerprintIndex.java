@@ -0,0 +1,101 @@
+package io.upstartproject.avrocodec;
+
+/**
+ * A map from {@link SchemaFingerprint#value fingerprint} values to objects, optimized for lock-free lookups on
+ * decoding hot-paths: lookups require no boxing, hashing of key-objects, or {@link SchemaFingerprint#of interning}.
+ * <p/>
+ * Entries are held in an immutable open-addressing table which is replaced (copy-on-write) whenever an entry is
+ * added or removed. This makes mutation relatively expensive, which is appropriate because schemas are registered
+ * rarely, but looked up for every record.
+ */
+final class FingerprintIndex<V> {
+  private static final int MIN_CAPACITY = 16;
+  private static final Table EMPTY = new Table(new long[MIN_CAPACITY], new Object[MIN_CAPACITY], 0);
+
+  private volatile Table table = EMPTY;
+
+  /**
+   * @return the value associated with the given fingerprint, or {@code null} if there is none
+   */
+  @SuppressWarnings("unchecked")
+  V get(long fingerprint) {
+    return (V) table.get(fingerprint);
+  }
+
+  boolean containsKey(long fingerprint) {
+    return table.get(fingerprint) != null;
+  }
+
+  int size() {
+    return table.size;
+  }
+
+  synchronized void put(long fingerprint, V value) {
+    Table current = table;
+    Object existing = current.get(fingerprint);
+    if (existing == value) return;
+    int newSize = existing == null ? current.size + 1 : current.size;
+    Table updated = Table.withCapacityFor(newSize);
+    current.copyInto(updated, fingerprint);
+    updated.insert(fingerprint, value);
+    table = updated;
+  }
+
+  synchronized void remove(long fingerprint) {
+    Table current = table;
+    if (current.get(fingerprint) == null) return;
+    Table updated = Table.withCapacityFor(current.size - 1);
+    current.copyInto(updated, fingerprint);
+    table = updated;
+  }
+
+  private static final class Table {
+    private final long[] keys;
+    private final Object[] values; // a null value denotes an empty slot
+    private final int mask;
+    private int size;
+
+    Table(long[] keys, Object[] values, int size) {
+      this.keys = keys;
+      this.values = values;
+      this.mask = keys.length - 1;
+      this.size = size;
+    }
+
+    /**
+     * Allocates a table with a load-factor of at most 50%
+     */
+    static Table withCapacityFor(int size) {
+      int capacity = Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, size) * 2 - 1) << 1);
+      return new Table(new long[capacity], new Object[capacity], 0);
+    }
+
+    Object get(long key) {
+      for (int i = slot(key); ; i = (i + 1) & mask) {
+        Object value = values[i];
+        if (value == null || keys[i] == key) return value;
+      }
+    }
+
+    void insert(long key, Object value) {
+      int i = slot(key);
+      while (values[i] != null) {
+        i = (i + 1) & mask;
+      }
+      keys[i] = key;
+      values[i] = value;
+      size++;
+    }
+
+    void copyInto(Table target, long excludedKey) {
+      for (int i = 0; i < values.length; i++) {
+        if (values[i] != null && keys[i] != excludedKey) target.insert(keys[i], values[i]);
+      }
+    }
+
+    private int slot(long key) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32)) & mask;
+    }
+  }
+}
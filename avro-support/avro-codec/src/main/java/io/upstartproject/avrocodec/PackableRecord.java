@@ -11,6 +11,7 @@ import org.immutables.value.Value;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Optional;
 
 /**
@@ -56,6 +57,21 @@ public interface PackableRecord<T extends GenericRecord> {
     AvroPublisher.writePackedRecord(packedRecord(), out);
   }
 
+  /**
+   * Writes the {@link #serialize serialized} form of this record into the given buffer, without any intermediate copies.
+   * @throws java.nio.BufferOverflowException if the buffer has fewer than {@link #serializedSize} bytes remaining
+   */
+  default void writeSerialized(ByteBuffer out) {
+    AvroPublisher.writePackedRecord(packedRecord(), out);
+  }
+
+  /**
+   * @return the number of bytes that will be produced by {@link #serialize} or {@link #writeSerialized}
+   */
+  default int serializedSize() {
+    return AvroPublisher.serializedSize(packedRecord());
+  }
+
   default <R extends GenericRecord> Optional<PackableRecord<R>> asInstance(Class<R> recordClass) {
     return Reflect.blindCast(Optionals.onlyIf(recordClass.isInstance(record()), this));
   }
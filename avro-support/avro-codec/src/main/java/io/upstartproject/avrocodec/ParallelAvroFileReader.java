@@ -0,0 +1,156 @@
+package io.upstartproject.avrocodec;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Streams;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.SeekableFileInput;
+import org.apache.avro.io.DatumReader;
+import upstart.util.concurrent.Promise;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Reads avro container files (such as those produced by {@link AvroPackedLogFileAccumulator}) by dividing them into
+ * byte-range "splits", which are decompressed and decoded concurrently.
+ * <p/>
+ * Avro container files are composed of independently-compressed blocks delimited by sync-markers, so each split is
+ * read by seeking to the first sync-marker at or after its start-offset, and then reading every block which begins
+ * before its end-offset (as with hadoop's avro input-formats).
+ * <p/>
+ * At most {@code maxSplitsInFlight} splits are read ahead of the consumer at any time, to bound memory usage.
+ * When {@code preserveOrder} is false, splits are emitted in the order they complete, rather than in file-order.
+ *
+ * @see AvroDecoder#readPackedRecordFile(File, ParallelAvroFileReader)
+ * @see EnvelopeDecoder#readEnvelopeFile(File, ParallelAvroFileReader)
+ */
+public class ParallelAvroFileReader {
+  public static final long DEFAULT_SPLIT_SIZE_BYTES = 8 * 1024 * 1024;
+
+  private final Executor executor;
+  private final long splitSizeBytes;
+  private final int maxSplitsInFlight;
+  private final boolean preserveOrder;
+
+  public ParallelAvroFileReader(Executor executor, long splitSizeBytes, int maxSplitsInFlight, boolean preserveOrder) {
+    checkArgument(splitSizeBytes > 0, "splitSizeBytes must be positive");
+    checkArgument(maxSplitsInFlight > 0, "maxSplitsInFlight must be positive");
+    this.executor = executor;
+    this.splitSizeBytes = splitSizeBytes;
+    this.maxSplitsInFlight = maxSplitsInFlight;
+    this.preserveOrder = preserveOrder;
+  }
+
+  /**
+   * @return a reader which uses the {@link ForkJoinPool#commonPool common ForkJoinPool}, reading up to twice as many
+   * splits ahead as there are processors.
+   */
+  public static ParallelAvroFileReader withCommonPool(boolean preserveOrder) {
+    return new ParallelAvroFileReader(
+            ForkJoinPool.commonPool(),
+            DEFAULT_SPLIT_SIZE_BYTES,
+            ForkJoinPool.getCommonPoolParallelism() * 2,
+            preserveOrder
+    );
+  }
+
+  /**
+   * Reads all records from the given file, using a {@link DatumReader} from the given {@code readerFactory} for each split.
+   */
+  public <T> Stream<T> read(File file, Supplier<? extends DatumReader<T>> readerFactory) {
+    return read(file, readerFactory, CompletableFuture::completedFuture);
+  }
+
+  /**
+   * Reads all records from the given file, and then applies the given (possibly asynchronous) {@code transform} to
+   * the records read from each split.
+   */
+  public <T, R> Stream<R> read(
+          File file,
+          Supplier<? extends DatumReader<T>> readerFactory,
+          Function<? super List<T>, ? extends CompletableFuture<List<R>>> transform
+  ) {
+    long fileLength = file.length();
+    long splitCount = Math.max(1, (fileLength + splitSizeBytes - 1) / splitSizeBytes);
+    Iterator<CompletableFuture<List<R>>> pendingSplits = LongStream.range(0, splitCount)
+            .<CompletableFuture<List<R>>>mapToObj(i -> Promise.callAsync(
+                            () -> readSplit(file, readerFactory.get(), i * splitSizeBytes, (i + 1) * splitSizeBytes),
+                            executor
+                    ).thenCompose(transform)
+            ).iterator();
+
+    Iterator<List<R>> completedSplits = preserveOrder
+            ? new OrderedSplitIterator<>(pendingSplits)
+            : new UnorderedSplitIterator<>(pendingSplits);
+
+    return Streams.stream(completedSplits).flatMap(List::stream);
+  }
+
+  private static <T> List<T> readSplit(File file, DatumReader<T> datumReader, long start, long end) throws IOException {
+    List<T> records = new ArrayList<>();
+    try (DataFileReader<T> reader = new DataFileReader<>(new SeekableFileInput(file), datumReader)) {
+      reader.sync(start);
+      while (reader.hasNext() && !reader.pastSync(end)) {
+        records.add(reader.next());
+      }
+    }
+    return records;
+  }
+
+  private class OrderedSplitIterator<R> extends AbstractIterator<List<R>> {
+    private final Iterator<CompletableFuture<List<R>>> pendingSplits;
+    private final Queue<CompletableFuture<List<R>>> inFlight = new ArrayDeque<>();
+
+    OrderedSplitIterator(Iterator<CompletableFuture<List<R>>> pendingSplits) {
+      this.pendingSplits = pendingSplits;
+    }
+
+    @Override
+    protected List<R> computeNext() {
+      while (inFlight.size() < maxSplitsInFlight && pendingSplits.hasNext()) {
+        inFlight.add(pendingSplits.next());
+      }
+      CompletableFuture<List<R>> next = inFlight.poll();
+      return next != null ? next.join() : endOfData();
+    }
+  }
+
+  private class UnorderedSplitIterator<R> extends AbstractIterator<List<R>> {
+    private final Iterator<CompletableFuture<List<R>>> pendingSplits;
+    private final BlockingQueue<CompletableFuture<List<R>>> completed = new LinkedBlockingQueue<>();
+    private int inFlightCount = 0;
+
+    UnorderedSplitIterator(Iterator<CompletableFuture<List<R>>> pendingSplits) {
+      this.pendingSplits = pendingSplits;
+    }
+
+    @Override
+    protected List<R> computeNext() {
+      while (inFlightCount < maxSplitsInFlight && pendingSplits.hasNext()) {
+        CompletableFuture<List<R>> split = pendingSplits.next();
+        inFlightCount++;
+        split.whenComplete((ignored, e) -> completed.add(split));
+      }
+      if (inFlightCount == 0) return endOfData();
+      inFlightCount--;
+      return Uninterruptibles.takeUninterruptibly(completed).join();
+    }
+  }
+}
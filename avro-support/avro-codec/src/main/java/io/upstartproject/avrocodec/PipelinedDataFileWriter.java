@@ -0,0 +1,190 @@
+package io.upstartproject.avrocodec;
+
+import com.google.common.io.CountingOutputStream;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.EncoderFactory;
+import upstart.util.concurrent.BlockingBoundedActor;
+import upstart.util.concurrent.Promise;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.LongConsumer;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Writes an avro container-file in two pipelined stages: records are encoded into uncompressed blocks on the calling
+ * thread, and each full block is then handed off to be compressed and written by a sequential stage running on a
+ * separate {@link Executor}. This allows encoding to overlap with compression and IO, so that appenders are not
+ * stalled while large blocks are compressed.
+ * <p/>
+ * At most {@code maxQueuedBlocks} blocks may be awaiting compression at any time; beyond that, {@link #append} blocks
+ * until the compression stage catches up.
+ * <p/>
+ * The {@link #append} and {@link #close} methods are not thread-safe, and must be invoked sequentially.
+ */
+class PipelinedDataFileWriter<D> {
+  private final DataFileWriter<D> output;
+  private final CountingOutputStream byteCounter;
+  private final DatumWriter<D> datumWriter;
+  private final int blockSizeBytes;
+  private final Executor compressionExecutor;
+  private final BlockingBoundedActor compressionStage;
+  private final LongConsumer onBytesWritten;
+  private final Promise<Void> failure = new Promise<>();
+  private volatile long bytesWritten = 0;
+  private Block currentBlock;
+  private BinaryEncoder encoder = null;
+  private boolean closed = false;
+
+  /**
+   * @param output         a {@link DataFileWriter} which has been {@link DataFileWriter#create created} with a sync-interval
+   *                       of {@code blockSizeBytes}, writing to the given {@code byteCounter}. (Each handed-off block
+   *                       reaches that size only with its final record, so the writer's own block boundaries coincide
+   *                       with ours; a larger interval would only inflate the writer's internal buffer.)
+   * @param onBytesWritten invoked from the compression stage with the number of bytes written for each block
+   */
+  PipelinedDataFileWriter(
+          DataFileWriter<D> output,
+          CountingOutputStream byteCounter,
+          DatumWriter<D> datumWriter,
+          int blockSizeBytes,
+          int maxQueuedBlocks,
+          Executor compressionExecutor,
+          LongConsumer onBytesWritten
+  ) {
+    this.output = output;
+    this.byteCounter = byteCounter;
+    this.datumWriter = datumWriter;
+    this.blockSizeBytes = blockSizeBytes;
+    this.compressionExecutor = compressionExecutor;
+    this.onBytesWritten = onBytesWritten;
+    compressionStage = new BlockingBoundedActor(maxQueuedBlocks);
+    currentBlock = new Block(blockSizeBytes);
+  }
+
+  /**
+   * Encodes the given datum into the current block, handing the block off for compression if it is full.
+   *
+   * @throws DataFileWriter.AppendWriteException if the datum could not be encoded (in which case it is discarded,
+   *                                             and subsequent records may still be appended)
+   * @throws IOException                         if the compression stage has failed
+   */
+  void append(D datum) throws IOException {
+    checkState(!closed, "PipelinedDataFileWriter was closed");
+    throwIfFailed();
+    int recordStart = currentBlock.size();
+    try {
+      encoder = EncoderFactory.get().directBinaryEncoder(currentBlock, encoder);
+      datumWriter.write(datum, encoder);
+    } catch (Exception e) {
+      currentBlock.truncate(recordStart);
+      throw new DataFileWriter.AppendWriteException(e);
+    }
+    currentBlock.endRecord();
+    if (currentBlock.size() >= blockSizeBytes) handOff();
+  }
+
+  /**
+   * @return the number of bytes which have been written to the output by the compression stage so far. Note that
+   * this lags behind the records that have been {@link #append appended}.
+   */
+  long bytesWritten() {
+    return bytesWritten;
+  }
+
+  /**
+   * A {@link Promise} which fails if the compression stage encounters an error.
+   */
+  Promise<Void> failure() {
+    return failure;
+  }
+
+  /**
+   * Hands off any partially-filled block, and closes the output after all blocks have been written.
+   * @return a {@link Promise} which completes when the output has been closed, or fails if any block could not be
+   * written (in which case the output is still closed)
+   */
+  Promise<Void> close() {
+    checkState(!closed, "PipelinedDataFileWriter was closed more than once");
+    closed = true;
+    if (currentBlock.recordCount() > 0) handOff();
+    return compressionStage.send(output::close, compressionExecutor)
+            .uponFailure(this::closeAfterFailure);
+  }
+
+  private void closeAfterFailure() {
+    // a block failed, so the stage skipped the close (and will not write anything else)
+    try {
+      output.close();
+    } catch (IOException | RuntimeException e) {
+      // the original failure has already been reported
+    }
+  }
+
+  private void handOff() {
+    Block block = currentBlock;
+    currentBlock = new Block(blockSizeBytes);
+    compressionStage.send(() -> writeBlock(block), compressionExecutor)
+            .uponFailure(failure::completeExceptionally);
+  }
+
+  private void writeBlock(Block block) throws IOException {
+    block.appendTo(output);
+    output.sync(); // compresses and writes the block, unless the final record already filled the sync-interval
+    long count = byteCounter.getCount();
+    long written = count - bytesWritten;
+    bytesWritten = count;
+    if (written > 0) onBytesWritten.accept(written);
+  }
+
+  private void throwIfFailed() throws IOException {
+    if (failure.isCompletedExceptionally()) {
+      try {
+        failure.join();
+      } catch (CompletionException e) {
+        throw new IOException("Compression stage failed", e.getCause());
+      }
+    }
+  }
+
+  /**
+   * The uncompressed, encoded records for a single avro block.
+   */
+  private static class Block extends ByteArrayOutputStream {
+    private int[] recordEnds = new int[64];
+    private int recordCount = 0;
+
+    Block(int capacity) {
+      super(capacity);
+    }
+
+    int recordCount() {
+      return recordCount;
+    }
+
+    void endRecord() {
+      if (recordCount == recordEnds.length) recordEnds = Arrays.copyOf(recordEnds, recordCount * 2);
+      recordEnds[recordCount++] = count;
+    }
+
+    void truncate(int size) {
+      count = size;
+    }
+
+    <D> void appendTo(DataFileWriter<D> output) throws IOException {
+      int start = 0;
+      for (int i = 0; i < recordCount; i++) {
+        int end = recordEnds[i];
+        output.appendEncoded(ByteBuffer.wrap(buf, start, end - start));
+        start = end;
+      }
+    }
+  }
+}
@@ -11,9 +11,7 @@ import upstart.util.collect.Optionals;
 import upstart.util.collect.PairStream;
 
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -25,7 +23,7 @@ import java.util.stream.Stream;
  */
 public class RecordTypeFamily {
   private final String fullName;
-  private final Map<SchemaFingerprint, SchemaDescriptor> versionsByFingerprint = new ConcurrentHashMap<>();
+  private final FingerprintIndex<SchemaDescriptor> versionsByFingerprint = new FingerprintIndex<>();
   private final List<SchemaDescriptor> orderedVersions = new CopyOnWriteArrayList<>();
 
   RecordTypeFamily(String fullName) {
@@ -45,7 +43,15 @@ public class RecordTypeFamily {
   }
 
   public boolean isInstance(UnpackableRecord record) {
-    return versionsByFingerprint.containsKey(record.fingerprint());
+    return versionsByFingerprint.containsKey(record.fingerprint().value());
+  }
+
+  /**
+   * Determines whether the schema identified by the given {@link SchemaFingerprint#value fingerprint} is a registered
+   * version of this RecordTypeFamily.
+   */
+  public boolean hasVersion(long fingerprint) {
+    return versionsByFingerprint.containsKey(fingerprint);
   }
 
   public List<SchemaFingerprint> getAllFingerprints() {
@@ -103,7 +109,9 @@ public class RecordTypeFamily {
     return checkCompatibility(schema)
             .map(this::failedRegistration)
             .orElseGet(() -> {
-              SchemaDescriptor prev = versionsByFingerprint.put(schema.fingerprint(), schema);
+              long fingerprint = schema.fingerprint().value();
+              SchemaDescriptor prev = versionsByFingerprint.get(fingerprint);
+              versionsByFingerprint.put(fingerprint, schema);
               if (prev != null) {
                 if (!prev.equals(schema)) orderedVersions.set(orderedVersions.indexOf(prev), schema);
               } else {
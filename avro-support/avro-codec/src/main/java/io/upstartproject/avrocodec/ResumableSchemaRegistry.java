@@ -0,0 +1,38 @@
+package io.upstartproject.avrocodec;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link SchemaRegistry} which can resume streaming its contents from a previously-observed position, rather than
+ * from the beginning. This allows a {@link SnapshotSchemaRegistry} to start from a local snapshot, and fetch only the
+ * changes that were made after the snapshot was taken.
+ */
+public interface ResumableSchemaRegistry extends SchemaRegistry {
+  /**
+   * Like {@link #startUp(SchemaListener)}, but only streams the additions and removals which follow the given
+   * {@code highWaterMark} (as previously returned by {@link #highWaterMark}). Implementations may redeliver some
+   * changes which preceded the mark; these are ignored by the {@link SnapshotSchemaRegistry}.
+   */
+  CompletableFuture<?> startUp(SchemaListener schemaListener, Optional<String> highWaterMark);
+
+  /**
+   * @return an opaque position which covers every change that has been delivered to the {@link SchemaListener} so
+   * far (and no changes which have not yet been delivered), or empty if nothing has been delivered
+   */
+  Optional<String> highWaterMark();
+
+  /**
+   * Indicates whether resuming from a {@link #highWaterMark} also delivers the removals made after the mark. If not,
+   * the {@link SnapshotSchemaRegistry} instead streams the full contents of this registry (and drops any schemas from
+   * its snapshot which are no longer present), because stale schemas would otherwise be served indefinitely.
+   */
+  default boolean resumesRemovals() {
+    return true;
+  }
+
+  @Override
+  default CompletableFuture<?> startUp(SchemaListener schemaListener) {
+    return startUp(schemaListener, Optional.empty());
+  }
+}
@@ -0,0 +1,206 @@
+package io.upstartproject.avrocodec;
+
+import upstart.util.concurrent.TempFileFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * An immutable on-disk image of the contents of a {@link SchemaRegistry}, as maintained by {@link SnapshotSchemaRegistry}.
+ * <p/>
+ * The file is memory-mapped when {@link #load loaded}, and holds:
+ * <ol>
+ *   <li>a header, including an opaque high-water mark (see {@link ResumableSchemaRegistry#highWaterMark})</li>
+ *   <li>an index of (fingerprint, offset) pairs, sorted by fingerprint, for {@link #find} by binary-search</li>
+ *   <li>the schema JSON for each entry, in the order the schemas were added to the registry</li>
+ *   <li>a CRC32C checksum of all of the above</li>
+ * </ol>
+ * Schemas are only parsed when they are {@link #find found} or {@link #schemas streamed}.
+ */
+public final class SchemaRegistrySnapshot {
+  private static final int MAGIC = 0x41565353; // "AVSS"
+  private static final int FORMAT_VERSION = 1;
+  private static final int INDEX_ENTRY_BYTES = Long.BYTES + Integer.BYTES;
+
+  private final Path path;
+  private final ByteBuffer buffer;
+  private final Optional<String> highWaterMark;
+  private final int entryCount;
+  private final int indexStart;
+  private final int dataStart;
+
+  private SchemaRegistrySnapshot(Path path, ByteBuffer buffer) throws IOException {
+    this.path = path;
+    this.buffer = buffer;
+    int length = buffer.limit();
+    if (length < 3 * Integer.BYTES + Long.BYTES) throw corrupt("truncated");
+    CRC32C crc = new CRC32C();
+    crc.update(buffer.duplicate().limit(length - Long.BYTES));
+    if (crc.getValue() != buffer.getLong(length - Long.BYTES)) throw corrupt("checksum mismatch");
+
+    ByteBuffer header = buffer.duplicate();
+    if (header.getInt() != MAGIC) throw corrupt("unrecognized format");
+    int version = header.getInt();
+    if (version != FORMAT_VERSION) throw corrupt("unsupported version " + version);
+    int markLength = header.getInt();
+    if (markLength >= 0) {
+      byte[] markBytes = new byte[markLength];
+      header.get(markBytes);
+      highWaterMark = Optional.of(new String(markBytes, StandardCharsets.UTF_8));
+    } else {
+      highWaterMark = Optional.empty();
+    }
+    entryCount = header.getInt();
+    indexStart = header.position();
+    dataStart = indexStart + entryCount * INDEX_ENTRY_BYTES;
+  }
+
+  /**
+   * @return the snapshot stored at the given path, or empty if there is none
+   * @throws IOException if the file could not be read, or is not a valid snapshot
+   */
+  public static Optional<SchemaRegistrySnapshot> load(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return Optional.of(new SchemaRegistrySnapshot(path, buffer));
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Atomically replaces the snapshot at the given path.
+   *
+   * @param schemas the schemas to store, in the order that they were added to the registry
+   */
+  public static void write(Path path, Optional<String> highWaterMark, List<? extends SchemaDescriptor> schemas) throws IOException {
+    List<byte[]> jsonBytes = schemas.stream()
+            .map(schema -> schema.schema().toString().getBytes(StandardCharsets.UTF_8))
+            .toList();
+    int[] offsets = new int[schemas.size()];
+    int offset = 0;
+    for (int i = 0; i < offsets.length; i++) {
+      offsets[i] = offset;
+      offset = Math.addExact(offset, Integer.BYTES + jsonBytes.get(i).length);
+    }
+    Integer[] sortedEntries = IntStream.range(0, schemas.size())
+            .boxed()
+            .sorted(Comparator.comparingLong(i -> schemas.get(i).fingerprint().value()))
+            .toArray(Integer[]::new);
+
+    Path directory = path.toAbsolutePath().getParent();
+    Files.createDirectories(directory);
+    TempFileFactory.builder(directory).tempFileSuffix(".tmp").build().writeFileAtomically(path, tempFile -> {
+      CRC32C crc = new CRC32C();
+      try (OutputStream fileOut = Files.newOutputStream(tempFile)) {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fileOut, crc)));
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        if (highWaterMark.isPresent()) {
+          byte[] markBytes = highWaterMark.get().getBytes(StandardCharsets.UTF_8);
+          out.writeInt(markBytes.length);
+          out.write(markBytes);
+        } else {
+          out.writeInt(-1);
+        }
+        out.writeInt(schemas.size());
+        for (int i : sortedEntries) {
+          out.writeLong(schemas.get(i).fingerprint().value());
+          out.writeInt(offsets[i]);
+        }
+        for (byte[] json : jsonBytes) {
+          out.writeInt(json.length);
+          out.write(json);
+        }
+        out.flush();
+        out = new DataOutputStream(fileOut); // the checksum is not included in itself
+        out.writeLong(crc.getValue());
+        out.flush();
+      }
+    });
+  }
+
+  public Path path() {
+    return path;
+  }
+
+  /**
+   * The position in the registry covered by this snapshot, from which a {@link ResumableSchemaRegistry} may resume.
+   */
+  public Optional<String> highWaterMark() {
+    return highWaterMark;
+  }
+
+  public int size() {
+    return entryCount;
+  }
+
+  /**
+   * Looks up a schema by binary-search of the fingerprint index.
+   */
+  public Optional<SchemaDescriptor> find(SchemaFingerprint fingerprint) {
+    long target = fingerprint.value();
+    int low = 0;
+    int high = entryCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long midFingerprint = buffer.getLong(indexStart + mid * INDEX_ENTRY_BYTES);
+      if (midFingerprint < target) {
+        low = mid + 1;
+      } else if (midFingerprint > target) {
+        high = mid - 1;
+      } else {
+        return Optional.of(readSchema(buffer.getInt(indexStart + mid * INDEX_ENTRY_BYTES + Long.BYTES)));
+      }
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * @return all of the stored schemas, in the order that they were added to the registry
+   */
+  public Stream<SchemaDescriptor> schemas() {
+    List<Integer> offsets = new ArrayList<>(entryCount);
+    int offset = 0;
+    for (int i = 0; i < entryCount; i++) {
+      offsets.add(offset);
+      offset += Integer.BYTES + buffer.getInt(dataStart + offset);
+    }
+    return offsets.stream().map(this::readSchema);
+  }
+
+  private SchemaDescriptor readSchema(int offset) {
+    int position = dataStart + offset;
+    int length = buffer.getInt(position);
+    byte[] json = new byte[length];
+    buffer.get(position + Integer.BYTES, json);
+    return SchemaDescriptor.of(json);
+  }
+
+  private IOException corrupt(String reason) {
+    return new IOException("Invalid schema-registry snapshot (" + reason + "): " + path);
+  }
+
+  @Override
+  public String toString() {
+    return "SchemaRegistrySnapshot{" + path + ", size=" + entryCount + ", highWaterMark=" + highWaterMark.orElse("<none>") + "}";
+  }
+}
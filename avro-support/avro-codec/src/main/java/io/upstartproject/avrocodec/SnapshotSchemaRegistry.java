@@ -0,0 +1,201 @@
+package io.upstartproject.avrocodec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import upstart.util.concurrent.CompletableFutures;
+import upstart.util.concurrent.Promise;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link SchemaRegistry} which maintains a local {@link SchemaRegistrySnapshot} of the contents of another registry,
+ * so that processes may start up without waiting to fetch every schema from the remote store.
+ * <p/>
+ * On {@link #startUp}, the schemas in the snapshot (if any) are immediately presented to the {@link SchemaListener},
+ * and then the delegate registry is started. If the delegate is a {@link ResumableSchemaRegistry} which
+ * {@link ResumableSchemaRegistry#resumesRemovals resumes removals}, it resumes from the snapshot's high-water mark, so
+ * that only the changes made since the snapshot are fetched. Otherwise, it streams its full contents: schemas already
+ * known from the snapshot are ignored, and once the delegate's first {@link #refresh} has delivered everything, schemas
+ * from the snapshot which it did not deliver (ie, which were deleted while this process was down) are removed.
+ * <p/>
+ * The snapshot is rewritten after each {@link #refresh} which observes changes, and on {@link #shutDown}.
+ * <p/>
+ * If a snapshot was loaded, then the delegate's failure to start (eg, because the remote store is unreachable) is
+ * tolerated by the first {@link #refresh}, so that processes can start from the snapshot alone; the delegate is
+ * started again by subsequent calls to {@link #refresh}, which fail until it succeeds.
+ */
+public class SnapshotSchemaRegistry implements SchemaRegistry {
+  private static final Logger LOG = LoggerFactory.getLogger(SnapshotSchemaRegistry.class);
+
+  private final SchemaRegistry delegate;
+  private final Path snapshotPath;
+  private final Map<Long, SchemaDescriptor> schemas = new LinkedHashMap<>(); // guarded by this; in insertion-order
+  private final Object snapshotWriteLock = new Object();
+  private SchemaListener schemaListener;
+  private Optional<String> loadedHighWaterMark = Optional.empty();
+  private boolean reconcileWithFullLoad = false;
+  private Set<Long> deliveredByFullLoad; // guarded by this; non-null while reconcileWithFullLoad
+  private Promise<Void> delegateStartup;
+  private boolean tolerateOfflineStartup = false;
+  private boolean changedSinceSnapshot = false;
+
+  public SnapshotSchemaRegistry(SchemaRegistry delegate, Path snapshotPath) {
+    this.delegate = delegate;
+    this.snapshotPath = snapshotPath;
+  }
+
+  @Override
+  public synchronized CompletableFuture<?> startUp(SchemaListener schemaListener) {
+    this.schemaListener = schemaListener;
+    loadSnapshot().ifPresent(snapshot -> {
+      LOG.info("Starting from {}", snapshot);
+      loadedHighWaterMark = snapshot.highWaterMark();
+      reconcileWithFullLoad = !resumesFromSnapshot();
+      tolerateOfflineStartup = true;
+      snapshot.schemas().forEach(schema -> {
+        schemas.put(schema.fingerprint().value(), schema);
+        schemaListener.onSchemaAdded(schema);
+      });
+    });
+    startDelegate();
+    return CompletableFutures.nullFuture();
+  }
+
+  @Override
+  public CompletableFuture<?> insert(List<? extends SchemaDescriptor> schemas) {
+    return delegateStartup.thenCompose(__ -> delegate.insert(schemas));
+  }
+
+  @Override
+  public CompletableFuture<?> delete(SchemaDescriptor schema) {
+    return delegateStartup.thenCompose(__ -> delegate.delete(schema));
+  }
+
+  @Override
+  public CompletableFuture<Void> refresh() {
+    Promise<Void> startup;
+    boolean tolerateFailure;
+    synchronized (this) {
+      if (delegateStartup.isCompletedExceptionally() && !tolerateOfflineStartup) startDelegate();
+      startup = delegateStartup;
+      tolerateFailure = tolerateOfflineStartup;
+      tolerateOfflineStartup = false;
+    }
+    Promise<Void> refreshed = startup.thenCompose(__ -> delegate.refresh())
+            .thenRun(this::removeSchemasMissingFromFullLoad)
+            .thenRun(this::writeSnapshotIfChanged);
+    if (!tolerateFailure) return refreshed;
+    return refreshed.exceptionally(e -> {
+      LOG.warn("Schema-registry is unavailable; proceeding with the contents of snapshot {}", snapshotPath, e);
+      return null;
+    });
+  }
+
+  @Override
+  public CompletableFuture<?> shutDown() {
+    return delegateStartup
+            .handle((__, startupFailure) -> startupFailure == null ? delegate.shutDown() : CompletableFutures.nullFuture())
+            .thenCompose(stopped -> stopped)
+            .thenRun(this::writeSnapshotIfChanged);
+  }
+
+  private boolean resumesFromSnapshot() {
+    return delegate instanceof ResumableSchemaRegistry resumable && resumable.resumesRemovals();
+  }
+
+  /**
+   * Must be called while holding the monitor.
+   */
+  private void startDelegate() {
+    SchemaListener delegateListener = new DelegateListener();
+    // a restarted delegate streams everything again
+    if (reconcileWithFullLoad) deliveredByFullLoad = new HashSet<>();
+    delegateStartup = Promise.callSafely(() -> delegate instanceof ResumableSchemaRegistry resumable
+            ? resumable.startUp(delegateListener, resumesFromSnapshot() ? loadedHighWaterMark : Optional.empty())
+            : delegate.startUp(delegateListener)
+    ).toVoid();
+  }
+
+  private void removeSchemasMissingFromFullLoad() {
+    List<SchemaFingerprint> removed = new ArrayList<>();
+    synchronized (this) {
+      if (!reconcileWithFullLoad) return;
+      reconcileWithFullLoad = false;
+      schemas.values().removeIf(schema -> {
+        if (deliveredByFullLoad.contains(schema.fingerprint().value())) return false;
+        removed.add(schema.fingerprint());
+        return true;
+      });
+      deliveredByFullLoad = null;
+      if (!removed.isEmpty()) {
+        LOG.info("Removing {} schemas from snapshot {} which are no longer registered", removed.size(), snapshotPath);
+        changedSinceSnapshot = true;
+        removed.forEach(schemaListener::onSchemaRemoved);
+      }
+    }
+  }
+
+  private Optional<SchemaRegistrySnapshot> loadSnapshot() {
+    try {
+      return SchemaRegistrySnapshot.load(snapshotPath);
+    } catch (IOException | RuntimeException e) {
+      LOG.warn("Ignoring unreadable schema-registry snapshot: {}", snapshotPath, e);
+      return Optional.empty();
+    }
+  }
+
+  private void writeSnapshotIfChanged() {
+    synchronized (snapshotWriteLock) {
+      // read the mark before copying the schemas, so that the snapshot holds at least everything the mark covers
+      Optional<String> highWaterMark = delegate instanceof ResumableSchemaRegistry resumable
+              ? resumable.highWaterMark()
+              : Optional.empty();
+      List<SchemaDescriptor> contents;
+      synchronized (this) {
+        if (!changedSinceSnapshot) return;
+        changedSinceSnapshot = false;
+        contents = List.copyOf(schemas.values());
+      }
+      try {
+        SchemaRegistrySnapshot.write(snapshotPath, highWaterMark, contents);
+      } catch (IOException | RuntimeException e) {
+        LOG.warn("Failed to write schema-registry snapshot: {}", snapshotPath, e);
+        synchronized (this) {
+          changedSinceSnapshot = true;
+        }
+      }
+    }
+  }
+
+  private class DelegateListener implements SchemaListener {
+    @Override
+    public void onSchemaAdded(SchemaDescriptor schema) {
+      synchronized (SnapshotSchemaRegistry.this) {
+        if (deliveredByFullLoad != null) deliveredByFullLoad.add(schema.fingerprint().value());
+        if (schemas.putIfAbsent(schema.fingerprint().value(), schema) == null) {
+          changedSinceSnapshot = true;
+          schemaListener.onSchemaAdded(schema);
+        }
+      }
+    }
+
+    @Override
+    public void onSchemaRemoved(SchemaFingerprint fingerprint) {
+      synchronized (SnapshotSchemaRegistry.this) {
+        if (schemas.remove(fingerprint.value()) != null) {
+          changedSinceSnapshot = true;
+          schemaListener.onSchemaRemoved(fingerprint);
+        }
+      }
+    }
+  }
+}
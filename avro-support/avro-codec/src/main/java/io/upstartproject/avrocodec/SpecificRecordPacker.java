@@ -3,7 +3,7 @@ package io.upstartproject.avrocodec;
 import io.upstartproject.avro.PackedRecord;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
-import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.io.DatumWriter;
 import org.apache.avro.specific.SpecificRecordBase;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -22,7 +22,7 @@ import static com.google.common.base.Preconditions.checkArgument;
  */
 public class SpecificRecordPacker<T extends SpecificRecordBase> implements RecordPackerApi<T> {
   private final AvroPublisher.RecordPacker genericPacker;
-  private final SpecificDatumWriter<GenericRecord> writer;
+  private final DatumWriter<GenericRecord> writer;
   private final SpecificRecordType<T> recordType;
 
   /**
@@ -37,7 +37,7 @@ public class SpecificRecordPacker<T extends SpecificRecordBase> implements Recor
     );
     this.recordType = recordType;
     this.genericPacker = genericPacker;
-    writer = new SpecificDatumWriter<>(recordType.schema());
+    writer = DatumCodecCache.writer(recordType.schema(), recordType.specificData());
   }
 
   public PackedRecord pack(T record) {
@@ -1,8 +1,6 @@
 package io.upstartproject.avrocodec;
 
 import org.apache.avro.Schema;
-import org.apache.avro.io.DatumReader;
-import org.apache.avro.specific.SpecificData;
 import org.apache.avro.specific.SpecificRecordBase;
 
 /**
@@ -37,6 +35,6 @@ public class SpecificRecordUnpacker<T extends SpecificRecordBase> {
   }
 
   public T unpack(UnpackableRecord record) {
-    return record.read(recordType().createDatumReader());
+    return record.read(getSchema(), recordType().specificData());
   }
 }
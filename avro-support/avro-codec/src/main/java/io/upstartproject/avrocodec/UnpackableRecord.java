@@ -4,10 +4,9 @@ import io.upstartproject.avro.PackedRecord;
 import org.apache.avro.specific.SpecificData;
 import upstart.util.exceptions.UncheckedIO;
 import org.apache.avro.Schema;
-import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.io.DatumReader;
-import org.apache.avro.specific.SpecificDatumReader;
 import org.apache.avro.specific.SpecificRecordBase;
 
 import java.util.Map;
@@ -58,7 +57,7 @@ public class UnpackableRecord {
    * (or falls back to GenericRecord if no class is found matching the name of the packed schema)
    */
   public GenericRecord unpackSpecificOrGeneric() {
-    return read(new SpecificDatumReader<>(SpecificData.getForSchema(schema())));
+    return read(schema(), SpecificData.getForSchema(schema()));
   }
 
   /**
@@ -70,7 +69,7 @@ public class UnpackableRecord {
    * @param readerSchema
    */
   public GenericRecord unpackGeneric(Schema readerSchema) {
-    return unpackCache.computeIfAbsent(readerSchema, s -> read(new GenericDatumReader<>(s)));
+    return unpackCache.computeIfAbsent(readerSchema, s -> read(s, GenericData.get()));
   }
 
   /**
@@ -81,15 +80,13 @@ public class UnpackableRecord {
   }
 
   /**
-   * IMPORTANT: DatumReaders are mutable (see {@link DatumReader#setSchema}), so the reader
-   * provided here should probably be constructed anew for each invocation
+   * Deserializes the record into the structure described by the given {@code readerSchema}, using a
+   * {@link DatumReader} from the {@link DatumCodecCache} that has already been resolved for this record's writer-schema.
    */
-  <T extends GenericRecord> T read(DatumReader<T> reader) {
-    reader.setSchema(writerSchema.schema());
+  <T extends GenericRecord> T read(Schema readerSchema, GenericData model) {
+    DatumReader<T> reader = DatumCodecCache.reader(writerSchema, readerSchema, model);
 
-    return UncheckedIO.getUnchecked(() -> reader.read(null, AvroPublisher.binaryDecoder(
-            AvroDecoder.byteBufferInputStream(record.getData())
-    )));
+    return UncheckedIO.getUnchecked(() -> reader.read(null, AvroPublisher.binaryDecoder(record.getData())));
   }
 
   @Override
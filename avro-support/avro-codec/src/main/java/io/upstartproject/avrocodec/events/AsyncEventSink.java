@@ -0,0 +1,283 @@
+package io.upstartproject.avrocodec.events;
+
+import com.google.common.collect.ImmutableList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import upstart.util.LogLevel;
+import upstart.util.concurrent.BoundedRingBuffer;
+import upstart.util.concurrent.CompletableFutures;
+import upstart.util.concurrent.Promise;
+import upstart.util.concurrent.services.ExecutionThreadService;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A {@link PackagedEventSink} which decouples publishers from a set of delegate sinks: {@link #publish published}
+ * events are enqueued into a {@link BoundedRingBuffer}, and delivered to the delegates in batches by a dedicated
+ * consumer thread. This ensures that request-threads never pay for the serialization or IO performed by the delegates.
+ * <p/>
+ * When the buffer is full, the {@link OverflowPolicy} determines whether publishers wait for room (until the consumer
+ * wakes them as it drains the buffer), or events are dropped (and counted; see {@link #droppedEventCount}).
+ * <p/>
+ * Publishing touches no shared state beyond the buffer itself: {@link #flush} waits for the buffer's
+ * {@link BoundedRingBuffer#offeredCount offered} position, as observed when it was called, to be delivered.
+ * <p/>
+ * This is a service, which must be started before events will be delivered: events published earlier are buffered
+ * (and {@link #flush} waits until they have been delivered), except that if the buffer fills before the sink is
+ * started, the {@link OverflowPolicy#Block Block} policy delivers events synchronously rather than waiting. When
+ * stopped, all buffered events are delivered and the delegates are {@link PackagedEventSink#flush flushed}; any events
+ * published after that are delivered synchronously.
+ */
+public class AsyncEventSink extends ExecutionThreadService implements PackagedEventSink {
+  private static final Logger LOG = LoggerFactory.getLogger(AsyncEventSink.class);
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  private final List<PackagedEventSink> delegates;
+  private final BoundedRingBuffer<QueuedEvent> buffer;
+  private final int maxBatchSize;
+  private final OverflowPolicy overflowPolicy;
+  private final LongAdder droppedCount = new LongAdder();
+  private final Queue<FlushRequest> pendingFlushes = new ConcurrentLinkedQueue<>();
+  private final Queue<Thread> blockedPublishers = new ConcurrentLinkedQueue<>();
+  // the buffer's polled position after the consumer's latest batch: every earlier event was delivered (or dropped)
+  private volatile long deliveredCount = 0;
+  private volatile Thread consumerThread = null;
+  private volatile boolean consumerIdle = false;
+
+  public AsyncEventSink(
+          Collection<? extends PackagedEventSink> delegates,
+          int bufferCapacity,
+          int maxBatchSize,
+          OverflowPolicy overflowPolicy
+  ) {
+    checkArgument(maxBatchSize > 0, "maxBatchSize must be positive", maxBatchSize);
+    this.delegates = ImmutableList.copyOf(delegates);
+    this.buffer = new BoundedRingBuffer<>(bufferCapacity);
+    this.maxBatchSize = maxBatchSize;
+    this.overflowPolicy = overflowPolicy;
+    // events and flushes which raced with the final drain in shutDown are delivered once the terminal state is visible
+    getStoppedFuture().whenComplete((state, e) -> drainAfterTermination());
+  }
+
+  /**
+   * Enqueues the given event for delivery to the delegate sinks.
+   * @return a {@link CompletableFuture} which completes immediately; failures of the delegates are logged, but not
+   * reported to the publisher
+   */
+  @Override
+  public CompletableFuture<?> publish(LogLevel diagnosticLogLevel, PackagedEvent event) {
+    QueuedEvent queued = new QueuedEvent(diagnosticLogLevel, event);
+    if (isTerminated()) {
+      deliver(queued);
+      return CompletableFutures.nullFuture();
+    }
+    if (!buffer.offer(queued)) {
+      switch (overflowPolicy) {
+        case Block -> {
+          if (!awaitRoom(queued)) return CompletableFutures.nullFuture();
+        }
+        case DropOldest -> {
+          do {
+            if (buffer.poll() != null) droppedCount.increment();
+          } while (!buffer.offer(queued));
+        }
+        case DropNewest -> {
+          droppedCount.increment();
+          return CompletableFutures.nullFuture();
+        }
+      }
+    }
+    if (consumerIdle) wakeConsumer();
+    // if the sink terminated while we were offering, the consumer may have missed this event
+    if (isTerminated()) drainAfterTermination();
+    return CompletableFutures.nullFuture();
+  }
+
+  /**
+   * Waits for the consumer to make room for the given event in the buffer.
+   * @return true if the event was enqueued, or false if it was delivered synchronously because there was no consumer
+   * to wait for
+   */
+  private boolean awaitRoom(QueuedEvent queued) {
+    Thread publisher = Thread.currentThread();
+    // register before retrying, so that room made after a failed retry is always signalled
+    blockedPublishers.add(publisher);
+    try {
+      while (!buffer.offer(queued)) {
+        if (state() == State.NEW || isTerminated()) {
+          deliver(queued);
+          return false;
+        }
+        wakeConsumer();
+        // the timeout covers changes of state, which don't wake blocked publishers
+        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+      }
+      return true;
+    } finally {
+      blockedPublishers.remove(publisher);
+    }
+  }
+
+  /**
+   * @return a {@link CompletableFuture} which completes after all events published before this call have been
+   * delivered (or dropped), and the delegate sinks have been flushed
+   */
+  @Override
+  public CompletableFuture<?> flush() {
+    if (isTerminated()) {
+      drainAfterTermination();
+      return flushDelegates();
+    }
+    // includes every event whose offer has returned (and perhaps some still being written, which we'll await too)
+    long enqueued = buffer.offeredCount();
+    if (enqueued <= deliveredCount) return flushDelegates(); // nothing to wait for
+    FlushRequest request = new FlushRequest(enqueued, new Promise<>());
+    pendingFlushes.add(request);
+    wakeConsumer();
+    if (isTerminated()) drainAfterTermination();
+    return request.promise();
+  }
+
+  /**
+   * @return the number of events which have been discarded due to the {@link OverflowPolicy}
+   */
+  public long droppedEventCount() {
+    return droppedCount.sum();
+  }
+
+  /**
+   * @return the (approximate) number of events awaiting delivery
+   */
+  public int bufferedEventCount() {
+    return buffer.size();
+  }
+
+  @Override
+  protected void startUp() {
+    consumerThread = Thread.currentThread();
+  }
+
+  @Override
+  protected void run() {
+    List<QueuedEvent> batch = new ArrayList<>(maxBatchSize);
+    while (isRunning()) {
+      int delivered = deliverBatch(batch);
+      completeFlushes();
+      if (delivered == 0) {
+        consumerIdle = true;
+        if (buffer.isEmpty() && pendingFlushes.isEmpty() && isRunning()) LockSupport.parkNanos(IDLE_PARK_NANOS);
+        consumerIdle = false;
+      }
+    }
+  }
+
+  @Override
+  protected void triggerShutdown() {
+    wakeConsumer();
+  }
+
+  @Override
+  protected void shutDown() {
+    List<QueuedEvent> batch = new ArrayList<>(maxBatchSize);
+    while (deliverBatch(batch) > 0) {
+      // deliver everything that remains
+    }
+    completeFlushes();
+    flushDelegates().join();
+  }
+
+  private int deliverBatch(List<QueuedEvent> batch) {
+    int count = buffer.drainTo(batch::add, maxBatchSize);
+    if (count > 0 && !blockedPublishers.isEmpty()) blockedPublishers.forEach(LockSupport::unpark);
+    for (QueuedEvent queued : batch) {
+      deliver(queued);
+    }
+    batch.clear();
+    return count;
+  }
+
+  private void deliver(QueuedEvent queued) {
+    for (PackagedEventSink delegate : delegates) {
+      try {
+        delegate.publish(queued.level(), queued.event()).whenComplete((ignored, e) -> {
+          if (e != null) LOG.warn("Event sink failed to publish event: {}", delegate, e);
+        });
+      } catch (Throwable e) {
+        LOG.warn("Event sink failed to publish event: {}", delegate, e);
+      }
+    }
+  }
+
+  /**
+   * Must be called only by the consumer, after delivering its latest batch.
+   */
+  private void completeFlushes() {
+    // the consumer has delivered everything it polled, and everything else polled was dropped
+    long delivered = buffer.polledCount();
+    deliveredCount = delivered;
+    FlushRequest request;
+    while ((request = pendingFlushes.peek()) != null && request.enqueuedCount() <= delivered) {
+      if (pendingFlushes.remove(request)) request.promise().completeWith(flushDelegates());
+    }
+  }
+
+  /**
+   * Delivers any events remaining in the buffer, and completes all pending flushes. May be invoked concurrently by
+   * publishers after the sink has terminated.
+   */
+  private void drainAfterTermination() {
+    List<QueuedEvent> batch = new ArrayList<>(maxBatchSize);
+    while (deliverBatch(batch) > 0) {
+      // deliver everything that remains
+    }
+    blockedPublishers.forEach(LockSupport::unpark);
+    FlushRequest request;
+    while ((request = pendingFlushes.poll()) != null) {
+      request.promise().completeWith(flushDelegates());
+    }
+  }
+
+  private CompletableFuture<Void> flushDelegates() {
+    return CompletableFutures.allOf(delegates.stream().map(PackagedEventSink::flush));
+  }
+
+  private void wakeConsumer() {
+    Thread consumer = consumerThread;
+    if (consumer != null) LockSupport.unpark(consumer);
+  }
+
+  private boolean isTerminated() {
+    State state = state();
+    return state == State.TERMINATED || state == State.FAILED;
+  }
+
+  @Override
+  public String serviceName() {
+    return "AsyncEventSink" + delegates;
+  }
+
+  public enum OverflowPolicy {
+    /** Publishers wait for room in the buffer */
+    Block,
+    /** The oldest buffered event is discarded to make room */
+    DropOldest,
+    /** The newly-published event is discarded */
+    DropNewest
+  }
+
+  private record QueuedEvent(LogLevel level, PackagedEvent event) {
+  }
+
+  private record FlushRequest(long enqueuedCount, Promise<Void> promise) {
+  }
+}
@@ -0,0 +1,136 @@
+package io.upstartproject.avrocodec;
+
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AvroCompressionTest {
+  private static final Schema SCHEMA = SchemaBuilder.record("Event").namespace("test").fields()
+          .requiredString("type")
+          .requiredString("user")
+          .requiredLong("count")
+          .endRecord();
+  private static final int DICTIONARY_SIZE_BYTES = 4096;
+
+  @Test
+  void zstandardLevelsRoundTrip() throws IOException {
+    List<GenericRecord> records = records(0, 500);
+    for (int level : new int[]{1, 3, 19}) {
+      assertThat(roundTrip(AvroCompression.zstandard(level), records)).isEqualTo(records);
+    }
+  }
+
+  @Test
+  void rejectsInvalidZstandardLevels() {
+    IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> AvroCompression.zstandard(99));
+    assertThat(e).hasMessageThat().contains("99");
+    assertThrows(IllegalArgumentException.class, () -> AvroCompression.zstandardWithDictionary(99, trainDictionary(0)));
+  }
+
+  @Test
+  void dictionaryRoundTrip() throws IOException {
+    byte[] dictionary = trainDictionary(0);
+    List<GenericRecord> records = records(5000, 500);
+
+    CodecFactory codec = AvroCompression.zstandardWithDictionary(3, dictionary);
+    assertThat(roundTrip(codec, records)).isEqualTo(records);
+  }
+
+  @Test
+  void readersMustRegisterTheDictionary() throws IOException {
+    // a distinct dictionary, which no other test registers
+    byte[] dictionary = trainDictionary(100_000);
+    List<GenericRecord> records = records(5000, 50);
+    byte[] file = write(new AvroCompression.ZstdDictionaryCodecFactory(3, dictionary), records);
+
+    AvroRuntimeException e = assertThrows(AvroRuntimeException.class, () -> read(file));
+    assertThat(e).hasMessageThat().contains(AvroCompression.ZSTANDARD_DICTIONARY_CODEC_PREFIX);
+
+    String codecName = AvroCompression.registerZstandardDictionary(dictionary);
+    assertThat(e).hasMessageThat().contains(codecName);
+    assertThat(read(file)).isEqualTo(records);
+  }
+
+  @Test
+  void rejectsInvalidDictionaries() {
+    assertThrows(IllegalArgumentException.class, () -> AvroCompression.registerZstandardDictionary(new byte[64]));
+  }
+
+  private static byte[] trainDictionary(int firstRecord) {
+    List<byte[]> samples = new ArrayList<>();
+    for (GenericRecord record : records(firstRecord, 2000)) {
+      samples.add(serialize(record));
+    }
+    return AvroCompression.trainZstandardDictionary(samples, DICTIONARY_SIZE_BYTES);
+  }
+
+  private static List<GenericRecord> records(int first, int count) {
+    return IntStream.range(first, first + count)
+            .mapToObj(i -> {
+              GenericRecord record = new GenericData.Record(SCHEMA);
+              record.put("type", "event-type-" + (i % 7));
+              record.put("user", "user-" + i);
+              record.put("count", (long) i * 31);
+              return record;
+            })
+            .toList();
+  }
+
+  private static List<GenericRecord> roundTrip(CodecFactory codec, List<GenericRecord> records) throws IOException {
+    return read(write(codec, records));
+  }
+
+  private static byte[] write(CodecFactory codec, List<GenericRecord> records) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (DataFileWriter<GenericRecord> writer = new DataFileWriter<>(new GenericDatumWriter<GenericRecord>(SCHEMA))) {
+      writer.setCodec(codec);
+      writer.create(SCHEMA, out);
+      for (GenericRecord record : records) {
+        writer.append(record);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  private static List<GenericRecord> read(byte[] file) throws IOException {
+    List<GenericRecord> records = new ArrayList<>();
+    try (DataFileStream<GenericRecord> reader = new DataFileStream<>(
+            new ByteArrayInputStream(file),
+            new GenericDatumReader<>(SCHEMA)
+    )) {
+      reader.forEach(records::add);
+    }
+    return records;
+  }
+
+  private static byte[] serialize(GenericRecord record) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(out, null);
+    try {
+      new GenericDatumWriter<GenericRecord>(SCHEMA).write(record, encoder);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,65 @@
+package io.upstartproject.avrocodec;
+
+import io.upstartproject.avro.PackedRecord;
+import org.apache.avro.SchemaBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static com.google.common.truth.Truth.assertThat;
+import static upstart.test.truth.CompletableFutureSubject.assertThat;
+
+class AvroDecoderTest {
+  private static final SchemaDescriptor ORIGINAL = SchemaDescriptor.of(
+          SchemaBuilder.record("test.Conflicted").fields().requiredLong("id").endRecord());
+  private static final SchemaDescriptor CONFLICTING = SchemaDescriptor.of(
+          SchemaBuilder.record("test.Conflicted").fields().requiredString("id").endRecord());
+
+  private final AvroTaxonomy taxonomy = new AvroTaxonomy(new MemorySchemaRegistry());
+  private final AvroDecoder decoder = new AvroDecoder(taxonomy);
+
+  @BeforeEach
+  void registerSchemas() {
+    taxonomy.startAsync().awaitRunning();
+    taxonomy.insert(List.of(ORIGINAL, CONFLICTING)).join();
+  }
+
+  @AfterEach
+  void stopTaxonomy() {
+    taxonomy.stopAsync().awaitTerminated();
+  }
+
+  @Test
+  void conflictingFingerprintsFailAsynchronously() {
+    PackedRecord conflicted = record(CONFLICTING);
+    assertThat(taxonomy.findResolvedRegistration(CONFLICTING.fingerprint().value())).isNull();
+
+    CompletableFuture<UnpackableRecord> unpackable = decoder.toUnpackable(conflicted);
+    assertThat(unpackable).failedWith(AvroSchemaConflictException.class);
+
+    CompletableFuture<List<UnpackableRecord>> batch = decoder.toUnpackableBatch(List.of(record(ORIGINAL), conflicted));
+    assertThat(batch).failedWith(AvroSchemaConflictException.class);
+  }
+
+  @Test
+  void findSchemaDescriptorFailsForConflictingFingerprints() {
+    assertThat(decoder.findSchemaDescriptor(CONFLICTING.fingerprint().value()))
+            .failedWith(AvroSchemaConflictException.class);
+    assertThat(decoder.findSchemaDescriptor(ORIGINAL.fingerprint().value()).join()).isEqualTo(ORIGINAL);
+  }
+
+  @Test
+  void resolvedFingerprintsStillDecodeSynchronously() {
+    CompletableFuture<List<UnpackableRecord>> batch = decoder.toUnpackableBatch(List.of(record(ORIGINAL), record(ORIGINAL)));
+    assertThat(batch.isDone()).isTrue();
+    assertThat(batch.join()).hasSize(2);
+  }
+
+  private static PackedRecord record(SchemaDescriptor schema) {
+    return new PackedRecord(schema.fingerprint().value(), ByteBuffer.wrap(new byte[]{2}));
+  }
+}
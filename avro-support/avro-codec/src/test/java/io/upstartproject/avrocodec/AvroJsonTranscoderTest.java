@@ -0,0 +1,163 @@
+package io.upstartproject.avrocodec;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.upstartproject.avro.DeploymentStage;
+import io.upstartproject.avro.MessageEnvelope;
+import io.upstartproject.avro.PackedRecord;
+import io.upstartproject.avrocodec.test.avro.TestAnnotation;
+import io.upstartproject.avrocodec.test.avro.TestExceptionEvent;
+import io.upstartproject.avrocodec.test.avro.TestExceptionRecord;
+import org.apache.avro.LogicalTypes;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static com.google.common.truth.Truth.assertThat;
+
+class AvroJsonTranscoderTest {
+  private static final Schema TIMESTAMP = LogicalTypes.timestampMillis().addToSchema(Schema.create(Schema.Type.LONG));
+  private static final Schema SCHEMA = SchemaBuilder.record("Sample").namespace("test").fields()
+          .requiredString("name")
+          .optionalInt("count")
+          .requiredDouble("ratio")
+          .requiredBoolean("flag")
+          .name("kind").type().enumeration("Kind").symbols("A", "B").noDefault()
+          .name("tags").type().array().items().stringType().noDefault()
+          .name("attrs").type().map().values().longType().noDefault()
+          .requiredBytes("payload")
+          .name("at").type(TIMESTAMP).noDefault()
+          .endRecord();
+
+  @Test
+  void transcodesBinaryToJson() throws IOException {
+    GenericRecord record = new GenericData.Record(SCHEMA);
+    record.put("name", "héllo \"world\"");
+    record.put("count", 3);
+    record.put("ratio", 0.25);
+    record.put("flag", true);
+    record.put("kind", new GenericData.EnumSymbol(SCHEMA.getField("kind").schema(), "B"));
+    record.put("tags", List.of("x", "y"));
+    record.put("attrs", Map.of("k", 7L));
+    record.put("payload", ByteBuffer.wrap(new byte[]{1, 2, 3}));
+    record.put("at", 0L);
+
+    ByteBuffer data = serialize(record);
+    AvroJsonTranscoder transcoder = new AvroJsonTranscoder(new AvroTaxonomy(new MemorySchemaRegistry()));
+    StringWriter json = new StringWriter();
+    try (JsonGenerator gen = new JsonFactory().createGenerator(json)) {
+      transcoder.writeValue(SCHEMA, data, gen);
+    }
+
+    assertThat(json.toString()).isEqualTo(
+            "{\"name\":\"héllo \\\"world\\\"\",\"count\":3,\"ratio\":0.25,\"flag\":true,\"kind\":\"B\","
+                    + "\"tags\":[\"x\",\"y\"],\"attrs\":{\"k\":7},\"payload\":\"AQID\","
+                    + "\"at\":\"1970-01-01T00:00:00Z\"}");
+    assertThat(data.position()).isEqualTo(0);
+  }
+
+  @Test
+  void packedEnvelopesMatchPackableRecordJsonView() throws IOException {
+    AvroTaxonomy taxonomy = new AvroTaxonomy(new MemorySchemaRegistry());
+    AvroPublisher avroPublisher = new AvroPublisher(taxonomy);
+    taxonomy.startAsync().awaitRunning();
+    avroPublisher.registerSpecificPackers(AvroPublisher.PackageKey.fromRecordPackage(TestExceptionRecord.class)).join();
+    EnvelopePublisher envPublisher = new EnvelopePublisher(avroPublisher).registerEnvelopeSchema().join();
+
+    TestExceptionEvent event = new TestExceptionEvent(Instant.ofEpochMilli(1234), new TestExceptionRecord("numbers"));
+    TestAnnotation anno = new TestAnnotation(77L);
+    PackableRecord<?> exceptionRecord = avroPublisher.getPreRegisteredPacker(TestExceptionEvent.getClassSchema()).makePackable(event);
+    PackableRecord<?> annotationRecord = avroPublisher.getPreRegisteredPacker(anno.getSchema()).makePackable(anno);
+    PackableRecord<MessageEnvelope> envelope = envPublisher.packableMessageEnvelope(
+            Instant.ofEpochMilli(99), Optional.of("id-1"), exceptionRecord, metadata(), annotationRecord);
+
+    ObjectMapper mapper = new ObjectMapper()
+            .findAndRegisterModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    JsonNode json = transcode(mapper, new AvroJsonTranscoder(taxonomy), envelope.packedRecord());
+
+    assertThat(json.get("$type").asText()).isEqualTo(MessageEnvelope.getClassSchema().getFullName());
+    assertThat(json.get("$schemaFingerprint").asText()).isEqualTo(envelope.getFingerprint().hexValue());
+    assertThat(json.get("uniqueId").asText()).isEqualTo("id-1");
+    assertThat(json.get("eventTimestamp").asLong()).isEqualTo(99);
+    assertThat(json.get("message")).isEqualTo(jsonView(mapper, exceptionRecord));
+    assertThat(json.get("annotations")).hasSize(1);
+    assertThat(json.get("annotations").get(0)).isEqualTo(jsonView(mapper, annotationRecord));
+
+    taxonomy.stopAsync().awaitTerminated();
+  }
+
+  @Test
+  void unresolvedPackedRecordsRenderTheirRawData() throws IOException {
+    AvroTaxonomy taxonomy = new AvroTaxonomy(new MemorySchemaRegistry());
+    AvroPublisher avroPublisher = new AvroPublisher(taxonomy);
+    taxonomy.startAsync().awaitRunning();
+    EnvelopePublisher envPublisher = new EnvelopePublisher(avroPublisher).registerEnvelopeSchema().join();
+
+    SchemaFingerprint unknown = SchemaFingerprint.of(12345L);
+    MessageEnvelope envelope = envPublisher.buildMessageEnvelope(
+            Instant.EPOCH, Optional.empty(), new PackedRecord(unknown.value(), ByteBuffer.wrap(new byte[]{1, 2, 3})), metadata());
+
+    ObjectMapper mapper = new ObjectMapper();
+    AvroJsonTranscoder transcoder = new AvroJsonTranscoder(taxonomy);
+    JsonNode json = transcode(mapper, transcoder, envPublisher.makePackable(envelope).packedRecord());
+    JsonNode message = json.get("message");
+    assertThat(message.has("$type")).isFalse();
+    assertThat(message.get("$schemaFingerprint").asText()).isEqualTo(unknown.hexValue());
+    assertThat(message.get("$data").asText()).isEqualTo("AQID");
+
+    // the same applies to an unresolved top-level record
+    JsonNode topLevel = transcode(mapper, transcoder, envelope.getMessage());
+    assertThat(topLevel).isEqualTo(message);
+
+    taxonomy.stopAsync().awaitTerminated();
+  }
+
+  private static JsonNode transcode(ObjectMapper mapper, AvroJsonTranscoder transcoder, PackedRecord record) throws IOException {
+    StringWriter json = new StringWriter();
+    try (JsonGenerator gen = mapper.getFactory().createGenerator(json)) {
+      transcoder.writePackedRecord(record, gen);
+    }
+    return mapper.readTree(json.toString());
+  }
+
+  // round-tripped through text, so that numeric nodes are parsed the same way as the transcoded output
+  private static JsonNode jsonView(ObjectMapper mapper, PackableRecord<?> record) throws IOException {
+    return mapper.readTree(mapper.writeValueAsString(record));
+  }
+
+  private static MessageMetadata metadata() {
+    return MessageMetadata.builder()
+            .application("test-app")
+            .owner("test-owner")
+            .environment("test")
+            .deploymentStage(DeploymentStage.stage)
+            .putTag("tag1", "value1")
+            .build();
+  }
+
+  private static ByteBuffer serialize(GenericRecord record) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(out, null);
+    new GenericDatumWriter<GenericRecord>(record.getSchema()).write(record, encoder);
+    encoder.flush();
+    return ByteBuffer.wrap(out.toByteArray());
+  }
+}
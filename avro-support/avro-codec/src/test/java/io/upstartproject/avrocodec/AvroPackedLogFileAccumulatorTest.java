@@ -0,0 +1,210 @@
+package io.upstartproject.avrocodec;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import io.upstartproject.avro.PackedRecord;
+import io.upstartproject.hojack.Size;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import upstart.ExecutorServiceScheduler;
+import upstart.test.FakeTime;
+import upstart.util.concurrent.TempFileFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AvroPackedLogFileAccumulatorTest {
+  private static final Duration MAX_EMISSION_DELAY = Duration.ofMinutes(1);
+  private static final int SHARD_COUNT = 3;
+
+  @TempDir
+  Path tempDir;
+
+  private final FakeTime time = new FakeTime(Instant.EPOCH, ZoneOffset.UTC);
+  private final Map<Path, Long> sealedFiles = new ConcurrentHashMap<>();
+
+  @Test
+  void roundRobinSpreadsRecordsAcrossShards() throws IOException {
+    TestAccumulator accumulator = new TestAccumulator(Size.megabytes(1), false);
+    List<CompletableFuture<Path>> futures = appendAll(accumulator, 6);
+    assertThat(futures.stream().noneMatch(CompletableFuture::isDone)).isTrue();
+
+    accumulator.flush().join();
+    List<Path> paths = futures.stream().map(CompletableFuture::join).toList();
+    assertThat(new HashSet<>(paths)).hasSize(SHARD_COUNT);
+    for (int shard = 0; shard < SHARD_COUNT; shard++) {
+      assertThat(readFingerprints(paths.get(shard))).containsExactly((long) shard, (long) shard + SHARD_COUNT).inOrder();
+      assertThat(sealedFiles).containsEntry(paths.get(shard), 2L);
+    }
+  }
+
+  @Test
+  void keyedRoutingKeepsRelatedRecordsTogether() throws IOException {
+    TestAccumulator accumulator = new TestAccumulator(Size.megabytes(1), true);
+    List<CompletableFuture<Path>> futures = appendAll(accumulator, 12);
+    accumulator.flush().join();
+
+    Map<Long, Set<Path>> pathsByKey = new ConcurrentHashMap<>();
+    for (int i = 0; i < futures.size(); i++) {
+      pathsByKey.computeIfAbsent(i % 4L, k -> new HashSet<>()).add(futures.get(i).join());
+    }
+    assertThat(pathsByKey).hasSize(4);
+    for (Map.Entry<Long, Set<Path>> entry : pathsByKey.entrySet()) {
+      assertThat(entry.getValue()).hasSize(1);
+      long key = entry.getKey();
+      assertThat(readFingerprints(entry.getValue().iterator().next())).containsAtLeast(key, key + 4, key + 8).inOrder();
+    }
+  }
+
+  @Test
+  void eachShardSealsFilesWhenFull() throws IOException {
+    // each record fills a block, and each block fills a file
+    TestAccumulator accumulator = new TestAccumulator(Size.bytes(1), false);
+    List<CompletableFuture<Path>> futures = appendAll(accumulator, 2 * SHARD_COUNT);
+
+    assertThat(futures.stream().allMatch(CompletableFuture::isDone)).isTrue();
+    Set<Path> paths = futures.stream().map(CompletableFuture::join).collect(Collectors.toSet());
+    assertThat(paths).hasSize(2 * SHARD_COUNT);
+    assertThat(sealedFiles.values().stream().allMatch(count -> count == 1)).isTrue();
+  }
+
+  @Test
+  void eachShardSealsFilesAfterMaxEmissionDelay() {
+    TestAccumulator accumulator = new TestAccumulator(Size.megabytes(1), false);
+    List<CompletableFuture<Path>> futures = appendAll(accumulator, SHARD_COUNT);
+
+    time.advance(MAX_EMISSION_DELAY.minusSeconds(1));
+    assertThat(futures.stream().noneMatch(CompletableFuture::isDone)).isTrue();
+
+    time.advance(Duration.ofSeconds(1));
+    assertThat(futures.stream().allMatch(CompletableFuture::isDone)).isTrue();
+    assertThat(futures.stream().map(CompletableFuture::join).distinct().count()).isEqualTo(SHARD_COUNT);
+  }
+
+  @Test
+  void closeSealsEveryShard() {
+    TestAccumulator accumulator = new TestAccumulator(Size.megabytes(1), false);
+    List<CompletableFuture<Path>> futures = appendAll(accumulator, SHARD_COUNT);
+
+    accumulator.close().join();
+    assertThat(futures.stream().allMatch(CompletableFuture::isDone)).isTrue();
+    assertThat(sealedFiles).hasSize(SHARD_COUNT);
+
+    CompletableFuture<Path> rejected = accumulator.append(record(0));
+    assertThat(rejected.isCompletedExceptionally()).isTrue();
+    assertThrows(Exception.class, rejected::join);
+  }
+
+  private static List<CompletableFuture<Path>> appendAll(TestAccumulator accumulator, int count) {
+    List<CompletableFuture<Path>> futures = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      futures.add(accumulator.append(record(i)));
+    }
+    return futures;
+  }
+
+  private static PackedRecord record(long fingerprint) {
+    return new PackedRecord(fingerprint, ByteBuffer.wrap(new byte[64]));
+  }
+
+  private static List<Long> readFingerprints(Path file) throws IOException {
+    List<Long> fingerprints = new ArrayList<>();
+    try (DataFileReader<PackedRecord> reader = new DataFileReader<>(file.toFile(), new SpecificDatumReader<>(PackedRecord.class))) {
+      reader.forEach(record -> fingerprints.add(record.getFingerprint()));
+    }
+    return fingerprints;
+  }
+
+  private class TestAccumulator extends AvroPackedLogFileAccumulator<PackedRecord, PackedRecord> {
+    private final AtomicInteger fileCounter = new AtomicInteger();
+    private final boolean keyed;
+
+    TestAccumulator(Size targetFileSize, boolean keyed) {
+      super(
+              PackedRecord.class,
+              PackedRecord.getClassSchema(),
+              TempFileFactory.builder(tempDir).tempFileSuffix(".tmp").build(),
+              new ExecutorServiceScheduler(
+                      () -> Duration.ZERO,
+                      time.scheduledExecutor(MoreExecutors.newDirectExecutorService()),
+                      time.clock()
+              ),
+              new TestConfig(targetFileSize),
+              MoreExecutors.directExecutor()
+      );
+      this.keyed = keyed;
+    }
+
+    @Override
+    protected int selectShard(PackedRecord record, int shardCount) {
+      return keyed ? (int) (record.getFingerprint() % 4) % shardCount : super.selectShard(record, shardCount);
+    }
+
+    @Override
+    protected PackedRecord pack(PackedRecord record) {
+      return record;
+    }
+
+    @Override
+    protected Path getOutputFileName(Instant openTimestamp) {
+      return tempDir.resolve("records-" + fileCounter.incrementAndGet() + ".avro");
+    }
+
+    @Override
+    protected void onRecordFailed(PackedRecord badRecord, Path intendedFile, Throwable e) {
+    }
+
+    @Override
+    protected void onFileFailed(Path path, long recordCount, Throwable e) {
+    }
+
+    @Override
+    protected void onBytesWritten(long byteCount) {
+    }
+
+    @Override
+    protected void onFileSealed(Path path, long recordCount) {
+      sealedFiles.put(path, recordCount);
+    }
+
+    @Override
+    protected <T> CompletableFuture<T> callSequentially(Callable<T> task) {
+      throw new AssertionError("sharded accumulators should not write sequentially");
+    }
+  }
+
+  private record TestConfig(Size targetFileSize) implements AvroPackedLogFileAccumulator.AccumulatorConfig {
+    @Override
+    public Duration maxEmissionDelay() {
+      return MAX_EMISSION_DELAY;
+    }
+
+    @Override
+    public Size uncompressedAvroBlockSize() {
+      return Size.bytes(64);
+    }
+
+    @Override
+    public int concurrentFileCount() {
+      return SHARD_COUNT;
+    }
+  }
+}
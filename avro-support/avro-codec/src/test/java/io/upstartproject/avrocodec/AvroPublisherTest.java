@@ -2,6 +2,7 @@ package io.upstartproject.avrocodec;
 
 import com.google.common.io.Resources;
 import io.upstartproject.avro.DeploymentStage;
+import io.upstartproject.avro.MessageEnvelope;
 import io.upstartproject.avro.PackedRecord;
 import io.upstartproject.avrocodec.test.avro.TestAnnotation;
 import io.upstartproject.avrocodec.test.avro.TestExceptionEvent;
@@ -9,7 +10,10 @@ import io.upstartproject.avrocodec.test.avro.TestExceptionRecord;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericDatumReader;
 import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
 import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumWriter;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -22,9 +26,13 @@ import upstart.log.UpstartLogConfig;
 import upstart.log4j.test.SuppressLogs;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
@@ -86,6 +94,94 @@ class AvroPublisherTest {
     assertThat(((GenericRecord)eventView.get("exception")).get("message").toString()).isEqualTo(event.getException().getMessage());
 
     assertThat(env.messageRecord().unpackSpecificOrGeneric()).isEqualTo(event);
+
+    ByteBuffer directBytes = ByteBuffer.allocateDirect(bytes.length * 2);
+    directBytes.put(bytes).put(bytes).flip();
+    for (ByteBuffer buf : new ByteBuffer[]{ByteBuffer.wrap(bytes), directBytes}) {
+      UnpackableMessageEnvelope sliced = envDecoder.sliceEnvelope(buf).join();
+      assertThat(sliced.rawEnvelope()).isEqualTo(env.rawEnvelope());
+      assertThat(sliced.messageRecord().unpackWith(recordUnpacker)).isEqualTo(event);
+    }
+    assertThat(envDecoder.sliceEnvelopes(directBytes.rewind()).map(CompletableFuture::join).count()).isEqualTo(2);
+
+    EnvelopeProjection projection = envDecoder.projectEnvelope(ByteBuffer.wrap(bytes)).join();
+    assertThat(projection.messageFingerprint()).isEqualTo(exceptionRecord.getFingerprint().value());
+    assertThat(projection.timestamp()).isEqualTo(Instant.ofEpochMilli(99));
+    assertThat(projection.hasAnnotation(taxonomy.findTypeFamily(TestAnnotation.class))).isTrue();
+    assertThat(projection.messageIsInstanceOf(taxonomy.findTypeFamily(TestAnnotation.class))).isFalse();
+    assertThat(projection.metadata()).isEqualTo(metadata);
+    assertThat(projection.uniqueId()).isEqualTo(env.uniqueId());
+    assertThat(projection.toUnpackable().join().rawEnvelope()).isEqualTo(env.rawEnvelope());
+  }
+
+  @Test
+  void compactEnvelopeRoundTrip() {
+    MemorySchemaRegistry schemaRepo = new MemorySchemaRegistry();
+    AvroTaxonomy taxonomy = new AvroTaxonomy(schemaRepo);
+    AvroPublisher avroPublisher = new AvroPublisher(taxonomy);
+    taxonomy.startAsync().awaitRunning();
+    avroPublisher.registerSpecificPackers(AvroPublisher.PackageKey.fromRecordPackage(TestExceptionRecord.class)).join();
+    EnvelopePublisher envPublisher = new EnvelopePublisher(avroPublisher).registerEnvelopeSchema().join();
+    EnvelopeDecoder envDecoder = new EnvelopeDecoder(new AvroDecoder(taxonomy));
+
+    MessageMetadata metadata = MessageMetadata.builder()
+            .application("test-app")
+            .owner("test-owner")
+            .environment("test")
+            .deploymentStage(DeploymentStage.stage)
+            .putTag("tag2", "value2")
+            .putTag("tag1", "value1").build();
+    TestExceptionEvent event = new TestExceptionEvent(Instant.EPOCH, new TestExceptionRecord("numbers"));
+    PackableRecord<?> eventRecord = avroPublisher.getPreRegisteredPacker(TestExceptionEvent.getClassSchema()).makePackable(event);
+    MessageEnvelope envelope = envPublisher.buildMessageEnvelope(Instant.ofEpochMilli(99), Optional.empty(), eventRecord, metadata, List.of());
+
+    byte[] fullBytes = envPublisher.getSerializedBytes(envelope);
+    envPublisher.registerCompactMetadata(metadata).join();
+    byte[] compactBytes = envPublisher.getSerializedBytes(envelope);
+    assertThat(compactBytes.length).isLessThan(fullBytes.length);
+
+    UnpackableMessageEnvelope loaded = envDecoder.loadEnvelope(compactBytes).join();
+    assertThat(loaded.rawEnvelope()).isEqualTo(envelope);
+    assertThat(loaded.metadata()).isEqualTo(metadata);
+    assertThat(envDecoder.sliceEnvelope(ByteBuffer.wrap(compactBytes)).join().rawEnvelope()).isEqualTo(envelope);
+    assertThat(envDecoder.projectEnvelope(ByteBuffer.wrap(compactBytes)).join().metadata()).isEqualTo(metadata);
+    assertThat(envDecoder.extractEnvelopeMessage(new ByteArrayInputStream(compactBytes)).join().unpackSpecificOrGeneric()).isEqualTo(event);
+
+    // a decoder which hasn't seen the metadata resolves it through the registry
+    EnvelopeDecoder freshDecoder = new EnvelopeDecoder(new AvroDecoder(taxonomy));
+    assertThat(freshDecoder.loadEnvelope(compactBytes).join().metadata()).isEqualTo(metadata);
+  }
+
+  @Test
+  void packedRecordEncodingMatchesAvroWriter() throws IOException {
+    SpecificDatumWriter<PackedRecord> avroWriter = new SpecificDatumWriter<>(PackedRecord.getClassSchema());
+    for (long fingerprint : new long[]{0, 1, -1, 63, 64, Long.MIN_VALUE, Long.MAX_VALUE}) {
+      for (int dataLength : new int[]{0, 1, 64, 300}) {
+        byte[] data = new byte[dataLength];
+        Arrays.fill(data, (byte) 7);
+        PackedRecord record = new PackedRecord(fingerprint, ByteBuffer.wrap(data));
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(expected, null);
+        avroWriter.write(record, encoder);
+        encoder.flush();
+
+        byte[] serialized = AvroPublisher.serializePackedRecord(record);
+        assertThat(serialized).isEqualTo(expected.toByteArray());
+        assertThat(AvroPublisher.serializedSize(record)).isEqualTo(serialized.length);
+
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        AvroPublisher.writePackedRecord(record, streamed);
+        assertThat(streamed.toByteArray()).isEqualTo(serialized);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(serialized.length + 1);
+        direct.put((byte) 0);
+        AvroPublisher.writePackedRecord(record, direct);
+        assertThat(direct.remaining()).isEqualTo(0);
+
+        assertThat(AvroDecoder.readPackedRecord(new ByteArrayInputStream(serialized))).isEqualTo(record);
+      }
+    }
   }
 
   @Nested
@@ -163,10 +259,14 @@ class AvroPublisherTest {
       // finally, ask our test-codec to unpack the record; this must wait until its SchemaRepo adds the schema
       CompletableFuture<UnpackableRecord> futureUnpackable = decoder.toUnpackable(packedRecord);
       assertThat(futureUnpackable).isNotDone(); // schema is unresolved, so future should still be pending
+      CompletableFuture<List<UnpackableRecord>> futureBatch = decoder.toUnpackableBatch(List.of(packedRecord, packedRecord));
+      assertThat(futureBatch).isNotDone();
 
       schemaListener.onSchemaAdded(testRecordSchemaDescriptor);
 
       assertThat(futureUnpackable).isDone();
+      assertThat(futureBatch).isDone();
+      assertThat(futureBatch.join().get(1).unpackGeneric().get("conflictingField")).isEqualTo(77);
 
       // now the future is completed, and we can unpack the record
       assertThat(futureUnpackable.join().unpackGeneric().get("conflictingField")).isEqualTo(77);
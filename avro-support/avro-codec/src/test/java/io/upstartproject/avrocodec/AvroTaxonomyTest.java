@@ -0,0 +1,131 @@
+package io.upstartproject.avrocodec;
+
+import com.google.common.base.Ticker;
+import org.apache.avro.SchemaBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import upstart.util.concurrent.Promise;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.truth.Truth.assertThat;
+import static upstart.test.truth.CompletableFutureSubject.assertThat;
+
+class AvroTaxonomyTest {
+  private static final Duration NEGATIVE_CACHE_TTL = Duration.ofSeconds(30);
+  private static final Duration UNRESOLVED_EXPIRY = Duration.ofMinutes(10);
+  private static final int MAX_UNRESOLVED = 3;
+
+  private final FakeTicker ticker = new FakeTicker();
+  private final CountingRegistry registry = new CountingRegistry();
+  private final AvroTaxonomy taxonomy = new AvroTaxonomy(
+          registry,
+          new AvroTaxonomy.UnresolvedFingerprintPolicy(
+                  Duration.ZERO,
+                  NEGATIVE_CACHE_TTL,
+                  MAX_UNRESOLVED,
+                  UNRESOLVED_EXPIRY,
+                  Duration.ofSeconds(10)
+          ),
+          ticker
+  );
+
+  @AfterEach
+  void stopTaxonomy() {
+    taxonomy.stopAsync().awaitTerminated();
+  }
+
+  @Test
+  void negativeCacheSuppressesRefreshesUntilTtlElapses() {
+    taxonomy.startAsync().awaitRunning();
+    int initialRefreshes = registry.refreshCount.get();
+
+    Promise<RecordTypeFamily.RegistrationResult> lookup = taxonomy.findSchemaDescriptor(SchemaFingerprint.of(1));
+    assertThat(lookup).isNotDone();
+    assertThat(registry.refreshCount.get()).isEqualTo(initialRefreshes + 1);
+
+    ticker.advance(NEGATIVE_CACHE_TTL.minusSeconds(1));
+    taxonomy.findSchemaDescriptor(SchemaFingerprint.of(1));
+    assertThat(registry.refreshCount.get()).isEqualTo(initialRefreshes + 1);
+    assertThat(taxonomy.unresolvedLookupStats().negativeCacheHits()).isEqualTo(1);
+
+    ticker.advance(Duration.ofSeconds(1));
+    taxonomy.findSchemaDescriptor(SchemaFingerprint.of(1));
+    assertThat(registry.refreshCount.get()).isEqualTo(initialRefreshes + 2);
+    assertThat(taxonomy.unresolvedLookupStats().lookups()).isEqualTo(3);
+  }
+
+  @Test
+  void lateArrivalCompletesWaiters() {
+    taxonomy.startAsync().awaitRunning();
+    SchemaDescriptor schema = SchemaDescriptor.of(SchemaBuilder.record("test.Late").fields().requiredLong("id").endRecord());
+    Promise<RecordTypeFamily.RegistrationResult> lookup = taxonomy.findSchemaDescriptor(schema.fingerprint());
+    assertThat(lookup).isNotDone();
+
+    taxonomy.insert(List.of(schema)).join();
+    assertThat(lookup.join().typeFamily().getFullName()).isEqualTo("test.Late");
+    assertThat(taxonomy.findSchemaDescriptor(schema.fingerprint()).isDone()).isTrue();
+    assertThat(taxonomy.findResolvedRegistration(schema.fingerprint().value())).isNotNull();
+  }
+
+  @Test
+  void unresolvedFingerprintsExpireWhenNoLongerLookedUp() {
+    taxonomy.startAsync().awaitRunning();
+    Promise<RecordTypeFamily.RegistrationResult> abandoned = taxonomy.findSchemaDescriptor(SchemaFingerprint.of(1));
+
+    ticker.advance(UNRESOLVED_EXPIRY.minusSeconds(1));
+    Promise<RecordTypeFamily.RegistrationResult> retained = taxonomy.findSchemaDescriptor(SchemaFingerprint.of(2));
+    assertThat(abandoned).isNotDone();
+
+    ticker.advance(Duration.ofSeconds(1));
+    taxonomy.findSchemaDescriptor(SchemaFingerprint.of(3));
+    assertThat(abandoned).failedWith(TimeoutException.class);
+    assertThat(retained).isNotDone();
+
+    // a later lookup starts over, requesting another refresh
+    int refreshes = registry.refreshCount.get();
+    assertThat(taxonomy.findSchemaDescriptor(SchemaFingerprint.of(1))).isNotDone();
+    assertThat(registry.refreshCount.get()).isEqualTo(refreshes + 1);
+  }
+
+  @Test
+  void unresolvedFingerprintsAreBounded() {
+    taxonomy.startAsync().awaitRunning();
+    List<Promise<RecordTypeFamily.RegistrationResult>> lookups = List.of(
+            taxonomy.findSchemaDescriptor(SchemaFingerprint.of(1)),
+            taxonomy.findSchemaDescriptor(SchemaFingerprint.of(2)),
+            taxonomy.findSchemaDescriptor(SchemaFingerprint.of(3)),
+            taxonomy.findSchemaDescriptor(SchemaFingerprint.of(4))
+    );
+    assertThat(lookups.get(0)).failedWith(TimeoutException.class);
+    assertThat(lookups.stream().skip(1).noneMatch(CompletableFuture::isDone)).isTrue();
+  }
+
+  private static class CountingRegistry extends MemorySchemaRegistry {
+    final AtomicInteger refreshCount = new AtomicInteger();
+
+    @Override
+    public CompletableFuture<Void> refresh() {
+      refreshCount.incrementAndGet();
+      return super.refresh();
+    }
+  }
+
+  private static class FakeTicker extends Ticker {
+    private final AtomicLong nanos = new AtomicLong();
+
+    void advance(Duration duration) {
+      nanos.addAndGet(duration.toNanos());
+    }
+
+    @Override
+    public long read() {
+      return nanos.get();
+    }
+  }
+}
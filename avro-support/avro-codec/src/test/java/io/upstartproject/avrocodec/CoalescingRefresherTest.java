@@ -0,0 +1,72 @@
+package io.upstartproject.avrocodec;
+
+import com.google.common.base.Ticker;
+import org.junit.jupiter.api.Test;
+import upstart.util.concurrent.Promise;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+class CoalescingRefresherTest {
+  private final List<Promise<Void>> issuedRefreshes = new ArrayList<>();
+
+  @Test
+  void coalescesRequestsWhileRefreshIsInFlight() {
+    CoalescingRefresher refresher = new CoalescingRefresher(this::issueRefresh, Duration.ZERO, Ticker.systemTicker());
+
+    Promise<Void> first = refresher.requestRefresh();
+    Promise<Void> second = refresher.requestRefresh();
+    Promise<Void> third = refresher.requestRefresh();
+    assertThat(issuedRefreshes).hasSize(1);
+    assertThat(third).isSameInstanceAs(second);
+
+    issuedRefreshes.get(0).complete(null);
+    assertThat(first.isDone()).isTrue();
+    assertThat(second.isDone()).isFalse(); // must await a refresh which started after it was requested
+
+    awaitIssuedRefreshes(2);
+    issuedRefreshes.get(1).complete(null);
+    second.join();
+    assertThat(refresher.requestCount()).isEqualTo(3);
+    assertThat(refresher.issuedCount()).isEqualTo(2);
+  }
+
+  @Test
+  void delaysRefreshesUntilMinIntervalHasElapsed() {
+    CoalescingRefresher refresher = new CoalescingRefresher(this::issueRefresh, Duration.ofMillis(200), Ticker.systemTicker());
+
+    refresher.requestRefresh();
+    issuedRefreshes.get(0).complete(null);
+
+    Promise<Void> throttled = refresher.requestRefresh();
+    assertThat(issuedRefreshes).hasSize(1);
+
+    awaitIssuedRefreshes(2);
+    issuedRefreshes.get(1).complete(null);
+    throttled.join();
+  }
+
+  private synchronized Promise<Void> issueRefresh() {
+    Promise<Void> refresh = new Promise<>();
+    issuedRefreshes.add(refresh);
+    notifyAll();
+    return refresh;
+  }
+
+  private synchronized void awaitIssuedRefreshes(int count) {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (issuedRefreshes.size() < count) {
+      long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      assertThat(remainingMillis).isGreaterThan(0L);
+      try {
+        wait(remainingMillis);
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+    }
+  }
+}
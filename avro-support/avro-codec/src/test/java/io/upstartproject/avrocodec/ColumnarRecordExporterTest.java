@@ -0,0 +1,96 @@
+package io.upstartproject.avrocodec;
+
+import io.upstartproject.avro.PackedRecord;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+class ColumnarRecordExporterTest {
+  private static final Schema V1 = SchemaBuilder.record("Sample").namespace("test").fields()
+          .requiredLong("id")
+          .requiredString("name")
+          .name("tags").type().map().values().stringType().noDefault()
+          .endRecord();
+  private static final Schema V2 = SchemaBuilder.record("Sample").namespace("test").fields()
+          .requiredLong("id")
+          .requiredString("name")
+          .name("tags").type().map().values().stringType().noDefault()
+          .optionalDouble("score")
+          .name("count").type().intType().intDefault(7)
+          .endRecord();
+
+  @Test
+  void exportsColumnsAcrossSchemaVersions() {
+    MemorySchemaRegistry registry = new MemorySchemaRegistry();
+    AvroTaxonomy taxonomy = new AvroTaxonomy(registry);
+    taxonomy.startAsync().awaitRunning();
+    SchemaDescriptor v1 = SchemaDescriptor.of(V1);
+    SchemaDescriptor v2 = SchemaDescriptor.of(V2);
+    taxonomy.insert(List.of(v1, v2)).join();
+    RecordTypeFamily family = taxonomy.findTypeFamily("test.Sample");
+
+    Stream<UnpackableRecord> records = Stream.of(
+            pack(v1, Map.of("id", 1L, "name", "a", "tags", Map.of("k", "v"))),
+            pack(v2, Map.of("id", 2L, "name", "b", "tags", Map.of(), "score", 0.5, "count", 3)),
+            pack(v2, Map.of("id", 3L, "name", "a", "tags", Map.of(), "count", 4))
+    );
+
+    // the reader drops "tags" and widens "count" to long
+    Schema reader = SchemaBuilder.record("Sample").namespace("test").fields()
+            .requiredLong("id")
+            .requiredString("name")
+            .optionalDouble("score")
+            .name("count").type().longType().longDefault(7)
+            .endRecord();
+    ColumnarRecordExporter exporter = new ColumnarRecordExporter(family, reader, 2);
+    assertThat(exporter.columnNames()).containsExactly("id", "name", "score", "count").inOrder();
+
+    List<ColumnarBatch> batches = exporter.export(records).toList();
+    assertThat(batches).hasSize(2);
+
+    ColumnarBatch first = batches.get(0);
+    assertThat(first.rowCount()).isEqualTo(2);
+    assertThat(first.column("id").longs()).asList().containsExactly(1L, 2L).inOrder();
+    assertThat(first.column("name").codes()).asList().containsExactly(0, 1).inOrder();
+    assertThat(first.column("name").dictionary()).containsExactly("a", "b").inOrder();
+    assertThat(first.column("score").isNull(0)).isTrue();
+    assertThat(first.column("score").isNull(1)).isFalse();
+    assertThat(first.column("score").doubles()[1]).isEqualTo(0.5);
+    assertThat(first.column("count").longs()).asList().containsExactly(7L, 3L).inOrder();
+
+    ColumnarBatch second = batches.get(1);
+    assertThat(second.rowCount()).isEqualTo(1);
+    assertThat(second.column("id").longs()).asList().containsExactly(3L);
+    assertThat(second.column("name").stringValue(0)).isEqualTo("a");
+    assertThat(second.column("score").isNull(0)).isTrue();
+    assertThat(second.column("count").longs()).asList().containsExactly(4L);
+  }
+
+  private static UnpackableRecord pack(SchemaDescriptor schema, Map<String, Object> fields) {
+    GenericRecord record = new GenericData.Record(schema.schema());
+    fields.forEach(record::put);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(out, null);
+    try {
+      new GenericDatumWriter<GenericRecord>(schema.schema()).write(record, encoder);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return new UnpackableRecord(new PackedRecord(schema.fingerprint().value(), ByteBuffer.wrap(out.toByteArray())), schema);
+  }
+}
@@ -0,0 +1,37 @@
+package io.upstartproject.avrocodec;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+
+class FingerprintIndexTest {
+  @Test
+  void putGetAndRemove() {
+    FingerprintIndex<String> index = new FingerprintIndex<>();
+    long[] keys = new Random(42).longs(500).toArray();
+    keys[0] = 0; // zero is a legitimate fingerprint, not an empty-slot marker
+
+    for (long key : keys) {
+      index.put(key, Long.toHexString(key));
+    }
+    assertThat(index.size()).isEqualTo(keys.length);
+    for (long key : keys) {
+      assertThat(index.get(key)).isEqualTo(Long.toHexString(key));
+    }
+
+    index.put(keys[1], "replaced");
+    assertThat(index.size()).isEqualTo(keys.length);
+    assertThat(index.get(keys[1])).isEqualTo("replaced");
+
+    for (int i = 0; i < keys.length; i += 2) {
+      index.remove(keys[i]);
+    }
+    assertThat(index.size()).isEqualTo(keys.length / 2);
+    for (int i = 0; i < keys.length; i++) {
+      assertThat(index.containsKey(keys[i])).isEqualTo(i % 2 == 1);
+    }
+    assertThat(index.get(12345L)).isNull();
+  }
+}
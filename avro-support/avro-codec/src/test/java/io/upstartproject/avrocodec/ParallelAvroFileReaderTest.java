@@ -0,0 +1,57 @@
+package io.upstartproject.avrocodec;
+
+import io.upstartproject.avro.PackedRecord;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+class ParallelAvroFileReaderTest {
+  @TempDir
+  File tempDir;
+
+  @Test
+  void readsEverySplitExactlyOnce() throws IOException {
+    File file = new File(tempDir, "records.avro");
+    List<PackedRecord> written = LongStream.range(0, 5000)
+            .mapToObj(i -> new PackedRecord(i, ByteBuffer.wrap(new byte[(int) (i % 17)])))
+            .collect(Collectors.toList());
+
+    try (DataFileWriter<PackedRecord> writer = new DataFileWriter<>(new SpecificDatumWriter<>(PackedRecord.class))) {
+      writer.setCodec(CodecFactory.snappyCodec())
+              .setSyncInterval(1024)
+              .create(PackedRecord.getClassSchema(), file);
+      for (PackedRecord record : written) {
+        writer.append(record);
+      }
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<PackedRecord> ordered = new ParallelAvroFileReader(executor, 2000, 3, true)
+              .read(file, () -> new SpecificDatumReader<>(PackedRecord.class))
+              .collect(Collectors.toList());
+      assertThat(ordered).containsExactlyElementsIn(written).inOrder();
+
+      List<PackedRecord> unordered = new ParallelAvroFileReader(executor, 2000, 3, false)
+              .read(file, () -> new SpecificDatumReader<>(PackedRecord.class))
+              .collect(Collectors.toList());
+      assertThat(unordered).containsExactlyElementsIn(written);
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package io.upstartproject.avrocodec;
+
+import com.google.common.io.CountingOutputStream;
+import io.upstartproject.avro.PackedRecord;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+class PipelinedDataFileWriterTest {
+  private static final int BLOCK_SIZE = 1024;
+
+  @TempDir
+  File tempDir;
+
+  @Test
+  void writesReadableContainerFile() throws Exception {
+    File file = new File(tempDir, "pipelined.avro");
+    List<PackedRecord> written = LongStream.range(0, 3000)
+            .mapToObj(i -> new PackedRecord(i, ByteBuffer.wrap(new byte[(int) (i % 23)])))
+            .collect(Collectors.toList());
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    AtomicLong bytesReported = new AtomicLong();
+    try {
+      CountingOutputStream byteCounter = new CountingOutputStream(new FileOutputStream(file));
+      SpecificDatumWriter<PackedRecord> datumWriter = new SpecificDatumWriter<>(PackedRecord.class);
+      DataFileWriter<PackedRecord> output = new DataFileWriter<>(datumWriter)
+              .setCodec(CodecFactory.deflateCodec(6))
+              .setSyncInterval(BLOCK_SIZE)
+              .create(PackedRecord.getClassSchema(), byteCounter);
+      PipelinedDataFileWriter<PackedRecord> writer = new PipelinedDataFileWriter<>(
+              output, byteCounter, datumWriter, BLOCK_SIZE, 2, executor, bytesReported::addAndGet
+      );
+      for (PackedRecord record : written) {
+        writer.append(record);
+      }
+      writer.close().join();
+    } finally {
+      executor.shutdown();
+    }
+
+    List<PackedRecord> read = new ArrayList<>();
+    try (DataFileReader<PackedRecord> reader = new DataFileReader<>(file, new SpecificDatumReader<>(PackedRecord.class))) {
+      reader.forEach(read::add);
+    }
+    assertThat(read).containsExactlyElementsIn(written).inOrder();
+    assertThat(bytesReported.get()).isGreaterThan(0L);
+  }
+}
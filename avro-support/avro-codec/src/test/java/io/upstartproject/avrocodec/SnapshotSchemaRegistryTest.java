@@ -0,0 +1,196 @@
+package io.upstartproject.avrocodec;
+
+import org.apache.avro.SchemaBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import upstart.util.concurrent.CompletableFutures;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+class SnapshotSchemaRegistryTest {
+  @TempDir Path tempDir;
+
+  private final List<SchemaDescriptor> schemas = IntStream.range(0, 5)
+          .mapToObj(i -> SchemaDescriptor.of(SchemaBuilder.record("Record" + i).namespace("test").fields()
+                  .requiredLong("field" + i)
+                  .endRecord()))
+          .toList();
+
+  @Test
+  void snapshotRoundTrip() throws IOException {
+    Path path = tempDir.resolve("schemas.snapshot");
+    assertThat(SchemaRegistrySnapshot.load(path).isPresent()).isFalse();
+
+    SchemaRegistrySnapshot.write(path, Optional.of("mark"), schemas.subList(0, 4));
+    SchemaRegistrySnapshot snapshot = SchemaRegistrySnapshot.load(path).orElseThrow();
+
+    assertThat(snapshot.highWaterMark()).isEqualTo(Optional.of("mark"));
+    assertThat(snapshot.size()).isEqualTo(4);
+    assertThat(snapshot.schemas().toList()).containsExactlyElementsIn(schemas.subList(0, 4)).inOrder();
+    for (SchemaDescriptor schema : schemas.subList(0, 4)) {
+      assertThat(snapshot.find(schema.fingerprint())).isEqualTo(Optional.of(schema));
+    }
+    assertThat(snapshot.find(schemas.get(4).fingerprint()).isPresent()).isFalse();
+  }
+
+  @Test
+  void resumesFromSnapshot() {
+    Path path = tempDir.resolve("schemas.snapshot");
+    FakeRegistry initialRegistry = new FakeRegistry(schemas.subList(0, 3));
+    assertThat(startAndStop(new SnapshotSchemaRegistry(initialRegistry, path))).containsExactlyElementsIn(schemas.subList(0, 3)).inOrder();
+    assertThat(initialRegistry.resumedFrom).isEqualTo(0);
+
+    FakeRegistry resumedRegistry = new FakeRegistry(schemas);
+    assertThat(startAndStop(new SnapshotSchemaRegistry(resumedRegistry, path))).containsExactlyElementsIn(schemas).inOrder();
+    assertThat(resumedRegistry.resumedFrom).isEqualTo(3);
+
+    FakeRegistry offlineRegistry = new FakeRegistry(schemas);
+    offlineRegistry.offline = true;
+    assertThat(startAndStop(new SnapshotSchemaRegistry(offlineRegistry, path))).containsExactlyElementsIn(schemas).inOrder();
+  }
+
+  @Test
+  void fullLoadRemovesSchemasDeletedWhileDown() {
+    Path path = tempDir.resolve("schemas.snapshot");
+    startAndStop(new SnapshotSchemaRegistry(new FakeRegistry(schemas.subList(0, 4)), path));
+
+    List<SchemaDescriptor> remaining = List.of(schemas.get(0), schemas.get(2), schemas.get(4));
+    assertThat(startAndStop(new SnapshotSchemaRegistry(new NonResumableRegistry(remaining), path)))
+            .containsExactlyElementsIn(remaining).inOrder();
+
+    // the stale schemas were not persisted again
+    FakeRegistry offlineRegistry = new FakeRegistry(schemas);
+    offlineRegistry.offline = true;
+    assertThat(startAndStop(new SnapshotSchemaRegistry(offlineRegistry, path))).containsExactlyElementsIn(remaining).inOrder();
+  }
+
+  @Test
+  void resumableRegistriesWithoutRemovalsAreFullyLoaded() {
+    Path path = tempDir.resolve("schemas.snapshot");
+    startAndStop(new SnapshotSchemaRegistry(new FakeRegistry(schemas.subList(0, 3)), path));
+
+    FakeRegistry registry = new FakeRegistry(schemas.subList(1, 4));
+    registry.resumesRemovals = false;
+    assertThat(startAndStop(new SnapshotSchemaRegistry(registry, path))).containsExactlyElementsIn(schemas.subList(1, 4)).inOrder();
+    assertThat(registry.resumedFrom).isEqualTo(0);
+  }
+
+  private static List<SchemaDescriptor> startAndStop(SchemaRegistry registry) {
+    List<SchemaDescriptor> received = new ArrayList<>();
+    registry.startUp(new SchemaRegistry.SchemaListener() {
+      @Override
+      public void onSchemaAdded(SchemaDescriptor schema) {
+        received.add(schema);
+      }
+
+      @Override
+      public void onSchemaRemoved(SchemaFingerprint fingerprint) {
+        received.removeIf(schema -> schema.fingerprint().equals(fingerprint));
+      }
+    }).join();
+    registry.refresh().join();
+    registry.shutDown().join();
+    return received;
+  }
+
+  /**
+   * Delivers a fixed list of schemas, using the count of delivered schemas as its high-water mark
+   */
+  private static class FakeRegistry implements ResumableSchemaRegistry {
+    private final List<SchemaDescriptor> contents;
+    private SchemaListener schemaListener;
+    private int delivered;
+    int resumedFrom = -1;
+    boolean offline = false;
+    boolean resumesRemovals = true;
+
+    FakeRegistry(List<SchemaDescriptor> contents) {
+      this.contents = contents;
+    }
+
+    @Override
+    public CompletableFuture<?> startUp(SchemaListener schemaListener, Optional<String> highWaterMark) {
+      if (offline) return CompletableFuture.failedFuture(new IOException("offline"));
+      this.schemaListener = schemaListener;
+      delivered = resumedFrom = highWaterMark.map(Integer::parseInt).orElse(0);
+      return CompletableFutures.nullFuture();
+    }
+
+    @Override
+    public Optional<String> highWaterMark() {
+      return delivered == 0 ? Optional.empty() : Optional.of(Integer.toString(delivered));
+    }
+
+    @Override
+    public boolean resumesRemovals() {
+      return resumesRemovals;
+    }
+
+    @Override
+    public CompletableFuture<Void> refresh() {
+      while (delivered < contents.size()) {
+        schemaListener.onSchemaAdded(contents.get(delivered++));
+      }
+      return CompletableFutures.nullFuture();
+    }
+
+    @Override
+    public CompletableFuture<?> insert(List<? extends SchemaDescriptor> schemas) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<?> delete(SchemaDescriptor schema) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<?> shutDown() {
+      return CompletableFutures.nullFuture();
+    }
+  }
+
+  /**
+   * Streams the full contents of a {@link FakeRegistry} on every startup
+   */
+  private static class NonResumableRegistry implements SchemaRegistry {
+    private final FakeRegistry contents;
+
+    NonResumableRegistry(List<SchemaDescriptor> contents) {
+      this.contents = new FakeRegistry(contents);
+    }
+
+    @Override
+    public CompletableFuture<?> startUp(SchemaListener schemaListener) {
+      return contents.startUp(schemaListener, Optional.empty());
+    }
+
+    @Override
+    public CompletableFuture<Void> refresh() {
+      return contents.refresh();
+    }
+
+    @Override
+    public CompletableFuture<?> insert(List<? extends SchemaDescriptor> schemas) {
+      return contents.insert(schemas);
+    }
+
+    @Override
+    public CompletableFuture<?> delete(SchemaDescriptor schema) {
+      return contents.delete(schema);
+    }
+
+    @Override
+    public CompletableFuture<?> shutDown() {
+      return contents.shutDown();
+    }
+  }
+}
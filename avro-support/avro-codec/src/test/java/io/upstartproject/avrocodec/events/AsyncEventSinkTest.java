@@ -0,0 +1,193 @@
+package io.upstartproject.avrocodec.events;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import upstart.util.LogLevel;
+import upstart.util.concurrent.CompletableFutures;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+
+class AsyncEventSinkTest {
+  private final RecordingSink delegate = new RecordingSink();
+  private final List<PackagedEvent> events = Stream.generate(() -> mock(PackagedEvent.class)).limit(8).toList();
+  private AsyncEventSink sink;
+
+  @AfterEach
+  void stopSink() {
+    delegate.release();
+    if (sink != null) sink.stopAsync().awaitTerminated();
+  }
+
+  @Test
+  void deliversBufferedEventsInBatchesOnceStarted() {
+    sink = new AsyncEventSink(List.of(delegate), 16, 3, AsyncEventSink.OverflowPolicy.Block);
+    publish(0, 8);
+    assertThat(sink.bufferedEventCount()).isEqualTo(8);
+    assertThat(delegate.published).isEmpty();
+
+    CompletableFuture<?> flushed = sink.flush();
+    assertThat(flushed.isDone()).isFalse(); // waits for the consumer to start
+
+    sink.startAsync().awaitRunning();
+    flushed.join();
+    assertThat(delegate.published).containsExactlyElementsIn(events).inOrder();
+    assertThat(delegate.publishingThreads).doesNotContain(Thread.currentThread());
+    assertThat(delegate.flushCount.get()).isAtLeast(1);
+  }
+
+  @Test
+  void dropNewestDiscardsOverflowingEvents() {
+    sink = new AsyncEventSink(List.of(delegate), 4, 4, AsyncEventSink.OverflowPolicy.DropNewest);
+    publish(0, 6);
+    assertThat(sink.droppedEventCount()).isEqualTo(2);
+
+    sink.startAsync().awaitRunning();
+    sink.flush().join();
+    assertThat(delegate.published).containsExactlyElementsIn(events.subList(0, 4)).inOrder();
+  }
+
+  @Test
+  void dropOldestDiscardsBufferedEvents() {
+    sink = new AsyncEventSink(List.of(delegate), 4, 4, AsyncEventSink.OverflowPolicy.DropOldest);
+    publish(0, 6);
+    assertThat(sink.droppedEventCount()).isEqualTo(2);
+
+    sink.startAsync().awaitRunning();
+    sink.flush().join();
+    assertThat(delegate.published).containsExactlyElementsIn(events.subList(2, 6)).inOrder();
+  }
+
+  @Test
+  void blockDeliversOverflowSynchronouslyBeforeStart() {
+    sink = new AsyncEventSink(List.of(delegate), 4, 4, AsyncEventSink.OverflowPolicy.Block);
+    publish(0, 6);
+    assertThat(delegate.published).containsExactlyElementsIn(events.subList(4, 6)).inOrder();
+    assertThat(sink.droppedEventCount()).isEqualTo(0);
+
+    sink.startAsync().awaitRunning();
+    sink.flush().join();
+    assertThat(delegate.published).containsExactlyElementsIn(events.subList(0, 6));
+  }
+
+  @Test
+  void blockWaitsForRoomWhileRunning() throws InterruptedException {
+    delegate.hold();
+    sink = new AsyncEventSink(List.of(delegate), 2, 1, AsyncEventSink.OverflowPolicy.Block);
+    sink.startAsync().awaitRunning();
+    CompletableFuture<Void> publisher = CompletableFuture.runAsync(() -> publish(0, 6));
+
+    Thread.sleep(100);
+    assertThat(publisher.isDone()).isFalse();
+
+    delegate.release();
+    publisher.join();
+    sink.flush().join();
+    assertThat(delegate.published).containsExactlyElementsIn(events.subList(0, 6)).inOrder();
+    assertThat(sink.droppedEventCount()).isEqualTo(0);
+  }
+
+  @Test
+  void flushWaitsForPrecedingEvents() throws InterruptedException {
+    delegate.hold();
+    sink = new AsyncEventSink(List.of(delegate), 16, 2, AsyncEventSink.OverflowPolicy.Block);
+    sink.startAsync().awaitRunning();
+    publish(0, 5);
+    CompletableFuture<?> flushed = sink.flush();
+
+    Thread.sleep(50);
+    assertThat(flushed.isDone()).isFalse();
+
+    delegate.release();
+    flushed.join();
+    assertThat(delegate.published).containsExactlyElementsIn(events.subList(0, 5)).inOrder();
+    assertThat(delegate.flushCount.get()).isEqualTo(1);
+  }
+
+  @Test
+  void flushCoversEventsFromConcurrentPublishers() {
+    sink = new AsyncEventSink(List.of(delegate), 64, 16, AsyncEventSink.OverflowPolicy.Block);
+    sink.startAsync().awaitRunning();
+    List<CompletableFuture<Void>> publishers = events.subList(0, 4).stream()
+            .map(event -> CompletableFuture.runAsync(() -> {
+              for (int i = 0; i < 1000; i++) {
+                sink.publish(LogLevel.Info, event);
+              }
+              sink.flush().join();
+              synchronized (delegate.published) {
+                assertThat(Collections.frequency(delegate.published, event)).isEqualTo(1000);
+              }
+            }))
+            .toList();
+    publishers.forEach(CompletableFuture::join);
+    assertThat(sink.droppedEventCount()).isEqualTo(0);
+  }
+
+  @Test
+  void shutdownDeliversBufferedEvents() {
+    delegate.hold();
+    sink = new AsyncEventSink(List.of(delegate), 16, 2, AsyncEventSink.OverflowPolicy.Block);
+    sink.startAsync().awaitRunning();
+    publish(0, 6);
+
+    sink.stopAsync();
+    delegate.release();
+    sink.awaitTerminated();
+    assertThat(delegate.published).containsExactlyElementsIn(events.subList(0, 6)).inOrder();
+    assertThat(delegate.flushCount.get()).isEqualTo(1);
+
+    // after termination, events are delivered synchronously
+    publish(6, 8);
+    assertThat(delegate.published).containsExactlyElementsIn(events).inOrder();
+    sink.flush().join();
+    assertThat(delegate.flushCount.get()).isEqualTo(2);
+  }
+
+  private void publish(int from, int to) {
+    for (PackagedEvent event : events.subList(from, to)) {
+      sink.publish(LogLevel.Info, event);
+    }
+  }
+
+  private static class RecordingSink implements PackagedEventSink {
+    final List<PackagedEvent> published = Collections.synchronizedList(new ArrayList<>());
+    final List<Thread> publishingThreads = Collections.synchronizedList(new ArrayList<>());
+    final AtomicInteger flushCount = new AtomicInteger();
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+
+    void hold() {
+      gate = new CountDownLatch(1);
+    }
+
+    void release() {
+      gate.countDown();
+    }
+
+    @Override
+    public CompletableFuture<?> publish(LogLevel diagnosticLogLevel, PackagedEvent event) {
+      try {
+        if (!gate.await(10, TimeUnit.SECONDS)) throw new AssertionError("RecordingSink was never released");
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+      published.add(event);
+      publishingThreads.add(Thread.currentThread());
+      return CompletableFutures.nullFuture();
+    }
+
+    @Override
+    public CompletableFuture<?> flush() {
+      flushCount.incrementAndGet();
+      return CompletableFutures.nullFuture();
+    }
+  }
+}
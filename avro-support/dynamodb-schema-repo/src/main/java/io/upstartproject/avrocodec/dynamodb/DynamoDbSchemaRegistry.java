@@ -1,7 +1,8 @@
 package io.upstartproject.avrocodec.dynamodb;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
 import com.google.common.collect.Lists;
-import com.google.common.util.concurrent.MoreExecutors;
 import com.google.inject.Binder;
 import io.upstartproject.avrocodec.SchemaDescriptor;
 import io.upstartproject.avrocodec.SchemaFingerprint;
@@ -13,11 +14,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.enhanced.dynamodb.Expression;
 import software.amazon.awssdk.enhanced.dynamodb.Key;
-import software.amazon.awssdk.enhanced.dynamodb.internal.AttributeValues;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbBean;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbPartitionKey;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbSecondaryPartitionKey;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbSortKey;
+import software.amazon.awssdk.enhanced.dynamodb.model.QueryConditional;
 import software.amazon.awssdk.enhanced.dynamodb.model.TransactPutItemEnhancedRequest;
 import software.amazon.awssdk.enhanced.dynamodb.model.TransactWriteItemsEnhancedRequest;
 import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
@@ -35,8 +36,9 @@ import upstart.guice.AnnotationKeyedPrivateModule;
 import upstart.guice.NumberedAnnotation;
 import upstart.guice.PrivateBinding;
 import upstart.util.collect.PairStream;
-import upstart.util.concurrent.BlockingBoundedActor;
+import upstart.util.concurrent.AsyncSemaphore;
 import upstart.util.concurrent.CompletableFutures;
+import upstart.util.concurrent.ListPromise;
 import upstart.util.concurrent.Promise;
 import upstart.util.exceptions.Exceptions;
 
@@ -44,9 +46,12 @@ import javax.annotation.Nonnull;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.lang.annotation.Annotation;
-import java.util.HashMap;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
@@ -55,11 +60,18 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
+/**
+ * A {@link SchemaRegistry} which stores schemas in a DynamoDB table, as a single partition sorted by a
+ * sequence-number which is allocated by each writer (conditional upon its absence).
+ * <p/>
+ * Operations are serialized through a non-blocking {@link AsyncSemaphore}. Each {@link #refresh} queries only the
+ * items beyond the highest contiguous seqNo observed so far; see {@link SchemaTable#refresh}.
+ */
 @Singleton
 public class DynamoDbSchemaRegistry implements SchemaRegistry {
   private static final Logger LOG = LoggerFactory.getLogger(DynamoDbSchemaRegistry.class);
   private final SchemaTable table;
-  private final BlockingBoundedActor actor = new BlockingBoundedActor(10);
+  private final AsyncSemaphore actor = new AsyncSemaphore(1);
 
   @Inject
   public DynamoDbSchemaRegistry(SchemaTable table) {
@@ -74,17 +86,17 @@ public class DynamoDbSchemaRegistry implements SchemaRegistry {
 
   @Override
   public CompletableFuture<?> insert(List<? extends SchemaDescriptor> schemas) {
-    return actor.requestAsync(() -> table.insert(schemas), MoreExecutors.directExecutor());
+    return actor.submit(() -> table.insert(schemas));
   }
 
   @Override
   public CompletableFuture<?> delete(SchemaDescriptor schema) {
-    return actor.requestAsync(() -> table.delete(schema), MoreExecutors.directExecutor());
+    return actor.submit(() -> table.delete(schema));
   }
 
   @Override
   public CompletableFuture<Void> refresh() {
-    return actor.requestAsync(table::refresh, MoreExecutors.directExecutor());
+    return actor.submit(table::refresh);
   }
 
   @Override
@@ -98,67 +110,113 @@ public class DynamoDbSchemaRegistry implements SchemaRegistry {
     public static final String FINGERPRINT_IDX = "byFingerprint";
     public static final Expression WHERE_NOT_EXISTS = Expression.builder().expression("attribute_not_exists(seqNo)").build();
     public static final Predicate<CancellationReason> CONDITIONAL_CHECK_FAILED = reason -> reason.code().equals("ConditionalCheckFailed");
+    private static final Predicate<CancellationReason> NOT_CANCELLED = reason -> reason.code().equals("None");
+    private static final int MAX_CONCURRENT_TRANSACTIONS = 8;
+    /**
+     * How long a gap in the observed seqNos may persist before it is assumed to be permanent (eg, because its item
+     * was deleted, or its transaction was cancelled), rather than a transaction which has yet to commit
+     */
+    static final Duration SEQNO_GAP_GRACE_PERIOD = Duration.ofMinutes(1);
+    private static final long NOT_STALLED = Long.MIN_VALUE;
+
     private final Map<SchemaDescriptor, Integer> knownSchemas = new ConcurrentHashMap<>();
+    private final AsyncSemaphore transactionSemaphore = new AsyncSemaphore(MAX_CONCURRENT_TRANSACTIONS);
+    private final Ticker ticker;
+    // the following are only accessed by operations serialized by the DynamoDbSchemaRegistry
     private volatile int latestObservedSeqNo = -1;
+    private int contiguousSeqNo = -1;
+    private final NavigableSet<Integer> observedBeyondGap = new TreeSet<>();
+    private long stalledSinceNanos = NOT_STALLED;
+    private int stalledThroughSeqNo;
     private SchemaListener listener;
 
     @Inject
     public SchemaTable(
             DynamoDbRegistryConfig config,
             DynamoDbClientService db,
-            @PrivateBinding DynamoTable table
+            @PrivateBinding DynamoTable table,
+            Ticker ticker
     ) {
       super(SchemaDocument.class, table);
+      this.ticker = ticker;
     }
 
     public void setListener(SchemaListener listener) {
       this.listener = listener;
     }
 
+    /**
+     * Writes the unknown schemas with {@code TransactWriteItems} chunks, issued in parallel with consecutive ranges of
+     * seqNos following the latest observed. If any chunk conflicts with another writer, its schemas are retried
+     * after a {@link #refresh}.
+     */
     public CompletableFuture<Void> insert(List<? extends SchemaDescriptor> schemas) {
-      List<? extends List<? extends SchemaDescriptor>> pages = Lists.partition(
-              schemas,
+      List<? extends SchemaDescriptor> newSchemas = schemas.stream()
+              .filter(schema -> !knownSchemas.containsKey(schema))
+              .distinct()
+              .toList();
+      if (newSchemas.isEmpty()) return refresh();
+
+      List<? extends List<? extends SchemaDescriptor>> chunks = Lists.partition(
+              newSchemas,
               DynamoDbClientService.MAX_ITEMS_PER_DYNAMODB_BATCH
       );
-      return CompletableFutures.applyInSequence(
-              pages.stream(),
-              this::insertPage
-      ).thenReplaceFuture(this::refresh);
+      int firstSeqNo = latestObservedSeqNo + 1;
+      List<Promise<Boolean>> commits = new ArrayList<>(chunks.size());
+      for (int i = 0; i < chunks.size(); i++) {
+        List<? extends SchemaDescriptor> chunk = chunks.get(i);
+        int chunkSeqNo = firstSeqNo + i * DynamoDbClientService.MAX_ITEMS_PER_DYNAMODB_BATCH;
+        commits.add(transactionSemaphore.submit(() -> insertChunk(chunk, chunkSeqNo)));
+      }
+
+      return ListPromise.allAsList(commits).thenCompose(committed -> {
+        boolean conflicted = false;
+        for (int i = 0; i < chunks.size(); i++) {
+          if (committed.get(i)) {
+            // notify in seqNo-order, after all transactions have completed, to avoid concurrent notifications
+            int seqNo = firstSeqNo + i * DynamoDbClientService.MAX_ITEMS_PER_DYNAMODB_BATCH;
+            for (SchemaDescriptor schema : chunks.get(i)) {
+              latestObservedSeqNo = Math.max(latestObservedSeqNo, seqNo);
+              if (knownSchemas.putIfAbsent(schema, seqNo++) == null) listener.onSchemaAdded(schema);
+            }
+          } else {
+            conflicted = true;
+          }
+        }
+        return conflicted
+                ? refresh().thenReplaceFuture(() -> insert(newSchemas))
+                : refresh();
+      });
     }
 
-    private Promise<Void> insertPage(List<? extends SchemaDescriptor> page) {
+    /**
+     * @return true if the chunk was committed, or false if it conflicted with items written by another writer
+     */
+    private Promise<Boolean> insertChunk(List<? extends SchemaDescriptor> chunk, int firstSeqNo) {
       TransactWriteItemsEnhancedRequest.Builder tx = TransactWriteItemsEnhancedRequest.builder();
-      int seqNo = latestObservedSeqNo + 1;
       TransactPutItemEnhancedRequest.Builder<SchemaDocument> req = TransactPutItemEnhancedRequest
               .builder(SchemaDocument.class)
               .conditionExpression(WHERE_NOT_EXISTS);
-      Map<SchemaDescriptor, Integer> newSchemas = new HashMap<>();
-      for (SchemaDescriptor schema : page) {
-        if (!knownSchemas.containsKey(schema)) {
-          SchemaDocument item = new SchemaDocument(schema, seqNo++);
-          tx.addPutItem(enhancedTable, req.item(item).build());
-          newSchemas.put(schema, item.getSeqNo());
-        }
+      int seqNo = firstSeqNo;
+      for (SchemaDescriptor schema : chunk) {
+        tx.addPutItem(enhancedTable, req.item(new SchemaDocument(schema, seqNo++)).build());
       }
 
-      return newSchemas.isEmpty()
-              ? CompletableFutures.nullFuture()
-              : Promise.of(table.enhancedClient().transactWriteItems(tx.build()))
-                      .thenRun(() -> {
-                        latestObservedSeqNo += newSchemas.size();
-                        knownSchemas.putAll(newSchemas);
-                        page.forEach(listener::onSchemaAdded);
-                      }).recoverCompose(
-                              TransactionCanceledException.class,
-                              e -> {
-                                if (e.hasCancellationReasons() && e.cancellationReasons().stream().allMatch(
-                                        CONDITIONAL_CHECK_FAILED)) {
-                                  return refresh().thenReplaceFuture(() -> insertPage(page));
-                                } else {
-                                  throw Exceptions.throwUnchecked(e);
-                                }
-                              }
-                      );
+      return Promise.of(table.enhancedClient().transactWriteItems(tx.build()))
+              .thenReplace(true)
+              .recover(
+                      TransactionCanceledException.class,
+                      e -> {
+                        // items which didn't cause the cancellation have the reason-code "None"
+                        if (e.hasCancellationReasons()
+                                && e.cancellationReasons().stream().anyMatch(CONDITIONAL_CHECK_FAILED)
+                                && e.cancellationReasons().stream().allMatch(CONDITIONAL_CHECK_FAILED.or(NOT_CANCELLED))) {
+                          return false;
+                        } else {
+                          throw Exceptions.throwUnchecked(e);
+                        }
+                      }
+              );
     }
 
     public CompletableFuture<Boolean> insert(SchemaDescriptor schemaDescriptor, int seqNo) {
@@ -172,28 +230,66 @@ public class DynamoDbSchemaRegistry implements SchemaRegistry {
       return PairStream.of(knownSchemas);
     }
 
+    /**
+     * Queries the items with seqNos beyond the highest contiguous seqNo observed so far, with the query's pages
+     * fetched ahead of their consumption.
+     * <p/>
+     * Concurrent transactions may commit out of seqNo-order, so the query starts from the first gap rather than the
+     * latest observed seqNo, until the gap is filled. Gaps which persist for {@link #SEQNO_GAP_GRACE_PERIOD} are
+     * assumed to be permanent, and skipped.
+     */
     public Promise<Void> refresh() {
-      return Promise.of(scan(b -> {
-        b.consistentRead(true);
-        if (latestObservedSeqNo >= 0) {
-          // so verbose ... does anyone at amazon actually work with these APIs?
-          var filter = Expression.builder()
-                  .expression("#seqNo > :seqNo")
-                  .expressionNames(Map.of("#seqNo", "seqNo"))
-                  .expressionValues(Map.of(":seqNo", AttributeValues.numberValue(latestObservedSeqNo)))
-                  .build();
-          b.filterExpression(filter);
-        }
-      }).reduce(0, (ignored, item) -> {
-        int seqNo = item.getSeqNo();
-        assert seqNo > latestObservedSeqNo : "SeqNo was out of order: " + seqNo + " <= " + latestObservedSeqNo;
-        latestObservedSeqNo = seqNo;
-        SchemaDescriptor descriptor = item.toSchemaDescriptor();
-        if (knownSchemas.putIfAbsent(descriptor, seqNo) == null) {
-          listener.onSchemaAdded(descriptor);
+      return Promise.of(query(b -> b.consistentRead(true)
+              .queryConditional(QueryConditional.sortGreaterThan(SchemaDocument.sortKey(contiguousSeqNo)))
+      ).doOnNext(this::observe).then().toFuture())
+              .thenRun(this::advanceContiguousSeqNo);
+    }
+
+    private void observe(SchemaDocument item) {
+      int seqNo = item.getSeqNo();
+      latestObservedSeqNo = Math.max(latestObservedSeqNo, seqNo);
+      observedBeyondGap.add(seqNo);
+      SchemaDescriptor descriptor = item.toSchemaDescriptor();
+      if (knownSchemas.putIfAbsent(descriptor, seqNo) == null) {
+        listener.onSchemaAdded(descriptor);
+      }
+    }
+
+    private void advanceContiguousSeqNo() {
+      absorbContiguousSeqNos();
+      if (observedBeyondGap.isEmpty()) {
+        stalledSinceNanos = NOT_STALLED;
+        return;
+      }
+
+      long now = ticker.read();
+      if (stalledSinceNanos != NOT_STALLED && now - stalledSinceNanos >= SEQNO_GAP_GRACE_PERIOD.toNanos()) {
+        LOG.warn("Skipping missing schema seqNos between {} and {}", contiguousSeqNo, stalledThroughSeqNo);
+        while (!observedBeyondGap.isEmpty() && observedBeyondGap.first() <= stalledThroughSeqNo) {
+          contiguousSeqNo = observedBeyondGap.pollFirst();
         }
-        return ignored;
-      }).then().toFuture());
+        absorbContiguousSeqNos();
+        stalledSinceNanos = NOT_STALLED;
+      }
+
+      if (stalledSinceNanos == NOT_STALLED && !observedBeyondGap.isEmpty()) {
+        stalledSinceNanos = now;
+        stalledThroughSeqNo = observedBeyondGap.last();
+      }
+    }
+
+    /**
+     * @return the highest seqNo through which every item has been observed (or skipped)
+     */
+    @VisibleForTesting
+    int contiguousSeqNo() {
+      return contiguousSeqNo;
+    }
+
+    private void absorbContiguousSeqNos() {
+      while (!observedBeyondGap.isEmpty() && observedBeyondGap.first() <= contiguousSeqNo + 1) {
+        contiguousSeqNo = Math.max(contiguousSeqNo, observedBeyondGap.pollFirst());
+      }
     }
 
     public CompletableFuture<Void> delete(SchemaDescriptor schema) {
@@ -1,5 +1,6 @@
 package io.upstartproject.avrocodec.dynamodb;
 
+import com.google.common.base.Ticker;
 import io.upstartproject.avro.MessageEnvelope;
 import io.upstartproject.avrocodec.AvroPublisher;
 import io.upstartproject.avrocodec.AvroSchemaConflictException;
@@ -8,6 +9,7 @@ import io.upstartproject.avrocodec.SchemaRegistry;
 import io.upstartproject.avrocodec.upstart.AvroPublicationModule;
 import io.upstartproject.avrocodec.upstart.DataStore;
 import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -33,6 +35,8 @@ import java.time.Duration;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static com.google.common.truth.Truth.assertThat;
@@ -51,12 +55,131 @@ class DynamoDbSchemaRegistryTest extends UpstartModule {
   }
 
   @Inject @DataStore(TEST_DATASTORE) AvroPublisher avroPublisher;
+  @Inject @DataStore(TEST_DATASTORE) DynamoDbSchemaRegistry registry;
+  @Inject @Named("test.schemarepo") DynamoDbTable<DynamoDbSchemaRegistry.SchemaTable.SchemaDocument> schemaTable;
 
   @Test
   void roundTrip() {
     avroPublisher.getPreRegisteredPacker(MessageEnvelope.class).schema();
   }
 
+  @Test
+  void bulkInsertionsAreWrittenInParallelChunks() {
+    // enough schemas to span several transactions
+    List<SchemaDescriptor> schemas = IntStream.range(0, 60)
+            .mapToObj(i -> SchemaDescriptor.of(SchemaBuilder.record("BulkRecord" + i).namespace("io.upstartproject.avro.test")
+                    .fields()
+                    .requiredInt("field")
+                    .endRecord()))
+            .toList();
+    registry.insert(schemas).join();
+    registry.insert(schemas).join(); // known schemas are not rewritten
+
+    List<Integer> seqNos = schemaTable.scan().items().stream()
+            .map(DynamoDbSchemaRegistry.SchemaTable.SchemaDocument::getSeqNo)
+            .sorted()
+            .toList();
+    assertThat(seqNos).containsExactlyElementsIn(IntStream.rangeClosed(0, schemas.size()).boxed().toList()).inOrder();
+  }
+
+  @Nested
+  class WithSeqNoGaps {
+    private final FakeTicker ticker = new FakeTicker();
+
+    @Inject @DataStore(TEST_DATASTORE) DynamoDbSchemaRegistry.SchemaTable table;
+
+    @BeforeEach
+    void injectTicker(UpstartTestBuilder testBuilder) {
+      testBuilder.overrideBindings(binder -> binder.bind(Ticker.class).toInstance(ticker));
+    }
+
+    @Test
+    void lateCommitsAreDeliveredWithoutSkipping() {
+      assertThat(table.contiguousSeqNo()).isEqualTo(0);
+
+      // seqNo 2 commits before seqNo 1
+      putSchema(2);
+      registry.refresh().join();
+      assertThat(knownSeqNos()).containsExactly(0, 2);
+      assertThat(table.contiguousSeqNo()).isEqualTo(0);
+
+      ticker.advance(DynamoDbSchemaRegistry.SchemaTable.SEQNO_GAP_GRACE_PERIOD.dividedBy(2));
+      putSchema(1);
+      registry.refresh().join();
+      assertThat(knownSeqNos()).containsExactly(0, 1, 2);
+      assertThat(table.contiguousSeqNo()).isEqualTo(2);
+    }
+
+    @Test
+    void deletedItemsAreSkippedAfterGracePeriod() {
+      DynamoDbSchemaRegistry.SchemaTable.SchemaDocument deleted = putSchema(1);
+      putSchema(2);
+      schemaTable.deleteItem(deleted);
+
+      registry.refresh().join();
+      assertThat(knownSeqNos()).containsExactly(0, 2);
+      assertThat(table.contiguousSeqNo()).isEqualTo(0);
+
+      ticker.advance(DynamoDbSchemaRegistry.SchemaTable.SEQNO_GAP_GRACE_PERIOD);
+      registry.refresh().join();
+      assertThat(table.contiguousSeqNo()).isEqualTo(2);
+
+      // the registry keeps delivering schemas beyond the skipped gap
+      registry.insert(List.of(gapSchema(3))).join();
+      assertThat(knownSeqNos()).containsExactly(0, 2, 3);
+      assertThat(table.contiguousSeqNo()).isEqualTo(3);
+    }
+
+    @Test
+    void conflictingChunksAreRetriedBeyondOtherWriters() {
+      // another writer claims a seqNo in the middle of the second chunk
+      putSchema(26);
+      List<SchemaDescriptor> schemas = IntStream.rangeClosed(1, 50).mapToObj(DynamoDbSchemaRegistryTest::gapSchema).toList();
+
+      registry.insert(schemas).join();
+
+      assertThat(table.getKnownSchemas().keys().toList()).containsAtLeastElementsIn(schemas);
+      List<Integer> seqNos = schemaTable.scan().items().stream()
+              .map(DynamoDbSchemaRegistry.SchemaTable.SchemaDocument::getSeqNo)
+              .sorted()
+              .toList();
+      assertThat(seqNos).containsExactlyElementsIn(IntStream.rangeClosed(0, 51).boxed().toList()).inOrder();
+      assertThat(knownSeqNos()).containsExactlyElementsIn(seqNos).inOrder();
+      assertThat(table.contiguousSeqNo()).isEqualTo(51);
+    }
+
+    private DynamoDbSchemaRegistry.SchemaTable.SchemaDocument putSchema(int seqNo) {
+      DynamoDbSchemaRegistry.SchemaTable.SchemaDocument document =
+              new DynamoDbSchemaRegistry.SchemaTable.SchemaDocument(gapSchema(1000 + seqNo), seqNo);
+      schemaTable.putItem(document);
+      return document;
+    }
+
+    private List<Integer> knownSeqNos() {
+      return table.getKnownSchemas().values().sorted().toList();
+    }
+  }
+
+  private static SchemaDescriptor gapSchema(int i) {
+    return SchemaDescriptor.of(SchemaBuilder.record("GapRecord" + i).namespace("io.upstartproject.avro.test")
+            .fields()
+            .requiredInt("field")
+            .endRecord());
+  }
+
+  static class FakeTicker extends Ticker {
+    private final AtomicLong nanos = new AtomicLong();
+
+    void advance(Duration duration) {
+      nanos.addAndGet(duration.toNanos());
+    }
+
+    @Override
+    public long read() {
+      return nanos.get();
+    }
+  }
+
   @Nested
   class WithInterceptedRepo {
     private final ThreadPauseHelper pauseHelper = new ThreadPauseHelper(Deadline.withinSeconds(5));
@@ -0,0 +1,132 @@
+package io.upstartproject.avrocodec.events.kafka;
+
+import io.upstartproject.avro.MessageEnvelope;
+import io.upstartproject.avrocodec.EnvelopePublisher;
+import io.upstartproject.avrocodec.events.PackagedEvent;
+import io.upstartproject.avrocodec.events.PackagedEventSink;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import upstart.util.LogLevel;
+import upstart.util.concurrent.NamedThreadFactory;
+import upstart.util.concurrent.Promise;
+import upstart.util.concurrent.services.IdleService;
+
+import javax.inject.Inject;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A {@link PackagedEventSink} which publishes each {@link PackagedEvent} to a Kafka topic, serialized as a
+ * {@link MessageEnvelope} (see {@link EnvelopePublisher#getSerializedBytes}).
+ * <p/>
+ * Records are keyed by the event's {@link PackagedEvent#key key} (if any), so that events sharing a key are
+ * delivered to the same partition, in order. The producer is idempotent (with {@code acks=all}), so retries never
+ * introduce duplicates, and it accumulates records into batches according to the configured
+ * {@link Config#linger linger} and {@link Config#batchSizeBytes batchSize}.
+ * <p/>
+ * The future returned by {@link #publish} completes when the broker has acknowledged the record, and {@link #flush}
+ * completes when all previously-published records have been acknowledged.
+ */
+public class KafkaEventSink extends IdleService implements PackagedEventSink {
+  private final Config config;
+  private final EnvelopePublisher envelopePublisher;
+  private Producer<byte[], byte[]> producer;
+  private ExecutorService flushExecutor;
+
+  @Inject
+  public KafkaEventSink(Config config, EnvelopePublisher envelopePublisher) {
+    this.config = config;
+    this.envelopePublisher = envelopePublisher;
+  }
+
+  @Override
+  protected void startUp() {
+    Map<String, Object> producerProps = new HashMap<>();
+    producerProps.put(ProducerConfig.LINGER_MS_CONFIG, (int) config.linger().toMillis());
+    producerProps.put(ProducerConfig.BATCH_SIZE_CONFIG, config.batchSizeBytes());
+    producerProps.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, config.compressionType());
+    producerProps.putAll(config.producerConfigs());
+
+    producerProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, config.brokerList());
+    producerProps.put(ProducerConfig.CLIENT_ID_CONFIG, config.clientId());
+    producerProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+    producerProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+
+    // idempotence ensures that retries can neither duplicate nor reorder records (and requires acks=all)
+    producerProps.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+    producerProps.put(ProducerConfig.ACKS_CONFIG, "all");
+
+    producer = new KafkaProducer<>(producerProps);
+    flushExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("kafka-event-sink-flush").daemonize());
+  }
+
+  @Override
+  protected void shutDown() {
+    try {
+      producer.close(); // waits for all pending records to be sent
+    } finally {
+      flushExecutor.shutdown();
+    }
+  }
+
+  @Override
+  public Promise<RecordMetadata> publish(LogLevel diagnosticLogLevel, PackagedEvent event) {
+    checkState(isRunning(), "KafkaEventSink is not running", this);
+    byte[] key = event.key().map(k -> k.getBytes(StandardCharsets.UTF_8)).orElse(null);
+    ProducerRecord<byte[], byte[]> record = new ProducerRecord<>(
+            config.topic(),
+            null, // partition is determined by the key
+            event.timestamp().toEpochMilli(),
+            key,
+            event.serialize(envelopePublisher)
+    );
+    return Promise.thatCompletes(promise -> producer.send(record, promise::accept));
+  }
+
+  @Override
+  public Promise<Void> flush() {
+    return Promise.callAsync(() -> {
+      producer.flush();
+      return null;
+    }, flushExecutor);
+  }
+
+  public interface Config {
+    String topic();
+    String brokerList();
+    String clientId();
+
+    /**
+     * How long the producer may wait for additional records to fill a batch before sending it
+     */
+    default Duration linger() {
+      return Duration.ofMillis(20);
+    }
+
+    default int batchSizeBytes() {
+      return 256 * 1024;
+    }
+
+    /**
+     * The compression applied to each batch by the producer (none, gzip, snappy, lz4, or zstd)
+     */
+    default String compressionType() {
+      return "lz4";
+    }
+
+    /**
+     * Additional producer configs, which override the defaults above
+     */
+    Map<String, String> producerConfigs();
+  }
+}
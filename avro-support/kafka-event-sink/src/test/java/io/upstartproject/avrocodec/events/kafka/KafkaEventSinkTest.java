@@ -0,0 +1,133 @@
+package io.upstartproject.avrocodec.events.kafka;
+
+import io.upstartproject.avro.DeploymentStage;
+import io.upstartproject.avro.PackedRecord;
+import io.upstartproject.avrocodec.AvroDecoder;
+import io.upstartproject.avrocodec.AvroPublisher;
+import io.upstartproject.avrocodec.AvroTaxonomy;
+import io.upstartproject.avrocodec.EnvelopeDecoder;
+import io.upstartproject.avrocodec.EnvelopePublisher;
+import io.upstartproject.avrocodec.MemorySchemaRegistry;
+import io.upstartproject.avrocodec.MessageMetadata;
+import io.upstartproject.avrocodec.UnpackableMessageEnvelope;
+import io.upstartproject.avrocodec.events.PackagedEvent;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.junit.jupiter.api.Test;
+import upstart.test.kafka.EphemeralKafkaBroker;
+import upstart.test.kafka.LocalKafkaTopic;
+import upstart.util.LogLevel;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@LocalKafkaTopic(KafkaEventSinkTest.TOPIC)
+class KafkaEventSinkTest {
+  static final String TOPIC = "events";
+
+  @Test
+  void publishesKeyedEnvelopes(EphemeralKafkaBroker broker) {
+    AvroTaxonomy taxonomy = new AvroTaxonomy(new MemorySchemaRegistry());
+    taxonomy.startAsync().awaitRunning();
+    EnvelopePublisher envelopePublisher = new EnvelopePublisher(new AvroPublisher(taxonomy)).registerEnvelopeSchema().join();
+    EnvelopeDecoder envelopeDecoder = new EnvelopeDecoder(new AvroDecoder(taxonomy));
+
+    MessageMetadata metadata = MessageMetadata.builder()
+            .application("test-app")
+            .owner("test-owner")
+            .environment("test")
+            .deploymentStage(DeploymentStage.test)
+            .build();
+
+    KafkaEventSink sink = new KafkaEventSink(new KafkaEventSink.Config() {
+      @Override
+      public String topic() {
+        return TOPIC;
+      }
+
+      @Override
+      public String brokerList() {
+        return broker.getBrokerList().orElseThrow();
+      }
+
+      @Override
+      public String clientId() {
+        return "kafka-event-sink-test";
+      }
+
+      @Override
+      public Map<String, String> producerConfigs() {
+        return Map.of();
+      }
+    }, envelopePublisher);
+    sink.startAsync().awaitRunning();
+
+    List<PackagedEvent> events = new ArrayList<>();
+    List<CompletableFuture<?>> acks = new ArrayList<>();
+    try {
+      for (int i = 0; i < 5; i++) {
+        // any registered record-type will do as the event-payload, so use a nested envelope
+        PackedRecord payload = new PackedRecord(0L, ByteBuffer.wrap(new byte[]{(byte) i}));
+        PackagedEvent event = PackagedEvent.builder()
+                .key("key-" + (i % 2))
+                .timestamp(Instant.ofEpochMilli(1000 + i))
+                .metadata(metadata)
+                .event(envelopePublisher.makePackable(envelopePublisher.buildMessageEnvelope(
+                        Instant.EPOCH,
+                        Optional.empty(),
+                        payload,
+                        metadata
+                )))
+                .build();
+        events.add(event);
+        acks.add(sink.publish(LogLevel.Info, event));
+      }
+      sink.flush().join();
+      for (CompletableFuture<?> ack : acks) {
+        assertThat(ack.isDone()).isTrue();
+        assertThat(((RecordMetadata) ack.join()).topic()).isEqualTo(TOPIC);
+      }
+    } finally {
+      sink.stopAsync().awaitTerminated();
+    }
+
+    List<ConsumerRecord<byte[], byte[]>> received = new ArrayList<>();
+    try (KafkaConsumer<byte[], byte[]> consumer = broker.createByteConsumer()) {
+      consumer.subscribe(List.of(TOPIC));
+      long deadline = System.nanoTime() + Duration.ofSeconds(30).toNanos();
+      while (received.size() < events.size() && System.nanoTime() < deadline) {
+        consumer.poll(Duration.ofMillis(200)).forEach(received::add);
+      }
+    }
+    assertThat(received).hasSize(events.size());
+
+    for (ConsumerRecord<byte[], byte[]> record : received) {
+      UnpackableMessageEnvelope envelope = envelopeDecoder.loadEnvelope(record.value()).join();
+      PackagedEvent published = events.stream()
+              .filter(event -> event.uniqueId().equals(envelope.uniqueId()))
+              .findFirst()
+              .orElseThrow();
+      assertThat(new String(record.key(), StandardCharsets.UTF_8)).isEqualTo(published.key().orElseThrow());
+      assertThat(record.timestamp()).isEqualTo(published.timestamp().toEpochMilli());
+    }
+
+    // events sharing a key land in the same partition, in publication order
+    for (String key : List.of("key-0", "key-1")) {
+      List<ConsumerRecord<byte[], byte[]>> keyed = received.stream()
+              .filter(record -> new String(record.key(), StandardCharsets.UTF_8).equals(key))
+              .toList();
+      assertThat(keyed.stream().map(ConsumerRecord::partition).distinct().count()).isEqualTo(1);
+      assertThat(keyed.stream().map(ConsumerRecord::timestamp).toList()).isInOrder();
+    }
+  }
+}
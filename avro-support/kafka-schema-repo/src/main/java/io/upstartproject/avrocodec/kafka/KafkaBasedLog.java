@@ -34,6 +34,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -105,7 +106,15 @@ public class KafkaBasedLog<K, V> {
   }
 
   public void start() {
-    log.info("Starting KafkaBasedLog with topic {}", topic);
+    start(Map.of());
+  }
+
+  /**
+   * Like {@link #start()}, but resumes consuming each partition present in {@code startOffsets} from the given offset
+   * (keyed by partition number), rather than from the beginning of the log.
+   */
+  public void start(Map<Integer, Long> startOffsets) {
+    log.info("Starting KafkaBasedLog with topic {} at offsets {}", topic, startOffsets);
 
     consumer = createConsumer();
 
@@ -127,7 +136,16 @@ public class KafkaBasedLog<K, V> {
             .collect(Collectors.toList());
 
     consumer.assign(topicPartitions);
-    consumer.seekToBeginning(topicPartitions);
+    List<TopicPartition> unstartedPartitions = new ArrayList<>();
+    for (TopicPartition topicPartition : topicPartitions) {
+      Long startOffset = startOffsets.get(topicPartition.partition());
+      if (startOffset != null) {
+        consumer.seek(topicPartition, startOffset);
+      } else {
+        unstartedPartitions.add(topicPartition);
+      }
+    }
+    consumer.seekToBeginning(unstartedPartitions);
 
     readToLogEnd();
 
@@ -197,6 +215,8 @@ public class KafkaBasedLog<K, V> {
   private Consumer<K, V> createConsumer() {
     // Turn off autocommit since we always want to consume the full log
     consumerConfigs.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+    // if a resumed offset is no longer available, reread the partition rather than skipping to its end
+    consumerConfigs.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
     return new KafkaConsumer<>(consumerConfigs);
   }
 
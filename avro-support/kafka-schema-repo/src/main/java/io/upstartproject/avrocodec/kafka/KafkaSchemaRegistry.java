@@ -2,6 +2,7 @@ package io.upstartproject.avrocodec.kafka;
 
 import io.upstartproject.avrocodec.AvroPublisher;
 import io.upstartproject.avrocodec.BaseSchemaRegistry;
+import io.upstartproject.avrocodec.ResumableSchemaRegistry;
 import io.upstartproject.avrocodec.SchemaDescriptor;
 import io.upstartproject.avrocodec.SchemaRegistry;
 import upstart.util.concurrent.CompletableFutures;
@@ -22,18 +23,26 @@ import javax.inject.Inject;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 /**
  * A {@link SchemaRegistry} implementation, for use with an {@link AvroPublisher#AvroCodec(SchemaRegistry) AvroCodec}, which
  * stores schemas in a configured Kafka topic.
+ * <p/>
+ * The {@link #highWaterMark} records the next offset to be consumed from each partition of the topic, formatted as
+ * {@code "partition:offset,..."}.
  *
  * @see SchemaRegistry
  * @see AvroPublisher#AvroCodec(SchemaRegistry)
  */
-public class KafkaSchemaRegistry extends BaseSchemaRegistry {
+public class KafkaSchemaRegistry extends BaseSchemaRegistry implements ResumableSchemaRegistry {
   private final String topic;
   private final Config config;
+  private final Map<Integer, Long> consumedOffsets = new ConcurrentHashMap<>();
+  private Map<Integer, Long> startOffsets = Map.of();
 
   private KafkaBasedLog<Long, String> kafkaLog;
   private Producer<Long, String> producer;
@@ -44,6 +53,32 @@ public class KafkaSchemaRegistry extends BaseSchemaRegistry {
     this.topic = config.schemaTopic();
   }
 
+  @Override
+  public CompletableFuture<?> startUp(SchemaListener schemaListener, Optional<String> highWaterMark) {
+    startOffsets = highWaterMark.map(KafkaSchemaRegistry::parseOffsets).orElse(Map.of());
+    consumedOffsets.putAll(startOffsets);
+    return startUp(schemaListener);
+  }
+
+  @Override
+  public Optional<String> highWaterMark() {
+    if (consumedOffsets.isEmpty()) return Optional.empty();
+    return Optional.of(consumedOffsets.entrySet().stream()
+            .sorted(Map.Entry.comparingByKey())
+            .map(entry -> entry.getKey() + ":" + entry.getValue())
+            .collect(Collectors.joining(",")));
+  }
+
+  private static Map<Integer, Long> parseOffsets(String highWaterMark) {
+    Map<Integer, Long> offsets = new HashMap<>();
+    for (String partitionOffset : highWaterMark.split(",")) {
+      int separator = partitionOffset.indexOf(':');
+      if (separator < 0) throw new IllegalArgumentException("Malformed highWaterMark: " + highWaterMark);
+      offsets.put(Integer.parseInt(partitionOffset.substring(0, separator)), Long.parseLong(partitionOffset.substring(separator + 1)));
+    }
+    return offsets;
+  }
+
   @Override
   protected CompletableFuture<?> startUpAsync() {
     return runOnDedicatedThread("STARTING", () -> {
@@ -53,7 +88,7 @@ public class KafkaSchemaRegistry extends BaseSchemaRegistry {
       consumerProps.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, LongDeserializer.class.getName());
       consumerProps.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
       this.kafkaLog = new KafkaBasedLog<>(topic, consumerProps, this::ingestSchema, new SystemTime());
-      kafkaLog.start();
+      kafkaLog.start(startOffsets);
 
       Map<String, Object> producerProps = new HashMap<>(config.producerConfigs());
       producerProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, config.brokerList());
@@ -89,6 +124,8 @@ public class KafkaSchemaRegistry extends BaseSchemaRegistry {
       // tombstone record: schema was deleted, probably retracted by its publisher
       notifySchemaRemoved(record.key());
     }
+    // only advance the mark after the record has been delivered
+    consumedOffsets.put(record.partition(), record.offset() + 1);
   }
 
   @Override
@@ -0,0 +1,210 @@
+package io.upstartproject.avrocodec.events.s3;
+
+import io.upstartproject.avro.MessageEnvelope;
+import io.upstartproject.avrocodec.AvroPackedLogFileAccumulator;
+import io.upstartproject.avrocodec.EnvelopePublisher;
+import io.upstartproject.avrocodec.events.PackagedEvent;
+import io.upstartproject.avrocodec.events.PackagedEventSink;
+import io.upstartproject.hojack.Size;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import upstart.aws.s3.S3BucketClient;
+import upstart.aws.s3.S3Key;
+import upstart.util.LogLevel;
+import upstart.util.concurrent.CompletableFutures;
+import upstart.util.concurrent.NamedThreadFactory;
+import upstart.util.concurrent.Promise;
+import upstart.util.concurrent.Scheduler;
+import upstart.util.concurrent.TempFileFactory;
+import upstart.util.concurrent.services.IdleService;
+import upstart.util.strings.RandomId;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A {@link PackagedEventSink} which archives events to S3, as avro container-files of {@link MessageEnvelope
+ * MessageEnvelopes} accumulated by an {@link AvroPackedLogFileAccumulator}.
+ * <p/>
+ * Rather than uploading each file after it has been sealed, completed avro blocks are streamed to S3 via a multipart
+ * upload while the file is still being written (in parts of {@link Config#multipartPartSize}), so that only the final
+ * part remains to be sent when the file is sealed. Local files are deleted once their upload has been committed.
+ * <p/>
+ * When {@link Config#concurrentFileCount} exceeds 1, that many files are written (and uploaded) concurrently, each by
+ * its own writer thread.
+ * <p/>
+ * The future returned by {@link #publish} completes with the {@link S3Key} of the archived file, after it has been
+ * committed; {@link #flush} seals all open files, and completes when they have been committed.
+ */
+public class S3EventSink extends IdleService implements PackagedEventSink {
+  private static final Logger LOG = LoggerFactory.getLogger(S3EventSink.class);
+  private static final DateTimeFormatter FILE_TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss.SSS'Z'")
+          .withZone(ZoneOffset.UTC);
+
+  private final Config config;
+  private final S3BucketClient bucketClient;
+  private final EnvelopePublisher envelopePublisher;
+  private final Scheduler scheduler;
+  private final String keyPrefix;
+  private final long partSizeBytes;
+  private final String instanceId = RandomId.newRandomId();
+  private final AtomicLong fileCounter = new AtomicLong();
+  private final Set<S3MultipartFileStreamer> activeUploads = ConcurrentHashMap.newKeySet();
+  private ExecutorService writerThreads;
+  private Accumulator accumulator;
+
+  @Inject
+  public S3EventSink(Config config, S3BucketClient bucketClient, EnvelopePublisher envelopePublisher, Scheduler scheduler) {
+    this.config = config;
+    this.bucketClient = bucketClient;
+    this.envelopePublisher = envelopePublisher;
+    this.scheduler = scheduler;
+    keyPrefix = config.keyPrefix().isEmpty() || config.keyPrefix().endsWith("/") ? config.keyPrefix() : config.keyPrefix() + "/";
+    partSizeBytes = config.multipartPartSize().toBytes();
+    checkArgument(partSizeBytes >= S3MultipartFileStreamer.MIN_PART_SIZE_BYTES,
+            "multipartPartSize must be at least 5MB", config.multipartPartSize());
+  }
+
+  @Override
+  protected void startUp() throws IOException {
+    Files.createDirectories(config.localDirectory());
+    int concurrentFileCount = config.concurrentFileCount();
+    writerThreads = Executors.newFixedThreadPool(concurrentFileCount, new NamedThreadFactory("s3-event-sink").daemonize());
+    accumulator = new Accumulator(
+            TempFileFactory.builder(config.localDirectory()).tempFileSuffix(".tmp").build(),
+            concurrentFileCount > 1 ? writerThreads : null
+    );
+  }
+
+  @Override
+  protected void shutDown() {
+    try {
+      accumulator.close().join();
+      awaitActiveUploads().exceptionally(e -> null).join(); // failures have already been logged
+    } finally {
+      writerThreads.shutdown();
+    }
+  }
+
+  @Override
+  public CompletableFuture<S3Key> publish(LogLevel diagnosticLogLevel, PackagedEvent event) {
+    checkState(isRunning(), "S3EventSink is not running", this);
+    return accumulator.append(event).thenApply(this::s3Key);
+  }
+
+  @Override
+  public CompletableFuture<?> flush() {
+    CompletableFuture<Void> pendingUploads = awaitActiveUploads();
+    return accumulator.flush().thenCompose(__ -> pendingUploads);
+  }
+
+  private CompletableFuture<Void> awaitActiveUploads() {
+    List<Promise<S3Key>> uploads = activeUploads.stream().map(S3MultipartFileStreamer::completion).toList();
+    return CompletableFutures.allOf(uploads.stream());
+  }
+
+  private S3Key s3Key(Path localFile) {
+    return S3Key.of(bucketClient.bucket(), keyPrefix + localFile.getFileName());
+  }
+
+  private class Accumulator extends AvroPackedLogFileAccumulator<PackagedEvent, MessageEnvelope> {
+    Accumulator(TempFileFactory tempFileFactory, @Nullable Executor shardExecutor) {
+      super(MessageEnvelope.class, MessageEnvelope.getClassSchema(), tempFileFactory, scheduler, config, shardExecutor);
+    }
+
+    @Override
+    protected MessageEnvelope pack(PackagedEvent event) {
+      return event.toEnvelope(envelopePublisher);
+    }
+
+    @Override
+    protected Path getOutputFileName(Instant openTimestamp) {
+      return config.localDirectory().resolve(String.format("events-%s-%s-%d.avro",
+              FILE_TIMESTAMP_FORMAT.format(openTimestamp),
+              instanceId,
+              fileCounter.incrementAndGet()
+      ));
+    }
+
+    @Override
+    protected FileStreamer openFileStreamer(Path finalFileLocation) {
+      S3MultipartFileStreamer streamer = new S3MultipartFileStreamer(
+              bucketClient,
+              s3Key(finalFileLocation),
+              partSizeBytes,
+              config.maxInFlightPartUploads()
+      );
+      activeUploads.add(streamer);
+      streamer.completion().whenComplete((key, e) -> activeUploads.remove(streamer));
+      return streamer;
+    }
+
+    @Override
+    protected void onRecordFailed(PackagedEvent badRecord, Path intendedFile, Throwable e) {
+      LOG.warn("Failed to archive event to {}: {}", intendedFile, badRecord, e);
+    }
+
+    @Override
+    protected void onFileFailed(Path path, long recordCount, Throwable e) {
+      LOG.error("Failed to archive {} events to {}", recordCount, s3Key(path), e);
+    }
+
+    @Override
+    protected void onBytesWritten(long byteCount) {
+    }
+
+    @Override
+    protected void onFileSealed(Path path, long recordCount) {
+      LOG.debug("Sealed {} events for {}", recordCount, s3Key(path));
+    }
+
+    @Override
+    protected <T> CompletableFuture<T> callSequentially(Callable<T> task) {
+      return Promise.callAsync(task, writerThreads);
+    }
+  }
+
+  public interface Config extends AvroPackedLogFileAccumulator.AccumulatorConfig {
+    /**
+     * The prefix for the keys of archived files within the bucket
+     */
+    String keyPrefix();
+
+    /**
+     * The directory holding files while they are written; files are deleted after they have been uploaded
+     */
+    Path localDirectory();
+
+    /**
+     * The minimum size of each part of a multipart upload (at least 5MB, as required by S3)
+     */
+    default Size multipartPartSize() {
+      return Size.megabytes(8);
+    }
+
+    /**
+     * The number of parts which may be uploading concurrently for a single file before the writer waits for them
+     */
+    default int maxInFlightPartUploads() {
+      return 4;
+    }
+  }
+}
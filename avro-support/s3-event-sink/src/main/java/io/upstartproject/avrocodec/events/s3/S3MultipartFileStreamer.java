@@ -0,0 +1,157 @@
+package io.upstartproject.avrocodec.events.s3;
+
+import com.google.common.primitives.Ints;
+import io.upstartproject.avrocodec.AvroPackedLogFileAccumulator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import upstart.aws.s3.S3BucketClient;
+import upstart.aws.s3.S3Key;
+import upstart.util.concurrent.CompletableFutures;
+import upstart.util.concurrent.Promise;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Streams a single packed log-file to S3 while it is being written: whenever at least {@code partSizeBytes} of
+ * completed avro blocks have accumulated, they are read back from the local file and sent as the next part of a
+ * multipart upload. When the file is sealed, the remainder is sent as the final part and the upload is completed;
+ * files which are sealed before their first part is due are sent with a single {@code putObject} instead.
+ * <p/>
+ * The local file is deleted after the object has been committed to S3. If the upload fails, the multipart upload
+ * is aborted, and the local file is left in place.
+ */
+class S3MultipartFileStreamer implements AvroPackedLogFileAccumulator.FileStreamer {
+  private static final Logger LOG = LoggerFactory.getLogger(S3MultipartFileStreamer.class);
+  static final long MIN_PART_SIZE_BYTES = 5 * 1024 * 1024; // imposed by S3 on all but the last part
+
+  private final S3BucketClient bucketClient;
+  private final S3Key key;
+  private final long partSizeBytes;
+  private final int maxInFlightParts;
+  private final Promise<S3Key> completion = new Promise<>();
+  private final List<Promise<CompletedPart>> parts = new ArrayList<>();
+  private volatile Promise<String> uploadId = null;
+  private long uploadedLength = 0;
+
+  S3MultipartFileStreamer(S3BucketClient bucketClient, S3Key key, long partSizeBytes, int maxInFlightParts) {
+    this.bucketClient = bucketClient;
+    this.key = key;
+    this.partSizeBytes = partSizeBytes;
+    this.maxInFlightParts = maxInFlightParts;
+  }
+
+  S3Key key() {
+    return key;
+  }
+
+  /**
+   * @return a {@link Promise} which completes when the file has been committed to S3 (or has failed)
+   */
+  Promise<S3Key> completion() {
+    return completion;
+  }
+
+  @Override
+  public void onBlocksWritten(Path tempFile, long fileLength) throws IOException {
+    if (fileLength - uploadedLength >= partSizeBytes) uploadPart(tempFile, fileLength);
+  }
+
+  @Override
+  public CompletableFuture<?> onSealed(Path sealedFile, long fileLength) {
+    Promise<?> upload;
+    if (uploadId == null) {
+      upload = bucketClient.putObject(key, sealedFile);
+    } else {
+      upload = Promise.callSafely(() -> {
+        if (fileLength > uploadedLength) uploadPart(sealedFile, fileLength);
+        return completeMultipartUpload();
+      });
+    }
+    return completion.completeWith(upload.thenApply(__ -> {
+      deleteLocalFile(sealedFile);
+      return key;
+    }));
+  }
+
+  @Override
+  public void onFailed(Throwable e) {
+    completion.completeExceptionally(e);
+    Promise<String> startedUpload = uploadId;
+    if (startedUpload != null) {
+      startedUpload.thenCompose(id -> bucketClient.abortMultipartUpload(b -> b.key(key.key()).uploadId(id)))
+              .whenComplete((__, abortException) -> {
+                if (abortException != null) LOG.warn("Failed to abort multipart upload for {}", key, abortException);
+              });
+    }
+  }
+
+  private void uploadPart(Path file, long fileLength) throws IOException {
+    awaitInFlightParts();
+    byte[] bytes = readRange(file, uploadedLength, Ints.checkedCast(fileLength - uploadedLength));
+    uploadedLength = fileLength;
+    if (uploadId == null) {
+      uploadId = bucketClient.createMultipartUpload(key).thenApply(CreateMultipartUploadResponse::uploadId);
+    }
+    int partNumber = parts.size() + 1;
+    parts.add(uploadId.thenCompose(id -> bucketClient.uploadPart(
+                    b -> b.key(key.key()).uploadId(id).partNumber(partNumber),
+                    AsyncRequestBody.fromBytes(bytes)
+            ))
+            .thenApply(response -> CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build()));
+  }
+
+  private Promise<CompleteMultipartUploadResponse> completeMultipartUpload() {
+    return uploadId.thenCompose(id -> CompletableFutures.allAsList(parts.stream())
+            .thenCompose(completedParts -> bucketClient.completeMultipartUpload(b -> b.key(key.key())
+                    .uploadId(id)
+                    .multipartUpload(upload -> upload.parts(completedParts)))));
+  }
+
+  /**
+   * Bounds the memory held by buffered parts by waiting for the oldest in-flight uploads (on the writing thread).
+   */
+  private void awaitInFlightParts() {
+    long inFlight = parts.stream().filter(part -> !part.isDone()).count();
+    for (int i = 0; inFlight >= maxInFlightParts && i < parts.size(); i++) {
+      Promise<CompletedPart> part = parts.get(i);
+      if (!part.isDone()) {
+        part.join();
+        inFlight--;
+      }
+    }
+  }
+
+  private static byte[] readRange(Path file, long position, int length) throws IOException {
+    byte[] bytes = new byte[length];
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, position + buffer.position()) < 0) {
+          throw new EOFException("Unexpected end of file: " + file);
+        }
+      }
+    }
+    return bytes;
+  }
+
+  private void deleteLocalFile(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      LOG.warn("Failed to delete local file after uploading to {}: {}", key, file, e);
+    }
+  }
+}
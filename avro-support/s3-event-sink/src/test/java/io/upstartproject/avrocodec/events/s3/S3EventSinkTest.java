@@ -0,0 +1,188 @@
+package io.upstartproject.avrocodec.events.s3;
+
+import com.google.inject.name.Names;
+import io.upstartproject.avro.DeploymentStage;
+import io.upstartproject.avro.MessageEnvelope;
+import io.upstartproject.avro.PackedRecord;
+import io.upstartproject.avrocodec.AvroPublisher;
+import io.upstartproject.avrocodec.AvroTaxonomy;
+import io.upstartproject.avrocodec.EnvelopePublisher;
+import io.upstartproject.avrocodec.MemorySchemaRegistry;
+import io.upstartproject.avrocodec.MessageMetadata;
+import io.upstartproject.avrocodec.events.PackagedEvent;
+import io.upstartproject.hojack.Size;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import upstart.ExecutorServiceScheduler;
+import upstart.aws.s3.S3Bucket;
+import upstart.aws.s3.S3BucketClient;
+import upstart.aws.s3.S3Key;
+import upstart.aws.s3.test.MockS3;
+import upstart.aws.s3.test.MockS3Test;
+import upstart.config.UpstartModule;
+import upstart.test.UpstartLibraryServiceTest;
+import upstart.util.LogLevel;
+import upstart.util.concurrent.Scheduler;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@MockS3Test(initialBuckets = S3EventSinkTest.BUCKET)
+@UpstartLibraryServiceTest
+class S3EventSinkTest extends UpstartModule {
+  static final String BUCKET = "test-event-archive";
+
+  @Override
+  protected void configure() {
+    install(new ExecutorServiceScheduler.Module());
+    S3BucketClient.bindBucketWithDefaultConfigs(binder(), S3Bucket.of(BUCKET), () -> "test", Names.named(BUCKET));
+  }
+
+  @Inject @Named(BUCKET) S3BucketClient bucketClient;
+  @Inject Scheduler scheduler;
+  @TempDir Path localDirectory;
+
+  private EnvelopePublisher envelopePublisher;
+  private MessageMetadata metadata;
+  private final Random random = new Random(17);
+
+  @BeforeEach
+  void setUpPublisher() {
+    AvroTaxonomy taxonomy = new AvroTaxonomy(new MemorySchemaRegistry());
+    taxonomy.startAsync().awaitRunning();
+    envelopePublisher = new EnvelopePublisher(new AvroPublisher(taxonomy)).registerEnvelopeSchema().join();
+    metadata = MessageMetadata.builder()
+            .application("test-app")
+            .owner("test-owner")
+            .environment("test")
+            .deploymentStage(DeploymentStage.test)
+            .build();
+  }
+
+  @Test
+  void uploadsSmallFilesWithSinglePut(MockS3 s3) throws IOException {
+    List<PackagedEvent> events = Stream.generate(() -> newEvent(100)).limit(3).toList();
+    List<S3Key> keys = publishAll(events);
+
+    assertThat(keys.stream().distinct().count()).isEqualTo(1);
+    assertThat(readUniqueIds(s3, keys.get(0))).containsExactlyElementsIn(uniqueIds(events)).inOrder();
+    assertThat(keys.get(0).key()).startsWith("archive/");
+    assertLocalDirectoryIsEmpty();
+  }
+
+  @Test
+  void streamsLargeFilesAsMultipartUploads(MockS3 s3) throws IOException {
+    // incompressible payloads, to exceed several 5MB parts
+    List<PackagedEvent> events = Stream.generate(() -> newEvent(16 * 1024)).limit(1000).toList();
+    List<S3Key> keys = publishAll(events);
+
+    assertThat(keys.stream().distinct().count()).isEqualTo(1);
+    assertThat(readUniqueIds(s3, keys.get(0))).containsExactlyElementsIn(uniqueIds(events)).inOrder();
+    assertLocalDirectoryIsEmpty();
+  }
+
+  private List<S3Key> publishAll(List<PackagedEvent> events) {
+    S3EventSink sink = new S3EventSink(new TestConfig(), bucketClient, envelopePublisher, scheduler);
+    sink.startAsync().awaitRunning();
+    try {
+      List<CompletableFuture<S3Key>> futures = new ArrayList<>();
+      for (PackagedEvent event : events) {
+        futures.add(sink.publish(LogLevel.Info, event));
+      }
+      sink.flush().join();
+      return futures.stream().map(CompletableFuture::join).toList();
+    } finally {
+      sink.stopAsync().awaitTerminated();
+    }
+  }
+
+  private PackagedEvent newEvent(int payloadSize) {
+    byte[] payload = new byte[payloadSize];
+    random.nextBytes(payload);
+    // any registered record-type will do as the event-payload, so use a nested envelope
+    MessageEnvelope nested = envelopePublisher.buildMessageEnvelope(
+            Instant.EPOCH,
+            Optional.empty(),
+            new PackedRecord(0L, ByteBuffer.wrap(payload)),
+            metadata
+    );
+    return PackagedEvent.builder()
+            .timestamp(Instant.now())
+            .metadata(metadata)
+            .event(envelopePublisher.makePackable(nested))
+            .build();
+  }
+
+  private static List<String> uniqueIds(List<PackagedEvent> events) {
+    return events.stream().map(PackagedEvent::uniqueId).toList();
+  }
+
+  private static List<String> readUniqueIds(MockS3 s3, S3Key key) throws IOException {
+    List<String> uniqueIds = new ArrayList<>();
+    try (DataFileStream<MessageEnvelope> reader = new DataFileStream<>(
+            new ByteArrayInputStream(s3.getObject(key).bytes()),
+            new SpecificDatumReader<>(MessageEnvelope.class)
+    )) {
+      for (MessageEnvelope envelope : reader) {
+        uniqueIds.add(envelope.getUniqueId());
+      }
+    }
+    return uniqueIds;
+  }
+
+  private void assertLocalDirectoryIsEmpty() throws IOException {
+    try (Stream<Path> files = Files.list(localDirectory)) {
+      assertThat(files.toList()).isEmpty();
+    }
+  }
+
+  private class TestConfig implements S3EventSink.Config {
+    @Override
+    public String keyPrefix() {
+      return "archive";
+    }
+
+    @Override
+    public Path localDirectory() {
+      return localDirectory;
+    }
+
+    @Override
+    public Duration maxEmissionDelay() {
+      return Duration.ofMinutes(1);
+    }
+
+    @Override
+    public Size uncompressedAvroBlockSize() {
+      return Size.kilobytes(256);
+    }
+
+    @Override
+    public Size targetFileSize() {
+      return Size.megabytes(64);
+    }
+
+    @Override
+    public Size multipartPartSize() {
+      return Size.megabytes(5);
+    }
+  }
+}
@@ -1,12 +1,17 @@
 package io.upstartproject.avrocodec.s3;
 
 import io.upstartproject.avrocodec.BaseSchemaRegistry;
+import io.upstartproject.avrocodec.ResumableSchemaRegistry;
 import upstart.util.collect.PairStream;
 import upstart.util.collect.PersistentList;
+import upstart.util.concurrent.AsyncSemaphore;
 import upstart.util.concurrent.CompletableFutures;
 import upstart.util.concurrent.FutureCell;
+import upstart.util.concurrent.Promise;
 import io.upstartproject.avrocodec.SchemaDescriptor;
 import org.immutables.value.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.core.BytesWrapper;
 import software.amazon.awssdk.core.async.AsyncRequestBody;
 import software.amazon.awssdk.core.async.AsyncResponseTransformer;
@@ -14,35 +19,113 @@ import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.model.BucketVersioningStatus;
 import software.amazon.awssdk.services.s3.model.ListObjectVersionsRequest;
 import software.amazon.awssdk.services.s3.model.ListObjectVersionsResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
 import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
 import software.amazon.awssdk.services.s3.model.ObjectVersion;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 
 import javax.inject.Inject;
+import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 
 import static com.google.common.base.Preconditions.checkState;
 
-public class S3SchemaRegistry extends BaseSchemaRegistry {
+/**
+ * A {@link ResumableSchemaRegistry} which stores each schema as a version of an object in a versioned S3 bucket.
+ * <p/>
+ * The {@link #highWaterMark} is the latest {@link ObjectVersion#lastModified} that has been delivered. When resuming,
+ * the complete version-list is still fetched, but only the versions modified since shortly before the mark are
+ * downloaded (these are not available to {@link #delete}).
+ * <p/>
+ * Each {@link #insert} also records the new version in a change-log: an empty object under a sibling prefix
+ * ({@code <repoPath>.changes/}), whose key starts with a zero-padded timestamp. With
+ * {@link S3RepoConfig#incrementalRefresh}, only the first refresh lists every version; subsequent refreshes (and
+ * resumptions from a high-water mark) list just the change-log entries written since shortly before the previous
+ * listing, so their cost doesn't grow with the history of the repo. This requires that every writer to the repo
+ * records its changes, and that writers' clocks are accurate to within a few minutes. Recording a change is retried a
+ * few times; in case it still fails (or another writer neglects the change-log), every version is listed again at
+ * least once per {@link S3RepoConfig#fullRefreshInterval}, so that missed versions are eventually delivered.
+ * <p/>
+ * New schema versions are downloaded in parallel, up to {@link S3RepoConfig#maxConcurrentFetches} at a time, and are
+ * delivered in their creation-order.
+ */
+public class S3SchemaRegistry extends BaseSchemaRegistry implements ResumableSchemaRegistry {
+  /**
+   * Versions may be listed some time after their lastModified timestamp (eg, while their upload is in flight), so
+   * resumption rereads this much history before the mark
+   */
+  private static final Duration RESUME_OVERLAP = Duration.ofMinutes(5);
+  private static final String CHANGE_LOG_SUFFIX = ".changes/";
+  private static final int CHANGE_LOG_ATTEMPTS = 3;
+  private static final Duration CHANGE_LOG_RETRY_DELAY = Duration.ofMillis(250);
+  private static final Logger LOG = LoggerFactory.getLogger(S3SchemaRegistry.class);
+
   private final S3RepoConfig config;
   private final Supplier<S3AsyncClient> clientSupplier;
+  private final Clock clock;
   private final String schemaPathPrefix;
+  private final String changeLogPrefix;
+  private final AsyncSemaphore fetchSemaphore;
   private final Set<S3SchemaEntry> reportedVersions = ConcurrentHashMap.newKeySet();
   private final FutureCell<Void> refreshCell = FutureCell.<Void>builder().build(CompletableFutures.nullFuture());
+  private final AtomicReference<Instant> deliveredThrough = new AtomicReference<>();
+  private Instant resumeFrom = Instant.MIN;
+  private Instant changeLogCheckpoint = null; // accessed only within refreshCell
+  private Instant nextFullListing = Instant.MIN; // accessed only within refreshCell
+  private volatile boolean changeLogIncomplete = false;
   private S3AsyncClient client;
 
   @Inject
   public S3SchemaRegistry(S3RepoConfig config, Supplier<S3AsyncClient> clientSupplier) {
+    this(config, clientSupplier, Clock.systemUTC());
+  }
+
+  S3SchemaRegistry(S3RepoConfig config, Supplier<S3AsyncClient> clientSupplier, Clock clock) {
     this.config = config;
     // TODO: should we confirm a leading slash here?
     this.clientSupplier = clientSupplier;
+    this.clock = clock;
     schemaPathPrefix = config.repoPath().endsWith("/") ? config.repoPath() : config.repoPath() + "/";
+    changeLogPrefix = schemaPathPrefix.substring(0, schemaPathPrefix.length() - 1) + CHANGE_LOG_SUFFIX;
+    fetchSemaphore = new AsyncSemaphore(config.maxConcurrentFetches());
+  }
+
+  @Override
+  public CompletableFuture<?> startUp(SchemaListener schemaListener, Optional<String> highWaterMark) {
+    highWaterMark.map(Instant::parse).ifPresent(mark -> {
+      deliveredThrough.set(mark);
+      resumeFrom = mark.minus(RESUME_OVERLAP);
+      if (config.incrementalRefresh()) {
+        changeLogCheckpoint = resumeFrom;
+        nextFullListing = clock.instant().plus(config.fullRefreshInterval());
+      }
+    });
+    return startUp(schemaListener);
+  }
+
+  @Override
+  public Optional<String> highWaterMark() {
+    return Optional.ofNullable(deliveredThrough.get()).map(Instant::toString);
+  }
+
+  /**
+   * Deleted versions leave no trace in the version-list or the change-log, so a resumed registry can't report them.
+   */
+  @Override
+  public boolean resumesRemovals() {
+    return false;
   }
 
   @Override
@@ -68,7 +151,7 @@ public class S3SchemaRegistry extends BaseSchemaRegistry {
                             b -> b.bucket(config.repoBucket())
                                     .key(schemaPathPrefix + schema.fullName()),
                             AsyncRequestBody.fromString(schema.schema().toString())
-                    )
+                    ).thenCompose(response -> recordChange(schema, response.versionId()))
             ))
     ).thenCompose(ignored -> refresh());
   }
@@ -85,26 +168,122 @@ public class S3SchemaRegistry extends BaseSchemaRegistry {
   @Override
   public CompletableFuture<Void> refresh() {
     return refreshCell.visitAsync(ignored -> {
-      ListObjectVersionsRequest request = ListObjectVersionsRequest.builder().bucket(config.repoBucket()).prefix(schemaPathPrefix).build();
-      return fetchVersionList(request, PersistentList.nil())
-              .thenCompose(responses ->
-                      responses.stream()
-                              .flatMap(r -> r.versions().stream())
-                              .map(this::buildEntry)
-                              .filter(reportedVersions::add)
-                              .sorted(S3SchemaEntry.COMPARATOR) // sort to report all versions in their deterministic creation-order
-                              .map(S3SchemaEntry::loadDescriptor)
-                              .reduce(
-                                      (CompletableFuture<Void>) CompletableFutures.<Void>nullFuture(),
-                                      (accum, descriptorFuture) -> descriptorFuture.thenCombine(accum, (descriptor, ignored2) -> {
-                                        notifySchemaAdded(descriptor);
-                                        return null;
-                                      }),
-                                      CompletableFuture::allOf
-                              ));
+      Instant listingStart = clock.instant();
+      boolean fullListing = changeLogCheckpoint == null || changeLogIncomplete || !listingStart.isBefore(nextFullListing);
+      if (fullListing) changeLogIncomplete = false;
+      CompletableFuture<List<S3SchemaEntry>> listing = fullListing
+              ? listAllVersions()
+              : listChangesSince(changeLogCheckpoint);
+      return listing.thenCompose(this::deliverNewVersions)
+              .thenRun(() -> {
+                if (config.incrementalRefresh()) {
+                  changeLogCheckpoint = listingStart.minus(RESUME_OVERLAP);
+                  if (fullListing) nextFullListing = listingStart.plus(config.fullRefreshInterval());
+                }
+              });
     });
   }
 
+  private CompletableFuture<Void> deliverNewVersions(List<S3SchemaEntry> entries) {
+    return entries.stream()
+            .filter(reportedVersions::add)
+            .filter(entry -> !entry.lastModified().isBefore(resumeFrom))
+            .sorted(S3SchemaEntry.COMPARATOR) // sort to report all versions in their deterministic creation-order
+            .reduce(
+                    (CompletableFuture<Void>) CompletableFutures.<Void>nullFuture(),
+                    (accum, entry) -> fetchDescriptor(entry).thenCombine(accum, (descriptor, ignored) -> {
+                      descriptor.ifPresent(this::notifySchemaAdded);
+                      deliveredThrough.accumulateAndGet(entry.lastModified(), S3SchemaRegistry::latest);
+                      return null;
+                    }),
+                    CompletableFuture::allOf
+            );
+  }
+
+  /**
+   * @return the descriptor for the given entry, or empty if its version has since been deleted
+   */
+  private CompletableFuture<Optional<SchemaDescriptor>> fetchDescriptor(S3SchemaEntry entry) {
+    return CompletableFutures.recover(
+            fetchSemaphore.submit(entry::loadDescriptor).thenApply(Optional::of),
+            S3Exception.class,
+            e -> e.statusCode() == 404,
+            e -> Optional.empty()
+    );
+  }
+
+  private CompletableFuture<List<S3SchemaEntry>> listAllVersions() {
+    ListObjectVersionsRequest request = ListObjectVersionsRequest.builder().bucket(config.repoBucket()).prefix(schemaPathPrefix).build();
+    return fetchVersionList(request, PersistentList.nil())
+            .thenApply(responses -> responses.stream()
+                    .flatMap(r -> r.versions().stream())
+                    .map(this::buildEntry)
+                    .toList());
+  }
+
+  private CompletableFuture<List<S3SchemaEntry>> listChangesSince(Instant checkpoint) {
+    ListObjectsV2Request request = ListObjectsV2Request.builder()
+            .bucket(config.repoBucket())
+            .prefix(changeLogPrefix)
+            .startAfter(changeLogPrefix + formatChangeTimestamp(checkpoint))
+            .build();
+    return fetchChangeList(request, PersistentList.nil())
+            .thenApply(responses -> responses.stream()
+                    .flatMap(r -> r.contents().stream())
+                    .map(object -> parseChange(object.key()))
+                    .toList());
+  }
+
+  private CompletableFuture<List<ListObjectsV2Response>> fetchChangeList(ListObjectsV2Request request, PersistentList<ListObjectsV2Response> response) {
+    return client.listObjectsV2(request)
+            .thenCompose(changes -> {
+              PersistentList<ListObjectsV2Response> newResponse = response.with(changes);
+              if (changes.isTruncated()) {
+                return fetchChangeList(request.copy(b -> b.continuationToken(changes.nextContinuationToken())), newResponse);
+              } else {
+                return CompletableFuture.completedFuture(newResponse);
+              }
+            });
+  }
+
+  /**
+   * Change-log keys take the form {@code <changeLogPrefix><timestamp>/<versionId>/<schema fullName>}.
+   * <p/>
+   * The schema itself has already been stored, so if the change can't be recorded, this only logs a warning: our next
+   * refresh lists every version, and other readers will find it at their next {@link S3RepoConfig#fullRefreshInterval}.
+   */
+  private CompletableFuture<?> recordChange(SchemaDescriptor schema, String versionId) {
+    String changeKey = changeLogPrefix + formatChangeTimestamp(clock.instant()) + "/" + versionId + "/" + schema.fullName();
+    return putChange(changeKey, 1).exceptionally(e -> {
+      LOG.warn("Failed to record schema change-log entry {} (will rely upon full listings to discover it)", changeKey, e);
+      changeLogIncomplete = true;
+      return null;
+    });
+  }
+
+  private CompletableFuture<PutObjectResponse> putChange(String changeKey, int attempt) {
+    return client.putObject(b -> b.bucket(config.repoBucket()).key(changeKey), AsyncRequestBody.empty())
+            .exceptionallyCompose(e -> attempt < CHANGE_LOG_ATTEMPTS
+                    ? Promise.delayed(CHANGE_LOG_RETRY_DELAY.multipliedBy(attempt)).thenCompose(__ -> putChange(changeKey, attempt + 1))
+                    : CompletableFuture.failedFuture(e));
+  }
+
+  private S3SchemaEntry parseChange(String changeKey) {
+    String[] parts = changeKey.substring(changeLogPrefix.length()).split("/", 3);
+    checkState(parts.length == 3, "Malformed schema change-log key: %s", changeKey);
+    return ImmutableS3SchemaEntry.builder()
+            .lastModified(Instant.ofEpochMilli(Long.parseLong(parts[0])))
+            .versionId(parts[1])
+            .key(schemaPathPrefix + parts[2])
+            .client(client)
+            .config(config)
+            .build();
+  }
+
+  private static String formatChangeTimestamp(Instant timestamp) {
+    return String.format("%016d", timestamp.toEpochMilli());
+  }
+
   private CompletableFuture<List<ListObjectVersionsResponse>> fetchVersionList(ListObjectVersionsRequest request, PersistentList<ListObjectVersionsResponse> response) {
     return client.listObjectVersions(request)
             .thenCompose(versions -> {
@@ -122,6 +301,10 @@ public class S3SchemaRegistry extends BaseSchemaRegistry {
     return runOnDedicatedThread("SHUTDOWN", client::close);
   }
 
+  private static Instant latest(Instant a, Instant b) {
+    return a == null || b.isAfter(a) ? b : a;
+  }
+
   private S3SchemaEntry buildEntry(ObjectVersion version) {
     return S3SchemaEntry.of(version, client, config);
   }
@@ -169,5 +352,27 @@ public class S3SchemaRegistry extends BaseSchemaRegistry {
   public interface S3RepoConfig {
     String repoBucket();
     String repoPath();
+
+    /**
+     * Whether refreshes after the first should list only the change-log, rather than every schema version
+     */
+    default boolean incrementalRefresh() {
+      return false;
+    }
+
+    /**
+     * With {@link #incrementalRefresh}, how often to list every schema version anyway, to discover any versions whose
+     * change-log entries were never recorded
+     */
+    default Duration fullRefreshInterval() {
+      return Duration.ofHours(1);
+    }
+
+    /**
+     * The maximum number of schema versions to download concurrently
+     */
+    default int maxConcurrentFetches() {
+      return 16;
+    }
   }
 }
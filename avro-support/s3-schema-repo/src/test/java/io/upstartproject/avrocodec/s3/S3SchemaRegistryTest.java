@@ -0,0 +1,272 @@
+package io.upstartproject.avrocodec.s3;
+
+import io.upstartproject.avrocodec.SchemaDescriptor;
+import io.upstartproject.avrocodec.SchemaFingerprint;
+import io.upstartproject.avrocodec.SchemaRegistry;
+import org.apache.avro.SchemaBuilder;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.BucketVersioningStatus;
+import software.amazon.awssdk.services.s3.model.GetBucketVersioningRequest;
+import software.amazon.awssdk.services.s3.model.GetBucketVersioningResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.ObjectVersion;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import upstart.test.FakeTime;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+
+class S3SchemaRegistryTest {
+  private static final String BUCKET = "test-schema-repo";
+  private static final String REPO_PATH = "repo-root";
+  private static final Duration FULL_REFRESH_INTERVAL = Duration.ofHours(1);
+
+  private final FakeTime time = new FakeTime(Instant.parse("2024-01-01T00:00:00Z"), ZoneOffset.UTC);
+  private final FakeS3Client client = new FakeS3Client();
+
+  @Test
+  void incrementalRefreshListsOnlyTheChangeLog() {
+    RecordingListener listener = new RecordingListener();
+    S3SchemaRegistry registry = startRegistry(listener);
+    registry.insert(List.of(schema("test.A"))).join();
+    assertThat(listener.added).containsExactly("test.A");
+    assertThat(client.versionListings.get()).isEqualTo(1);
+
+    time.advance(Duration.ofMinutes(1));
+    registry.insert(List.of(schema("test.B"))).join();
+    // the change-log listing overlaps the previous one (including test.A), but each version is delivered only once
+    assertThat(listener.added).containsExactly("test.A", "test.B").inOrder();
+    assertThat(client.versionListings.get()).isEqualTo(1);
+    assertThat(client.changeListings.get()).isEqualTo(1);
+  }
+
+  @Test
+  void resumedRegistryListsChangesSinceShortlyBeforeTheMark() {
+    S3SchemaRegistry writer = startRegistry(new RecordingListener());
+    writer.insert(List.of(schema("test.Old"))).join();
+    time.advance(Duration.ofMinutes(20));
+    writer.insert(List.of(schema("test.A"))).join();
+    String highWaterMark = writer.highWaterMark().orElseThrow();
+
+    time.advance(Duration.ofMinutes(10));
+    writer.insert(List.of(schema("test.B"))).join();
+
+    RecordingListener listener = new RecordingListener();
+    S3SchemaRegistry resumed = new S3SchemaRegistry(new TestConfig(), () -> client, time.clock());
+    resumed.startUp(listener, Optional.of(highWaterMark)).join();
+    int versionListings = client.versionListings.get();
+    resumed.refresh().join();
+    // versions within the overlap before the mark are delivered again, but older ones are not
+    assertThat(listener.added).containsExactly("test.A", "test.B").inOrder();
+    assertThat(client.versionListings.get()).isEqualTo(versionListings);
+  }
+
+  @Test
+  void unrecordedChangesAreFoundByPeriodicFullListing() {
+    RecordingListener readerListener = new RecordingListener();
+    S3SchemaRegistry reader = startRegistry(readerListener);
+    S3SchemaRegistry writer = startRegistry(new RecordingListener());
+    reader.refresh().join();
+
+    client.failChangeLogWrites = true;
+    writer.insert(List.of(schema("test.A"))).join();
+    assertThat(client.changeLogAttempts.get()).isEqualTo(3);
+
+    time.advance(Duration.ofMinutes(1));
+    reader.refresh().join();
+    assertThat(readerListener.added).isEmpty();
+
+    time.advance(FULL_REFRESH_INTERVAL);
+    reader.refresh().join();
+    assertThat(readerListener.added).containsExactly("test.A");
+  }
+
+  @Test
+  void writerRelistsEverythingAfterFailingToRecordAChange() {
+    RecordingListener listener = new RecordingListener();
+    S3SchemaRegistry registry = startRegistry(listener);
+    registry.refresh().join();
+
+    client.failChangeLogWrites = true;
+    registry.insert(List.of(schema("test.A"))).join();
+    assertThat(listener.added).containsExactly("test.A");
+    assertThat(client.versionListings.get()).isEqualTo(2);
+  }
+
+  @Test
+  void skipsVersionsDeletedBeforeTheyCouldBeFetched() {
+    RecordingListener listener = new RecordingListener();
+    S3SchemaRegistry registry = startRegistry(listener);
+    client.missingKeys.add(REPO_PATH + "/test.A");
+    registry.insert(List.of(schema("test.A"), schema("test.B"))).join();
+    assertThat(listener.added).containsExactly("test.B");
+  }
+
+  private S3SchemaRegistry startRegistry(RecordingListener listener) {
+    S3SchemaRegistry registry = new S3SchemaRegistry(new TestConfig(), () -> client, time.clock());
+    registry.startUp(listener).join();
+    return registry;
+  }
+
+  private static SchemaDescriptor schema(String fullName) {
+    return SchemaDescriptor.of(SchemaBuilder.record(fullName).fields().requiredLong("id").endRecord());
+  }
+
+  private static class RecordingListener implements SchemaRegistry.SchemaListener {
+    final List<String> added = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void onSchemaAdded(SchemaDescriptor schema) {
+      added.add(schema.fullName());
+    }
+
+    @Override
+    public void onSchemaRemoved(SchemaFingerprint fingerprint) {
+    }
+  }
+
+  private static class TestConfig implements S3SchemaRegistry.S3RepoConfig {
+    @Override
+    public String repoBucket() {
+      return BUCKET;
+    }
+
+    @Override
+    public String repoPath() {
+      return REPO_PATH;
+    }
+
+    @Override
+    public boolean incrementalRefresh() {
+      return true;
+    }
+
+    @Override
+    public Duration fullRefreshInterval() {
+      return FULL_REFRESH_INTERVAL;
+    }
+  }
+
+  /**
+   * A minimal in-memory versioned bucket, implementing just the operations used by {@link S3SchemaRegistry}.
+   */
+  private class FakeS3Client implements S3AsyncClient {
+    final AtomicInteger versionListings = new AtomicInteger();
+    final AtomicInteger changeListings = new AtomicInteger();
+    final AtomicInteger changeLogAttempts = new AtomicInteger();
+    final Set<String> missingKeys = ConcurrentHashMap.newKeySet();
+    volatile boolean failChangeLogWrites = false;
+    private final List<StoredVersion> versions = Collections.synchronizedList(new ArrayList<>());
+    private final ConcurrentSkipListMap<String, Instant> plainObjects = new ConcurrentSkipListMap<>();
+    private final AtomicInteger versionCounter = new AtomicInteger();
+
+    @Override
+    public CompletableFuture<GetBucketVersioningResponse> getBucketVersioning(GetBucketVersioningRequest request) {
+      return CompletableFuture.completedFuture(GetBucketVersioningResponse.builder().status(BucketVersioningStatus.ENABLED).build());
+    }
+
+    @Override
+    public CompletableFuture<PutObjectResponse> putObject(PutObjectRequest request, AsyncRequestBody body) {
+      if (request.key().contains(".changes/")) {
+        changeLogAttempts.incrementAndGet();
+        if (failChangeLogWrites) return CompletableFuture.failedFuture(s3Exception(503));
+        plainObjects.put(request.key(), time.instant());
+        return CompletableFuture.completedFuture(PutObjectResponse.builder().build());
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      body.subscribe(buffer -> {
+        byte[] chunk = new byte[buffer.remaining()];
+        buffer.get(chunk);
+        bytes.writeBytes(chunk);
+      }).join();
+      String versionId = "v" + versionCounter.incrementAndGet();
+      versions.add(new StoredVersion(request.key(), versionId, time.instant(), bytes.toByteArray()));
+      return CompletableFuture.completedFuture(PutObjectResponse.builder().versionId(versionId).build());
+    }
+
+    @Override
+    public CompletableFuture<ListObjectVersionsResponse> listObjectVersions(ListObjectVersionsRequest request) {
+      versionListings.incrementAndGet();
+      List<ObjectVersion> listed;
+      synchronized (versions) {
+        listed = versions.stream()
+                .filter(version -> version.key().startsWith(request.prefix()))
+                .map(version -> ObjectVersion.builder()
+                        .key(version.key())
+                        .versionId(version.versionId())
+                        .lastModified(version.lastModified())
+                        .build())
+                .toList();
+      }
+      return CompletableFuture.completedFuture(ListObjectVersionsResponse.builder().versions(listed).isTruncated(false).build());
+    }
+
+    @Override
+    public CompletableFuture<ListObjectsV2Response> listObjectsV2(ListObjectsV2Request request) {
+      changeListings.incrementAndGet();
+      List<S3Object> listed = plainObjects.tailMap(request.startAfter(), false).entrySet().stream()
+              .filter(entry -> entry.getKey().startsWith(request.prefix()))
+              .map(entry -> S3Object.builder().key(entry.getKey()).lastModified(entry.getValue()).build())
+              .toList();
+      return CompletableFuture.completedFuture(ListObjectsV2Response.builder().contents(listed).isTruncated(false).build());
+    }
+
+    @Override
+    public <T> CompletableFuture<T> getObject(GetObjectRequest request, AsyncResponseTransformer<GetObjectResponse, T> transformer) {
+      if (missingKeys.contains(request.key())) return CompletableFuture.failedFuture(s3Exception(404));
+      StoredVersion version;
+      synchronized (versions) {
+        version = versions.stream()
+                .filter(v -> v.key().equals(request.key()) && v.versionId().equals(request.versionId()))
+                .findFirst()
+                .orElse(null);
+      }
+      if (version == null) return CompletableFuture.failedFuture(s3Exception(404));
+      CompletableFuture<T> result = transformer.prepare();
+      transformer.onResponse(GetObjectResponse.builder().versionId(version.versionId()).build());
+      transformer.onStream(AsyncRequestBody.fromBytes(version.bytes()));
+      return result;
+    }
+
+    @Override
+    public String serviceName() {
+      return "s3";
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private S3Exception s3Exception(int statusCode) {
+      return (S3Exception) S3Exception.builder().statusCode(statusCode).message("fake failure: " + statusCode).build();
+    }
+  }
+
+  private record StoredVersion(String key, String versionId, Instant lastModified, byte[] bytes) {
+  }
+}
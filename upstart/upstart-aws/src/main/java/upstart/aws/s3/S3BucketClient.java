@@ -7,7 +7,13 @@ import software.amazon.awssdk.core.async.AsyncRequestBody;
 import software.amazon.awssdk.core.async.AsyncResponseTransformer;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
 import software.amazon.awssdk.services.s3.model.CreateBucketRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
 import software.amazon.awssdk.services.s3.model.GetBucketAnalyticsConfigurationRequest;
 import software.amazon.awssdk.services.s3.model.GetBucketAnalyticsConfigurationResponse;
 import software.amazon.awssdk.services.s3.model.GetBucketPolicyResponse;
@@ -28,6 +34,8 @@ import software.amazon.awssdk.services.s3.model.PutBucketPolicyRequest;
 import software.amazon.awssdk.services.s3.model.PutBucketPolicyResponse;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
 import software.amazon.awssdk.services.s3.paginators.ListObjectVersionsPublisher;
 import software.amazon.awssdk.services.s3.paginators.ListObjectsV2Publisher;
 import upstart.aws.AwsClientModule;
@@ -181,6 +189,29 @@ public class S3BucketClient extends BaseProvisionedResource {
     return Promise.of(s3Client.putObject(putObjectRequest.andThen(b -> b.bucket(bucketName())), requestBody));
   }
 
+  public Promise<CreateMultipartUploadResponse> createMultipartUpload(S3Key key) {
+    return createMultipartUpload(b -> b.key(keyInBucket(key)));
+  }
+
+  public Promise<CreateMultipartUploadResponse> createMultipartUpload(Consumer<CreateMultipartUploadRequest.Builder> createMultipartUploadRequest) {
+    return Promise.of(s3Client.createMultipartUpload(createMultipartUploadRequest.andThen(b -> b.bucket(bucketName()))));
+  }
+
+  public Promise<UploadPartResponse> uploadPart(
+          Consumer<UploadPartRequest.Builder> uploadPartRequest,
+          AsyncRequestBody requestBody
+  ) {
+    return Promise.of(s3Client.uploadPart(uploadPartRequest.andThen(b -> b.bucket(bucketName())), requestBody));
+  }
+
+  public Promise<CompleteMultipartUploadResponse> completeMultipartUpload(Consumer<CompleteMultipartUploadRequest.Builder> completeMultipartUploadRequest) {
+    return Promise.of(s3Client.completeMultipartUpload(completeMultipartUploadRequest.andThen(b -> b.bucket(bucketName()))));
+  }
+
+  public Promise<AbortMultipartUploadResponse> abortMultipartUpload(Consumer<AbortMultipartUploadRequest.Builder> abortMultipartUploadRequest) {
+    return Promise.of(s3Client.abortMultipartUpload(abortMultipartUploadRequest.andThen(b -> b.bucket(bucketName()))));
+  }
+
   public Promise<PutBucketPolicyResponse> putBucketPolicy(String policy) {
     return putBucketPolicy(b -> b.policy(policy));
   }
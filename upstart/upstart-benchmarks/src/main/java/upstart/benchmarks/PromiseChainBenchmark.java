@@ -0,0 +1,118 @@
+package upstart.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import upstart.util.concurrent.Promise;
+import upstart.util.context.AsyncLocal;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of building and completing chains of continuations on {@link Promise} against plain
+ * {@link CompletableFuture}.
+ * <p/>
+ * The {@code context} parameter selects whether any {@link AsyncLocal} has been set in the JVM: with {@code none},
+ * Promises skip capturing and applying {@link upstart.util.context.AsyncContext} snapshots altogether; with
+ * {@code asyncLocal}, each continuation pays for propagating the context. (Each parameter-combination runs in a fresh
+ * fork, so the modes don't interfere.) Run with {@code -prof gc} to compare allocation rates.
+ * <p/>
+ * Build with {@code mvn package}, then run with {@code java -jar target/benchmarks.jar PromiseChainBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PromiseChainBenchmark {
+  private static final AsyncLocal<String> REQUEST_ID = AsyncLocal.newAsyncLocal("requestId");
+
+  @Param({"none", "asyncLocal"})
+  public String context;
+
+  @Param({"1", "8"})
+  public int chainLength;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    if (context.equals("asyncLocal")) REQUEST_ID.set("benchmark");
+  }
+
+  @Benchmark
+  public Integer completableFutureThenApply() {
+    CompletableFuture<Integer> source = new CompletableFuture<>();
+    CompletableFuture<Integer> result = source;
+    for (int i = 0; i < chainLength; i++) {
+      result = result.thenApply(v -> v + 1);
+    }
+    source.complete(0);
+    return result.join();
+  }
+
+  @Benchmark
+  public Integer promiseThenApply() {
+    Promise<Integer> source = new Promise<>();
+    Promise<Integer> result = source;
+    for (int i = 0; i < chainLength; i++) {
+      result = result.thenApply(v -> v + 1);
+    }
+    source.complete(0);
+    return result.join();
+  }
+
+  @Benchmark
+  public void completableFutureThenRun(Blackhole blackhole) {
+    CompletableFuture<Void> source = new CompletableFuture<>();
+    CompletableFuture<Void> result = source;
+    for (int i = 0; i < chainLength; i++) {
+      result = result.thenRun(() -> blackhole.consume(1));
+    }
+    source.complete(null);
+    result.join();
+  }
+
+  @Benchmark
+  public void promiseThenRun(Blackhole blackhole) {
+    Promise<Void> source = new Promise<>();
+    Promise<Void> result = source;
+    for (int i = 0; i < chainLength; i++) {
+      result = result.thenRun(() -> blackhole.consume(1));
+    }
+    source.complete(null);
+    result.join();
+  }
+
+  @Benchmark
+  public Integer completableFutureThenCompose() {
+    CompletableFuture<Integer> source = new CompletableFuture<>();
+    CompletableFuture<Integer> result = source;
+    for (int i = 0; i < chainLength; i++) {
+      result = result.thenCompose(v -> CompletableFuture.completedFuture(v + 1));
+    }
+    source.complete(0);
+    return result.join();
+  }
+
+  @Benchmark
+  public Integer promiseThenCompose() {
+    Promise<Integer> source = new Promise<>();
+    Promise<Integer> result = source;
+    for (int i = 0; i < chainLength; i++) {
+      result = result.thenCompose(v -> Promise.completed(v + 1));
+    }
+    source.complete(0);
+    return result.join();
+  }
+}
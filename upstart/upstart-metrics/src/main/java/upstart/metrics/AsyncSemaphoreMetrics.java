@@ -0,0 +1,43 @@
+package upstart.metrics;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import upstart.util.concurrent.AsyncSemaphore;
+
+import java.time.Duration;
+
+/**
+ * Records the queueing behavior of an {@link AsyncSemaphore} in a {@link MetricRegistry}:
+ * <ul>
+ *   <li>{@code <name>.queue-wait-micros}: histogram of the time each task waited for its permits</li>
+ *   <li>{@code <name>.queue-length}: histogram of the queue length observed by each queued task</li>
+ *   <li>{@code <name>.rejected}: meter of submissions rejected because the queue was full</li>
+ * </ul>
+ */
+public class AsyncSemaphoreMetrics implements AsyncSemaphore.Listener {
+  private final Histogram queueWaitMicros;
+  private final Histogram queueLength;
+  private final Meter rejected;
+
+  public AsyncSemaphoreMetrics(MetricRegistry metricRegistry, String name) {
+    queueWaitMicros = metricRegistry.histogram(MetricRegistry.name(name, "queue-wait-micros"));
+    queueLength = metricRegistry.histogram(MetricRegistry.name(name, "queue-length"));
+    rejected = metricRegistry.meter(MetricRegistry.name(name, "rejected"));
+  }
+
+  @Override
+  public void onQueued(int permits, AsyncSemaphore.Priority priority, int queueLength) {
+    this.queueLength.update(queueLength);
+  }
+
+  @Override
+  public void onAdmitted(int permits, AsyncSemaphore.Priority priority, Duration queueWait) {
+    queueWaitMicros.update(queueWait.toNanos() / 1000);
+  }
+
+  @Override
+  public void onRejected(int permits, AsyncSemaphore.Priority priority) {
+    rejected.mark();
+  }
+}
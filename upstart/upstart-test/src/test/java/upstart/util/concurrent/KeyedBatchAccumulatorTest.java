@@ -0,0 +1,152 @@
+package upstart.util.concurrent;
+
+import com.google.common.util.concurrent.ListenableScheduledFuture;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.jupiter.api.Test;
+import upstart.ExecutorServiceScheduler;
+import upstart.test.FakeTime;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+class KeyedBatchAccumulatorTest {
+  private static final Duration IDLE_TIMEOUT = Duration.ofMillis(100);
+  private static final Duration MAX_BUFFER_LATENCY = Duration.ofMillis(500);
+  private final FakeTime time = new FakeTime(Instant.EPOCH, ZoneOffset.UTC);
+  private final ConcurrentLinkedQueue<Map.Entry<String, List<String>>> batches = new ConcurrentLinkedQueue<>();
+  private final BatchAccumulator.BatchBuilder<String, List<String>> batchBuilder = (input, batch) -> {
+    batch.add(input);
+    return BatchAccumulator.accepted(batch.size() < 4);
+  };
+
+  private final Scheduler scheduler = new ExecutorServiceScheduler(
+          () -> Duration.ZERO,
+          time.scheduledExecutor(MoreExecutors.newDirectExecutorService()),
+          time.clock()
+  );
+
+  private KeyedBatchAccumulator<String, List<String>> accumulator(long maxBatchBytes) {
+    return accumulator(maxBatchBytes, scheduler);
+  }
+
+  private KeyedBatchAccumulator<String, List<String>> accumulator(long maxBatchBytes, Scheduler scheduler) {
+    return new KeyedBatchAccumulator.Factory().create(
+            () -> new ArrayList<>(4),
+            (key, batch) -> batches.add(Map.entry(key, batch)),
+            IDLE_TIMEOUT,
+            MAX_BUFFER_LATENCY,
+            maxBatchBytes,
+            scheduler
+    );
+  }
+
+  @Test
+  void keysAreBatchedIndependently() {
+    KeyedBatchAccumulator<String, List<String>> accumulator = accumulator(Long.MAX_VALUE);
+    accumulator.accumulate("x", "a", batchBuilder);
+    accumulator.accumulate("y", "b", batchBuilder);
+    accumulator.accumulate("x", "c", batchBuilder);
+    assertThat(batches).isEmpty();
+
+    time.advance(IDLE_TIMEOUT.dividedBy(2));
+    accumulator.accumulate("y", "d", batchBuilder);
+    time.advance(IDLE_TIMEOUT.dividedBy(2).plusMillis(20));
+    assertThat(batches).containsExactly(Map.entry("x", List.of("a", "c")));
+
+    time.advance(IDLE_TIMEOUT);
+    assertThat(batches).containsExactly(
+            Map.entry("x", List.of("a", "c")),
+            Map.entry("y", List.of("b", "d"))
+    ).inOrder();
+  }
+
+  @Test
+  void maxBufferLatencyBoundsBusyBatches() {
+    KeyedBatchAccumulator<String, List<String>> accumulator = accumulator(Long.MAX_VALUE);
+    BatchAccumulator.BatchBuilder<String, List<String>> unbounded = (input, batch) -> {
+      batch.add(input);
+      return BatchAccumulator.accepted();
+    };
+    for (int i = 0; i < 10; i++) {
+      accumulator.accumulate("x", "v" + i, unbounded);
+      time.advance(Duration.ofMillis(60));
+    }
+    assertThat(batches).hasSize(1);
+    assertThat(batches.peek().getValue()).hasSize(9);
+  }
+
+  @Test
+  void closesBatchBeforeExceedingMaxBytes() {
+    KeyedBatchAccumulator<String, List<String>> accumulator = accumulator(10);
+    accumulator.accumulate("x", "a", 6, batchBuilder);
+    accumulator.accumulate("x", "b", 6, batchBuilder);
+    assertThat(batches).containsExactly(Map.entry("x", List.of("a")));
+
+    accumulator.flushAll();
+    assertThat(batches).hasSize(2);
+  }
+
+  @Test
+  void closedBatchesAreRemovedFromTheTimerWheel() {
+    AtomicInteger ticks = new AtomicInteger();
+    KeyedBatchAccumulator<String, List<String>> accumulator = accumulator(Long.MAX_VALUE, new Scheduler() {
+      @Override
+      public ListeningScheduledExecutorService scheduledExecutorService() {
+        return scheduler.scheduledExecutorService();
+      }
+
+      @Override
+      public Clock clock() {
+        return scheduler.clock();
+      }
+
+      @Override
+      public void execute(Runnable command) {
+        scheduler.execute(command);
+      }
+
+      @Override
+      public ListenableScheduledFuture<?> schedule(Duration delay, Runnable command) {
+        ticks.incrementAndGet();
+        return scheduler.schedule(delay, command);
+      }
+    });
+
+    // the batch fills, and is closed, before it could time out
+    for (String input : List.of("a", "b", "c", "d")) {
+      accumulator.accumulate("x", input, batchBuilder);
+    }
+    assertThat(batches).containsExactly(Map.entry("x", List.of("a", "b", "c", "d")));
+
+    // the wheel stops ticking at its first advance, rather than retaining the closed batch until its expiry
+    time.advance(MAX_BUFFER_LATENCY);
+    assertThat(ticks.get()).isEqualTo(1);
+  }
+
+  @Test
+  void manyConcurrentProducers() {
+    KeyedBatchAccumulator<String, List<String>> accumulator = accumulator(Long.MAX_VALUE);
+    CompletableFutures.allOf(IntStream.range(0, 8).mapToObj(i -> CompletableFuture.runAsync(() -> {
+      for (int j = 0; j < 100; j++) {
+        accumulator.accumulate("key-" + (j % 4), i + "-" + j, batchBuilder);
+      }
+    }))).join();
+
+    assertThat(batches).hasSize(200);
+    assertThat(batches.stream().allMatch(entry -> entry.getValue().stream()
+            .allMatch(input -> entry.getKey().equals("key-" + (Integer.parseInt(input.split("-")[1]) % 4)))))
+            .isTrue();
+  }
+}
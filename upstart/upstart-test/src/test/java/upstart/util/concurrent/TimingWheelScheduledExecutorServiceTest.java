@@ -0,0 +1,122 @@
+package upstart.util.concurrent;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.jupiter.api.Test;
+import upstart.test.FakeTime;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+class TimingWheelScheduledExecutorServiceTest {
+  private static final Duration TICK = Duration.ofMillis(10);
+  private final FakeTime time = new FakeTime(Instant.EPOCH, ZoneOffset.UTC);
+  private final FakeTicker ticker = new FakeTicker();
+  private final TimingWheelScheduledExecutorService wheel = new TimingWheelScheduledExecutorService(
+          time.scheduledExecutor(MoreExecutors.newDirectExecutorService()),
+          ticker,
+          TICK
+  );
+  private final List<String> fired = new ArrayList<>();
+
+  @Test
+  void firesTimersAcrossWheelLevels() {
+    wheel.schedule(() -> fired.add("long"), 20, TimeUnit.MINUTES); // beyond the second level
+    wheel.schedule(() -> fired.add("medium"), 5, TimeUnit.SECONDS); // beyond the first level
+    wheel.schedule(() -> fired.add("short"), 35, TimeUnit.MILLISECONDS);
+
+    time.advance(Duration.ofMillis(30));
+    assertThat(fired).isEmpty();
+    time.advance(TICK);
+    assertThat(fired).containsExactly("short");
+
+    time.advance(Duration.ofSeconds(5));
+    assertThat(fired).containsExactly("short", "medium").inOrder();
+
+    time.advance(Duration.ofMinutes(20));
+    assertThat(fired).containsExactly("short", "medium", "long").inOrder();
+    assertThat(wheel.pendingCount()).isEqualTo(0);
+  }
+
+  @Test
+  void cancelledTimersAreRemoved() {
+    ScheduledFuture<?> cancelled = wheel.schedule(() -> fired.add("cancelled"), 1, TimeUnit.SECONDS);
+    wheel.schedule(() -> fired.add("kept"), 1, TimeUnit.SECONDS);
+    assertThat(wheel.pendingCount()).isEqualTo(2);
+
+    assertThat(cancelled.cancel(false)).isTrue();
+    assertThat(wheel.pendingCount()).isEqualTo(1);
+
+    time.advance(Duration.ofSeconds(2));
+    assertThat(fired).containsExactly("kept");
+  }
+
+  @Test
+  void periodicTasksRepeatUntilShutdown() {
+    wheel.scheduleAtFixedRate(() -> fired.add("tick"), 100, 100, TimeUnit.MILLISECONDS);
+    time.advance(Duration.ofMillis(350));
+    assertThat(fired).hasSize(3);
+
+    wheel.shutdown();
+    time.advance(Duration.ofSeconds(1));
+    assertThat(fired).hasSize(3);
+    assertThat(wheel.pendingCount()).isEqualTo(0);
+  }
+
+  @Test
+  void veryLongDelaysNeverFire() {
+    TimingWheelScheduledExecutorService coarseWheel = new TimingWheelScheduledExecutorService(
+            time.scheduledExecutor(MoreExecutors.newDirectExecutorService()),
+            ticker,
+            Duration.ofMinutes(1)
+    );
+    ScheduledFuture<?> forever = coarseWheel.schedule(() -> fired.add("forever"), Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    coarseWheel.schedule(() -> fired.add("days"), Long.MAX_VALUE, TimeUnit.DAYS);
+    coarseWheel.scheduleAtFixedRate(() -> fired.add("periodic"), 0, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+    time.advance(Duration.ofDays(30));
+    assertThat(fired).containsExactly("periodic");
+    assertThat(forever.getDelay(TimeUnit.DAYS)).isGreaterThan(30L);
+    assertThat(coarseWheel.pendingCount()).isEqualTo(3);
+
+    assertThat(forever.cancel(false)).isTrue();
+    assertThat(coarseWheel.pendingCount()).isEqualTo(2);
+    coarseWheel.shutdown();
+  }
+
+  @Test
+  void wallClockStepsDontFireTimers() {
+    wheel.schedule(() -> fired.add("timer"), 1, TimeUnit.SECONDS);
+
+    // the wall-clock steps forward by a minute, while no (monotonic) time elapses
+    ticker.ignore(Duration.ofMinutes(1));
+    time.advance(Duration.ofMinutes(1));
+    assertThat(fired).isEmpty();
+
+    time.advance(Duration.ofSeconds(1));
+    assertThat(fired).containsExactly("timer");
+  }
+
+  /**
+   * Measures the time elapsed on the {@link FakeTime} clock, excluding any {@link #ignore ignored} steps
+   */
+  private class FakeTicker extends Ticker {
+    private volatile long ignoredNanos = 0;
+
+    void ignore(Duration step) {
+      ignoredNanos += step.toNanos();
+    }
+
+    @Override
+    public long read() {
+      return Duration.between(Instant.EPOCH, time.instant()).toNanos() - ignoredNanos;
+    }
+  }
+}
@@ -1,35 +1,232 @@
 package upstart.util.concurrent;
 
-import java.util.Queue;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Limits the number of permits held by concurrently-running asynchronous tasks: each task submitted to the
+ * semaphore is started when its (weighted) permits become available, and releases them when the {@link CompletionStage}
+ * it returns is completed.
+ * <p/>
+ * Tasks which can't start immediately wait in one FIFO lane per {@link Priority}; the head of the highest-priority
+ * non-empty lane is always started next, so a heavy task is never starved by lighter ones behind it. When the
+ * {@link #queueLength} reaches the configured maximum, further submissions are rejected with a
+ * {@link RejectedExecutionException}. Cancelling the {@link Promise} returned by {@link #submit} before the task has
+ * started withdraws it from the queue.
+ * <p/>
+ * Acquiring permits while the queue is empty is lock-free; queue manipulation is synchronized, but tasks are always
+ * started outside the lock (on a {@link SameThreadTrampolineExecutor}, to avoid deep recursion when tasks complete
+ * synchronously).
+ */
 public class AsyncSemaphore {
-  private final int maxConcurrentTasks;
-  private final AtomicLong activeTasks = new AtomicLong();
-  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  public static final int UNBOUNDED_QUEUE = Integer.MAX_VALUE;
+
+  private final int maxPermits;
+  private final int maxQueueLength;
+  private final Listener listener;
+  private final AtomicInteger availablePermits;
+  private final Object lock = new Object();
+  private final List<ArrayDeque<Waiter<?>>> lanes = new ArrayList<>();
   private final Executor executor = new SameThreadTrampolineExecutor();
+  private volatile int queueLength = 0;
 
   public AsyncSemaphore(int maxConcurrentTasks) {
-    this.maxConcurrentTasks = maxConcurrentTasks;
+    this(maxConcurrentTasks, UNBOUNDED_QUEUE, Listener.NONE);
+  }
+
+  public AsyncSemaphore(int maxPermits, int maxQueueLength, Listener listener) {
+    checkArgument(maxPermits > 0, "maxPermits must be positive: %s", maxPermits);
+    checkArgument(maxQueueLength >= 0, "maxQueueLength must not be negative: %s", maxQueueLength);
+    this.maxPermits = maxPermits;
+    this.maxQueueLength = maxQueueLength;
+    this.listener = listener;
+    this.availablePermits = new AtomicInteger(maxPermits);
+    for (int i = 0; i < Priority.values().length; i++) {
+      lanes.add(new ArrayDeque<>());
+    }
   }
 
   public <T> Promise<T> submit(Callable<? extends CompletionStage<T>> task) {
-    return Promise.thatCompletes(promise -> {
-      tasks.offer(() -> promise.tryCompleteWith(task)
-              .whenComplete((ignored, e) -> {
-                if (activeTasks.decrementAndGet() >= maxConcurrentTasks) {
-                  executor.execute(tasks.poll());
-                }
-              }));
-
-      if (activeTasks.incrementAndGet() <= maxConcurrentTasks) {
-        executor.execute(tasks.poll());
+    return submit(1, Priority.NORMAL, task);
+  }
+
+  public <T> Promise<T> submit(int permits, Callable<? extends CompletionStage<T>> task) {
+    return submit(permits, Priority.NORMAL, task);
+  }
+
+  /**
+   * @return a {@link Promise} for the result of the task, which fails with a {@link RejectedExecutionException} if the
+   * queue is full
+   */
+  public <T> Promise<T> submit(int permits, Priority priority, Callable<? extends CompletionStage<T>> task) {
+    checkArgument(permits > 0 && permits <= maxPermits, "Requested permits (%s) must be between 1 and %s", permits, maxPermits);
+    Waiter<T> waiter = new Waiter<>(permits, priority, task);
+    if (queueLength == 0 && tryReserve(permits)) {
+      listener.onAdmitted(permits, priority, Duration.ZERO);
+      executor.execute(waiter::start);
+      return waiter.promise;
+    }
+
+    List<Waiter<?>> granted;
+    int observedQueueLength;
+    synchronized (lock) {
+      if (queueLength >= maxQueueLength) {
+        observedQueueLength = -1;
+        granted = List.of();
+      } else {
+        lanes.get(priority.ordinal()).addLast(waiter);
+        observedQueueLength = ++queueLength;
+        // permits may have been released before our enqueue became visible to the releasing thread
+        granted = collectGrantable();
+      }
+    }
+
+    if (observedQueueLength < 0) {
+      listener.onRejected(permits, priority);
+      return Promise.failedPromise(new RejectedExecutionException(
+              "AsyncSemaphore queue is full (" + maxQueueLength + " waiting tasks)"));
+    }
+
+    listener.onQueued(permits, priority, observedQueueLength);
+    waiter.promise.onCancel(() -> withdraw(waiter));
+    startAll(granted);
+    return waiter.promise;
+  }
+
+  /**
+   * @return the number of tasks waiting for permits
+   */
+  public int queueLength() {
+    return queueLength;
+  }
+
+  public int availablePermits() {
+    return availablePermits.get();
+  }
+
+  public int activePermits() {
+    return maxPermits - availablePermits.get();
+  }
+
+  private boolean tryReserve(int permits) {
+    int available;
+    do {
+      available = availablePermits.get();
+      if (available < permits) return false;
+    } while (!availablePermits.compareAndSet(available, available - permits));
+    return true;
+  }
+
+  private void release(int permits) {
+    availablePermits.addAndGet(permits);
+    if (queueLength > 0) {
+      List<Waiter<?>> granted;
+      synchronized (lock) {
+        granted = collectGrantable();
+      }
+      startAll(granted);
+    }
+  }
+
+  private void withdraw(Waiter<?> waiter) {
+    List<Waiter<?>> granted;
+    synchronized (lock) {
+      if (!lanes.get(waiter.priority.ordinal()).remove(waiter)) return;
+      queueLength--;
+      // the withdrawn waiter may have been blocking lighter waiters behind it
+      granted = collectGrantable();
+    }
+    startAll(granted);
+  }
+
+  private List<Waiter<?>> collectGrantable() {
+    List<Waiter<?>> granted = List.of();
+    for (ArrayDeque<Waiter<?>> lane : lanes) {
+      if (lane.isEmpty()) continue;
+      Waiter<?> head;
+      while ((head = lane.peekFirst()) != null && tryReserve(head.permits)) {
+        lane.removeFirst();
+        queueLength--;
+        if (granted.isEmpty()) granted = new ArrayList<>();
+        granted.add(head);
+      }
+      // never let lower-priority waiters overtake a waiting head
+      if (!lane.isEmpty()) break;
+    }
+    return granted;
+  }
+
+  private void startAll(List<Waiter<?>> granted) {
+    for (Waiter<?> waiter : granted) {
+      listener.onAdmitted(waiter.permits, waiter.priority, Duration.ofNanos(System.nanoTime() - waiter.enqueuedNanos));
+      executor.execute(waiter::start);
+    }
+  }
+
+  public enum Priority {
+    HIGH,
+    NORMAL,
+    LOW
+  }
+
+  /**
+   * Receives notifications about the queueing behavior of an {@link AsyncSemaphore}, for example to record
+   * wait-time and queue-length histograms. Callbacks are invoked synchronously, and must be fast and non-blocking.
+   */
+  public interface Listener {
+    Listener NONE = new Listener() {
+    };
+
+    /**
+     * A task could not start immediately, and was queued.
+     * @param queueLength the number of waiting tasks, including this one
+     */
+    default void onQueued(int permits, Priority priority, int queueLength) {
+    }
+
+    /**
+     * A task was granted its permits, after waiting in the queue for the given duration (zero if it was not queued).
+     * Tasks which are cancelled while queued are not admitted.
+     */
+    default void onAdmitted(int permits, Priority priority, Duration queueWait) {
+    }
+
+    default void onRejected(int permits, Priority priority) {
+    }
+  }
+
+  private class Waiter<T> {
+    final int permits;
+    final Priority priority;
+    final Callable<? extends CompletionStage<T>> task;
+    final Promise<T> promise = new Promise<>();
+    final long enqueuedNanos = System.nanoTime();
+
+    Waiter(int permits, Priority priority, Callable<? extends CompletionStage<T>> task) {
+      this.permits = permits;
+      this.priority = priority;
+      this.task = task;
+    }
+
+    void start() {
+      if (promise.isDone()) {
+        // cancelled after being granted
+        release(permits);
+        return;
       }
-    });
+      Promise<T> result = Promise.callSafely(task);
+      // hold the permits until the task itself completes, even if the caller cancels its promise
+      result.uponCompletion(() -> release(permits));
+      promise.completeWith(result);
+    }
   }
 }
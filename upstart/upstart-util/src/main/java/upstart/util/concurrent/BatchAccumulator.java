@@ -166,7 +166,7 @@ public class BatchAccumulator<B> {
     }
   }
 
-  private record RejectedResult<I>(I rejectedInput) implements AccumulationResult<I> {
+  record RejectedResult<I>(I rejectedInput) implements AccumulationResult<I> {
     @Override
     public boolean closeBatch() {
       return true;
@@ -0,0 +1,136 @@
+package upstart.util.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A bounded, lock-free, multi-producer/multi-consumer FIFO queue, backed by a ring of preallocated slots
+ * (after Dmitry Vyukov's bounded MPMC queue).
+ * <p/>
+ * Each slot carries a sequence-number which indicates whether it is ready to be written (for the current lap of the
+ * ring) or read, so that producers and consumers only contend on the head and tail counters, and never block one
+ * another. Unlike {@link java.util.concurrent.ArrayBlockingQueue}, no operation ever blocks: {@link #offer} returns
+ * false when the buffer is full, and {@link #poll} returns null when it is empty.
+ */
+public class BoundedRingBuffer<T> {
+  private final Object[] elements;
+  private final AtomicLongArray sequences;
+  private final int mask;
+  private final AtomicLong head = new AtomicLong(); // position of the next element to poll
+  private final AtomicLong tail = new AtomicLong(); // position of the next element to offer
+
+  /**
+   * @param minCapacity the minimum number of elements to hold; the actual capacity is rounded up to a power of 2, and
+   *                    is at least 2 (with a single slot, the sequence marking a written element would be
+   *                    indistinguishable from the one releasing the slot for the next lap)
+   */
+  public BoundedRingBuffer(int minCapacity) {
+    checkArgument(minCapacity > 0 && minCapacity <= 1 << 30, "Invalid capacity: %s", minCapacity);
+    int capacity = Math.max(2, Integer.highestOneBit(minCapacity - 1) << 1);
+    elements = new Object[capacity];
+    sequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      sequences.set(i, i);
+    }
+    mask = capacity - 1;
+  }
+
+  public int capacity() {
+    return elements.length;
+  }
+
+  /**
+   * @return an approximation of the number of elements in the buffer (exact when there are no concurrent updates)
+   */
+  public int size() {
+    long size = tail.get() - head.get();
+    return (int) Math.max(0, Math.min(size, elements.length));
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * @return the number of elements ever added to the buffer. An element is counted as soon as its slot is claimed,
+   * which (with concurrent producers) may be shortly before it becomes visible to {@link #poll}
+   */
+  public long offeredCount() {
+    return tail.get();
+  }
+
+  /**
+   * @return the number of elements ever removed from the buffer
+   */
+  public long polledCount() {
+    return head.get();
+  }
+
+  /**
+   * Adds the given element to the tail of the buffer, if there is room.
+   * @return true if the element was added, or false if the buffer was full
+   */
+  public boolean offer(T element) {
+    checkArgument(element != null, "BoundedRingBuffer elements must not be null");
+    long position = tail.get();
+    while (true) {
+      int index = (int) position & mask;
+      long available = sequences.get(index) - position;
+      if (available == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          elements[index] = element;
+          sequences.set(index, position + 1); // publishes the element to consumers
+          return true;
+        }
+        position = tail.get();
+      } else if (available < 0) {
+        return false; // the slot hasn't been consumed since the previous lap: we're full
+      } else {
+        position = tail.get(); // another producer claimed this slot
+      }
+    }
+  }
+
+  /**
+   * Removes the element at the head of the buffer.
+   * @return the removed element, or null if the buffer was empty
+   */
+  @SuppressWarnings("unchecked")
+  public T poll() {
+    long position = head.get();
+    while (true) {
+      int index = (int) position & mask;
+      long available = sequences.get(index) - (position + 1);
+      if (available == 0) {
+        if (head.compareAndSet(position, position + 1)) {
+          T element = (T) elements[index];
+          elements[index] = null;
+          sequences.set(index, position + elements.length); // releases the slot for the next lap
+          return element;
+        }
+        position = head.get();
+      } else if (available < 0) {
+        return null; // the slot hasn't been written for this lap: we're empty
+      } else {
+        position = head.get(); // another consumer claimed this slot
+      }
+    }
+  }
+
+  /**
+   * Removes up to {@code maxElements} elements from the head of the buffer, passing each to the given consumer.
+   * @return the number of elements removed
+   */
+  public int drainTo(Consumer<? super T> consumer, int maxElements) {
+    int count = 0;
+    T element;
+    while (count < maxElements && (element = poll()) != null) {
+      consumer.accept(element);
+      count++;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,315 @@
+package upstart.util.concurrent;
+
+import com.google.common.collect.Comparators;
+import com.google.common.math.IntMath;
+import com.google.common.math.LongMath;
+
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A variant of {@link BatchAccumulator} which maintains an independent batch for each key (eg, per stream-partition or
+ * per table), for use with many concurrent producers.
+ * <p/>
+ * Keys are hashed onto a fixed set of lock-stripes, so producers contend only with others whose keys share a stripe.
+ * Rather than scheduling a timer per batch, idle-timeout and max-latency deadlines are tracked by a single shared
+ * hashed timer-wheel, which ticks only while batches are open. In addition to the closing-decisions made by the
+ * {@link BatchAccumulator.BatchBuilder}, a batch is closed before an input whose size would push it beyond
+ * {@code maxBatchBytes}.
+ * <p/>
+ * Completed batches are delivered to the consumer while holding their stripe's lock, so batches for each key are
+ * delivered in order; the consumer should hand off any expensive work.
+ */
+public class KeyedBatchAccumulator<K, B> {
+  private final Supplier<B> newBatchSupplier;
+  private final BiConsumer<? super K, ? super B> completedBatchConsumer;
+  private final Duration idleTimeout;
+  private final Duration maxBufferLatency;
+  private final long maxBatchBytes;
+  private final Scheduler scheduler;
+  private final Deadline.Clock deadlineClock;
+  private final List<Stripe> stripes;
+  private final int stripeMask;
+  private final TimerWheel timerWheel;
+
+  /**
+   * This constructor is protected to prevent its use except by subclasses; use {@link Factory#create} instead to
+   * support interception in tests.
+   */
+  protected KeyedBatchAccumulator(
+          Supplier<B> newBatchSupplier,
+          BiConsumer<? super K, ? super B> completedBatchConsumer,
+          Duration idleTimeout,
+          Duration maxBufferLatency,
+          long maxBatchBytes,
+          int stripeCount,
+          Duration tickDuration,
+          Scheduler scheduler
+  ) {
+    checkArgument(maxBatchBytes > 0, "maxBatchBytes must be positive: %s", maxBatchBytes);
+    checkArgument(stripeCount > 0, "stripeCount must be positive: %s", stripeCount);
+    checkArgument(tickDuration.toNanos() > 0, "tickDuration must be positive: %s", tickDuration);
+    this.newBatchSupplier = newBatchSupplier;
+    this.completedBatchConsumer = completedBatchConsumer;
+    this.idleTimeout = idleTimeout;
+    this.maxBufferLatency = maxBufferLatency;
+    this.maxBatchBytes = maxBatchBytes;
+    this.scheduler = scheduler;
+    deadlineClock = Deadline.clock(scheduler.clock());
+
+    int size = IntMath.ceilingPowerOfTwo(stripeCount);
+    stripes = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      stripes.add(new Stripe());
+    }
+    stripeMask = size - 1;
+    timerWheel = new TimerWheel(tickDuration);
+  }
+
+  public <I> Deadline accumulate(K key, I input, BatchAccumulator.BatchBuilder<I, B> action) {
+    return accumulate(key, input, 0, action);
+  }
+
+  /**
+   * Adds the given input to the open batch for the given key, opening a new batch if necessary.
+   *
+   * @param sizeInBytes the contribution of this input to its batch's size, for enforcing {@code maxBatchBytes}
+   * @return the {@link Deadline} by which the batch will be closed if no further inputs arrive
+   */
+  public <I> Deadline accumulate(K key, I input, long sizeInBytes, BatchAccumulator.BatchBuilder<I, B> action) {
+    Instant now = scheduler.now();
+    Stripe stripe = stripeFor(key);
+    synchronized (stripe) {
+      OpenBatch batch;
+      I remainingInput = input;
+      do {
+        batch = stripe.batches.get(key);
+        if (batch != null && batch.bytes > 0 && batch.bytes + sizeInBytes > maxBatchBytes) {
+          batch.close();
+          batch = null;
+        }
+        if (batch == null) {
+          batch = new OpenBatch(key, stripe, now);
+          stripe.batches.put(key, batch);
+          timerWheel.add(batch, batch.expiry(), now);
+        }
+
+        BatchAccumulator.AccumulationResult<I> result = action.addToBatch(remainingInput, batch.batch);
+
+        if (result instanceof BatchAccumulator.RejectedResult<I> rejected) {
+          remainingInput = rejected.rejectedInput();
+        } else {
+          batch.bytes += sizeInBytes;
+          remainingInput = null;
+        }
+
+        if (result.closeBatch()) batch.close();
+      } while (remainingInput != null);
+
+      return batch.touch(now);
+    }
+  }
+
+  public void flush(K key) {
+    Stripe stripe = stripeFor(key);
+    synchronized (stripe) {
+      OpenBatch batch = stripe.batches.get(key);
+      if (batch != null) batch.close();
+    }
+  }
+
+  public void flushAll() {
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        for (OpenBatch batch : List.copyOf(stripe.batches.values())) {
+          batch.close();
+        }
+      }
+    }
+  }
+
+  private Stripe stripeFor(K key) {
+    int h = key.hashCode();
+    return stripes.get((h ^ (h >>> 16)) & stripeMask);
+  }
+
+  private class Stripe {
+    final Map<K, OpenBatch> batches = new HashMap<>();
+  }
+
+  private class OpenBatch {
+    final K key;
+    final Stripe stripe;
+    final B batch = newBatchSupplier.get();
+    final Instant accumulationDeadline;
+    Instant lastTouched;
+    long bytes = 0;
+    boolean closed = false;
+    // guarded by the timerWheel
+    long timerTick;
+
+    OpenBatch(K key, Stripe stripe, Instant now) {
+      this.key = key;
+      this.stripe = stripe;
+      accumulationDeadline = now.plus(maxBufferLatency);
+      lastTouched = now;
+    }
+
+    Instant expiry() {
+      return Comparators.min(lastTouched.plus(idleTimeout), accumulationDeadline);
+    }
+
+    Deadline touch(Instant now) {
+      if (!closed) lastTouched = now;
+      return deadlineClock.deadlineAt(expiry());
+    }
+
+    void onTimeout(Instant now) {
+      synchronized (stripe) {
+        if (closed) return;
+        Instant expiry = expiry();
+        if (now.isBefore(expiry)) {
+          timerWheel.add(this, expiry, now);
+        } else {
+          close();
+        }
+      }
+    }
+
+    void close() {
+      closed = true;
+      stripe.batches.remove(key, this);
+      timerWheel.remove(this);
+      completedBatchConsumer.accept(key, batch);
+    }
+  }
+
+  /**
+   * A hashed timer-wheel: each open batch is placed in the slot for the tick in which it might expire. Batches whose
+   * deadline has been extended since they were placed are re-inserted when their slot comes due. Closed batches are
+   * removed from their slot immediately, rather than being retained until it comes due.
+   */
+  private class TimerWheel {
+    private final Duration tickDuration;
+    private final long tickNanos;
+    private final Instant origin;
+    private final List<Set<OpenBatch>> slots;
+    private long processedTick;
+    private int pendingCount = 0;
+    private boolean ticking = false;
+
+    TimerWheel(Duration tickDuration) {
+      this.tickDuration = tickDuration;
+      tickNanos = tickDuration.toNanos();
+      origin = scheduler.now();
+      // enough slots that the longest possible deadline never wraps around the wheel
+      int slotCount = Math.toIntExact(LongMath.divide(Comparators.max(idleTimeout, maxBufferLatency).toNanos(), tickNanos, RoundingMode.CEILING) + 2);
+      slots = new ArrayList<>(slotCount);
+      for (int i = 0; i < slotCount; i++) {
+        slots.add(new HashSet<>());
+      }
+      processedTick = tickOf(origin);
+    }
+
+    void add(OpenBatch batch, Instant expiry, Instant now) {
+      boolean startTicking;
+      synchronized (this) {
+        if (!ticking) {
+          // nothing is pending, so skip the ticks that elapsed while idle
+          processedTick = Math.max(processedTick, tickOf(now) - 1);
+        }
+        // the slot after the expiry's tick, so that the batch is never examined before it expires
+        long tick = Math.max(tickOf(expiry) + 1, processedTick + 1);
+        slot(tick).add(batch);
+        batch.timerTick = tick;
+        pendingCount++;
+        startTicking = !ticking;
+        ticking = true;
+      }
+      if (startTicking) scheduleAdvance();
+    }
+
+    synchronized void remove(OpenBatch batch) {
+      // the batch may already have been taken from its slot by a concurrent advance
+      if (slot(batch.timerTick).remove(batch)) pendingCount--;
+    }
+
+    private void advance() {
+      try {
+        List<OpenBatch> due = new ArrayList<>();
+        Instant now = scheduler.now();
+        long nowTick = tickOf(now);
+        synchronized (this) {
+          processedTick = Math.max(processedTick, nowTick - slots.size());
+          while (processedTick < nowTick) {
+            Set<OpenBatch> slot = slot(++processedTick);
+            pendingCount -= slot.size();
+            due.addAll(slot);
+            slot.clear();
+          }
+        }
+        for (OpenBatch batch : due) {
+          batch.onTimeout(now);
+        }
+      } finally {
+        boolean reschedule;
+        synchronized (this) {
+          reschedule = ticking = pendingCount > 0;
+        }
+        if (reschedule) scheduleAdvance();
+      }
+    }
+
+    private void scheduleAdvance() {
+      scheduler.schedule(tickDuration, this::advance);
+    }
+
+    private Set<OpenBatch> slot(long tick) {
+      return slots.get((int) Math.floorMod(tick, (long) slots.size()));
+    }
+
+    private long tickOf(Instant instant) {
+      return Math.floorDiv(Duration.between(origin, instant).toNanos(), tickNanos);
+    }
+  }
+
+  public static class Factory {
+    public static final int DEFAULT_STRIPE_COUNT = IntMath.ceilingPowerOfTwo(Runtime.getRuntime().availableProcessors() * 4);
+
+    public <K, B> KeyedBatchAccumulator<K, B> create(
+            Supplier<B> newBatchSupplier,
+            BiConsumer<? super K, ? super B> completedBatchConsumer,
+            Duration idleTimeout,
+            Duration maxBufferLatency,
+            long maxBatchBytes,
+            Scheduler scheduler
+    ) {
+      Duration tick = Comparators.max(Duration.ofMillis(1), Comparators.min(idleTimeout, maxBufferLatency).dividedBy(8));
+      return create(newBatchSupplier, completedBatchConsumer, idleTimeout, maxBufferLatency, maxBatchBytes, DEFAULT_STRIPE_COUNT, tick, scheduler);
+    }
+
+    public <K, B> KeyedBatchAccumulator<K, B> create(
+            Supplier<B> newBatchSupplier,
+            BiConsumer<? super K, ? super B> completedBatchConsumer,
+            Duration idleTimeout,
+            Duration maxBufferLatency,
+            long maxBatchBytes,
+            int stripeCount,
+            Duration tickDuration,
+            Scheduler scheduler
+    ) {
+      return new KeyedBatchAccumulator<>(newBatchSupplier, completedBatchConsumer, idleTimeout, maxBufferLatency, maxBatchBytes, stripeCount, tickDuration, scheduler);
+    }
+  }
+}
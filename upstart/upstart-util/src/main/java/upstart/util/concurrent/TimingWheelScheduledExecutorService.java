@@ -0,0 +1,355 @@
+package upstart.util.concurrent;
+
+import com.google.common.base.Ticker;
+import com.google.common.math.LongMath;
+import com.google.common.util.concurrent.ForwardingExecutorService;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A {@link ScheduledExecutorService} which tracks delayed tasks in a hierarchical timing-wheel, for workloads with very
+ * large numbers of short-lived (and frequently cancelled) timeouts: scheduling and cancelling are O(1), rather than the
+ * O(log n) of the heap behind a {@link java.util.concurrent.ScheduledThreadPoolExecutor}.
+ * <p/>
+ * Time is measured with the given {@link Ticker} (a monotonic source such as {@link Ticker#systemTicker}, like the
+ * {@link System#nanoTime} used by {@link java.util.concurrent.ScheduledThreadPoolExecutor}, so that adjustments to the
+ * wall-clock don't fire timers early or stall them), and the wheel is advanced by a single task which is re-scheduled on
+ * the underlying executor once per tick, only while timers are pending; due tasks are then run on the underlying
+ * executor. Thus tasks may run up to one tick later than requested. Because it relies only on the underlying executor
+ * and ticker, the wheel also works atop a fake-time executor in tests.
+ * <p/>
+ * The wheel has 4 levels of 256 slots; with a 10ms tick, this spans more than a year before longer timers must be
+ * re-examined at each rotation of the top level.
+ * <p/>
+ * Shutting down cancels all pending timers (including periodic tasks), and shuts down the underlying executor.
+ */
+public class TimingWheelScheduledExecutorService extends ForwardingExecutorService implements ScheduledExecutorService {
+  public static final Duration DEFAULT_TICK_DURATION = Duration.ofMillis(10);
+  private static final int WHEEL_BITS = 8;
+  private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+  private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+  private static final int LEVELS = 4;
+
+  private final ScheduledExecutorService executor;
+  private final Ticker ticker;
+  private final long originNanos;
+  private final long tickNanos;
+  private final List<List<Bucket>> wheels = new ArrayList<>(LEVELS);
+  private long currentTick = 0;
+  private int pendingCount = 0;
+  private boolean ticking = false;
+  private boolean shutdown = false;
+
+  public TimingWheelScheduledExecutorService(ScheduledExecutorService executor) {
+    this(executor, Ticker.systemTicker());
+  }
+
+  public TimingWheelScheduledExecutorService(ScheduledExecutorService executor, Ticker ticker) {
+    this(executor, ticker, DEFAULT_TICK_DURATION);
+  }
+
+  public TimingWheelScheduledExecutorService(ScheduledExecutorService executor, Ticker ticker, Duration tickDuration) {
+    checkArgument(tickDuration.toNanos() > 0, "tickDuration must be positive: %s", tickDuration);
+    this.executor = executor;
+    this.ticker = ticker;
+    this.tickNanos = tickDuration.toNanos();
+    originNanos = ticker.read();
+    for (int level = 0; level < LEVELS; level++) {
+      List<Bucket> wheel = new ArrayList<>(WHEEL_SIZE);
+      for (int i = 0; i < WHEEL_SIZE; i++) {
+        wheel.add(new Bucket());
+      }
+      wheels.add(wheel);
+    }
+  }
+
+  @Override
+  protected ExecutorService delegate() {
+    return executor;
+  }
+
+  /**
+   * @return the number of delayed tasks waiting in the wheel
+   */
+  public synchronized int pendingCount() {
+    return pendingCount;
+  }
+
+  @Override
+  public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+    return schedule(new Timer<>(Executors.callable(command, null), deadlineAfter(delay, unit), 0));
+  }
+
+  @Override
+  public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+    return schedule(new Timer<>(callable, deadlineAfter(delay, unit), 0));
+  }
+
+  @Override
+  public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+    checkArgument(period > 0, "period must be positive: %s", period);
+    return schedule(new Timer<>(Executors.callable(command, null), deadlineAfter(initialDelay, unit), unit.toNanos(period)));
+  }
+
+  @Override
+  public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+    checkArgument(delay > 0, "delay must be positive: %s", delay);
+    return schedule(new Timer<>(Executors.callable(command, null), deadlineAfter(initialDelay, unit), -unit.toNanos(delay)));
+  }
+
+  @Override
+  public void shutdown() {
+    cancelPending();
+    executor.shutdown();
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    List<Runnable> pending = new ArrayList<>(cancelPending());
+    pending.addAll(executor.shutdownNow());
+    return pending;
+  }
+
+  @Override
+  public boolean isShutdown() {
+    synchronized (this) {
+      if (shutdown) return true;
+    }
+    return executor.isShutdown();
+  }
+
+  private long nowNanos() {
+    return ticker.read() - originNanos;
+  }
+
+  // saturated, like ScheduledThreadPoolExecutor, so that very long delays (eg, Long.MAX_VALUE) never fire
+  private long deadlineAfter(long delay, TimeUnit unit) {
+    return LongMath.saturatedAdd(nowNanos(), Math.max(0, unit.toNanos(delay)));
+  }
+
+  private <V> Timer<V> schedule(Timer<V> timer) {
+    boolean startTicking;
+    synchronized (this) {
+      if (shutdown) throw new RejectedExecutionException("TimingWheelScheduledExecutorService was shut down");
+      if (pendingCount == 0) {
+        // nothing is pending, so skip the ticks that elapsed while idle
+        currentTick = Math.max(currentTick, Math.floorDiv(nowNanos(), tickNanos));
+      }
+      insert(timer, Math.max(ceilingTick(timer.deadlineNanos), currentTick + 1));
+      startTicking = !ticking;
+      ticking = true;
+    }
+    if (startTicking) scheduleTick();
+    return timer;
+  }
+
+  /**
+   * Must be called while holding the monitor.
+   */
+  private void insert(Timer<?> timer, long expirationTick) {
+    timer.expirationTick = expirationTick;
+    long delta = expirationTick - currentTick;
+    int level = 0;
+    while (level < LEVELS - 1 && delta >= 1L << (WHEEL_BITS * (level + 1))) {
+      level++;
+    }
+    int index = (int) ((expirationTick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+    wheels.get(level).get(index).add(timer);
+    pendingCount++;
+  }
+
+  private synchronized void remove(Timer<?> timer) {
+    if (timer.bucket != null) {
+      timer.bucket.remove(timer);
+      pendingCount--;
+    }
+  }
+
+  private void scheduleTick() {
+    long delay;
+    synchronized (this) {
+      delay = Math.max(0, (currentTick + 1) * tickNanos - nowNanos());
+    }
+    try {
+      executor.schedule(this::tick, delay, TimeUnit.NANOSECONDS);
+    } catch (RejectedExecutionException e) {
+      // the underlying executor was shut down
+      synchronized (this) {
+        ticking = false;
+      }
+    }
+  }
+
+  private void tick() {
+    List<Timer<?>> expired = new ArrayList<>();
+    boolean reschedule;
+    synchronized (this) {
+      advanceTo(Math.floorDiv(nowNanos(), tickNanos), expired);
+      reschedule = ticking = pendingCount > 0;
+    }
+    for (Timer<?> timer : expired) {
+      try {
+        executor.execute(timer);
+      } catch (RejectedExecutionException e) {
+        timer.cancel(false);
+      }
+    }
+    if (reschedule) scheduleTick();
+  }
+
+  /**
+   * Must be called while holding the monitor.
+   */
+  private void advanceTo(long targetTick, List<Timer<?>> expired) {
+    while (currentTick < targetTick && pendingCount > 0) {
+      currentTick++;
+      // when lower levels wrap around, cascade the next slot of each higher level downward, highest first
+      int cascadeLevels = 0;
+      while (cascadeLevels < LEVELS - 1 && (currentTick & ((1L << (WHEEL_BITS * (cascadeLevels + 1))) - 1)) == 0) {
+        cascadeLevels++;
+      }
+      for (int level = cascadeLevels; level > 0; level--) {
+        int index = (int) ((currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        for (Timer<?> timer : drain(wheels.get(level).get(index))) {
+          insert(timer, Math.max(timer.expirationTick, currentTick));
+        }
+      }
+      expired.addAll(drain(wheels.get(0).get((int) (currentTick & WHEEL_MASK))));
+    }
+    currentTick = Math.max(currentTick, targetTick);
+  }
+
+  private List<Timer<?>> drain(Bucket bucket) {
+    List<Timer<?>> timers = bucket.drain();
+    pendingCount -= timers.size();
+    return timers;
+  }
+
+  private List<Runnable> cancelPending() {
+    List<Timer<?>> pending = new ArrayList<>();
+    synchronized (this) {
+      shutdown = true;
+      for (List<Bucket> wheel : wheels) {
+        for (Bucket bucket : wheel) {
+          pending.addAll(drain(bucket));
+        }
+      }
+    }
+    for (Timer<?> timer : pending) {
+      timer.cancel(false);
+    }
+    return new ArrayList<>(pending);
+  }
+
+  private long ceilingTick(long nanos) {
+    return Math.floorDiv(LongMath.saturatedAdd(nanos, tickNanos - 1), tickNanos);
+  }
+
+  /**
+   * An intrusive doubly-linked list of timers, so that cancelled timers can be unlinked in constant time.
+   */
+  private static class Bucket {
+    private Timer<?> head;
+
+    void add(Timer<?> timer) {
+      timer.bucket = this;
+      timer.prev = null;
+      timer.next = head;
+      if (head != null) head.prev = timer;
+      head = timer;
+    }
+
+    void remove(Timer<?> timer) {
+      if (timer.prev != null) {
+        timer.prev.next = timer.next;
+      } else {
+        head = timer.next;
+      }
+      if (timer.next != null) timer.next.prev = timer.prev;
+      timer.bucket = null;
+      timer.prev = timer.next = null;
+    }
+
+    List<Timer<?>> drain() {
+      List<Timer<?>> timers = new ArrayList<>();
+      for (Timer<?> timer = head; timer != null; ) {
+        Timer<?> next = timer.next;
+        timer.bucket = null;
+        timer.prev = timer.next = null;
+        timers.add(timer);
+        timer = next;
+      }
+      head = null;
+      return timers;
+    }
+  }
+
+  private class Timer<V> extends FutureTask<V> implements RunnableScheduledFuture<V> {
+    /** positive for fixed-rate, negative for fixed-delay, zero for one-shot tasks */
+    private final long periodNanos;
+    private volatile long deadlineNanos;
+    // guarded by the enclosing TimingWheelScheduledExecutorService
+    private long expirationTick;
+    private Bucket bucket;
+    private Timer<?> prev;
+    private Timer<?> next;
+
+    Timer(Callable<V> callable, long deadlineNanos, long periodNanos) {
+      super(callable);
+      this.deadlineNanos = deadlineNanos;
+      this.periodNanos = periodNanos;
+    }
+
+    @Override
+    public boolean isPeriodic() {
+      return periodNanos != 0;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(deadlineNanos - nowNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+      return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean cancelled = super.cancel(mayInterruptIfRunning);
+      if (cancelled) remove(this);
+      return cancelled;
+    }
+
+    @Override
+    public void run() {
+      if (!isPeriodic()) {
+        super.run();
+      } else if (runAndReset()) {
+        deadlineNanos = periodNanos > 0
+                ? LongMath.saturatedAdd(deadlineNanos, periodNanos)
+                : LongMath.saturatedSubtract(nowNanos(), periodNanos);
+        try {
+          schedule(this);
+        } catch (RejectedExecutionException e) {
+          cancel(false);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package upstart.util.concurrent.resourceguard;
+
+import upstart.util.concurrent.CompletableFutures;
+import upstart.util.concurrent.Promise;
+import upstart.util.concurrent.services.AggregateService;
+import upstart.util.concurrent.services.ComposableService;
+
+import java.util.Arrays;
+
+/**
+ * Asynchronous counterpart of {@link CompositeResourceGuard}: acquires permits from the first guard, then from the
+ * second, without blocking. Cancelling the returned {@link Promise} withdraws whichever acquisition is in flight, and
+ * releases any permits that were already granted.
+ */
+public class AsyncCompositeResourceGuard<A extends AsyncResourceGuard<A>, B extends AsyncResourceGuard<B>> extends AggregateService implements AsyncResourceGuard<AsyncCompositeResourceGuard<A, B>> {
+  private final A firstGuard;
+  private final B secondGuard;
+
+  public AsyncCompositeResourceGuard(A firstGuard, B secondGuard) {
+    this.firstGuard = firstGuard;
+    this.secondGuard = secondGuard;
+  }
+
+  public A firstGuard() {
+    return firstGuard;
+  }
+
+  public B secondGuard() {
+    return secondGuard;
+  }
+
+  @Override
+  public boolean tryAcquire(int permits) {
+    if (!firstGuard.tryAcquire(permits)) return false;
+    boolean acquired = false;
+    try {
+      return acquired = secondGuard.tryAcquire(permits);
+    } finally {
+      if (!acquired) firstGuard.release(permits);
+    }
+  }
+
+  @Override
+  public Promise<Void> acquireAsync(int permits) {
+    Promise<Void> result = new Promise<>();
+    Promise<Void> first = firstGuard.acquireAsync(permits);
+    result.onCancel(() -> first.cancel(false));
+    first.whenComplete((__, e) -> {
+      if (e != null) {
+        result.completeExceptionally(CompletableFutures.unwrapExecutionException(e));
+      } else if (result.isDone()) {
+        firstGuard.release(permits);
+      } else {
+        acquireSecond(permits, result);
+      }
+    });
+    return result;
+  }
+
+  private void acquireSecond(int permits, Promise<Void> result) {
+    Promise<Void> second;
+    try {
+      second = secondGuard.acquireAsync(permits);
+    } catch (RuntimeException e) {
+      firstGuard.release(permits);
+      result.completeExceptionally(e);
+      return;
+    }
+    result.onCancel(() -> second.cancel(false));
+    second.whenComplete((__, e) -> {
+      if (e != null) {
+        firstGuard.release(permits);
+        result.completeExceptionally(CompletableFutures.unwrapExecutionException(e));
+      } else if (!result.complete(null)) {
+        release(permits);
+      }
+    });
+  }
+
+  @Override
+  public void release(int permits) {
+    secondGuard.release(permits);
+    firstGuard.release(permits);
+  }
+
+  @Override
+  protected Iterable<? extends ComposableService> getComponentServices() {
+    return Arrays.asList(firstGuard, secondGuard);
+  }
+}
@@ -0,0 +1,154 @@
+package upstart.util.concurrent.resourceguard;
+
+import com.google.common.base.Ticker;
+import upstart.util.concurrent.Deadline;
+import upstart.util.concurrent.Promise;
+import upstart.util.concurrent.ShutdownException;
+import upstart.util.concurrent.services.LightweightService;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * An {@link AsyncResourceGuard} which limits the rate of acquisitions, like {@link RateLimitedResourceGuard}, but
+ * completes pending acquisitions from a timer rather than parking the calling threads.
+ * <p/>
+ * Permits are reserved from a token-bucket which accumulates up to one second's worth of unused permits (matching the
+ * "bursty" behavior of {@link com.google.common.util.concurrent.RateLimiter#create(double)}). Each acquisition
+ * reserves its permits immediately, and is completed when the reservation comes due; reservations which are
+ * cancelled before then are not refunded.
+ */
+public class AsyncRateLimitedResourceGuard extends LightweightService implements AsyncResourceGuard<AsyncRateLimitedResourceGuard> {
+  private final Object lock = new Object();
+  private final Ticker ticker;
+  private final LongFunction<Executor> delayedExecutor;
+  private final double intervalNanos;
+  private final double maxStoredPermits;
+  private final Set<Promise<Void>> pending = new LinkedHashSet<>();
+  private double storedPermits = 0;
+  private long nextFreeNanos;
+  private boolean stopped = false;
+
+  public AsyncRateLimitedResourceGuard(double requestsPerSec) {
+    this(requestsPerSec, Ticker.systemTicker());
+  }
+
+  public AsyncRateLimitedResourceGuard(double requestsPerSec, Ticker ticker) {
+    this(requestsPerSec, ticker, delayNanos -> CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS));
+  }
+
+  /**
+   * @param delayedExecutor supplies an {@link Executor} which runs tasks after the given number of nanoseconds
+   *                        (as measured by the {@code ticker}), for completing reservations when they come due
+   */
+  AsyncRateLimitedResourceGuard(double requestsPerSec, Ticker ticker, LongFunction<Executor> delayedExecutor) {
+    checkArgument(requestsPerSec > 0 && !Double.isNaN(requestsPerSec), "requestsPerSec must be positive: %s", requestsPerSec);
+    this.ticker = ticker;
+    this.delayedExecutor = delayedExecutor;
+    this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / requestsPerSec;
+    this.maxStoredPermits = requestsPerSec;
+    this.nextFreeNanos = ticker.read();
+  }
+
+  @Override
+  protected void startUp() throws Exception {
+  }
+
+  @Override
+  protected void shutDown() throws Exception {
+    List<Promise<Void>> abandoned;
+    synchronized (lock) {
+      stopped = true;
+      abandoned = new ArrayList<>(pending);
+      pending.clear();
+    }
+    ShutdownException exception = new ShutdownException("ResourceGuard was stopped");
+    for (Promise<Void> promise : abandoned) {
+      promise.completeExceptionally(exception);
+    }
+  }
+
+  @Override
+  public boolean tryAcquire(int permits) {
+    throwIfShutDown();
+    checkArgument(permits > 0, "Requested permits (%s) must be positive", permits);
+    synchronized (lock) {
+      long now = ticker.read();
+      if (nextFreeNanos > now) return false;
+      reserve(permits, now);
+      return true;
+    }
+  }
+
+  @Override
+  public Promise<Void> acquireAsync(int permits) {
+    return acquireAsync(permits, Deadline.NONE);
+  }
+
+  /**
+   * Overridden to fail fast: if the permits can't become available before the deadline, no reservation is made.
+   */
+  @Override
+  public Promise<Boolean> tryAcquireAsync(int permits, Deadline deadline) {
+    Promise<Void> acquisition = acquireAsync(permits, deadline);
+    if (acquisition == null) return Promise.completed(false);
+    // the reservation is due before the deadline, and release is a no-op, so there's nothing to unwind
+    Promise<Boolean> result = acquisition.thenApply(__ -> true);
+    result.onCancel(() -> acquisition.cancel(false));
+    return result;
+  }
+
+  @Override
+  public void release(int permits) {
+  }
+
+  /**
+   * @return a promise for the reserved permits, or null if they could not be reserved before the deadline
+   */
+  private Promise<Void> acquireAsync(int permits, Deadline deadline) {
+    checkArgument(permits > 0, "Requested permits (%s) must be positive", permits);
+    long waitNanos;
+    Promise<Void> promise;
+    synchronized (lock) {
+      if (stopped || !isRunning()) return Promise.failedPromise(new ShutdownException("ResourceGuard is not running"));
+      long now = ticker.read();
+      waitNanos = Math.max(0, nextFreeNanos - now);
+      if (waitNanos > deadline.remaining().toNanos()) return null;
+      reserve(permits, now);
+      if (waitNanos == 0) return Promise.nullPromise();
+      promise = new Promise<>();
+      pending.add(promise);
+    }
+    promise.onCancel(() -> {
+      synchronized (lock) {
+        pending.remove(promise);
+      }
+    });
+    delayedExecutor.apply(waitNanos).execute(() -> {
+      boolean due;
+      synchronized (lock) {
+        due = pending.remove(promise);
+      }
+      if (due) promise.complete(null);
+    });
+    return promise;
+  }
+
+  private void reserve(int permits, long now) {
+    if (now > nextFreeNanos) {
+      storedPermits = Math.min(maxStoredPermits, storedPermits + (now - nextFreeNanos) / intervalNanos);
+      nextFreeNanos = now;
+    }
+    double fromStore = Math.min(permits, storedPermits);
+    storedPermits -= fromStore;
+    nextFreeNanos += (long) ((permits - fromStore) * intervalNanos);
+  }
+}
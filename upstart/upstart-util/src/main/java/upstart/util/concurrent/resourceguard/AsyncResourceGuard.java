@@ -0,0 +1,113 @@
+package upstart.util.concurrent.resourceguard;
+
+import com.google.common.base.Throwables;
+import upstart.util.concurrent.CompletableFutures;
+import upstart.util.concurrent.Deadline;
+import upstart.util.concurrent.Promise;
+import upstart.util.concurrent.ShutdownException;
+import upstart.util.functions.MoreFunctions;
+
+import java.time.Instant;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A {@link BoundedResourceGuard} whose permits may be acquired without blocking: {@link #acquireAsync} returns a
+ * {@link Promise} which completes when the permits have been granted, so that flow-control in asynchronous pipelines
+ * doesn't require parking threads.
+ * <p/>
+ * Cancelling a pending acquisition withdraws it; if the permits were granted concurrently (so that {@link Promise#cancel}
+ * returns false), the caller holds them, and must {@link #release} them as usual. Pending acquisitions fail with a
+ * {@link ShutdownException} when the guard is stopped.
+ * <p/>
+ * The blocking methods of {@link BoundedResourceGuard} are implemented by awaiting the asynchronous acquisition, so
+ * blocking and asynchronous callers share the same queue.
+ */
+public interface AsyncResourceGuard<S extends AsyncResourceGuard<S>> extends BoundedResourceGuard<S> {
+  /**
+   * @return a {@link Promise} which completes when the requested permits have been granted, or fails with a
+   * {@link ShutdownException} if the guard is stopped first
+   */
+  Promise<Void> acquireAsync(int permits);
+
+  default Promise<Void> acquireAsync() {
+    return acquireAsync(1);
+  }
+
+  /**
+   * @return a {@link Promise} which completes with true when the requested permits have been granted, or with false if
+   * the deadline expires first
+   */
+  default Promise<Boolean> tryAcquireAsync(int permits, Deadline deadline) {
+    Promise<Void> acquisition = acquireAsync(permits);
+    Promise<Boolean> result = new Promise<>();
+    acquisition.whenComplete((__, e) -> {
+      if (e == null) {
+        if (!result.complete(true)) release(permits); // the result was cancelled concurrently
+      } else {
+        Throwable cause = CompletableFutures.unwrapExecutionException(e);
+        if (cause instanceof CancellationException && !(cause instanceof ShutdownException)) {
+          result.complete(false);
+        } else {
+          result.completeExceptionally(cause);
+        }
+      }
+    });
+    result.onCancel(() -> acquisition.cancel(false));
+    if (!acquisition.isDone() && deadline.deadline().isBefore(Instant.MAX)) {
+      CompletableFuture.delayedExecutor(Math.max(0, deadline.remaining().toNanos()), TimeUnit.NANOSECONDS)
+              .execute(() -> acquisition.cancel(false));
+    }
+    return result;
+  }
+
+  default Promise<Boolean> tryAcquireAsync(Deadline deadline) {
+    return tryAcquireAsync(1, deadline);
+  }
+
+  @Override
+  default boolean tryAcquire(int permits, Deadline deadline) throws InterruptedException, ShutdownException {
+    Promise<Boolean> acquisition = tryAcquireAsync(permits, deadline);
+    try {
+      return acquisition.get();
+    } catch (InterruptedException e) {
+      if (!acquisition.cancel(false) && !acquisition.isCompletedExceptionally() && acquisition.join()) {
+        release(permits);
+      }
+      throw e;
+    } catch (ExecutionException e) {
+      Throwable cause = CompletableFutures.unwrapExecutionException(e);
+      Throwables.throwIfUnchecked(cause);
+      throw new RuntimeException(cause);
+    }
+  }
+
+  @Override
+  default void acquire(int permits) throws InterruptedException, ShutdownException {
+    var acquired = tryAcquire(permits, Deadline.NONE);
+    assert acquired : "failed to acquire with unbounded deadline";
+  }
+
+  /**
+   * Runs the given job when a permit has been acquired (without blocking), and releases the permit when the job's
+   * result completes.
+   */
+  default <O> Promise<O> completeWithResourceAsync(Supplier<? extends CompletionStage<O>> job) {
+    return acquireAsync(1).thenCompose(__ -> Promise.<O>callSafely(job::get).uponCompletion(this::release));
+  }
+
+  default <I, O> Function<I, Promise<O>> asyncFunctionWithResourceAsync(
+          Function<? super I, ? extends CompletionStage<O>> job
+  ) {
+    return input -> completeWithResourceAsync(MoreFunctions.bind(input, job));
+  }
+
+  default <B extends AsyncResourceGuard<B>> AsyncCompositeResourceGuard<S, B> andThenAsync(B next) {
+    return new AsyncCompositeResourceGuard<>(self(), next);
+  }
+}
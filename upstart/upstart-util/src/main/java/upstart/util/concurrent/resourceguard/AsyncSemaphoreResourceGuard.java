@@ -0,0 +1,142 @@
+package upstart.util.concurrent.resourceguard;
+
+import upstart.util.concurrent.Promise;
+import upstart.util.concurrent.ShutdownException;
+import upstart.util.concurrent.services.LightweightService;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * An {@link AsyncResourceGuard} which limits the number of concurrently-held permits, like {@link SemaphoreResourceGuard},
+ * but parks pending acquisitions in a FIFO queue of {@link Promise Promises} rather than blocking threads.
+ * <p/>
+ * Acquisitions are granted strictly in order: a large request at the head of the queue holds back smaller requests
+ * behind it until enough permits have been released to satisfy it.
+ */
+public class AsyncSemaphoreResourceGuard extends LightweightService implements AsyncResourceGuard<AsyncSemaphoreResourceGuard> {
+  private final Object lock = new Object();
+  private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+  private int availablePermits;
+  private boolean stopped = false;
+
+  public AsyncSemaphoreResourceGuard(int availablePermits) {
+    this.availablePermits = availablePermits;
+  }
+
+  public int availablePermits() {
+    synchronized (lock) {
+      return availablePermits;
+    }
+  }
+
+  public int queueLength() {
+    synchronized (lock) {
+      return waiters.size();
+    }
+  }
+
+  @Override
+  protected void startUp() throws Exception {
+  }
+
+  @Override
+  protected void shutDown() throws Exception {
+    List<Waiter> abandoned;
+    synchronized (lock) {
+      stopped = true;
+      abandoned = new ArrayList<>(waiters);
+      waiters.clear();
+    }
+    ShutdownException exception = new ShutdownException("ResourceGuard was stopped");
+    for (Waiter waiter : abandoned) {
+      waiter.promise.completeExceptionally(exception);
+    }
+  }
+
+  @Override
+  public boolean tryAcquire(int permits) {
+    checkPermits(permits);
+    synchronized (lock) {
+      boolean acquired = waiters.isEmpty() && availablePermits >= permits;
+      if (acquired) availablePermits -= permits;
+      return acquired;
+    }
+  }
+
+  @Override
+  public Promise<Void> acquireAsync(int permits) {
+    checkArgument(permits > 0, "Requested permits (%s) must be positive", permits);
+    Waiter waiter;
+    synchronized (lock) {
+      if (stopped || !isRunning()) return Promise.failedPromise(new ShutdownException("ResourceGuard is not running"));
+      if (waiters.isEmpty() && availablePermits >= permits) {
+        availablePermits -= permits;
+        return Promise.nullPromise();
+      }
+      waiter = new Waiter(permits);
+      waiters.addLast(waiter);
+    }
+    waiter.promise.onCancel(() -> withdraw(waiter));
+    return waiter.promise;
+  }
+
+  @Override
+  public void release(int permits) {
+    List<Waiter> granted;
+    synchronized (lock) {
+      availablePermits += permits;
+      granted = collectGrantable();
+    }
+    complete(granted);
+  }
+
+  private void withdraw(Waiter waiter) {
+    List<Waiter> granted;
+    synchronized (lock) {
+      // removing the head of the queue may unblock smaller requests behind it
+      if (!waiters.remove(waiter)) return;
+      granted = collectGrantable();
+    }
+    complete(granted);
+  }
+
+  private List<Waiter> collectGrantable() {
+    List<Waiter> granted = List.of();
+    Waiter head;
+    while ((head = waiters.peekFirst()) != null && head.permits <= availablePermits) {
+      waiters.removeFirst();
+      availablePermits -= head.permits;
+      if (granted.isEmpty()) granted = new ArrayList<>();
+      granted.add(head);
+    }
+    return granted;
+  }
+
+  /**
+   * Completes the granted waiters outside the lock, so that callbacks attached to their promises can't deadlock
+   * with other callers. A waiter which was cancelled after being dequeued returns its permits.
+   */
+  private void complete(List<Waiter> granted) {
+    for (Waiter waiter : granted) {
+      if (!waiter.promise.complete(null)) release(waiter.permits);
+    }
+  }
+
+  private void checkPermits(int permits) {
+    throwIfShutDown();
+    checkArgument(permits > 0, "Requested permits (%s) must be positive", permits);
+  }
+
+  private static class Waiter {
+    final int permits;
+    final Promise<Void> promise = new Promise<>();
+
+    Waiter(int permits) {
+      this.permits = permits;
+    }
+  }
+}
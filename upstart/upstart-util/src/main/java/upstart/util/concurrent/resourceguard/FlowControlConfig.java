@@ -14,6 +14,15 @@ public interface FlowControlConfig extends RateLimitedResourceGuard.RateLimitCon
     return buildFlowControlGuard().started();
   }
 
+  /**
+   * Like {@link #startResourceGuard}, but returns a guard whose permits can be acquired without blocking.
+   */
+  default AsyncCompositeResourceGuard<AsyncSemaphoreResourceGuard, AsyncRateLimitedResourceGuard> startAsyncResourceGuard() {
+    return new AsyncSemaphoreResourceGuard(maxInFlightRequests())
+            .andThenAsync(buildAsyncRateLimitGuard())
+            .started();
+  }
+
   private CompositeResourceGuard<SemaphoreResourceGuard, RateLimitedResourceGuard> buildFlowControlGuard() {
     return new SemaphoreResourceGuard(maxInFlightRequests())
             .andThen(buildRateLimitGuard());
@@ -10,6 +10,8 @@ import upstart.util.concurrent.services.LightweightService;
 import java.time.Duration;
 import java.util.Optional;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 public class RateLimitedResourceGuard extends LightweightService implements BoundedResourceGuard<RateLimitedResourceGuard> {
   public static final Duration DEFAULT_SHUTDOWN_POLL_PERIOD = Duration.ofMillis(300);
 
@@ -80,5 +82,10 @@ public class RateLimitedResourceGuard extends LightweightService implements Boun
       return warmupPeriod().map(warmup -> new RateLimitedResourceGuard(RateLimiter.create(maxRequestsPerSec(), warmup), shutdownPollPeriod()))
               .orElseGet(() -> new RateLimitedResourceGuard(maxRequestsPerSec(), shutdownPollPeriod()));
     }
+
+    default AsyncRateLimitedResourceGuard buildAsyncRateLimitGuard() {
+      checkArgument(warmupPeriod().isEmpty(), "warmupPeriod is not supported by AsyncRateLimitedResourceGuard");
+      return new AsyncRateLimitedResourceGuard(maxRequestsPerSec());
+    }
   }
 }
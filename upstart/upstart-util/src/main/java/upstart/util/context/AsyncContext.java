@@ -1,5 +1,6 @@
 package upstart.util.context;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.MoreExecutors;
 import upstart.util.collect.PairStream;
@@ -21,6 +22,7 @@ public class AsyncContext implements TransientContext {
   private static final ContextedExecutor DIRECT_CONTEXTED_EXECUTOR = new ContextedExecutor(MoreExecutors.directExecutor());
   private static final List<AsyncContextManager<Object>> MANAGERS = Lists.newCopyOnWriteArrayList(
           Reflect.blindCast(ServiceLoader.load(AsyncContextManager.class)));
+  private static volatile boolean active = hasUnconditionalManagers();
   private final PersistentMap<AsyncContextManager<Object>, Object> managedContexts;
 
 
@@ -31,12 +33,36 @@ public class AsyncContext implements TransientContext {
   @SuppressWarnings("unchecked")
   public static void registerContextManager(AsyncContextManager<?> manager) {
     MANAGERS.add((AsyncContextManager<Object>) manager);
+    active = true;
   }
 
   public static boolean unregisterContextManager(AsyncContextManager<?> manager) {
     return MANAGERS.remove(manager);
   }
 
+  /**
+   * @return false if no {@link AsyncContextManager} has held any state since startup, in which case every
+   * {@link #snapshot} is {@link #EMPTY}, and capturing and applying contexts can be skipped entirely. Once true, this
+   * remains true.
+   */
+  public static boolean isActive() {
+    return active;
+  }
+
+  static void markActive() {
+    if (!active) active = true;
+  }
+
+  @VisibleForTesting
+  static void resetActive() {
+    active = hasUnconditionalManagers();
+  }
+
+  // AsyncLocalContextManager reports when it first holds state; other managers are assumed to be active
+  private static boolean hasUnconditionalManagers() {
+    return MANAGERS.stream().anyMatch(manager -> !(manager instanceof AsyncLocalContextManager));
+  }
+
   public static void clear() {
     MANAGERS.forEach(AsyncContextManager::remove);
   }
@@ -46,6 +72,7 @@ public class AsyncContext implements TransientContext {
   }
 
   public static AsyncContext snapshot() {
+    if (!active) return EMPTY;
     PersistentMap<AsyncContextManager<Object>, Object> managedContexts = PersistentMap.empty();
     for (AsyncContextManager<Object> manager : MANAGERS) {
       final var map = managedContexts;
@@ -105,6 +132,7 @@ public class AsyncContext implements TransientContext {
 
   @Override
   public State open() {
+    if (!active) return State.NULL;
     var snapshot = snapshot();
     applyToCurrent();
     return snapshot::replaceCurrent;
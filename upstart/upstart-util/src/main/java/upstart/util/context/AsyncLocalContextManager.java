@@ -53,7 +53,10 @@ public class AsyncLocalContextManager implements AsyncContextManager<PersistentM
     T value = get(handle, current);
     if (value == null) {
       value = handle.initialValue();
-      if (value != null) THREAD_CONTEXT.set(current.plus(handle, value));
+      if (value != null) {
+        AsyncContext.markActive();
+        THREAD_CONTEXT.set(current.plus(handle, value));
+      }
     }
     return value;
   }
@@ -84,6 +87,9 @@ public class AsyncLocalContextManager implements AsyncContextManager<PersistentM
   private static void updateCurrent(UnaryOperator<PersistentMap<AsyncLocal<?>, Object>> update) {
     PersistentMap<AsyncLocal<?>, Object> current = THREAD_CONTEXT.get();
     PersistentMap<AsyncLocal<?>, Object> updated = update.apply(current);
-    if (updated != current) THREAD_CONTEXT.set(updated);
+    if (updated != current) {
+      if (!updated.isEmpty()) AsyncContext.markActive();
+      THREAD_CONTEXT.set(updated);
+    }
   }
 }
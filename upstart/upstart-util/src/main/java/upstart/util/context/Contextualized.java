@@ -15,6 +15,8 @@ import java.util.function.Function;
 import java.util.function.Supplier;
 
 public class Contextualized<T> implements TransientContext {
+  // shared result of void continuations (thenRun, thenAccept, ...) when there is no context to capture
+  private static final Contextualized<Void> EMPTY_NULL = new Contextualized<>(Try.nullSuccess(), AsyncContext.EMPTY);
   private final Try<T> value;
   private final AsyncContext snapshot;
 
@@ -28,8 +30,12 @@ public class Contextualized<T> implements TransientContext {
     return of(value, AsyncContext.snapshot());
   }
 
+  @SuppressWarnings("unchecked")
   public static <T> Contextualized<T> ofTry(Try<? extends T> value) {
-    return new Contextualized<>(value, AsyncContext.snapshot());
+    AsyncContext snapshot = AsyncContext.snapshot();
+    return snapshot.isEmpty() && value == Try.nullSuccess()
+            ? (Contextualized<T>) EMPTY_NULL
+            : new Contextualized<>(value, snapshot);
   }
 
   public static <T> Contextualized<T> failure(Throwable failure) {
@@ -0,0 +1,77 @@
+package upstart.util.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AsyncSemaphoreTest {
+  private final List<String> started = new ArrayList<>();
+
+  @Test
+  void weightedTasksWaitInPriorityOrder() {
+    AsyncSemaphore semaphore = new AsyncSemaphore(3);
+    Promise<Void> running = new Promise<>();
+    semaphore.submit(3, () -> running);
+
+    semaphore.submit(1, AsyncSemaphore.Priority.LOW, task("low"));
+    semaphore.submit(2, AsyncSemaphore.Priority.NORMAL, task("normal"));
+    semaphore.submit(3, AsyncSemaphore.Priority.HIGH, task("high"));
+    assertThat(semaphore.queueLength()).isEqualTo(3);
+    assertThat(started).isEmpty();
+
+    running.complete(null);
+    assertThat(started).containsExactly("high", "normal", "low").inOrder();
+    assertThat(semaphore.queueLength()).isEqualTo(0);
+    assertThat(semaphore.availablePermits()).isEqualTo(3);
+  }
+
+  @Test
+  void cancelledWaitersAreRemoved() {
+    AsyncSemaphore semaphore = new AsyncSemaphore(2);
+    Promise<Void> running = new Promise<>();
+    semaphore.submit(() -> running);
+
+    Promise<Void> heavy = semaphore.submit(2, task("heavy"));
+    Promise<Void> light = semaphore.submit(1, task("light"));
+    assertThat(started).isEmpty();
+
+    // withdrawing the heavy task unblocks the light one behind it
+    assertThat(heavy.cancel(false)).isTrue();
+    assertThat(light.isDone()).isTrue();
+    assertThat(started).containsExactly("light");
+    assertThat(semaphore.queueLength()).isEqualTo(0);
+    assertThat(semaphore.activePermits()).isEqualTo(1);
+  }
+
+  @Test
+  void rejectsWhenQueueIsFull() {
+    List<String> rejected = new ArrayList<>();
+    AsyncSemaphore semaphore = new AsyncSemaphore(1, 1, new AsyncSemaphore.Listener() {
+      @Override
+      public void onRejected(int permits, AsyncSemaphore.Priority priority) {
+        rejected.add(priority.name());
+      }
+    });
+    semaphore.submit(() -> new Promise<Void>());
+    semaphore.submit(task("queued"));
+    Promise<Void> overflow = semaphore.submit(1, AsyncSemaphore.Priority.HIGH, task("overflow"));
+
+    CompletionException e = assertThrows(CompletionException.class, overflow::join);
+    assertThat(e).hasCauseThat().isInstanceOf(RejectedExecutionException.class);
+    assertThat(rejected).containsExactly("HIGH");
+  }
+
+  private Callable<Promise<Void>> task(String name) {
+    return () -> {
+      started.add(name);
+      return Promise.nullPromise();
+    };
+  }
+}
@@ -0,0 +1,89 @@
+package upstart.util.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+class BoundedRingBufferTest {
+  @Test
+  void rejectsOffersWhenFull() {
+    BoundedRingBuffer<Integer> buffer = new BoundedRingBuffer<>(3);
+    assertThat(buffer.capacity()).isEqualTo(4);
+    for (int i = 0; i < 4; i++) {
+      assertThat(buffer.offer(i)).isTrue();
+    }
+    assertThat(buffer.offer(4)).isFalse();
+    assertThat(buffer.poll()).isEqualTo(0);
+    assertThat(buffer.offer(4)).isTrue();
+
+    List<Integer> drained = new ArrayList<>();
+    assertThat(buffer.drainTo(drained::add, 10)).isEqualTo(4);
+    assertThat(drained).containsExactly(1, 2, 3, 4).inOrder();
+    assertThat(buffer.poll()).isNull();
+    assertThat(buffer.offeredCount()).isEqualTo(5);
+    assertThat(buffer.polledCount()).isEqualTo(5);
+  }
+
+  @Test
+  void capacityIsAtLeastTwo() {
+    BoundedRingBuffer<Integer> buffer = new BoundedRingBuffer<>(1);
+    assertThat(buffer.capacity()).isEqualTo(2);
+    for (int lap = 0; lap < 3; lap++) {
+      assertThat(buffer.offer(lap)).isTrue();
+      assertThat(buffer.poll()).isEqualTo(lap);
+      assertThat(buffer.poll()).isNull();
+    }
+    assertThat(buffer.offer(0)).isTrue();
+    assertThat(buffer.offer(1)).isTrue();
+    assertThat(buffer.offer(2)).isFalse();
+    assertThat(buffer.poll()).isEqualTo(0);
+    assertThat(buffer.poll()).isEqualTo(1);
+    assertThat(buffer.poll()).isNull();
+  }
+
+  @Test
+  void deliversEveryElementToConcurrentConsumer() throws Exception {
+    BoundedRingBuffer<Integer> buffer = new BoundedRingBuffer<>(64);
+    int producerCount = 4;
+    int perProducer = 10_000;
+    ExecutorService executor = Executors.newFixedThreadPool(producerCount + 1);
+    try {
+      for (int p = 0; p < producerCount; p++) {
+        int base = p * perProducer;
+        executor.execute(() -> {
+          for (int i = 0; i < perProducer; i++) {
+            while (!buffer.offer(base + i)) {
+              Thread.onSpinWait();
+            }
+          }
+        });
+      }
+      Future<boolean[]> consumed = executor.submit(() -> {
+        boolean[] seen = new boolean[producerCount * perProducer];
+        int remaining = seen.length;
+        while (remaining > 0) {
+          Integer value = buffer.poll();
+          if (value == null) {
+            Thread.onSpinWait();
+          } else {
+            assertThat(seen[value]).isFalse();
+            seen[value] = true;
+            remaining--;
+          }
+        }
+        return seen;
+      });
+      assertThat(consumed.get(30, TimeUnit.SECONDS)).asList().doesNotContain(false);
+      assertThat(buffer.isEmpty()).isTrue();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package upstart.util.concurrent.resourceguard;
+
+import com.google.common.base.Ticker;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import upstart.util.concurrent.Deadline;
+import upstart.util.concurrent.Promise;
+import upstart.util.concurrent.ShutdownException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.InstantSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AsyncRateLimitedResourceGuardTest {
+  private static final Duration INTERVAL = Duration.ofMillis(100);
+
+  private final FakeTimer timer = new FakeTimer();
+  private final InstantSource clock = () -> Instant.EPOCH.plusNanos(timer.read());
+  private final AsyncRateLimitedResourceGuard guard = new AsyncRateLimitedResourceGuard(10, timer, timer::after).started();
+
+  @AfterEach
+  void stop() {
+    guard.stop().join();
+  }
+
+  @Test
+  void idlePermitsAccumulateUpToOneSecondsWorth() {
+    assertThat(guard.tryAcquire(1)).isTrue();
+    assertThat(guard.tryAcquire(1)).isFalse();
+
+    timer.advance(Duration.ofSeconds(5));
+    int acquired = 0;
+    while (guard.tryAcquire(1)) acquired++;
+    // 10 stored permits, plus the one that is currently due
+    assertThat(acquired).isEqualTo(11);
+
+    timer.advance(INTERVAL);
+    assertThat(guard.tryAcquire(1)).isTrue();
+    assertThat(guard.tryAcquire(1)).isFalse();
+  }
+
+  @Test
+  void spacesAcquisitionsAtTheSteadyRate() {
+    Promise<Void> first = guard.acquireAsync(1);
+    Promise<Void> second = guard.acquireAsync(1);
+    Promise<Void> third = guard.acquireAsync(2);
+    Promise<Void> fourth = guard.acquireAsync(1);
+    assertThat(first.isDone()).isTrue();
+    assertThat(timer.scheduledDelays).containsExactly(
+            INTERVAL.toNanos(), 2 * INTERVAL.toNanos(), 4 * INTERVAL.toNanos()
+    ).inOrder();
+
+    timer.advance(INTERVAL.minusNanos(1));
+    assertThat(second.isDone()).isFalse();
+    timer.advance(Duration.ofNanos(1));
+    assertThat(second.isDone()).isTrue();
+    assertThat(third.isDone()).isFalse();
+
+    timer.advance(INTERVAL);
+    assertThat(third.isDone()).isTrue();
+    // the weighted acquisition reserved two intervals
+    timer.advance(INTERVAL);
+    assertThat(fourth.isDone()).isFalse();
+    timer.advance(INTERVAL);
+    assertThat(fourth.isDone()).isTrue();
+  }
+
+  @Test
+  void tryAcquireAsyncRejectsWithoutReservingWhenDeadlineIsTooSoon() {
+    guard.acquireAsync(1);
+    guard.acquireAsync(1);
+
+    Promise<Boolean> tooSoon = guard.tryAcquireAsync(1, Deadline.within(INTERVAL.multipliedBy(2).minusNanos(1), clock));
+    assertThat(tooSoon.join()).isFalse();
+
+    // the rejected attempt didn't consume a reservation
+    Promise<Boolean> inTime = guard.tryAcquireAsync(1, Deadline.within(INTERVAL.multipliedBy(2), clock));
+    assertThat(inTime.isDone()).isFalse();
+    timer.advance(INTERVAL.multipliedBy(2));
+    assertThat(inTime.join()).isTrue();
+  }
+
+  @Test
+  void cancelledAcquisitionsAreNotCompleted() {
+    guard.acquireAsync(1);
+    Promise<Void> cancelled = guard.acquireAsync(1);
+    assertThat(cancelled.cancel(false)).isTrue();
+
+    timer.advance(INTERVAL);
+    assertThat(cancelled.isCancelled()).isTrue();
+  }
+
+  @Test
+  void shutdownFailsWaiters() {
+    guard.acquireAsync(1);
+    Promise<Void> waiting = guard.acquireAsync(1);
+
+    guard.stop().join();
+    CompletionException e = assertThrows(CompletionException.class, waiting::join);
+    assertThat(e).hasCauseThat().isInstanceOf(ShutdownException.class);
+
+    // the timer firing later has no effect
+    timer.advance(INTERVAL);
+    assertThat(guard.acquireAsync(1).isCompletedExceptionally()).isTrue();
+  }
+
+  /**
+   * A {@link Ticker} which also runs tasks scheduled via {@link #after} when it is advanced past their due-time.
+   */
+  private static class FakeTimer extends Ticker {
+    final List<Long> scheduledDelays = new ArrayList<>();
+    private final List<ScheduledTask> tasks = new ArrayList<>();
+    private long now = 0;
+
+    @Override
+    public long read() {
+      return now;
+    }
+
+    Executor after(long delayNanos) {
+      return task -> {
+        scheduledDelays.add(delayNanos);
+        tasks.add(new ScheduledTask(now + delayNanos, task));
+      };
+    }
+
+    void advance(Duration duration) {
+      now += duration.toNanos();
+      List<ScheduledTask> due = tasks.stream().filter(task -> task.dueNanos() <= now).toList();
+      tasks.removeAll(due);
+      due.forEach(task -> task.task().run());
+    }
+  }
+
+  private record ScheduledTask(long dueNanos, Runnable task) {
+  }
+}
@@ -0,0 +1,92 @@
+package upstart.util.concurrent.resourceguard;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import upstart.util.concurrent.Deadline;
+import upstart.util.concurrent.Promise;
+import upstart.util.concurrent.ShutdownException;
+
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AsyncSemaphoreResourceGuardTest {
+  private final AsyncSemaphoreResourceGuard guard = new AsyncSemaphoreResourceGuard(3).started();
+
+  @AfterEach
+  void stop() {
+    guard.stop().join();
+  }
+
+  @Test
+  void grantsWeightedPermitsInOrder() {
+    Promise<Void> first = guard.acquireAsync(2);
+    Promise<Void> large = guard.acquireAsync(2);
+    Promise<Void> small = guard.acquireAsync(1);
+    assertThat(first.isDone()).isTrue();
+    assertThat(large.isDone()).isFalse();
+    // the small request waits behind the large one, although a permit is available
+    assertThat(small.isDone()).isFalse();
+    assertThat(guard.tryAcquire(1)).isFalse();
+
+    guard.release(2);
+    assertThat(large.isDone()).isTrue();
+    assertThat(small.isDone()).isTrue();
+    assertThat(guard.availablePermits()).isEqualTo(0);
+  }
+
+  @Test
+  void cancellationWithdrawsWaiter() {
+    guard.acquireAsync(3);
+    Promise<Void> large = guard.acquireAsync(2);
+    Promise<Void> small = guard.acquireAsync(1);
+
+    guard.release(1);
+    assertThat(small.isDone()).isFalse();
+    assertThat(large.cancel(false)).isTrue();
+    assertThat(small.isDone()).isTrue();
+    assertThat(guard.queueLength()).isEqualTo(0);
+  }
+
+  @Test
+  void tryAcquireAsyncTimesOut() {
+    guard.acquireAsync(3);
+    Promise<Boolean> attempt = guard.tryAcquireAsync(1, Deadline.within(Duration.ofMillis(20)));
+    assertThat(attempt.join()).isFalse();
+    assertThat(guard.queueLength()).isEqualTo(0);
+
+    guard.release(3);
+    assertThat(guard.availablePermits()).isEqualTo(3);
+  }
+
+  @Test
+  void shutdownFailsWaiters() {
+    guard.acquireAsync(3);
+    Promise<Void> waiting = guard.acquireAsync(1);
+
+    guard.stop().join();
+    CompletionException e = assertThrows(CompletionException.class, waiting::join);
+    assertThat(e).hasCauseThat().isInstanceOf(ShutdownException.class);
+    assertThat(guard.acquireAsync(1).isCompletedExceptionally()).isTrue();
+  }
+
+  @Test
+  void compositeReleasesFirstWhenCancelled() {
+    AsyncSemaphoreResourceGuard second = new AsyncSemaphoreResourceGuard(1);
+    AsyncCompositeResourceGuard<AsyncSemaphoreResourceGuard, AsyncSemaphoreResourceGuard> composite =
+            new AsyncSemaphoreResourceGuard(2).andThenAsync(second).started();
+    try {
+      composite.acquireAsync(1).join();
+      Promise<Void> blocked = composite.acquireAsync(1);
+      assertThat(composite.firstGuard().availablePermits()).isEqualTo(0);
+
+      blocked.cancel(false);
+      assertThat(composite.firstGuard().availablePermits()).isEqualTo(1);
+      assertThat(second.queueLength()).isEqualTo(0);
+    } finally {
+      composite.stop().join();
+    }
+  }
+}
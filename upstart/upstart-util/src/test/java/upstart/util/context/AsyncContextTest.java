@@ -0,0 +1,78 @@
+package upstart.util.context;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import upstart.util.concurrent.Promise;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.google.common.truth.Truth.assertThat;
+
+class AsyncContextTest {
+  private static final AsyncLocal<String> LOCAL = AsyncLocal.newAsyncLocal("test");
+  private static ExecutorService executor;
+
+  @BeforeAll
+  static void startExecutor() {
+    executor = Executors.newSingleThreadExecutor();
+  }
+
+  @AfterAll
+  static void stopExecutor() {
+    executor.shutdownNow();
+  }
+
+  @BeforeEach
+  void startInactive() {
+    AsyncContext.clear();
+    AsyncContext.resetActive();
+  }
+
+  @AfterEach
+  void clear() {
+    AsyncContext.clear();
+  }
+
+  @Test
+  void firstAsyncLocalActivatesPropagation() {
+    assertThat(AsyncContext.isActive()).isFalse();
+    assertThat(AsyncContext.snapshot().isEmpty()).isTrue();
+
+    // created while inactive, but completed after activation
+    Promise<String> upstream = new Promise<>();
+    Promise<String> downstream = upstream.thenApplyAsync(value -> value + LOCAL.get(), executor);
+
+    LOCAL.set("-local");
+    assertThat(AsyncContext.isActive()).isTrue();
+    assertThat(AsyncContext.snapshot().isEmpty()).isFalse();
+
+    upstream.complete("value");
+    assertThat(downstream.join()).isEqualTo("value-local");
+    assertThat(LOCAL.getFromCompletion(downstream).join().orElse(null)).isEqualTo("-local");
+
+    assertThat(Promise.callAsync(LOCAL::get, executor).join()).isEqualTo("-local");
+    // the executor's own thread holds no context
+    assertThat(CompletableFuture.supplyAsync(LOCAL::get, executor).join()).isNull();
+  }
+
+  @Test
+  void contextualizedCallbacksSeeValuesSetAfterActivation() {
+    assertThat(AsyncContext.isActive()).isFalse();
+    Contextualized<String> inactive = Contextualized.value("value");
+    assertThat(inactive.contextSnapshot().isEmpty()).isTrue();
+
+    LOCAL.set("-local");
+    Contextualized<String> captured = Contextualized.value("value");
+    AsyncContext.clear();
+
+    assertThat(CompletableFuture.supplyAsync(() -> captured.map(value -> value + LOCAL.get()).value().get(), executor).join())
+            .isEqualTo("value-local");
+    assertThat(captured.map(value -> value + LOCAL.get()).value().get()).isEqualTo("value-local");
+    assertThat(LOCAL.get()).isNull();
+  }
+}
@@ -0,0 +1,55 @@
+package upstart;
+
+import com.google.common.base.Ticker;
+import upstart.config.UpstartModule;
+import upstart.config.annotations.ConfigPath;
+import upstart.util.concurrent.NamedThreadFactory;
+import upstart.util.concurrent.TimingWheelScheduledExecutorService;
+
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Backs the {@link ExecutorServiceScheduler} with a {@link TimingWheelScheduledExecutorService}, for applications which
+ * schedule (and cancel) very large numbers of short timeouts.
+ * <p/>
+ * The wheel measures time with the bound (monotonic) {@link Ticker}, rather than the wall-clock; this remains
+ * compatible with {@code FakeTime}, which replaces the scheduler's executor altogether.
+ */
+public class TimingWheelSchedulerModule extends UpstartModule {
+  @Override
+  protected void configure() {
+    install(new ExecutorServiceScheduler.Module());
+    bindConfig(TimingWheelConfig.class);
+    ExecutorServiceScheduler.Module.bindExecutorService(binder()).toProvider(TimingWheelExecutorProvider.class);
+  }
+
+  static class TimingWheelExecutorProvider extends ExecutorServiceScheduler.Module.ScheduledExecutorServiceProvider {
+    private final TimingWheelConfig config;
+    private final Ticker ticker;
+
+    @Inject
+    TimingWheelExecutorProvider(TimingWheelConfig config, Ticker ticker) {
+      this.config = config;
+      this.ticker = ticker;
+    }
+
+    @Override
+    public ScheduledExecutorService get() {
+      return new TimingWheelScheduledExecutorService(
+              Executors.newScheduledThreadPool(config.threadCount(), new NamedThreadFactory("sched-wheel")),
+              ticker,
+              config.tickDuration()
+      );
+    }
+  }
+
+  @ConfigPath("upstart.timingWheelScheduler")
+  public interface TimingWheelConfig {
+    Duration tickDuration();
+
+    int threadCount();
+  }
+}